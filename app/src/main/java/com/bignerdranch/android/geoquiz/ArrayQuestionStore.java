@@ -0,0 +1,39 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Question store over a plain array of {@link Question} objects.
+ * Fine for small hard-coded banks, for the large ones see {@link PackedQuestionStore}.
+ */
+public class ArrayQuestionStore implements QuestionStore {
+
+    private final Question[] mQuestions;
+
+    public ArrayQuestionStore(Question[] questions) {
+        mQuestions = questions;
+    }
+
+    @Override
+    public int size() {
+        return mQuestions.length;
+    }
+
+    @Override
+    public int getTextResId(int index) {
+        return mQuestions[index].getTextResId();
+    }
+
+    @Override
+    public CharSequence getText(int index) {
+        return mQuestions[index].getText();
+    }
+
+    @Override
+    public boolean isAnswerTrue(int index) {
+        return mQuestions[index].isAnswerTrue();
+    }
+
+    @Override
+    public Question getQuestion(int index) {
+        return mQuestions[index];
+    }
+}
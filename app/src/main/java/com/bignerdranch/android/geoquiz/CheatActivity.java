@@ -14,14 +14,21 @@ import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+/**
+ * Cheat reveal as a separate screen, the fallback of {@link CheatDialogFragment}: the answer comes in
+ * the extras of the Intent and the result goes back with another one. The decision logic is the same,
+ * see {@link CheatReveal}.
+ */
 public class CheatActivity extends AppCompatActivity {
 
     private static final String ANSWER_IS_SHOWN_KEY = "mAnswerIsShown";
 
     private static final String EXTRA_ANSWER_IS_TRUE = "com.android.bignerdranch.geoquiz.answer_is_true";
     private static final String EXTRA_ANSWER_IS_SHOWN = "com.android.bignerdranch.geoquiz.answer_is_shown";
+    // API level doesn't change while the process lives
+    private static final String API_LEVEL_TEXT = "API Level " + Build.VERSION.SDK_INT;
     private boolean mAnswerIsTrue;
-    private boolean mAnswerIsShown;
+    private final CheatReveal mReveal = new CheatReveal();
 
     private TextView mAnswerTextView;
     private TextView mApiLevelTextView;
@@ -34,7 +41,9 @@ public class CheatActivity extends AppCompatActivity {
         setContentView(R.layout.activity_cheat);
 
         if (savedInstanceState != null) {
-            mAnswerIsShown = savedInstanceState.getBoolean(ANSWER_IS_SHOWN_KEY, false);
+            mReveal.restore(savedInstanceState.getBoolean(ANSWER_IS_SHOWN_KEY, false));
+        } else {
+            mReveal.open();
         }
 
         mAnswerIsTrue = getIntent().getBooleanExtra(EXTRA_ANSWER_IS_TRUE, false);
@@ -42,21 +51,23 @@ public class CheatActivity extends AppCompatActivity {
         mAnswerTextView = findViewById(R.id.answer_text_view);
 
         mApiLevelTextView = findViewById(R.id.api_level_text_view);
-        mApiLevelTextView.setText(String.format("API Level %s", Build.VERSION.SDK_INT));
+        mApiLevelTextView.setText(API_LEVEL_TEXT);
 
         mShowAnswerButton = findViewById(R.id.show_answer_button);
         mShowAnswerButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                showAnswer();
-                hideShowAnswerButton();
+                if (mReveal.showAnswer()) {
+                    showAnswer();
+                    hideShowAnswerButton();
+                }
             }
         });
 
         // if answer was already shown - keep it on the screen (in case user closed-opened the app or rotated the screen
-        if (mAnswerIsShown) {
+        if (mReveal.isAnswerShown()) {
             showAnswer();
-            hideShowAnswerButton();
+            mShowAnswerButton.setVisibility(View.INVISIBLE);
         }
     }
 
@@ -70,7 +81,7 @@ public class CheatActivity extends AppCompatActivity {
         super.onSaveInstanceState(savedInstanceState);
 
         // save the fact if user has already cheated
-        savedInstanceState.putBoolean(ANSWER_IS_SHOWN_KEY, mAnswerIsShown);
+        savedInstanceState.putBoolean(ANSWER_IS_SHOWN_KEY, mReveal.isAnswerShown());
     }
 
     /**
@@ -109,8 +120,6 @@ public class CheatActivity extends AppCompatActivity {
         Intent data = new Intent();
         data.putExtra(EXTRA_ANSWER_IS_SHOWN, isAnswerShown);
         setResult(RESULT_OK, data); // setting RESULT_OK for QuizActivity to refer back to
-
-        mAnswerIsShown = isAnswerShown;
     }
 
     /**
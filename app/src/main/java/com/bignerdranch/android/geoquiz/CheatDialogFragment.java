@@ -0,0 +1,100 @@
+package com.bignerdranch.android.geoquiz;
+
+import android.app.Dialog;
+import android.content.DialogInterface;
+import android.os.Bundle;
+import android.view.View;
+import android.widget.Button;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
+import androidx.appcompat.app.AppCompatDialogFragment;
+
+/**
+ * Cheat reveal in a dialog over QuizActivity, the fast path instead of the round trip to CheatActivity:
+ * the answer is put into the arguments when the dialog is shown (see {@link #newInstance(boolean)}) and the result
+ * goes back by a direct call of {@link CheatReveal.Host}, so there's no Intent, no new window and no layout
+ * to inflate. The arguments survive the recreation of the host, whose session may not be restored yet then.
+ * The host must implement {@link CheatReveal.Host}.
+ */
+public class CheatDialogFragment extends AppCompatDialogFragment {
+
+    public static final String TAG = "CheatDialogFragment";
+
+    private static final String ANSWER_IS_SHOWN_KEY = "mAnswerIsShown";
+    private static final String ARG_ANSWER_IS_TRUE = "answerIsTrue";
+
+    private CheatReveal.Host mHost;
+    private CheatReveal mReveal;
+
+    /**
+     * Dialog revealing the answer to the question on the screen when CHEAT! is pressed.
+     *
+     * @param answerIsTrue answer to the question the reveal is opened for
+     */
+    public static CheatDialogFragment newInstance(boolean answerIsTrue) {
+        Bundle args = new Bundle();
+        args.putBoolean(ARG_ANSWER_IS_TRUE, answerIsTrue);
+        CheatDialogFragment fragment = new CheatDialogFragment();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    @NonNull
+    @Override
+    public Dialog onCreateDialog(Bundle savedInstanceState) {
+        mHost = (CheatReveal.Host) requireActivity();
+        mReveal = mHost.getCheatReveal();
+        // recreated by the system: the new host's reveal continues the one of the old host
+        if (savedInstanceState != null) {
+            mReveal.restore(savedInstanceState.getBoolean(ANSWER_IS_SHOWN_KEY, false));
+        }
+
+        final AlertDialog dialog = new AlertDialog.Builder(requireContext())
+                .setMessage(mReveal.isAnswerShown() ? answerText() : R.string.warning_text)
+                .setPositiveButton(R.string.show_answer_button, null)
+                .create();
+        dialog.setOnShowListener(new DialogInterface.OnShowListener() {
+            @Override
+            public void onShow(DialogInterface dialogInterface) {
+                // the button doesn't dismiss the dialog: the answer is shown in place of the warning
+                final Button showAnswerButton = dialog.getButton(AlertDialog.BUTTON_POSITIVE);
+                showAnswerButton.setVisibility(mReveal.isAnswerShown() ? View.GONE : View.VISIBLE);
+                showAnswerButton.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        if (mReveal.showAnswer()) {
+                            dialog.setMessage(getString(answerText()));
+                            showAnswerButton.setVisibility(View.GONE);
+                            mHost.onCheatResult(true);
+                        }
+                    }
+                });
+            }
+        });
+        return dialog;
+    }
+
+    /**
+     * Saving the fact if user has already cheated, the result isn't given again after the recreation.
+     */
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(ANSWER_IS_SHOWN_KEY, mReveal.isAnswerShown());
+    }
+
+    @Override
+    public void onDismiss(@NonNull DialogInterface dialog) {
+        super.onDismiss(dialog);
+        // the dialog is also dismissed when the host is recreated, the reveal goes on with the new host then
+        if (!requireActivity().isChangingConfigurations()) {
+            mReveal.close();
+            mHost.onCheatClosed();
+        }
+    }
+
+    private int answerText() {
+        return requireArguments().getBoolean(ARG_ANSWER_IS_TRUE, false) ? R.string.true_button : R.string.false_button;
+    }
+}
@@ -0,0 +1,110 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Decision logic of revealing the answer (cheating), shared by the in-process {@code CheatDialogFragment}
+ * and the fallback CheatActivity: the reveal is opened only when the session allows cheating,
+ * the answer is shown only on the request of user, and a reveal counts as one cheat whatever the double taps
+ * and the recreations of the screen.
+ * <p>
+ * The dialog gets the answer in its arguments when it's shown and gives the result back to the {@link Host}
+ * sharing the session loop by a typed call: nothing is marshalled through Intent extras, no activity is launched,
+ * and the host reuses one reveal for all the cheats of the screen.
+ * <p>
+ * Methods are called on the main thread.
+ */
+public class CheatReveal {
+
+    /**
+     * Owner of the session the answer is revealed from, i.e. QuizActivity.
+     */
+    public interface Host {
+
+        /**
+         * Reveal of the host, the same instance for all the dialogs of the screen.
+         */
+        CheatReveal getCheatReveal();
+
+        /**
+         * Result of the reveal, called once when the answer is shown to user.
+         */
+        void onCheatResult(boolean answerShown);
+
+        /**
+         * Reveal is closed by user and the quiz is on the screen again.
+         */
+        void onCheatClosed();
+    }
+
+    private boolean mOpen;
+    private boolean mAnswerShown;
+    // sequence of the snapshot which has applied the last cheat, the next reveal waits for it
+    private long mAwaitedSequence;
+
+    /**
+     * Checking if the reveal may be opened for the snapshot on the screen: cheating is enabled by the session,
+     * no reveal is open already (a double tap on CHEAT!), and the last cheat has reached the session,
+     * otherwise the snapshot may still allow the cheat over the limit.
+     */
+    public boolean canOpen(SessionEventLoop.Snapshot snapshot) {
+        return !mOpen && snapshot.getViewState().isCheatEnabled() && snapshot.getSequence() >= mAwaitedSequence;
+    }
+
+    /**
+     * Opening the reveal with the answer hidden.
+     *
+     * @throws IllegalStateException if the reveal is open already
+     */
+    public void open() {
+        if (mOpen) {
+            throw new IllegalStateException("Reveal is open already");
+        }
+        mOpen = true;
+        mAnswerShown = false;
+    }
+
+    /**
+     * Reopening the reveal recreated by the system (e.g. after the rotation), the result of the shown answer
+     * was given before.
+     *
+     * @param answerShown true, if the answer was shown before the recreation
+     */
+    public void restore(boolean answerShown) {
+        mOpen = true;
+        mAnswerShown = answerShown;
+    }
+
+    /**
+     * Showing the answer on the request of user.
+     *
+     * @return true, if the answer is shown now and the cheat is to be given as the result;
+     * false, if it's shown already or the reveal is closed
+     */
+    public boolean showAnswer() {
+        if (!mOpen || mAnswerShown) {
+            return false;
+        }
+        mAnswerShown = true;
+        return true;
+    }
+
+    /**
+     * Waiting for the cheat to reach the session before the next reveal is opened.
+     *
+     * @param offeredCount {@link SessionEventLoop#getOfferedCount()} right after the cheat was offered
+     */
+    public void awaitCheat(long offeredCount) {
+        mAwaitedSequence = offeredCount;
+    }
+
+    public void close() {
+        mOpen = false;
+    }
+
+    public boolean isOpen() {
+        return mOpen;
+    }
+
+    public boolean isAnswerShown() {
+        return mAnswerShown;
+    }
+}
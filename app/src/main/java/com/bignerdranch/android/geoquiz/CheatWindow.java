@@ -0,0 +1,151 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Limit of the cheats on the device over a sliding window of time, whatever the restarts of the quiz and of the app:
+ * QuizSession limits the cheats of one quiz by {@link QuizSession#MAX_CHEAT_COUNT}, but "Start again" resets
+ * that limit. The window keeps the times of the last {@code limit} cheats in a ring; one more cheat is allowed
+ * only when the oldest of them has left the window.
+ * <p>
+ * The ring is kept in a small file of the install (format version, position of the oldest cheat and the times),
+ * replaced by a rename, so it survives the process death. A file which doesn't match the limit is dropped.
+ * A time further in the future than the window (the clock was set back) doesn't count, so a wrong clock
+ * can't lock the cheats out for long.
+ * Methods are synchronized, the window is checked on the main thread and saved in background.
+ */
+public class CheatWindow {
+
+    public static final long DEFAULT_WINDOW_MILLIS = 8 * 60 * 1000;
+    // two quizzes' worth of cheats in the window: one restart is fine, a series of them is not
+    public static final int DEFAULT_LIMIT = 2 * QuizSession.MAX_CHEAT_COUNT;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File mFile;
+    private final long mWindowMillis;
+    // times of the last cheats, 0 - a free slot; mOldest is the slot the next cheat replaces
+    private final long[] mTimes;
+    private int mOldest;
+
+    /**
+     * @param file         file of the ring, read with {@link #load()}
+     * @param limit        number of cheats allowed in the window
+     * @param windowMillis length of the window
+     */
+    public CheatWindow(File file, int limit, long windowMillis) {
+        if (limit <= 0 || windowMillis <= 0) {
+            throw new IllegalArgumentException("Limit and window must be positive");
+        }
+        mFile = file;
+        mWindowMillis = windowMillis;
+        mTimes = new long[limit];
+    }
+
+    public CheatWindow(File file) {
+        this(file, DEFAULT_LIMIT, DEFAULT_WINDOW_MILLIS);
+    }
+
+    /**
+     * Reading the cheats saved before. The window stays empty if there's no file or it doesn't match.
+     *
+     * @throws IOException if the file can't be read
+     */
+    public synchronized void load() throws IOException {
+        if (!mFile.isFile() || mFile.length() != 8 + 8L * mTimes.length) {
+            return;
+        }
+        byte[] content = new byte[(int) mFile.length()];
+        FileInputStream in = new FileInputStream(mFile);
+        try {
+            int read = 0;
+            while (read < content.length) {
+                int n = in.read(content, read, content.length - read);
+                if (n < 0) {
+                    return;
+                }
+                read += n;
+            }
+        } finally {
+            in.close();
+        }
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(content));
+        int version = data.readInt();
+        int oldest = data.readInt();
+        if (version != FORMAT_VERSION || oldest < 0 || oldest >= mTimes.length) {
+            return;
+        }
+        for (int i = 0; i < mTimes.length; i++) {
+            mTimes[i] = data.readLong();
+        }
+        mOldest = oldest;
+    }
+
+    /**
+     * Checking if one more cheat is allowed now.
+     *
+     * @param nowMillis wall clock time
+     */
+    public synchronized boolean isAllowed(long nowMillis) {
+        return !counts(mTimes[mOldest], nowMillis);
+    }
+
+    /**
+     * Number of the cheats in the window ending now.
+     */
+    public synchronized int getCheats(long nowMillis) {
+        int cheats = 0;
+        for (long time : mTimes) {
+            if (counts(time, nowMillis)) {
+                cheats++;
+            }
+        }
+        return cheats;
+    }
+
+    /**
+     * Counting the cheat (the answer was shown to user), in memory; {@link #save()} keeps it.
+     *
+     * @param nowMillis wall clock time of the cheat
+     */
+    public synchronized void record(long nowMillis) {
+        mTimes[mOldest] = nowMillis;
+        mOldest = (mOldest + 1) % mTimes.length;
+    }
+
+    /**
+     * Writing the cheats counted so far. It writes the current state, so the saves may run in any order.
+     *
+     * @throws IOException if the file can't be written, the previous one stays then
+     */
+    public synchronized void save() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + 8 * mTimes.length);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(mOldest);
+        for (long time : mTimes) {
+            data.writeLong(time);
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(bytes.toByteArray());
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(mFile)) {
+            throw new IOException("Failed to replace the cheat window " + mFile);
+        }
+    }
+
+    private boolean counts(long time, long nowMillis) {
+        return time != 0 && Math.abs(nowMillis - time) < mWindowMillis;
+    }
+}
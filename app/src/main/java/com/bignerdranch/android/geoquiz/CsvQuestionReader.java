@@ -0,0 +1,161 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming reader of question rows from CSV (RFC 4180: quoted fields, escaped quotes, line breaks in quotes).
+ * The first record is a header which must have "text" (or "question") and "answer" columns,
+ * other columns are ignored.
+ * Input is read through a fixed char buffer, so memory usage doesn't depend on the size of the input.
+ */
+public class CsvQuestionReader implements QuestionRowReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader mIn;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+
+    private final List<String> mFields = new ArrayList<>();
+    private final StringBuilder mField = new StringBuilder();
+    private boolean mTruncated;
+
+    private int mTextColumn = -1;
+    private int mAnswerColumn = -1;
+    private long mRowNumber;
+
+    public CsvQuestionReader(Reader in) {
+        mIn = in;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        if (mTextColumn < 0) {
+            readHeader();
+        }
+        if (!readRecord()) {
+            return false;
+        }
+        mRowNumber++;
+        return true;
+    }
+
+    @Override
+    public String getText() {
+        return mTextColumn < mFields.size() ? mFields.get(mTextColumn) : null;
+    }
+
+    @Override
+    public String getAnswer() {
+        return mAnswerColumn < mFields.size() ? mFields.get(mAnswerColumn) : null;
+    }
+
+    @Override
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    @Override
+    public long getRowNumber() {
+        return mRowNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private void readHeader() throws IOException {
+        if (!readRecord()) {
+            throw new IOException("CSV header is missing");
+        }
+        for (int i = 0; i < mFields.size(); i++) {
+            String name = mFields.get(i).trim().toLowerCase(Locale.ROOT);
+            if (name.equals("text") || name.equals("question")) {
+                mTextColumn = i;
+            } else if (name.equals("answer")) {
+                mAnswerColumn = i;
+            }
+        }
+        if (mTextColumn < 0 || mAnswerColumn < 0) {
+            throw new IOException("CSV header must have \"text\" and \"answer\" columns");
+        }
+    }
+
+    /**
+     * Reading the next record into mFields.
+     *
+     * @return false if there are no more records
+     */
+    private boolean readRecord() throws IOException {
+        mFields.clear();
+        mField.setLength(0);
+        mTruncated = false;
+
+        int c = read();
+        // skipping empty lines between records
+        while (c == '\r' || c == '\n') {
+            c = read();
+        }
+        if (c == -1) {
+            return false;
+        }
+
+        boolean quoted = false;
+        while (true) {
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field in row " + (mRowNumber + 1));
+                }
+                if (c == '"') {
+                    c = read();
+                    if (c != '"') { // closing quote, the char after it is processed as unquoted
+                        quoted = false;
+                        continue;
+                    }
+                }
+                append((char) c);
+            } else if (c == '"' && mField.length() == 0) {
+                quoted = true;
+            } else if (c == ',') {
+                endField();
+            } else if (c == '\n' || c == -1) {
+                endField();
+                return true;
+            } else if (c != '\r') {
+                append((char) c);
+            }
+            c = read();
+        }
+    }
+
+    private void append(char c) {
+        if (mField.length() < MAX_FIELD_LENGTH) {
+            mField.append(c);
+        } else {
+            mTruncated = true;
+        }
+    }
+
+    private void endField() {
+        mFields.add(mField.toString());
+        mField.setLength(0);
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++];
+    }
+}
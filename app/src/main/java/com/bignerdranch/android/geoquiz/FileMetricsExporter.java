@@ -0,0 +1,53 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Local file sink of the metrics: every export appends a text dump to the file.
+ * When the file grows over the size limit, it's moved to "name.old" and a new file is started,
+ * so at most two files are kept.
+ */
+public class FileMetricsExporter implements MetricsExporter {
+
+    public static final long DEFAULT_MAX_SIZE = 256 * 1024;
+
+    private final File mFile;
+    private final long mMaxSize;
+
+    public FileMetricsExporter(File file) {
+        this(file, DEFAULT_MAX_SIZE);
+    }
+
+    public FileMetricsExporter(File file, long maxSize) {
+        mFile = file;
+        mMaxSize = maxSize;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    @Override
+    public synchronized void export(MetricsSnapshot snapshot) throws IOException {
+        if (mFile.length() > mMaxSize) {
+            File old = new File(mFile.getPath() + ".old");
+            if (old.exists() && !old.delete() || !mFile.renameTo(old)) {
+                throw new IOException("Failed to rotate " + mFile);
+            }
+        }
+        StringBuilder dump = new StringBuilder(1024);
+        TextMetricsExporter.format(snapshot, dump);
+        dump.append('\n');
+        Writer writer = new OutputStreamWriter(new FileOutputStream(mFile, true), Charset.forName("UTF-8"));
+        try {
+            writer.write(dump.toString());
+        } finally {
+            writer.close();
+        }
+    }
+}
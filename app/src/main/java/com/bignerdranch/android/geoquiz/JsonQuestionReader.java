@@ -0,0 +1,297 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming reader of question rows from JSON: either a top-level array of objects
+ * or newline-delimited objects (one object per line).
+ * Each object must have "text" (or "question") and "answer" members (boolean, "true"/"false" or 1/0),
+ * other members, including nested objects and arrays, are skipped.
+ * Input is read through a fixed char buffer, so memory usage doesn't depend on the size of the input.
+ */
+public class JsonQuestionReader implements QuestionRowReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Reader mIn;
+    private final char[] mBuffer = new char[BUFFER_SIZE];
+    private int mPosition;
+    private int mLimit;
+    private int mPeeked = -2;
+
+    private final StringBuilder mValue = new StringBuilder();
+    private boolean mStarted;
+    private boolean mArray;
+    private boolean mTruncated;
+
+    private String mText;
+    private String mAnswer;
+    private long mRowNumber;
+
+    public JsonQuestionReader(Reader in) {
+        mIn = in;
+    }
+
+    @Override
+    public boolean next() throws IOException {
+        int c = skipWhitespace();
+        if (!mStarted) {
+            mStarted = true;
+            if (c == '[') {
+                mArray = true;
+                read();
+                c = skipWhitespace();
+                if (c == ']') {
+                    read();
+                    return false;
+                }
+            }
+        } else if (mArray) {
+            read();
+            if (c == ']') {
+                return false;
+            }
+            if (c != ',') {
+                throw error("expected ',' or ']'");
+            }
+            c = skipWhitespace();
+        }
+
+        if (c == -1) {
+            if (mArray) {
+                throw error("unterminated array");
+            }
+            return false;
+        }
+        readObject();
+        mRowNumber++;
+        return true;
+    }
+
+    @Override
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    public String getAnswer() {
+        return mAnswer;
+    }
+
+    @Override
+    public boolean isTruncated() {
+        return mTruncated;
+    }
+
+    @Override
+    public long getRowNumber() {
+        return mRowNumber;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mIn.close();
+    }
+
+    private void readObject() throws IOException {
+        mText = null;
+        mAnswer = null;
+        mTruncated = false;
+
+        expect('{');
+        int c = skipWhitespace();
+        if (c == '}') {
+            read();
+            return;
+        }
+        while (true) {
+            expect('"');
+            String name = readString();
+            skipWhitespace();
+            expect(':');
+            c = skipWhitespace();
+            if (name.equals("text") || name.equals("question")) {
+                mText = readScalar(c);
+            } else if (name.equals("answer")) {
+                mAnswer = readScalar(c);
+            } else {
+                skipValue(c);
+            }
+            c = skipWhitespace();
+            read();
+            if (c == '}') {
+                return;
+            }
+            if (c != ',') {
+                throw error("expected ',' or '}'");
+            }
+            skipWhitespace();
+        }
+    }
+
+    /**
+     * Reading string, boolean, number or null value as a string (null for JSON null).
+     */
+    private String readScalar(int c) throws IOException {
+        if (c == '"') {
+            read();
+            return readString();
+        }
+        if (c == '{' || c == '[') {
+            skipValue(c);
+            return null;
+        }
+        String literal = readLiteral();
+        return literal.equals("null") ? null : literal;
+    }
+
+    private String readString() throws IOException {
+        mValue.setLength(0);
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw error("unterminated string");
+            }
+            if (c == '"') {
+                return mValue.toString();
+            }
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                    case 'n':
+                        c = '\n';
+                        break;
+                    case 't':
+                        c = '\t';
+                        break;
+                    case 'r':
+                        c = '\r';
+                        break;
+                    case 'b':
+                        c = '\b';
+                        break;
+                    case 'f':
+                        c = '\f';
+                        break;
+                    case 'u':
+                        c = readHexChar();
+                        break;
+                    case '"':
+                    case '\\':
+                    case '/':
+                        break;
+                    default:
+                        throw error("invalid escape");
+                }
+            }
+            if (mValue.length() < MAX_FIELD_LENGTH) {
+                mValue.append((char) c);
+            } else {
+                mTruncated = true;
+            }
+        }
+    }
+
+    private int readHexChar() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw error("invalid \\u escape");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private String readLiteral() throws IOException {
+        mValue.setLength(0);
+        int c = peek();
+        while (c != -1 && c != ',' && c != '}' && c != ']' && !isWhitespace(c)) {
+            if (mValue.length() >= 32) {
+                throw error("invalid literal");
+            }
+            mValue.append((char) read());
+            c = peek();
+        }
+        if (mValue.length() == 0) {
+            throw error("value expected");
+        }
+        return mValue.toString();
+    }
+
+    /**
+     * Skipping a value of any type, nested objects and arrays are skipped by depth counting.
+     */
+    private void skipValue(int c) throws IOException {
+        if (c != '{' && c != '[') {
+            readScalar(c);
+            return;
+        }
+        // strings inside the skipped value don't count as truncated fields of the row
+        boolean truncated = mTruncated;
+        int depth = 0;
+        do {
+            c = read();
+            if (c == -1) {
+                throw error("unterminated value");
+            } else if (c == '"') {
+                readString();
+            } else if (c == '{' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ']') {
+                depth--;
+            }
+        } while (depth > 0);
+        mTruncated = truncated;
+    }
+
+    private void expect(char expected) throws IOException {
+        if (read() != expected) {
+            throw error("expected '" + expected + "'");
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        int c = peek();
+        while (isWhitespace(c)) {
+            read();
+            c = peek();
+        }
+        return c;
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+    }
+
+    private IOException error(String message) {
+        return new IOException("Malformed JSON in row " + (mRowNumber + 1) + ": " + message);
+    }
+
+    private int peek() throws IOException {
+        if (mPeeked == -2) {
+            mPeeked = readFromBuffer();
+        }
+        return mPeeked;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        mPeeked = -2;
+        return c;
+    }
+
+    private int readFromBuffer() throws IOException {
+        if (mPosition == mLimit) {
+            mLimit = mIn.read(mBuffer, 0, mBuffer.length);
+            mPosition = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPosition++];
+    }
+}
@@ -0,0 +1,307 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Question store over a memory-mapped question pack with the texts in many locales.
+ * <p>
+ * All the texts of all the locales are kept once in a shared string pool: a text which is the same in several
+ * locales (untranslated questions, regional variants, names) or repeats in one locale is stored once.
+ * The pool is sorted and front-coded in blocks of {@link #BLOCK_SIZE} strings: the first string of the block
+ * is stored in full, the next ones as the length of the prefix shared with the previous string and the rest.
+ * Every locale only has a table of the pool ids of its texts, 4 bytes per question, so a locale costs
+ * its table plus its unique texts. Switching the locale ({@link #setLocale(String)}) only picks
+ * another table, the pack isn't reloaded, and only the pages of the texts shown are read.
+ * <p>
+ * Pack format (version 1, big-endian):
+ * <pre>
+ * 0   int  magic "GQLP"
+ * 4   int  format version
+ * 8   int  number of questions (n)
+ * 12  int  number of locales (l), the first one is the default
+ * 16  int  number of strings in the pool (s)
+ * 20  int  reserved, 0
+ * 24  long offset of the locales: l entries of 16 bytes of the locale tag (ASCII, padded with 0)
+ *          and a long offset of the locale's table: n ints, pool id of the text or -1 if it's not translated
+ * 32  long offset of the answers: (n + 7) / 8 bytes, bit per question, least significant bit first
+ * 40  long offset of the pool blocks: (s + 15) / 16 + 1 ints, offsets of the blocks relative to the pool data,
+ *          the last one is the length of the pool data
+ * 48  long offset of the pool data: blocks of varint length and UTF-8 bytes of the first string, then
+ *          for every next string varints of the shared prefix length and the suffix length, and the suffix
+ * </pre>
+ * Packs are created by {@link LocalizedQuestionPackWriter}.
+ */
+public class LocalizedQuestionPack implements QuestionStore {
+
+    static final int MAGIC = 0x47514C50; // "GQLP"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 56;
+    static final int BLOCK_SIZE = 16;
+    static final int TAG_SIZE = 16;
+    static final int LOCALE_ENTRY_SIZE = TAG_SIZE + 8;
+
+    private final ByteBuffer mBuffer;
+    private final int mQuestionCount;
+    private final int mStringCount;
+    private final String[] mLocales;
+    private final int[] mTableOffsets;
+    private final int mAnswersOffset;
+    private final int mBlocksOffset;
+    private final int mDataOffset;
+    // table of the current locale, changed by setLocale() from any thread
+    private volatile int mLocale;
+
+    private LocalizedQuestionPack(ByteBuffer buffer, int questionCount, int stringCount, String[] locales,
+                                  int[] tableOffsets, int answersOffset, int blocksOffset, int dataOffset) {
+        mBuffer = buffer;
+        mQuestionCount = questionCount;
+        mStringCount = stringCount;
+        mLocales = locales;
+        mTableOffsets = tableOffsets;
+        mAnswersOffset = answersOffset;
+        mBlocksOffset = blocksOffset;
+        mDataOffset = dataOffset;
+    }
+
+    /**
+     * Mapping the pack file into memory and validating its header and tables.
+     *
+     * @param file localized question pack file
+     * @return question store backed by the pack, in the default locale
+     * @throws IOException if the file can't be read or isn't a valid localized question pack
+     */
+    public static LocalizedQuestionPack open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Question pack is larger than 2 GB: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return wrap(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reading a localized question pack which is already in memory (e.g. bundled asset or test data).
+     *
+     * @param buffer contents of the pack
+     * @return question store backed by the buffer, in the default locale
+     * @throws IOException if the buffer doesn't hold a valid localized question pack
+     */
+    public static LocalizedQuestionPack wrap(ByteBuffer buffer) throws IOException {
+        int capacity = buffer.capacity();
+        if (capacity < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a localized question pack");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported localized question pack version " + version);
+        }
+        int questionCount = buffer.getInt(8);
+        int localeCount = buffer.getInt(12);
+        int stringCount = buffer.getInt(16);
+        long localesOffset = buffer.getLong(24);
+        long answersOffset = buffer.getLong(32);
+        long blocksOffset = buffer.getLong(40);
+        long dataOffset = buffer.getLong(48);
+        long blockCount = (stringCount + (long) BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (questionCount < 0 || localeCount <= 0 || stringCount < 0
+                || !inside(localesOffset, (long) LOCALE_ENTRY_SIZE * localeCount, capacity)
+                || !inside(answersOffset, (questionCount + 7L) / 8, capacity)
+                || !inside(blocksOffset, 4 * (blockCount + 1), capacity)
+                || !inside(dataOffset, buffer.getInt((int) (blocksOffset + 4 * blockCount)) & 0xFFFFFFFFL, capacity)) {
+            throw new IOException("Corrupted localized question pack header");
+        }
+
+        String[] locales = new String[localeCount];
+        int[] tableOffsets = new int[localeCount];
+        byte[] tag = new byte[TAG_SIZE];
+        for (int i = 0; i < localeCount; i++) {
+            int entry = (int) localesOffset + i * LOCALE_ENTRY_SIZE;
+            int length = 0;
+            while (length < TAG_SIZE && buffer.get(entry + length) != 0) {
+                tag[length] = buffer.get(entry + length);
+                length++;
+            }
+            locales[i] = new String(tag, 0, length, StandardCharsets.US_ASCII);
+            long tableOffset = buffer.getLong(entry + TAG_SIZE);
+            if (!inside(tableOffset, 4L * questionCount, capacity)) {
+                throw new IOException("Corrupted table of locale " + locales[i]);
+            }
+            tableOffsets[i] = (int) tableOffset;
+        }
+        return new LocalizedQuestionPack(buffer, questionCount, stringCount, locales, tableOffsets,
+                (int) answersOffset, (int) blocksOffset, (int) dataOffset);
+    }
+
+    /**
+     * Locales of the pack, the first one is the default.
+     */
+    public String[] getLocales() {
+        return mLocales.clone();
+    }
+
+    /**
+     * Current locale of the texts.
+     */
+    public String getLocale() {
+        return mLocales[mLocale];
+    }
+
+    /**
+     * Number of distinct texts of all the locales.
+     */
+    public int getPoolSize() {
+        return mStringCount;
+    }
+
+    /**
+     * Switching the texts to the locale: the exact one if the pack has it ("pt-BR"), otherwise the first one
+     * with the same language ("pt"), otherwise the default locale. Nothing is loaded, texts are read when asked.
+     *
+     * @param tag locale tag, "-" or "_" separated
+     * @return true, if the pack has the locale or its language
+     */
+    public boolean setLocale(String tag) {
+        String normalized = tag.replace('_', '-');
+        for (int i = 0; i < mLocales.length; i++) {
+            if (mLocales[i].equalsIgnoreCase(normalized)) {
+                mLocale = i;
+                return true;
+            }
+        }
+        String language = language(normalized);
+        for (int i = 0; i < mLocales.length; i++) {
+            if (language(mLocales[i]).equalsIgnoreCase(language)) {
+                mLocale = i;
+                return true;
+            }
+        }
+        mLocale = 0;
+        return false;
+    }
+
+    /**
+     * Switching the texts to the locale of the device.
+     *
+     * @see #setLocale(String)
+     */
+    public boolean setLocale(Locale locale) {
+        String country = locale.getCountry();
+        return setLocale(country.isEmpty() ? locale.getLanguage() : locale.getLanguage() + "-" + country);
+    }
+
+    @Override
+    public int size() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Texts of the pack questions aren't string resources.
+     *
+     * @return always 0
+     */
+    @Override
+    public int getTextResId(int index) {
+        checkIndex(index);
+        return 0;
+    }
+
+    /**
+     * Text of the question in the current locale, in the default locale if it's not translated.
+     */
+    @Override
+    public CharSequence getText(int index) {
+        checkIndex(index);
+        int id = mBuffer.getInt(mTableOffsets[mLocale] + 4 * index);
+        if (id < 0) {
+            id = mBuffer.getInt(mTableOffsets[0] + 4 * index);
+        }
+        return poolString(id);
+    }
+
+    @Override
+    public boolean isAnswerTrue(int index) {
+        checkIndex(index);
+        return (mBuffer.get(mAnswersOffset + (index >>> 3)) & (1 << (index & 7))) != 0;
+    }
+
+    @Override
+    public Question getQuestion(int index) {
+        return new Question(getText(index), isAnswerTrue(index));
+    }
+
+    /**
+     * Decoding the string of the pool: the first string of its block and the front-coded ones up to it.
+     */
+    String poolString(int id) {
+        if (id < 0 || id >= mStringCount) {
+            throw new IllegalStateException("Corrupted localized question pack: string " + id);
+        }
+        int[] position = {mDataOffset + mBuffer.getInt(mBlocksOffset + 4 * (id / BLOCK_SIZE))};
+        int length = readVarint(position);
+        byte[] bytes = new byte[Math.max(64, length)];
+        copy(position, bytes, 0, length);
+        for (int i = id % BLOCK_SIZE; i > 0; i--) {
+            int prefix = readVarint(position);
+            int suffix = readVarint(position);
+            if (prefix > length) {
+                throw new IllegalStateException("Corrupted localized question pack: string " + id);
+            }
+            length = prefix + suffix;
+            if (length > bytes.length) {
+                byte[] grown = new byte[Math.max(length, bytes.length * 2)];
+                System.arraycopy(bytes, 0, grown, 0, prefix);
+                bytes = grown;
+            }
+            copy(position, bytes, prefix, suffix);
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void copy(int[] position, byte[] bytes, int offset, int length) {
+        ByteBuffer source = mBuffer.duplicate();
+        source.position(position[0]);
+        source.get(bytes, offset, length);
+        position[0] += length;
+    }
+
+    private int readVarint(int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = mBuffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Corrupted localized question pack: malformed varint");
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mQuestionCount) {
+            throw new IndexOutOfBoundsException("Question index " + index + " is out of range");
+        }
+    }
+
+    private static String language(String tag) {
+        int dash = tag.indexOf('-');
+        return dash < 0 ? tag : tag.substring(0, dash);
+    }
+
+    private static boolean inside(long offset, long length, int capacity) {
+        return offset >= HEADER_SIZE && length >= 0 && offset + length <= capacity;
+    }
+}
@@ -0,0 +1,307 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writer of the localized question packs read by {@link LocalizedQuestionPack}.
+ * Texts are interned as they are added, so every distinct text is kept once; the pool is sorted
+ * and front-coded when the pack is written. Unlike {@link QuestionPackWriter} the pack is built in memory,
+ * since the pool can only be sorted when all the texts are known.
+ * <p>
+ * Can also be run as a command line tool, see {@link #main(String[])}.
+ */
+public class LocalizedQuestionPackWriter {
+
+    private final String[] mLocales;
+    private final Map<String, Integer> mPoolIds = new HashMap<>();
+    private final List<String> mPool = new ArrayList<>();
+    // pool ids of the texts of every locale, -1 - not translated
+    private final int[][] mTables;
+    private byte[] mAnswers = new byte[16];
+    private int mQuestionCount;
+    private long mTextCount;
+
+    /**
+     * @param locales tags of the locales of the pack (ASCII, up to 16 characters), the first one is the default
+     */
+    public LocalizedQuestionPackWriter(String... locales) {
+        if (locales.length == 0) {
+            throw new IllegalArgumentException("Pack must have a locale");
+        }
+        for (String locale : locales) {
+            if (locale.isEmpty() || locale.length() > LocalizedQuestionPack.TAG_SIZE
+                    || !StandardCharsets.US_ASCII.newEncoder().canEncode(locale)) {
+                throw new IllegalArgumentException("Invalid locale tag \"" + locale + "\"");
+            }
+        }
+        mLocales = locales.clone();
+        mTables = new int[locales.length][16];
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Number of the texts added in all the locales.
+     */
+    public long getTextCount() {
+        return mTextCount;
+    }
+
+    /**
+     * Number of the distinct texts, stored in the pack.
+     */
+    public int getPoolSize() {
+        return mPool.size();
+    }
+
+    /**
+     * Adding the question in all the locales.
+     *
+     * @param answerTrue true, if the answer to the question is true
+     * @param texts      text of the question in every locale of the pack, in the order of the locales;
+     *                   null if it's not translated, then the text of the default locale is shown
+     * @return index of the question
+     */
+    public int add(boolean answerTrue, String... texts) {
+        if (texts.length != mLocales.length) {
+            throw new IllegalArgumentException("Expected texts in " + mLocales.length + " locales");
+        }
+        if (texts[0] == null) {
+            throw new IllegalArgumentException("Text in the default locale is required");
+        }
+        int index = mQuestionCount;
+        if (index == mTables[0].length) {
+            for (int locale = 0; locale < mTables.length; locale++) {
+                mTables[locale] = Arrays.copyOf(mTables[locale], index * 2);
+            }
+        }
+        if ((index >>> 3) == mAnswers.length) {
+            mAnswers = Arrays.copyOf(mAnswers, mAnswers.length * 2);
+        }
+        for (int locale = 0; locale < texts.length; locale++) {
+            mTables[locale][index] = texts[locale] == null ? -1 : intern(texts[locale]);
+        }
+        if (answerTrue) {
+            mAnswers[index >>> 3] |= 1 << (index & 7);
+        }
+        mQuestionCount++;
+        return index;
+    }
+
+    /**
+     * Writing the pack.
+     */
+    public void write(File file) throws IOException {
+        // sorting the pool puts the texts with the same beginning next to each other for the front coding
+        Integer[] order = new Integer[mPool.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final byte[][] utf8 = new byte[mPool.size()][];
+        for (int i = 0; i < utf8.length; i++) {
+            utf8[i] = mPool.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareBytes(utf8[a], utf8[b]);
+            }
+        });
+        int[] sortedIds = new int[order.length];
+        for (int rank = 0; rank < order.length; rank++) {
+            sortedIds[order[rank]] = rank;
+        }
+
+        int blockCount = (order.length + LocalizedQuestionPack.BLOCK_SIZE - 1) / LocalizedQuestionPack.BLOCK_SIZE;
+        int[] blockOffsets = new int[blockCount + 1];
+        VarintBuffer data = new VarintBuffer();
+        byte[] previous = null;
+        for (int rank = 0; rank < order.length; rank++) {
+            byte[] bytes = utf8[order[rank]];
+            if (rank % LocalizedQuestionPack.BLOCK_SIZE == 0) {
+                blockOffsets[rank / LocalizedQuestionPack.BLOCK_SIZE] = data.mSize;
+                data.writeVarint(bytes.length);
+                data.write(bytes, 0, bytes.length);
+            } else {
+                int prefix = 0;
+                int max = Math.min(previous.length, bytes.length);
+                while (prefix < max && previous[prefix] == bytes[prefix]) {
+                    prefix++;
+                }
+                data.writeVarint(prefix);
+                data.writeVarint(bytes.length - prefix);
+                data.write(bytes, prefix, bytes.length - prefix);
+            }
+            previous = bytes;
+        }
+        blockOffsets[blockCount] = data.mSize;
+
+        int localeCount = mLocales.length;
+        long localesOffset = LocalizedQuestionPack.HEADER_SIZE;
+        long tablesOffset = localesOffset + (long) LocalizedQuestionPack.LOCALE_ENTRY_SIZE * localeCount;
+        long answersOffset = tablesOffset + 4L * mQuestionCount * localeCount;
+        long blocksOffset = answersOffset + (mQuestionCount + 7) / 8;
+        long dataOffset = blocksOffset + 4L * (blockCount + 1);
+        if (dataOffset + data.mSize > Integer.MAX_VALUE) {
+            throw new IOException("Question pack is larger than 2 GB");
+        }
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        try {
+            out.writeInt(LocalizedQuestionPack.MAGIC);
+            out.writeInt(LocalizedQuestionPack.VERSION);
+            out.writeInt(mQuestionCount);
+            out.writeInt(localeCount);
+            out.writeInt(order.length);
+            out.writeInt(0);
+            out.writeLong(localesOffset);
+            out.writeLong(answersOffset);
+            out.writeLong(blocksOffset);
+            out.writeLong(dataOffset);
+            for (int locale = 0; locale < localeCount; locale++) {
+                byte[] tag = Arrays.copyOf(mLocales[locale].getBytes(StandardCharsets.US_ASCII),
+                        LocalizedQuestionPack.TAG_SIZE);
+                out.write(tag);
+                out.writeLong(tablesOffset + 4L * mQuestionCount * locale);
+            }
+            for (int[] table : mTables) {
+                for (int i = 0; i < mQuestionCount; i++) {
+                    out.writeInt(table[i] < 0 ? -1 : sortedIds[table[i]]);
+                }
+            }
+            out.write(mAnswers, 0, (mQuestionCount + 7) / 8);
+            for (int offset : blockOffsets) {
+                out.writeInt(offset);
+            }
+            out.write(data.mBytes, 0, data.mSize);
+        } finally {
+            out.close();
+        }
+    }
+
+    private int intern(String text) {
+        mTextCount++;
+        Integer id = mPoolIds.get(text);
+        if (id == null) {
+            id = mPool.size();
+            mPool.add(text);
+            mPoolIds.put(text, id);
+        }
+        return id;
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int difference = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (difference != 0) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * Growing byte buffer for the pool data.
+     */
+    private static class VarintBuffer {
+        byte[] mBytes = new byte[64 * 1024];
+        int mSize;
+
+        void write(byte[] bytes, int offset, int length) {
+            if (mSize + length > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(mSize + length, mBytes.length * 2));
+            }
+            System.arraycopy(bytes, offset, mBytes, mSize, length);
+            mSize += length;
+        }
+
+        void writeVarint(int value) {
+            byte[] varint = new byte[5];
+            int length = 0;
+            while ((value & ~0x7F) != 0) {
+                varint[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            varint[length++] = (byte) value;
+            write(varint, 0, length);
+        }
+    }
+
+    /**
+     * Packing questions from a text file with a header line: "answer", tab, tags of the locales separated by tabs
+     * (the first one is the default). Then one question per line: "true" or "false", tab, texts of the question
+     * in the locales separated by tabs, an empty text if it's not translated.
+     * Empty lines and lines starting with '#' are skipped.
+     * <p>
+     * Usage: LocalizedQuestionPackWriter &lt;input.tsv&gt; &lt;output.gqlp&gt;
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: LocalizedQuestionPackWriter <input.tsv> <output.gqlp>");
+            System.exit(2);
+        }
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8));
+        LocalizedQuestionPackWriter writer = null;
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] columns = line.split("\t", -1);
+                if (writer == null) {
+                    if (columns.length < 2 || !columns[0].trim().equalsIgnoreCase("answer")) {
+                        throw new IOException("Line " + lineNumber + ": expected \"answer<TAB>locale<TAB>...\"");
+                    }
+                    writer = new LocalizedQuestionPackWriter(Arrays.copyOfRange(columns, 1, columns.length));
+                    continue;
+                }
+                String answer = columns[0].trim();
+                if (columns.length != writer.mLocales.length + 1
+                        || (!answer.equalsIgnoreCase("true") && !answer.equalsIgnoreCase("false"))
+                        || columns[1].isEmpty()) {
+                    throw new IOException("Line " + lineNumber + ": expected \"true|false<TAB>text<TAB>...\" with "
+                            + writer.mLocales.length + " texts");
+                }
+                String[] texts = Arrays.copyOfRange(columns, 1, columns.length);
+                for (int i = 0; i < texts.length; i++) {
+                    if (texts[i].isEmpty()) {
+                        texts[i] = null;
+                    }
+                }
+                writer.add(Boolean.parseBoolean(answer), texts);
+            }
+        } finally {
+            reader.close();
+        }
+        if (writer == null) {
+            throw new IOException("No locales in " + args[0]);
+        }
+        writer.write(new File(args[1]));
+        System.out.println(String.format(Locale.ENGLISH,
+                "Packed %,d questions in %d locales (%,d texts, %,d distinct) into %s",
+                writer.getQuestionCount(), writer.mLocales.length, writer.getTextCount(), writer.getPoolSize(), args[1]));
+    }
+}
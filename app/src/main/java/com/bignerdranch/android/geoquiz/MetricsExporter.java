@@ -0,0 +1,11 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.IOException;
+
+/**
+ * Destination of the metrics, see {@link TextMetricsExporter} and {@link FileMetricsExporter}.
+ */
+public interface MetricsExporter {
+
+    void export(MetricsSnapshot snapshot) throws IOException;
+}
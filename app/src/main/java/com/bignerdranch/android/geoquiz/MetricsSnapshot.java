@@ -0,0 +1,61 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Values of {@link QuizMetrics} at one moment, as handed to the exporters.
+ * Timings are in nanoseconds.
+ */
+public class MetricsSnapshot {
+
+    private static final int MEAN = 0;
+    private static final int P50 = 1;
+    private static final int P90 = 2;
+    private static final int P99 = 3;
+    private static final int MAX = 4;
+
+    private final long mTimestamp;
+    private final long[] mTimerCounts;
+    private final long[][] mTimerValues;
+    private final long[] mCounters;
+
+    MetricsSnapshot(long timestamp, long[] timerCounts, long[][] timerValues, long[] counters) {
+        mTimestamp = timestamp;
+        mTimerCounts = timerCounts;
+        mTimerValues = timerValues;
+        mCounters = counters;
+    }
+
+    /**
+     * Time of the snapshot, milliseconds since the epoch.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public long getCount(QuizMetrics.Timer timer) {
+        return mTimerCounts[timer.ordinal()];
+    }
+
+    public long getMean(QuizMetrics.Timer timer) {
+        return mTimerValues[timer.ordinal()][MEAN];
+    }
+
+    public long getP50(QuizMetrics.Timer timer) {
+        return mTimerValues[timer.ordinal()][P50];
+    }
+
+    public long getP90(QuizMetrics.Timer timer) {
+        return mTimerValues[timer.ordinal()][P90];
+    }
+
+    public long getP99(QuizMetrics.Timer timer) {
+        return mTimerValues[timer.ordinal()][P99];
+    }
+
+    public long getMax(QuizMetrics.Timer timer) {
+        return mTimerValues[timer.ordinal()][MAX];
+    }
+
+    public long getCount(QuizMetrics.Counter counter) {
+        return mCounters[counter.ordinal()];
+    }
+}
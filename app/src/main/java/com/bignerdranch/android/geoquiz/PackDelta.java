@@ -0,0 +1,407 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Binary delta between two versions of a question pack, made of the chunks of their {@link PackManifest}s.
+ * <p>
+ * Every chunk of the new version is either a reference to a chunk of the installed version with the same hash
+ * (copied as is, its hash is taken from the installed manifest), or a patch with the hash of the chunk.
+ * A patch is the byte-wise difference from the installed version at the place where the previous chunk left off
+ * and, after a split point, where the next chunk begins. So the edited question in the middle of a chunk costs
+ * about its own length, and shifted data (e.g. text offsets in the index of the pack after a longer question)
+ * turns into long runs of equal bytes; both deflate to almost nothing. Patched chunks are checked against their hashes
+ * as they are written. A delta without a base (base version 0) holds the whole pack and installs over any version.
+ * <p>
+ * Delta format (version 1, big-endian):
+ * <pre>
+ * 0   int  magic "GQPD"
+ * 4   int  format version
+ * 8   long version of the base pack, 0 - no base
+ * 16  32 bytes root hash of the base pack, zeros without the base
+ * 48  deflated: long version of the new pack, int number of chunks, then for every chunk
+ *     byte 0 and int (index of the base chunk - index expected after the previous chunk) for a reference,
+ *     or byte 1, int length and 32-byte hash for a patch; then for every patched chunk in order
+ *     int split and the patch: bytes before the split are relative to the base after the previous chunk,
+ *     bytes from the split on are relative to the base before the next referenced chunk
+ * </pre>
+ */
+public class PackDelta {
+
+    static final int MAGIC = 0x47515044; // "GQPD"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 48;
+    private static final int PATCH = -1;
+    private static final int TAG_REFERENCE = 0;
+    private static final int TAG_PATCH = 1;
+
+    /**
+     * The delta itself is wrong: malformed, corrupted, made for another installed version or failing verification.
+     * Unlike a failure to read or write the files, applying the same delta again fails the same way.
+     */
+    public static class InvalidDeltaException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public InvalidDeltaException(String message) {
+            super(message);
+        }
+
+        public InvalidDeltaException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private final PackManifest mBase;
+    private final PackManifest mTarget;
+    private final int[] mRefs;
+    private final DataInputStream mPatches;
+    private boolean mApplied;
+
+    private PackDelta(PackManifest base, PackManifest target, int[] refs, DataInputStream patches) {
+        mBase = base;
+        mTarget = target;
+        mRefs = refs;
+        mPatches = patches;
+    }
+
+    /**
+     * Creating the delta from one version of the pack to another.
+     *
+     * @param base          manifest of the installed version, null for a delta holding the whole pack
+     * @param baseContent   contents of the installed version, ignored without the base
+     * @param target        manifest of the new version
+     * @param targetContent contents of the new version
+     * @return encoded delta
+     */
+    public static byte[] create(PackManifest base, byte[] baseContent, PackManifest target, byte[] targetContent) {
+        if (base == null) {
+            baseContent = new byte[0];
+        } else if (target.getVersion() <= base.getVersion()) {
+            throw new IllegalArgumentException("Target version must be newer than the base version");
+        }
+        Map<ByteBuffer, Integer> baseChunks = new HashMap<>();
+        if (base != null) {
+            for (int chunk = base.getChunkCount() - 1; chunk >= 0; chunk--) {
+                baseChunks.put(ByteBuffer.wrap(base.getChunkHash(chunk)), chunk);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream header = new DataOutputStream(bytes);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            header.writeLong(base != null ? base.getVersion() : 0);
+            header.write(base != null ? base.getRootHash() : new byte[PackManifest.HASH_SIZE]);
+
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater, 64 * 1024));
+            out.writeLong(target.getVersion());
+            out.writeInt(target.getChunkCount());
+            int[] refs = new int[target.getChunkCount()];
+            int expected = 0;
+            for (int chunk = 0; chunk < refs.length; chunk++) {
+                Integer ref = baseChunks.get(ByteBuffer.wrap(target.getChunkHash(chunk)));
+                refs[chunk] = ref != null && target.isSameChunk(chunk, base, ref) ? ref : PATCH;
+                if (refs[chunk] != PATCH) {
+                    out.writeByte(TAG_REFERENCE);
+                    out.writeInt(refs[chunk] - expected);
+                    expected = refs[chunk] + 1;
+                } else {
+                    out.writeByte(TAG_PATCH);
+                    out.writeInt(target.getChunkLength(chunk));
+                    out.write(target.getChunkHash(chunk));
+                    expected++;
+                }
+            }
+            byte[] patch = new byte[PackManifest.MAX_CHUNK_SIZE];
+            long cursor = 0;
+            for (int chunk = 0; chunk < refs.length; chunk++) {
+                int length = target.getChunkLength(chunk);
+                if (refs[chunk] != PATCH) {
+                    cursor = base.getChunkOffset(refs[chunk]) + length;
+                    continue;
+                }
+                int offset = (int) target.getChunkOffset(chunk);
+                long tailStart = tailStart(chunk, length, refs, base, cursor);
+                // the split where the head aligned after the previous chunk gives way to the tail aligned
+                // before the next one, at the most matching bytes: an insertion or a deletion in the chunk
+                // leaves both sides of it as zeros in the patch
+                int matches = 0;
+                for (int i = 0; i < length; i++) {
+                    matches += targetContent[offset + i] == byteAt(baseContent, tailStart + i) ? 1 : 0;
+                }
+                int split = 0;
+                int bestMatches = matches;
+                for (int i = 0; i < length; i++) {
+                    byte value = targetContent[offset + i];
+                    matches += (value == byteAt(baseContent, cursor + i) ? 1 : 0)
+                            - (value == byteAt(baseContent, tailStart + i) ? 1 : 0);
+                    if (matches > bestMatches) {
+                        bestMatches = matches;
+                        split = i + 1;
+                    }
+                }
+                for (int i = 0; i < length; i++) {
+                    long basePosition = i < split ? cursor + i : tailStart + i;
+                    patch[i] = (byte) (targetContent[offset + i] - byteAt(baseContent, basePosition));
+                }
+                out.writeInt(split);
+                out.write(patch, 0, length);
+                cursor += length;
+            }
+            out.close();
+            deflater.end();
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown by the in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Reading the delta up to the patches, which are read while applying it, and rebuilding the manifest
+     * of the new version.
+     *
+     * @param delta     encoded delta
+     * @param installed manifest of the installed version, null if there's none
+     * @throws InvalidDeltaException if the delta is malformed or doesn't apply to the installed version
+     */
+    public static PackDelta read(byte[] delta, PackManifest installed) throws IOException {
+        if (delta.length < HEADER_SIZE) {
+            throw new InvalidDeltaException("Not a pack delta");
+        }
+        ByteBuffer header = ByteBuffer.wrap(delta);
+        if (header.getInt() != MAGIC) {
+            throw new InvalidDeltaException("Not a pack delta");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new InvalidDeltaException("Unsupported pack delta version " + version);
+        }
+        long baseVersion = header.getLong();
+        byte[] baseRootHash = new byte[PackManifest.HASH_SIZE];
+        header.get(baseRootHash);
+        PackManifest base = null;
+        if (baseVersion != 0) {
+            if (installed == null || installed.getVersion() != baseVersion
+                    || !Arrays.equals(installed.getRootHash(), baseRootHash)) {
+                throw new InvalidDeltaException("Pack delta is for version " + baseVersion + ", installed "
+                        + (installed != null ? installed.getVersion() : 0));
+            }
+            base = installed;
+        }
+
+        // the delta is in memory, so the stream fails only on its contents
+        try {
+            DataInputStream in = new DataInputStream(new InflaterInputStream(
+                    new ByteArrayInputStream(delta, HEADER_SIZE, delta.length - HEADER_SIZE)));
+            long targetVersion = in.readLong();
+            int chunkCount = in.readInt();
+            if (targetVersion <= baseVersion || chunkCount < 0
+                    || chunkCount > Integer.MAX_VALUE / PackManifest.HASH_SIZE) {
+                throw new InvalidDeltaException("Corrupted pack delta");
+            }
+            int[] refs = new int[chunkCount];
+            int[] lengths = new int[chunkCount];
+            byte[] hashes = new byte[chunkCount * PackManifest.HASH_SIZE];
+            int expected = 0;
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                int tag = in.readByte();
+                if (tag == TAG_REFERENCE && base != null) {
+                    int ref = expected + in.readInt();
+                    if (ref < 0 || ref >= base.getChunkCount()) {
+                        throw new InvalidDeltaException("Pack delta refers to a missing chunk " + ref);
+                    }
+                    refs[chunk] = ref;
+                    lengths[chunk] = base.getChunkLength(ref);
+                    System.arraycopy(base.getChunkHash(ref), 0, hashes, chunk * PackManifest.HASH_SIZE,
+                            PackManifest.HASH_SIZE);
+                    expected = ref + 1;
+                } else if (tag == TAG_PATCH) {
+                    refs[chunk] = PATCH;
+                    lengths[chunk] = in.readInt();
+                    if (lengths[chunk] <= 0 || lengths[chunk] > PackManifest.MAX_CHUNK_SIZE) {
+                        throw new InvalidDeltaException("Corrupted pack delta");
+                    }
+                    in.readFully(hashes, chunk * PackManifest.HASH_SIZE, PackManifest.HASH_SIZE);
+                    expected++;
+                } else {
+                    throw new InvalidDeltaException("Corrupted pack delta");
+                }
+            }
+            return new PackDelta(base, new PackManifest(targetVersion, lengths, hashes), refs, in);
+        } catch (ZipException | EOFException e) {
+            throw new InvalidDeltaException("Corrupted pack delta", e);
+        }
+    }
+
+    /**
+     * Version of the pack the delta applies to, 0 - the delta holds the whole pack.
+     */
+    public long getBaseVersion() {
+        return mBase != null ? mBase.getVersion() : 0;
+    }
+
+    /**
+     * Manifest of the version the delta leads to.
+     */
+    public PackManifest getTarget() {
+        return mTarget;
+    }
+
+    public int getPatchedChunkCount() {
+        int count = 0;
+        for (int ref : mRefs) {
+            count += ref == PATCH ? 1 : 0;
+        }
+        return count;
+    }
+
+    /**
+     * Number of bytes of the new version which come from the patches.
+     */
+    public long getPatchedBytes() {
+        long bytes = 0;
+        for (int chunk = 0; chunk < mRefs.length; chunk++) {
+            bytes += mRefs[chunk] == PATCH ? mTarget.getChunkLength(chunk) : 0;
+        }
+        return bytes;
+    }
+
+    /**
+     * Writing the new version: runs of referenced chunks are copied from the installed pack file by the channel,
+     * patched chunks are rebuilt, verified against their hashes and written. Can be applied only once.
+     *
+     * @param base installed pack, null for a delta without the base
+     * @param out  channel of the new pack file, written from its current position
+     * @throws IOException if the installed pack is short;
+     *                     {@link InvalidDeltaException} if a patched chunk is corrupted or fails verification
+     */
+    void apply(FileChannel base, FileChannel out) throws IOException {
+        if (mApplied) {
+            throw new IllegalStateException("Pack delta is already applied");
+        }
+        mApplied = true;
+        try {
+            MessageDigest digest = PackManifest.newDigest();
+            byte[] chunkData = new byte[PackManifest.MAX_CHUNK_SIZE];
+            byte[] baseData = new byte[PackManifest.MAX_CHUNK_SIZE];
+            long cursor = 0;
+            int chunk = 0;
+            while (chunk < mRefs.length) {
+                int ref = mRefs[chunk];
+                if (ref != PATCH) {
+                    // a run of consecutive base chunks goes with one copy
+                    long from = mBase.getChunkOffset(ref);
+                    long length = 0;
+                    while (chunk < mRefs.length && mRefs[chunk] == ref) {
+                        length += mTarget.getChunkLength(chunk);
+                        chunk++;
+                        ref++;
+                    }
+                    transferFully(base, from, length, out);
+                    cursor = from + length;
+                    continue;
+                }
+
+                int length = mTarget.getChunkLength(chunk);
+                int split = mPatches.readInt();
+                if (split < 0 || split > length) {
+                    throw new InvalidDeltaException("Corrupted pack delta");
+                }
+                mPatches.readFully(chunkData, 0, length);
+                readBase(base, cursor, baseData, 0, split);
+                readBase(base, tailStart(chunk, length, mRefs, mBase, cursor), baseData, split, length);
+                for (int i = 0; i < length; i++) {
+                    chunkData[i] += baseData[i];
+                }
+                if (!mTarget.verifyChunk(chunk, chunkData, digest)) {
+                    throw new InvalidDeltaException("Chunk " + chunk + " of the pack delta fails verification");
+                }
+                ByteBuffer data = ByteBuffer.wrap(chunkData, 0, length);
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+                cursor += length;
+                chunk++;
+            }
+            // reading to the end of the deflated stream checks its checksum, which covers the version and the refs too
+            if (mPatches.read() >= 0) {
+                throw new InvalidDeltaException("Trailing data in the pack delta");
+            }
+        } catch (ZipException | EOFException e) { // only the in-memory patches throw them, the channels return -1
+            throw new InvalidDeltaException("Corrupted pack delta", e);
+        } finally {
+            mPatches.close();
+        }
+    }
+
+    private static void transferFully(FileChannel from, long position, long length, FileChannel to)
+            throws IOException {
+        while (length > 0) {
+            long transferred = from.transferTo(position, length, to);
+            if (transferred <= 0) {
+                throw new IOException("Installed pack is shorter than its manifest");
+            }
+            position += transferred;
+            length -= transferred;
+        }
+    }
+
+    /**
+     * Position in the base where the tail of the patched chunk is aligned: the end of the tail meets
+     * the base chunk referenced next (or the end of the base after the last chunk). Without such a chunk
+     * the tail is aligned like the head, after the previous chunk.
+     */
+    private static long tailStart(int chunk, int length, int[] refs, PackManifest base, long cursor) {
+        if (base == null) {
+            return cursor;
+        }
+        if (chunk + 1 == refs.length) {
+            return base.getLength() - length;
+        }
+        int next = refs[chunk + 1];
+        return next != PATCH ? base.getChunkOffset(next) - length : cursor;
+    }
+
+    private static byte byteAt(byte[] content, long position) {
+        return position >= 0 && position < content.length ? content[(int) position] : 0;
+    }
+
+    /**
+     * Reading the bytes of the base at position + from .. position + to into the same range of the buffer,
+     * bytes out of the base are zeros.
+     */
+    private void readBase(FileChannel base, long position, byte[] into, int from, int to) throws IOException {
+        long baseLength = mBase != null ? mBase.getLength() : 0;
+        int start = (int) Math.max(from, Math.min(to, -position));
+        int end = (int) Math.max(start, Math.min(to, baseLength - position));
+        Arrays.fill(into, from, start, (byte) 0);
+        Arrays.fill(into, end, to, (byte) 0);
+        ByteBuffer buffer = ByteBuffer.wrap(into, start, end - start);
+        long readPosition = position + start;
+        while (buffer.hasRemaining()) {
+            int read = base.read(buffer, readPosition);
+            if (read < 0) {
+                throw new IOException("Installed pack is shorter than its manifest");
+            }
+            readPosition += read;
+        }
+    }
+}
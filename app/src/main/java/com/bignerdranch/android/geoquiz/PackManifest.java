@@ -0,0 +1,239 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Chunked hashes of one version of a question pack: the pack is cut into chunks at content-defined boundaries
+ * and every chunk has its own SHA-256 hash. The root hash (SHA-256 of the chunk hashes) identifies the whole version.
+ * <p>
+ * Boundaries are picked by a rolling gear hash over the last 64 bytes, so they depend only on the nearby content:
+ * inserting or editing a question changes the chunks around the edit, the chunks before and after it keep
+ * their hashes even though their offsets move. That is what lets {@link PackDelta} ship only the changed chunks,
+ * and the updater hash only them.
+ * <p>
+ * Encoded manifest: long version, int number of chunks, then int length and 32-byte hash of every chunk.
+ */
+public class PackManifest {
+
+    static final int HASH_SIZE = 32;
+    static final int MIN_CHUNK_SIZE = 512;
+    static final int MAX_CHUNK_SIZE = 8 * 1024;
+    // 11 bits of the hash, so a boundary comes on average ~2 KB after the minimum size
+    private static final long BOUNDARY_MASK = 0xFFE0000000000000L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // java.util.Random is specified down to the algorithm, so every device and the server get the same table
+        Random random = new Random(0x47515044L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private final long mVersion;
+    private final int[] mLengths;
+    // mOffsets[i] is the offset of the chunk i in the pack, the last entry is the length of the pack
+    private final long[] mOffsets;
+    private final byte[] mHashes;
+    private byte[] mRootHash;
+
+    PackManifest(long version, int[] lengths, byte[] hashes) {
+        mVersion = version;
+        mLengths = lengths;
+        mHashes = hashes;
+        mOffsets = new long[lengths.length + 1];
+        for (int i = 0; i < lengths.length; i++) {
+            mOffsets[i + 1] = mOffsets[i] + lengths[i];
+        }
+    }
+
+    /**
+     * Chunking and hashing the contents of the pack.
+     *
+     * @param version version of the pack, positive
+     * @param content contents of the pack
+     */
+    public static PackManifest of(long version, byte[] content) {
+        if (version <= 0) {
+            throw new IllegalArgumentException("Pack version must be positive");
+        }
+        int[] lengths = chunkLengths(content);
+        byte[] hashes = new byte[lengths.length * HASH_SIZE];
+        MessageDigest digest = newDigest();
+        int offset = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            digest.update(content, offset, lengths[i]);
+            digestInto(digest, hashes, i * HASH_SIZE);
+            offset += lengths[i];
+        }
+        return new PackManifest(version, lengths, hashes);
+    }
+
+    public long getVersion() {
+        return mVersion;
+    }
+
+    public int getChunkCount() {
+        return mLengths.length;
+    }
+
+    public int getChunkLength(int chunk) {
+        return mLengths[chunk];
+    }
+
+    public long getChunkOffset(int chunk) {
+        return mOffsets[chunk];
+    }
+
+    /**
+     * Length of the whole pack.
+     */
+    public long getLength() {
+        return mOffsets[mLengths.length];
+    }
+
+    /**
+     * SHA-256 of the chunk hashes, equal root hashes mean equal packs.
+     */
+    public synchronized byte[] getRootHash() {
+        if (mRootHash == null) {
+            MessageDigest digest = newDigest();
+            digest.update(mHashes);
+            mRootHash = digest.digest();
+        }
+        return mRootHash.clone();
+    }
+
+    /**
+     * Checking if the chunk has the same contents as the chunk of the other manifest.
+     */
+    public boolean isSameChunk(int chunk, PackManifest other, int otherChunk) {
+        return mLengths[chunk] == other.mLengths[otherChunk]
+                && regionEquals(mHashes, chunk * HASH_SIZE, other.mHashes, otherChunk * HASH_SIZE);
+    }
+
+    /**
+     * Checking the contents of the chunk against its hash.
+     *
+     * @param data   buffer holding the contents of the chunk at offset 0
+     * @param digest digest to use, reset by this method
+     */
+    boolean verifyChunk(int chunk, byte[] data, MessageDigest digest) {
+        digest.reset();
+        digest.update(data, 0, mLengths[chunk]);
+        return regionEquals(digest.digest(), 0, mHashes, chunk * HASH_SIZE);
+    }
+
+    /**
+     * Hash of the chunk, as a key of the chunk lookups.
+     */
+    byte[] getChunkHash(int chunk) {
+        return Arrays.copyOfRange(mHashes, chunk * HASH_SIZE, (chunk + 1) * HASH_SIZE);
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(12 + mLengths.length * (4 + HASH_SIZE));
+        try {
+            write(new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // not thrown by the in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    public static PackManifest decode(byte[] encoded) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+        PackManifest manifest = read(in);
+        if (in.read() >= 0) {
+            throw new IOException("Trailing bytes after the pack manifest");
+        }
+        return manifest;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(mVersion);
+        out.writeInt(mLengths.length);
+        for (int i = 0; i < mLengths.length; i++) {
+            out.writeInt(mLengths[i]);
+            out.write(mHashes, i * HASH_SIZE, HASH_SIZE);
+        }
+    }
+
+    static PackManifest read(DataInputStream in) throws IOException {
+        long version = in.readLong();
+        int chunkCount = in.readInt();
+        if (version <= 0 || chunkCount < 0 || chunkCount > Integer.MAX_VALUE / HASH_SIZE) {
+            throw new IOException("Corrupted pack manifest");
+        }
+        int[] lengths = new int[chunkCount];
+        byte[] hashes = new byte[chunkCount * HASH_SIZE];
+        for (int i = 0; i < chunkCount; i++) {
+            lengths[i] = in.readInt();
+            if (lengths[i] <= 0 || lengths[i] > MAX_CHUNK_SIZE) {
+                throw new IOException("Corrupted pack manifest");
+            }
+            in.readFully(hashes, i * HASH_SIZE, HASH_SIZE);
+        }
+        return new PackManifest(version, lengths, hashes);
+    }
+
+    /**
+     * Cutting the contents into chunks: a boundary goes where the rolling hash has the masked bits clear,
+     * but never closer than MIN_CHUNK_SIZE to the previous one and never farther than MAX_CHUNK_SIZE.
+     */
+    static int[] chunkLengths(byte[] content) {
+        int[] lengths = new int[content.length / MIN_CHUNK_SIZE + 1];
+        int count = 0;
+        int start = 0;
+        while (start < content.length) {
+            int end = Math.min(content.length, start + MAX_CHUNK_SIZE);
+            int i = Math.min(end, start + MIN_CHUNK_SIZE);
+            long hash = 0;
+            // warming the hash up over the bytes before the minimum size, they take part in the window
+            for (int j = Math.max(start, i - 64); j < i; j++) {
+                hash = (hash << 1) + GEAR[content[j] & 0xFF];
+            }
+            while (i < end && (hash & BOUNDARY_MASK) != 0) {
+                hash = (hash << 1) + GEAR[content[i] & 0xFF];
+                i++;
+            }
+            lengths[count++] = i - start;
+            start = i;
+        }
+        return Arrays.copyOf(lengths, count);
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 isn't available", e); // every JVM and Android must have it
+        }
+    }
+
+    private static void digestInto(MessageDigest digest, byte[] hashes, int offset) {
+        try {
+            digest.digest(hashes, offset, HASH_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e); // the buffer always has room for the hash
+        }
+    }
+
+    private static boolean regionEquals(byte[] a, int aOffset, byte[] b, int bOffset) {
+        for (int i = 0; i < HASH_SIZE; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
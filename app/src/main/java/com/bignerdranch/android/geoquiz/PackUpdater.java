@@ -0,0 +1,333 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+/**
+ * Versioned question pack on the device, updated with {@link PackDelta}s against the installed version,
+ * so changing a few questions ships a few kilobytes instead of a new APK or the whole pack.
+ * <p>
+ * The directory holds the installed version as {@code <version>.gqpk} with its manifest {@code <version>.chunks},
+ * and the {@code current} file with the installed version number. An update writes the new version beside
+ * the installed one: unchanged chunks are copied from the installed file, patched chunks are verified against
+ * their hashes as they are written. The new files are synced, and renaming the new {@code current} over the old one
+ * is the single atomic switch. A crash at any point leaves either the old or the new version installed;
+ * the files of the other one are deleted the next time the updater looks at the directory.
+ * The old pack file is only unlinked, so a session which has it mapped keeps reading it until the next start.
+ * <p>
+ * Methods are synchronized, the updater may be used from any background thread.
+ */
+public class PackUpdater {
+
+    private static final String CURRENT_FILE = "current";
+    private static final String PACK_SUFFIX = ".gqpk";
+    private static final String MANIFEST_SUFFIX = ".chunks";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Source of the updates, e.g. the update server.
+     */
+    public interface Source {
+
+        /**
+         * Fetching the delta from the installed version to the latest one.
+         *
+         * @param installedVersion version installed on the device, 0 - none
+         * @return encoded {@link PackDelta}, null if the installed version is the latest
+         * @throws IOException if the delta can't be fetched, the update is retried later then
+         */
+        byte[] fetchDelta(long installedVersion) throws IOException;
+    }
+
+    /**
+     * Metrics of one applied update.
+     */
+    public static class Report {
+        private final long mFromVersion;
+        private final long mToVersion;
+        private final int mDeltaBytes;
+        private final long mBytesWritten;
+        private final long mBytesCopied;
+        private final int mChunksWritten;
+        private final int mChunkCount;
+        private final long mApplyNanos;
+
+        Report(long fromVersion, PackDelta delta, int deltaBytes, long applyNanos) {
+            PackManifest target = delta.getTarget();
+            mFromVersion = fromVersion;
+            mToVersion = target.getVersion();
+            mDeltaBytes = deltaBytes;
+            mBytesWritten = delta.getPatchedBytes();
+            mBytesCopied = target.getLength() - mBytesWritten;
+            mChunksWritten = delta.getPatchedChunkCount();
+            mChunkCount = target.getChunkCount();
+            mApplyNanos = applyNanos;
+        }
+
+        public long getFromVersion() {
+            return mFromVersion;
+        }
+
+        public long getToVersion() {
+            return mToVersion;
+        }
+
+        /**
+         * Size of the delta as it was downloaded.
+         */
+        public int getDeltaBytes() {
+            return mDeltaBytes;
+        }
+
+        /**
+         * Bytes rebuilt from the patches (and verified).
+         */
+        public long getBytesWritten() {
+            return mBytesWritten;
+        }
+
+        /**
+         * Bytes copied unchanged from the installed version.
+         */
+        public long getBytesCopied() {
+            return mBytesCopied;
+        }
+
+        public int getChunksWritten() {
+            return mChunksWritten;
+        }
+
+        public int getChunkCount() {
+            return mChunkCount;
+        }
+
+        /**
+         * Time of applying the delta, from reading it to the switch to the new version.
+         */
+        public long getApplyNanos() {
+            return mApplyNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH,
+                    "v%d -> v%d: delta %d B, written %d B (%d of %d chunks), copied %d B, %.1f ms",
+                    mFromVersion, mToVersion, mDeltaBytes, mBytesWritten, mChunksWritten, mChunkCount,
+                    mBytesCopied, mApplyNanos / 1e6);
+        }
+    }
+
+    private final File mDirectory;
+    private boolean mRecovered;
+    private PackManifest mManifest;
+
+    /**
+     * @param directory directory of the installed pack, created with the first update
+     */
+    public PackUpdater(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Version of the installed pack, 0 if there's none.
+     */
+    public synchronized long getInstalledVersion() throws IOException {
+        recover();
+        return mManifest != null ? mManifest.getVersion() : 0;
+    }
+
+    /**
+     * Manifest of the installed pack, null if there's none.
+     */
+    public synchronized PackManifest getInstalledManifest() throws IOException {
+        recover();
+        return mManifest;
+    }
+
+    /**
+     * File of the installed pack (open it with {@link QuestionPack#open(File)}), null if there's none.
+     */
+    public synchronized File getInstalledPack() throws IOException {
+        recover();
+        return mManifest != null ? packFile(mManifest.getVersion()) : null;
+    }
+
+    /**
+     * Fetching the delta to the latest version from the source and applying it.
+     *
+     * @return metrics of the update, null if the installed version is the latest
+     * @throws IOException if the delta can't be fetched or applied, the installed version stays then
+     */
+    public synchronized Report update(Source source) throws IOException {
+        byte[] delta = source.fetchDelta(getInstalledVersion());
+        return delta != null ? apply(delta) : null;
+    }
+
+    /**
+     * Applying the delta to the installed version and switching to the new version.
+     *
+     * @param delta encoded {@link PackDelta}
+     * @return metrics of the update
+     * @throws IOException if the delta can't be written, or {@link PackDelta.InvalidDeltaException} if it's
+     *                     malformed, doesn't apply to the installed version or fails verification;
+     *                     the installed version stays then
+     */
+    public synchronized Report apply(byte[] delta) throws IOException {
+        long start = System.nanoTime();
+        recover();
+        PackManifest installed = mManifest;
+        PackDelta parsed = PackDelta.read(delta, installed);
+        PackManifest target = parsed.getTarget();
+        if (installed != null && target.getVersion() <= installed.getVersion()) {
+            throw new PackDelta.InvalidDeltaException("Pack version " + target.getVersion()
+                    + " isn't newer than the installed " + installed.getVersion());
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Failed to create the pack directory " + mDirectory);
+        }
+
+        File pack = packFile(target.getVersion());
+        File manifest = manifestFile(target.getVersion());
+        boolean switched = false;
+        try {
+            writePack(parsed, installed, pack);
+            writeAtomically(manifest, target.encode());
+            // the switch: everything of the new version is durable before it
+            ByteArrayOutputStream current = new ByteArrayOutputStream(8);
+            new DataOutputStream(current).writeLong(target.getVersion());
+            writeAtomically(new File(mDirectory, CURRENT_FILE), current.toByteArray());
+            switched = true;
+        } finally {
+            if (!switched) {
+                deleteQuietly(pack);
+                deleteQuietly(new File(pack.getPath() + TEMP_SUFFIX));
+                deleteQuietly(manifest);
+                deleteQuietly(new File(manifest.getPath() + TEMP_SUFFIX));
+            }
+        }
+        mManifest = target;
+        if (installed != null) {
+            deleteQuietly(packFile(installed.getVersion()));
+            deleteQuietly(manifestFile(installed.getVersion()));
+        }
+        return new Report(installed != null ? installed.getVersion() : 0, parsed, delta.length,
+                System.nanoTime() - start);
+    }
+
+    /**
+     * Applying the delta downloaded to a file, see {@link #apply(byte[])}.
+     */
+    public synchronized Report apply(File deltaFile) throws IOException {
+        return apply(readFile(deltaFile));
+    }
+
+    private void writePack(PackDelta delta, PackManifest installed, File pack) throws IOException {
+        File temp = new File(pack.getPath() + TEMP_SUFFIX);
+        RandomAccessFile base = installed != null ? new RandomAccessFile(packFile(installed.getVersion()), "r") : null;
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            delta.apply(base != null ? base.getChannel() : null, out.getChannel());
+            if (out.getChannel().size() != delta.getTarget().getLength()) {
+                throw new PackDelta.InvalidDeltaException("Updated pack has a wrong length");
+            }
+            out.getFD().sync();
+        } finally {
+            out.close();
+            if (base != null) {
+                base.close();
+            }
+        }
+        if (!temp.renameTo(pack)) {
+            throw new IOException("Failed to move the updated pack to " + pack);
+        }
+    }
+
+    /**
+     * Finding the installed version and deleting whatever else is in the directory: the files of an interrupted
+     * update, or of the old version if the process died right after the switch.
+     */
+    private void recover() throws IOException {
+        if (mRecovered) {
+            return;
+        }
+        File current = new File(mDirectory, CURRENT_FILE);
+        long version = 0;
+        if (current.isFile()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(current));
+            try {
+                version = in.readLong();
+                mManifest = PackManifest.decode(readFile(manifestFile(version)));
+                if (mManifest.getVersion() != version || packFile(version).length() != mManifest.getLength()) {
+                    throw new IOException("Installed pack doesn't match its manifest");
+                }
+            } catch (IOException e) {
+                // the switch happens only after everything is synced, so that's a broken storage;
+                // dropping the installed version, the next update brings the whole pack
+                mManifest = null;
+                version = 0;
+            } finally {
+                in.close();
+            }
+        }
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                boolean installed = mManifest != null && (file.equals(current)
+                        || file.equals(packFile(version)) || file.equals(manifestFile(version)));
+                if (!installed) {
+                    deleteQuietly(file);
+                }
+            }
+        }
+        mRecovered = true;
+    }
+
+    private File packFile(long version) {
+        return new File(mDirectory, version + PACK_SUFFIX);
+    }
+
+    private File manifestFile(long version) {
+        return new File(mDirectory, version + MANIFEST_SUFFIX);
+    }
+
+    private static void writeAtomically(File file, byte[] data) throws IOException {
+        File temp = new File(file.getPath() + TEMP_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(data);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to move " + temp + " to " + file);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void deleteQuietly(File file) {
+        //noinspection ResultOfMethodCallIgnored - a file left behind is deleted by the next recovery
+        file.delete();
+    }
+}
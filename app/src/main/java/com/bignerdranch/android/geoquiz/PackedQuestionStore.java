@@ -0,0 +1,86 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Question store keeping the bank as primitive arrays ("struct of arrays"):
+ * packed int[] of text resource ids and a bitset of answers.
+ * It costs a bit over 4 bytes per question instead of a separate {@link Question} object
+ * plus a reference to it, and gives the GC nothing to trace.
+ * {@link Question} objects are created on demand as short-lived views.
+ */
+public class PackedQuestionStore implements QuestionStore {
+
+    private final int[] mTextResIds;
+    // one bit per question, set if the answer is true
+    private final long[] mAnswers;
+
+    /**
+     * Creating an empty store for the given number of questions, to be filled with {@link #set(int, int, boolean)}.
+     *
+     * @param size number of questions
+     */
+    public PackedQuestionStore(int size) {
+        mTextResIds = new int[size];
+        mAnswers = new long[(size + 63) >>> 6];
+    }
+
+    /**
+     * Packing existing question entities into the store.
+     *
+     * @param questions questions to pack
+     */
+    public PackedQuestionStore(Question... questions) {
+        this(questions.length);
+        for (int i = 0; i < questions.length; i++) {
+            set(i, questions[i].getTextResId(), questions[i].isAnswerTrue());
+        }
+    }
+
+    /**
+     * Setting the question with the given index.
+     *
+     * @param index      index of the question
+     * @param textResId  string resource id of the question's text
+     * @param answerTrue true, if the answer to the question is true
+     */
+    public void set(int index, int textResId, boolean answerTrue) {
+        mTextResIds[index] = textResId;
+        if (answerTrue) {
+            mAnswers[index >>> 6] |= 1L << index;
+        } else {
+            mAnswers[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    @Override
+    public int size() {
+        return mTextResIds.length;
+    }
+
+    @Override
+    public int getTextResId(int index) {
+        return mTextResIds[index];
+    }
+
+    /**
+     * Texts of the packed questions are always string resources.
+     *
+     * @return always null
+     */
+    @Override
+    public CharSequence getText(int index) {
+        return null;
+    }
+
+    @Override
+    public boolean isAnswerTrue(int index) {
+        if (index >= mTextResIds.length) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return (mAnswers[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public Question getQuestion(int index) {
+        return new Question(mTextResIds[index], isAnswerTrue(index));
+    }
+}
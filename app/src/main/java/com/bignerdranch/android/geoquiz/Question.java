@@ -1,12 +1,14 @@
 package com.bignerdranch.android.geoquiz;
 
 /**
- * Class for storing texts of the questions (with links to their string resource variables)
+ * Class for storing texts of the questions (with links to their string resource variables
+ * or plain texts for the questions loaded from question packs)
  * and answers in form of flags (true or false).
  */
 public class Question {
 
     private int mTextResId;
+    private CharSequence mText;
     private boolean mAnswerTrue;
 
     public Question(int textResId, boolean answerTrue) {
@@ -14,6 +16,11 @@ public class Question {
         this.mAnswerTrue = answerTrue;
     }
 
+    public Question(CharSequence text, boolean answerTrue) {
+        this.mText = text;
+        this.mAnswerTrue = answerTrue;
+    }
+
     public int getTextResId() {
         return mTextResId;
     }
@@ -22,6 +29,17 @@ public class Question {
         mTextResId = textResId;
     }
 
+    /**
+     * Plain text of the question, null if the text is a string resource (see getTextResId()).
+     */
+    public CharSequence getText() {
+        return mText;
+    }
+
+    public void setText(CharSequence text) {
+        mText = text;
+    }
+
     public boolean isAnswerTrue() {
         return mAnswerTrue;
     }
@@ -0,0 +1,258 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Streaming import of question bank exports (CSV or JSON) into binary question packs.
+ * Rows are parsed one at a time, validated and written to the pack in fixed-size batches,
+ * so the memory budget is the same for a 5 KB and a multi-GB export.
+ * Invalid rows are skipped and counted, the first few of them are reported with the reason.
+ * <p>
+ * Can also be run as a command line tool, see {@link #main(String[])}.
+ */
+public class QuestionImporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    /**
+     * Supported export formats.
+     */
+    public enum Format {
+        CSV,
+        JSON;
+
+        /**
+         * Format of the export by its file extension (.csv, .json, .jsonl or .ndjson).
+         */
+        public static Format forFileName(String fileName) {
+            String name = fileName.toLowerCase(Locale.ROOT);
+            if (name.endsWith(".csv")) {
+                return CSV;
+            }
+            if (name.endsWith(".json") || name.endsWith(".jsonl") || name.endsWith(".ndjson")) {
+                return JSON;
+            }
+            throw new IllegalArgumentException("Unknown export format: " + fileName);
+        }
+
+        public QuestionRowReader newReader(Reader in) {
+            return this == CSV ? new CsvQuestionReader(in) : new JsonQuestionReader(in);
+        }
+    }
+
+    /**
+     * Results of the import.
+     */
+    public static class Report {
+
+        private final long mImportedRows;
+        private final long mRejectedRows;
+        private final long mElapsedNanos;
+        private final long mPeakHeapBytes;
+        private final List<String> mErrors;
+
+        Report(long importedRows, long rejectedRows, long elapsedNanos, long peakHeapBytes, List<String> errors) {
+            mImportedRows = importedRows;
+            mRejectedRows = rejectedRows;
+            mElapsedNanos = elapsedNanos;
+            mPeakHeapBytes = peakHeapBytes;
+            mErrors = Collections.unmodifiableList(errors);
+        }
+
+        public long getImportedRows() {
+            return mImportedRows;
+        }
+
+        public long getRejectedRows() {
+            return mRejectedRows;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        /**
+         * Rows (imported and rejected) processed per second.
+         */
+        public double getRowsPerSecond() {
+            return mElapsedNanos == 0 ? 0 : (mImportedRows + mRejectedRows) * 1e9 / mElapsedNanos;
+        }
+
+        /**
+         * Peak heap usage of the process, sampled after every batch.
+         */
+        public long getPeakHeapBytes() {
+            return mPeakHeapBytes;
+        }
+
+        /**
+         * Reasons of rejecting the first rejected rows.
+         */
+        public List<String> getErrors() {
+            return mErrors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH,
+                    "imported %,d rows, rejected %,d rows in %.2f s (%,.0f rows/s), peak heap %,d KB",
+                    mImportedRows, mRejectedRows, mElapsedNanos / 1e9, getRowsPerSecond(), mPeakHeapBytes / 1024);
+        }
+    }
+
+    private final int mBatchSize;
+    // current batch, preallocated once
+    private final String[] mBatchTexts;
+    private final boolean[] mBatchAnswers;
+
+    public QuestionImporter() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    public QuestionImporter(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        mBatchSize = batchSize;
+        mBatchTexts = new String[batchSize];
+        mBatchAnswers = new boolean[batchSize];
+    }
+
+    /**
+     * Importing all the rows of the export into the question pack.
+     * The reader is read up to the end, but neither the reader nor the writer is closed.
+     *
+     * @param rows   rows of the export
+     * @param writer writer of the question pack
+     * @return results of the import
+     * @throws IOException if the export is malformed or the pack can't be written
+     */
+    public Report importQuestions(QuestionRowReader rows, QuestionPackWriter writer) throws IOException {
+        long start = System.nanoTime();
+        long imported = 0;
+        long rejected = 0;
+        long peakHeap = usedHeap();
+        List<String> errors = new ArrayList<>();
+        int batched = 0;
+
+        while (rows.next()) {
+            String error = validate(rows);
+            if (error != null) {
+                rejected++;
+                if (errors.size() < MAX_REPORTED_ERRORS) {
+                    errors.add("Row " + rows.getRowNumber() + ": " + error);
+                }
+                continue;
+            }
+
+            mBatchTexts[batched] = rows.getText().trim();
+            mBatchAnswers[batched] = parseAnswer(rows.getAnswer());
+            batched++;
+            if (batched == mBatchSize) {
+                flush(writer, batched);
+                imported += batched;
+                batched = 0;
+                peakHeap = Math.max(peakHeap, usedHeap());
+            }
+        }
+        flush(writer, batched);
+        imported += batched;
+        peakHeap = Math.max(peakHeap, usedHeap());
+
+        return new Report(imported, rejected, System.nanoTime() - start, peakHeap, errors);
+    }
+
+    /**
+     * Checking the current row.
+     *
+     * @return reason of rejecting the row, null if the row is valid
+     */
+    static String validate(QuestionRowReader row) {
+        if (row.isTruncated()) {
+            return "field is longer than " + QuestionRowReader.MAX_FIELD_LENGTH + " chars";
+        }
+        String text = row.getText();
+        if (text == null || text.trim().isEmpty()) {
+            return "text of the question is missing";
+        }
+        String answer = row.getAnswer();
+        if (answer == null) {
+            return "answer is missing";
+        }
+        if (!isValidAnswer(answer)) {
+            return "answer \"" + answer + "\" is not true/false";
+        }
+        return null;
+    }
+
+    private static boolean isValidAnswer(String answer) {
+        String value = answer.trim();
+        return value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false")
+                || value.equals("1") || value.equals("0");
+    }
+
+    private static boolean parseAnswer(String answer) {
+        String value = answer.trim();
+        return value.equalsIgnoreCase("true") || value.equals("1");
+    }
+
+    private void flush(QuestionPackWriter writer, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            writer.add(mBatchTexts[i], mBatchAnswers[i]);
+            mBatchTexts[i] = null;
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Importing an export file into a question pack, the format is chosen by the extension of the export.
+     * As with {@link QuestionPackWriter#main(String[])}, the pack replaces the output only when the import succeeds.
+     * <p>
+     * Usage: QuestionImporter &lt;export.csv|export.json&gt; &lt;output.gqpk&gt;
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: QuestionImporter <export.csv|export.json> <output.gqpk>");
+            System.exit(2);
+        }
+
+        Format format = Format.forFileName(args[0]);
+        QuestionRowReader rows = format.newReader(
+                new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8));
+        File output = new File(args[1]);
+        File temp = QuestionPackWriter.tempFile(output);
+        QuestionPackWriter writer = new QuestionPackWriter(temp);
+        Report report;
+        boolean written = false;
+        try {
+            report = new QuestionImporter().importQuestions(rows, writer);
+            writer.close();
+            written = true;
+        } finally {
+            rows.close();
+            if (!written) {
+                writer.abort();
+            }
+        }
+        QuestionPackWriter.moveTo(temp, output);
+
+        System.out.println(report);
+        for (String error : report.getErrors()) {
+            System.out.println("  " + error);
+        }
+    }
+}
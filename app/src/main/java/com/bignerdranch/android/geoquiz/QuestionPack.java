@@ -0,0 +1,144 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Question store reading a binary question pack through a memory-mapped file.
+ * Opening the pack only maps the file and validates the header, so it costs the same for any size of the pack.
+ * Texts are decoded lazily, one question at a time, straight from the mapped pages.
+ * <p>
+ * Pack format (version 1, big-endian):
+ * <pre>
+ * 0   int  magic "GQPK"
+ * 4   int  format version
+ * 8   int  number of questions (n)
+ * 12  int  reserved, 0
+ * 16  long offset of the index
+ * 24  long offset of the texts
+ * ... texts of the questions in UTF-8, back to back
+ * ... index: n + 1 ints, bit 31 - answer to the question, bits 0..30 - offset of its text
+ *     relative to the texts; the last entry is the total length of the texts
+ * </pre>
+ * Packs are created by {@link QuestionPackWriter}.
+ */
+public class QuestionPack implements QuestionStore {
+
+    static final int MAGIC = 0x4751504B; // "GQPK"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int ANSWER_FLAG = 0x80000000;
+
+    private final ByteBuffer mBuffer;
+    private final int mQuestionCount;
+    private final int mIndexOffset;
+    private final int mDataOffset;
+
+    private QuestionPack(ByteBuffer buffer, int questionCount, int indexOffset, int dataOffset) {
+        mBuffer = buffer;
+        mQuestionCount = questionCount;
+        mIndexOffset = indexOffset;
+        mDataOffset = dataOffset;
+    }
+
+    /**
+     * Mapping the pack file into memory and validating its header.
+     *
+     * @param file question pack file
+     * @return question store backed by the pack
+     * @throws IOException if the file can't be read or isn't a valid question pack
+     */
+    public static QuestionPack open(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Question pack is larger than 2 GB: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return wrap(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reading a question pack which is already in memory (e.g. bundled asset or test data).
+     *
+     * @param buffer contents of the pack
+     * @return question store backed by the buffer
+     * @throws IOException if the buffer doesn't hold a valid question pack
+     */
+    public static QuestionPack wrap(ByteBuffer buffer) throws IOException {
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a question pack");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported question pack version " + version);
+        }
+        int questionCount = buffer.getInt(8);
+        long indexOffset = buffer.getLong(16);
+        long dataOffset = buffer.getLong(24);
+        if (questionCount < 0 || dataOffset != HEADER_SIZE || indexOffset < dataOffset
+                || indexOffset + 4L * (questionCount + 1) > buffer.capacity()) {
+            throw new IOException("Corrupted question pack header");
+        }
+        return new QuestionPack(buffer, questionCount, (int) indexOffset, (int) dataOffset);
+    }
+
+    @Override
+    public int size() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Texts of the pack questions aren't string resources.
+     *
+     * @return always 0
+     */
+    @Override
+    public int getTextResId(int index) {
+        checkIndex(index);
+        return 0;
+    }
+
+    @Override
+    public CharSequence getText(int index) {
+        checkIndex(index);
+        int start = entry(index) & ~ANSWER_FLAG;
+        int end = entry(index + 1) & ~ANSWER_FLAG;
+        ByteBuffer text = mBuffer.duplicate();
+        text.limit(mDataOffset + end);
+        text.position(mDataOffset + start);
+        return StandardCharsets.UTF_8.decode(text).toString();
+    }
+
+    @Override
+    public boolean isAnswerTrue(int index) {
+        checkIndex(index);
+        return (entry(index) & ANSWER_FLAG) != 0;
+    }
+
+    @Override
+    public Question getQuestion(int index) {
+        return new Question(getText(index), isAnswerTrue(index));
+    }
+
+    private int entry(int index) {
+        return mBuffer.getInt(mIndexOffset + 4 * index);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mQuestionCount) {
+            throw new IndexOutOfBoundsException("Question index " + index + " is out of range");
+        }
+    }
+}
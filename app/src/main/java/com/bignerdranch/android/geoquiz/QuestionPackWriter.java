@@ -0,0 +1,230 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer of binary question packs read by {@link QuestionPack}.
+ * Questions are streamed to the file as they are added: texts go straight to the pack,
+ * index entries go to a temporary side file which is appended to the pack on {@link #close()}.
+ * So memory usage doesn't depend on the number of questions.
+ * <p>
+ * Can also be run as a command line tool, see {@link #main(String[])}.
+ */
+public class QuestionPackWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File mFile;
+    private final File mIndexFile;
+    private final FileOutputStream mFileStream;
+    private final OutputStream mData;
+    private final DataOutputStream mIndex;
+
+    private int mQuestionCount;
+    private long mDataLength;
+    private boolean mClosed;
+    private boolean mWritten;
+
+    public QuestionPackWriter(File file) throws IOException {
+        mFile = file;
+        mIndexFile = new File(file.getPath() + ".index");
+        mFileStream = new FileOutputStream(file);
+        mData = new BufferedOutputStream(mFileStream, BUFFER_SIZE);
+        // header is written on close, when the sizes are known
+        mData.write(new byte[QuestionPack.HEADER_SIZE]);
+        mIndex = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mIndexFile), BUFFER_SIZE));
+    }
+
+    /**
+     * Number of questions added so far.
+     */
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Appending the question to the pack.
+     *
+     * @param text       text of the question
+     * @param answerTrue true, if the answer to the question is true
+     */
+    public void add(String text, boolean answerTrue) throws IOException {
+        if (mClosed) {
+            throw new IllegalStateException("Question pack is already written");
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        if (mDataLength + bytes.length > Integer.MAX_VALUE - QuestionPack.HEADER_SIZE) {
+            throw new IOException("Question pack is full");
+        }
+        mIndex.writeInt((int) mDataLength | (answerTrue ? QuestionPack.ANSWER_FLAG : 0));
+        mData.write(bytes);
+        mDataLength += bytes.length;
+        mQuestionCount++;
+    }
+
+    /**
+     * Finishing the pack: appending the index and writing the header.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            // the last index entry is the total length of the texts
+            mIndex.writeInt((int) mDataLength);
+            mIndex.close();
+
+            long indexOffset = QuestionPack.HEADER_SIZE + mDataLength;
+            if (indexOffset + mIndexFile.length() > Integer.MAX_VALUE) {
+                throw new IOException("Question pack is larger than 2 GB");
+            }
+            copyIndex();
+            mData.close();
+            writeHeader(indexOffset);
+            mWritten = true;
+        } finally {
+            mIndex.close();
+            mData.close();
+            if (!mIndexFile.delete()) {
+                mIndexFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Abandoning the pack after a failure: the streams are closed without writing the index and the header,
+     * and the unfinished pack is deleted along with the side file, so no truncated pack is left to be opened.
+     * Does nothing if the pack is written already, also cleans up after a failed {@link #close()}.
+     */
+    public void abort() {
+        if (mWritten) {
+            return;
+        }
+        mClosed = true;
+        closeQuietly(mIndex);
+        closeQuietly(mData);
+        if (!mIndexFile.delete()) {
+            mIndexFile.deleteOnExit();
+        }
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // the file is deleted anyway
+        }
+    }
+
+    private void copyIndex() throws IOException {
+        FileInputStream index = new FileInputStream(mIndexFile);
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = index.read(buffer)) != -1) {
+                mData.write(buffer, 0, read);
+            }
+        } finally {
+            index.close();
+        }
+    }
+
+    private void writeHeader(long indexOffset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(QuestionPack.HEADER_SIZE);
+        header.putInt(QuestionPack.MAGIC)
+                .putInt(QuestionPack.VERSION)
+                .putInt(mQuestionCount)
+                .putInt(0)
+                .putLong(indexOffset)
+                .putLong(QuestionPack.HEADER_SIZE);
+        RandomAccessFile raf = new RandomAccessFile(mFile, "rw");
+        try {
+            raf.write(header.array());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Packing questions from a text file, one question per line: "true" or "false", tab, text of the question.
+     * Empty lines and lines starting with '#' are skipped.
+     * The pack is written next to the output and moved over it only when it's complete,
+     * so a failed run leaves the previous output as it was.
+     * <p>
+     * Usage: QuestionPackWriter &lt;input.tsv&gt; &lt;output.gqpk&gt;
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: QuestionPackWriter <input.tsv> <output.gqpk>");
+            System.exit(2);
+        }
+
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(args[0]), StandardCharsets.UTF_8));
+        File output = new File(args[1]);
+        File temp = tempFile(output);
+        QuestionPackWriter writer = new QuestionPackWriter(temp);
+        boolean written = false;
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int tab = line.indexOf('\t');
+                String answer = tab < 0 ? "" : line.substring(0, tab).trim();
+                if (!answer.equalsIgnoreCase("true") && !answer.equalsIgnoreCase("false")) {
+                    throw new IOException("Line " + lineNumber + ": expected \"true|false<TAB>text\"");
+                }
+                writer.add(line.substring(tab + 1), Boolean.parseBoolean(answer));
+            }
+            writer.close();
+            written = true;
+        } finally {
+            reader.close();
+            if (!written) {
+                writer.abort();
+            }
+        }
+        moveTo(temp, output);
+        System.out.println("Packed " + writer.getQuestionCount() + " questions into " + args[1]);
+    }
+
+    /**
+     * Side file the pack for the output is written to by the command line tools.
+     */
+    static File tempFile(File output) {
+        return new File(output.getPath() + ".tmp");
+    }
+
+    /**
+     * Moving the complete pack from its side file over the output.
+     */
+    static void moveTo(File temp, File output) throws IOException {
+        if (!temp.renameTo(output)) {
+            if (!temp.delete()) {
+                temp.deleteOnExit();
+            }
+            throw new IOException("Failed to move the question pack to " + output);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * Prefetch of the rendered question texts: after every navigation the texts of the next and
+ * the previous questions (as NEXT and PREV would go, looping over the bank) are resolved and rendered
+ * on a background executor and kept in a {@link QuestionTextCache}, so showing a question on tap
+ * is only a cache lookup. A miss is rendered on the calling thread.
+ *
+ * @param <V> rendered text
+ */
+public class QuestionPrefetcher<V> {
+
+    /**
+     * Resolving and rendering the text of a question, called on the prefetch executor
+     * (and on the calling thread of {@link #get(int)} for misses).
+     */
+    public interface Renderer<V> {
+        V render(int index);
+    }
+
+    private final Renderer<V> mRenderer;
+    private final QuestionTextCache<V> mCache;
+    private final Executor mExecutor;
+    private final int mQuestionCount;
+    private final int mDistance;
+
+    // questions which are being rendered on the executor, guarded by itself
+    private final Set<Integer> mInFlight = new HashSet<>();
+    private long mPrefetched;
+
+    /**
+     * @param questionCount number of questions in the bank
+     * @param distance      number of questions to prefetch in each direction
+     * @param cache         cache of the texts, should hold more than 2 * distance + 1 texts
+     * @param executor      executor of the prefetch (a background thread)
+     */
+    public QuestionPrefetcher(Renderer<V> renderer, int questionCount, int distance,
+                              QuestionTextCache<V> cache, Executor executor) {
+        mRenderer = renderer;
+        mQuestionCount = questionCount;
+        mDistance = Math.min(distance, questionCount / 2);
+        mCache = cache;
+        mExecutor = executor;
+    }
+
+    public QuestionTextCache<V> getCache() {
+        return mCache;
+    }
+
+    /**
+     * Number of texts rendered by the prefetch.
+     */
+    public long getPrefetched() {
+        synchronized (mInFlight) {
+            return mPrefetched;
+        }
+    }
+
+    /**
+     * Rendered text of the question: from the cache, or rendered right now on a miss.
+     */
+    public V get(int index) {
+        V value = mCache.get(index);
+        if (value == null) {
+            value = mRenderer.render(index);
+            mCache.put(index, value);
+        }
+        return value;
+    }
+
+    /**
+     * Prefetching the questions around the current one, nearest first.
+     */
+    public void prefetchAround(int currentIndex) {
+        for (int step = 1; step <= mDistance; step++) {
+            prefetch((currentIndex + step) % mQuestionCount);
+            prefetch((currentIndex - step + mQuestionCount) % mQuestionCount);
+        }
+    }
+
+    /**
+     * Prefetching one question (e.g. the one the adaptive order will show next).
+     */
+    public void prefetch(final int index) {
+        if (mCache.contains(index)) {
+            return;
+        }
+        synchronized (mInFlight) {
+            if (!mInFlight.add(index)) {
+                return;
+            }
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!mCache.contains(index)) {
+                        mCache.put(index, mRenderer.render(index));
+                        synchronized (mInFlight) {
+                            mPrefetched++;
+                        }
+                    }
+                } finally {
+                    synchronized (mInFlight) {
+                        mInFlight.remove(index);
+                    }
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,45 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streaming source of raw question rows parsed from an export of the question bank (CSV, JSON...).
+ * Rows are read one at a time, so readers never hold more than one row in memory.
+ * Values are returned as they are in the export, validation is up to {@link QuestionImporter}.
+ */
+public interface QuestionRowReader extends Closeable {
+
+    /**
+     * Limit of the field length in chars, longer fields are truncated and reported via {@link #isTruncated()}.
+     */
+    int MAX_FIELD_LENGTH = 16 * 1024;
+
+    /**
+     * Advancing to the next row.
+     *
+     * @return true if the row was read, false - end of the input
+     * @throws IOException if the input can't be read or is malformed
+     */
+    boolean next() throws IOException;
+
+    /**
+     * @return text of the question in the current row, null if the row doesn't have it
+     */
+    String getText();
+
+    /**
+     * @return answer to the question in the current row as written in the export, null if the row doesn't have it
+     */
+    String getAnswer();
+
+    /**
+     * @return true, if some field of the current row exceeded {@link #MAX_FIELD_LENGTH}
+     */
+    boolean isTruncated();
+
+    /**
+     * @return number of the current row, starting from 1
+     */
+    long getRowNumber();
+}
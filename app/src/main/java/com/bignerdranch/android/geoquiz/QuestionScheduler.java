@@ -0,0 +1,213 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Adaptive order of the questions (spaced repetition): the next question is the one which is due first,
+ * questions with more past mistakes go first among equally due ones.
+ * <p>
+ * A correct answer moves the question to the next "box" and doubles the interval until it's due again
+ * (one round for the first box, two for the second one...), a wrong (or cheated) answer returns it
+ * to the first box and makes it due at once, so it comes back early in the next round.
+ * Time is counted in answers, a round is as many answers as there are questions.
+ * <p>
+ * Questions of the current round are kept in an indexed binary heap (the heap plus the position of every
+ * question in it), so answering a question costs O(log n) and picking the next one is O(1),
+ * even for banks of millions of questions. Answered questions leave the round, {@link #newRound()}
+ * brings them all back with their new due times.
+ */
+public class QuestionScheduler {
+
+    // interval of the last box is 2^(MAX_BOX - 1) rounds
+    public static final int MAX_BOX = 20;
+
+    private final int mQuestionCount;
+
+    // heap of the questions of the current round, mHeapSize first elements are used
+    private final int[] mHeap;
+    // position of the question in the heap, -1 if it isn't in the current round
+    private final int[] mPosition;
+    private int mHeapSize;
+
+    private final long[] mDue;
+    private final int[] mMistakes;
+    private final byte[] mBox;
+    private long mNow;
+
+    public QuestionScheduler(int questionCount) {
+        mQuestionCount = questionCount;
+        mHeap = new int[questionCount];
+        mPosition = new int[questionCount];
+        mDue = new long[questionCount];
+        mMistakes = new int[questionCount];
+        mBox = new byte[questionCount];
+        // everything is due at once, so the questions in order are already a valid heap
+        for (int i = 0; i < questionCount; i++) {
+            mHeap[i] = i;
+            mPosition[i] = i;
+        }
+        mHeapSize = questionCount;
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Number of questions left in the current round.
+     */
+    public int getRemaining() {
+        return mHeapSize;
+    }
+
+    public boolean isInRound(int index) {
+        return mPosition[index] >= 0;
+    }
+
+    public long getDue(int index) {
+        return mDue[index];
+    }
+
+    public int getMistakes(int index) {
+        return mMistakes[index];
+    }
+
+    public int getBox(int index) {
+        return mBox[index];
+    }
+
+    /**
+     * The question to ask next.
+     *
+     * @return index of the question, -1 if the round is over
+     */
+    public int next() {
+        return mHeapSize > 0 ? mHeap[0] : -1;
+    }
+
+    /**
+     * The question to ask next other than the given one (e.g. the one on the screen, which stays in the round
+     * until it's answered). If the given one is the first in the heap, the second one is a child of the root.
+     *
+     * @return index of the question, -1 if there's no other question in the round
+     */
+    public int nextOtherThan(int index) {
+        if (mHeapSize == 0) {
+            return -1;
+        }
+        if (mHeap[0] != index) {
+            return mHeap[0];
+        }
+        if (mHeapSize == 1) {
+            return -1;
+        }
+        return mHeapSize == 2 || isBefore(mHeap[1], mHeap[2]) ? mHeap[1] : mHeap[2];
+    }
+
+    /**
+     * Recording the answer to the question: rescheduling it and taking it out of the current round.
+     *
+     * @param index   index of the question
+     * @param correct true, if the answer was correct (cheated answers aren't)
+     */
+    public void record(int index, boolean correct) {
+        mNow++;
+        if (correct) {
+            if (mBox[index] < MAX_BOX) {
+                mBox[index]++;
+            }
+            mDue[index] = mNow + ((long) mQuestionCount << (mBox[index] - 1));
+        } else {
+            mBox[index] = 0;
+            mMistakes[index]++;
+            mDue[index] = mNow;
+        }
+        removeFromRound(index);
+    }
+
+    /**
+     * Taking the question out of the current round without answering it (e.g. answered before restoring the state).
+     */
+    public void removeFromRound(int index) {
+        int position = mPosition[index];
+        if (position < 0) {
+            return;
+        }
+        mPosition[index] = -1;
+        mHeapSize--;
+        if (position == mHeapSize) {
+            return;
+        }
+        int last = mHeap[mHeapSize];
+        mHeap[position] = last;
+        mPosition[last] = position;
+        if (!siftUp(position)) {
+            siftDown(position);
+        }
+    }
+
+    /**
+     * Starting a new round with all the questions, ordered by their due times. O(n).
+     */
+    public void newRound() {
+        for (int i = 0; i < mQuestionCount; i++) {
+            mHeap[i] = i;
+            mPosition[i] = i;
+        }
+        mHeapSize = mQuestionCount;
+        for (int i = (mHeapSize >>> 1) - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * @return true, if the element has moved
+     */
+    private boolean siftUp(int position) {
+        int question = mHeap[position];
+        int start = position;
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            int parentQuestion = mHeap[parent];
+            if (!isBefore(question, parentQuestion)) {
+                break;
+            }
+            mHeap[position] = parentQuestion;
+            mPosition[parentQuestion] = position;
+            position = parent;
+        }
+        mHeap[position] = question;
+        mPosition[question] = position;
+        return position != start;
+    }
+
+    private void siftDown(int position) {
+        int question = mHeap[position];
+        int half = mHeapSize >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < mHeapSize && isBefore(mHeap[right], mHeap[child])) {
+                child = right;
+            }
+            int childQuestion = mHeap[child];
+            if (!isBefore(childQuestion, question)) {
+                break;
+            }
+            mHeap[position] = childQuestion;
+            mPosition[childQuestion] = position;
+            position = child;
+        }
+        mHeap[position] = question;
+        mPosition[question] = position;
+    }
+
+    // due first, then more mistakes, then lower index
+    private boolean isBefore(int a, int b) {
+        if (mDue[a] != mDue[b]) {
+            return mDue[a] < mDue[b];
+        }
+        if (mMistakes[a] != mMistakes[b]) {
+            return mMistakes[a] > mMistakes[b];
+        }
+        return a < b;
+    }
+}
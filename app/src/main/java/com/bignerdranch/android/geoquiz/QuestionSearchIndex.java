@@ -0,0 +1,229 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Inverted index over the texts of the questions, for "jump to the question about the Nile".
+ * <p>
+ * Texts are split into lowercase tokens of letters and digits. Every token has a posting list
+ * of the questions containing it, stored as varint deltas of ascending indices (1-2 bytes per entry
+ * in large banks). Tokens are kept sorted, so a query token also matches as a prefix: "nil" finds "Nile".
+ * A query with several tokens finds the questions containing all of them.
+ * <p>
+ * Questions are added in index order and may come in chunks while a pack loads, the index answers
+ * queries over the questions added so far. All methods are synchronized, so the index may be built
+ * in background while the UI queries it.
+ */
+public class QuestionSearchIndex {
+
+    private final TreeMap<String, Posting> mPostings = new TreeMap<>();
+    // number of indexed questions, the next question must have this index
+    private int mQuestionCount;
+
+    /**
+     * Posting list of one token.
+     */
+    private static class Posting {
+        byte[] mBytes = new byte[4];
+        int mSize;
+        int mLast = -1;
+
+        void add(int index) {
+            if (index == mLast) {
+                return; // the token repeats in the same question
+            }
+            int delta = index - mLast;
+            mLast = index;
+            if (mSize + 5 > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, mBytes.length * 2);
+            }
+            while ((delta & ~0x7f) != 0) {
+                mBytes[mSize++] = (byte) ((delta & 0x7f) | 0x80);
+                delta >>>= 7;
+            }
+            mBytes[mSize++] = (byte) delta;
+        }
+
+        void decodeInto(long[] bits) {
+            int index = -1;
+            int position = 0;
+            while (position < mSize) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = mBytes[position++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                index += delta;
+                bits[index >>> 6] |= 1L << index;
+            }
+        }
+    }
+
+    /**
+     * Number of questions in the index.
+     */
+    public synchronized int size() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Number of distinct tokens in the index.
+     */
+    public synchronized int getTokenCount() {
+        return mPostings.size();
+    }
+
+    /**
+     * Size of all the posting lists, in bytes.
+     */
+    public synchronized long getPostingBytes() {
+        long bytes = 0;
+        for (Posting posting : mPostings.values()) {
+            bytes += posting.mSize;
+        }
+        return bytes;
+    }
+
+    /**
+     * Indexing the text of the next question.
+     *
+     * @param index index of the question, must be {@link #size()}
+     * @param text  text of the question
+     */
+    public synchronized void add(int index, CharSequence text) {
+        if (index != mQuestionCount) {
+            throw new IllegalArgumentException("Expected question " + mQuestionCount + ", got " + index);
+        }
+        mQuestionCount++;
+        for (String token : tokenize(text)) {
+            Posting posting = mPostings.get(token);
+            if (posting == null) {
+                posting = new Posting();
+                mPostings.put(token, posting);
+            }
+            posting.add(index);
+        }
+    }
+
+    /**
+     * Indices of the questions matching the query, in ascending order.
+     *
+     * @param query tokens to find, every one of them also matches as a prefix
+     * @param limit maximal number of results
+     * @throws IllegalArgumentException if the limit is negative
+     */
+    public synchronized int[] search(String query, int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Negative limit: " + limit);
+        }
+        long[] matches = match(query);
+        int[] results = new int[Math.min(limit, 16)];
+        int count = 0;
+        for (int word = 0; matches != null && word < matches.length && count < limit; word++) {
+            long bits = matches[word];
+            while (bits != 0 && count < limit) {
+                if (count == results.length) {
+                    results = Arrays.copyOf(results, Math.min(limit, count * 2));
+                }
+                results[count++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+            }
+        }
+        return Arrays.copyOf(results, count);
+    }
+
+    /**
+     * First question matching the query at the given index or after it, looping to the beginning.
+     * This is the "find next" for jumping between matches.
+     *
+     * @return index of the question, -1 if nothing matches
+     */
+    public synchronized int findNext(String query, int fromIndex) {
+        long[] matches = match(query);
+        if (matches == null) {
+            return -1;
+        }
+        int found = nextSetBit(matches, Math.max(0, fromIndex));
+        return found >= 0 ? found : nextSetBit(matches, 0);
+    }
+
+    /**
+     * Bitset of the questions matching all the query tokens, null if there are none.
+     */
+    private long[] match(String query) {
+        List<String> tokens = tokenize(query);
+        if (tokens.isEmpty() || mQuestionCount == 0) {
+            return null;
+        }
+        long[] result = null;
+        long[] tokenBits = new long[(mQuestionCount + 63) >>> 6];
+        for (String token : tokens) {
+            Arrays.fill(tokenBits, 0L);
+            // all the tokens starting with the query token: from token up to (not including) token + max char
+            SortedMap<String, Posting> range = mPostings.subMap(token, token + Character.MAX_VALUE);
+            if (range.isEmpty()) {
+                return null;
+            }
+            for (Map.Entry<String, Posting> entry : range.entrySet()) {
+                entry.getValue().decodeInto(tokenBits);
+            }
+            if (result == null) {
+                result = tokenBits.clone();
+            } else {
+                boolean any = false;
+                for (int i = 0; i < result.length; i++) {
+                    result[i] &= tokenBits[i];
+                    any |= result[i] != 0;
+                }
+                if (!any) {
+                    return null;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Splitting the text into lowercase tokens of letters and digits, the same way for the questions and the queries.
+     */
+    private static List<String> tokenize(CharSequence text) {
+        List<String> tokens = new ArrayList<>();
+        StringBuilder token = new StringBuilder();
+        int length = text.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                token.append(Character.toLowerCase(c));
+            } else if (token.length() > 0) {
+                tokens.add(token.toString());
+                token.setLength(0);
+            }
+        }
+        return tokens;
+    }
+
+    private static int nextSetBit(long[] bits, int from) {
+        int word = from >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long current = bits[word] & (-1L << from);
+        while (true) {
+            if (current != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(current);
+            }
+            if (++word == bits.length) {
+                return -1;
+            }
+            current = bits[word];
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Read-only storage of the question bank: texts of the questions (as string resource ids)
+ * and answers to them, addressed by the index of the question.
+ */
+public interface QuestionStore {
+
+    /**
+     * Total number of questions in the store.
+     */
+    int size();
+
+    /**
+     * @param index index of the question
+     * @return string resource id of the question's text
+     */
+    int getTextResId(int index);
+
+    /**
+     * Text of the question for the stores which don't keep texts as string resources (e.g. question packs).
+     *
+     * @param index index of the question
+     * @return text of the question, or null if the text is a string resource (see {@link #getTextResId(int)})
+     */
+    CharSequence getText(int index);
+
+    /**
+     * @param index index of the question
+     * @return true, if the answer to the question is true
+     */
+    boolean isAnswerTrue(int index);
+
+    /**
+     * Question entity for the callers working with {@link Question} objects.
+     * Stores are free to create it on demand, so callers shouldn't hold on to it.
+     *
+     * @param index index of the question
+     * @return question with the given index
+     */
+    Question getQuestion(int index);
+}
@@ -0,0 +1,100 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU cache of rendered question texts, keyed by the index of the question.
+ * Counts hits, misses and evictions, so the prefetch distance and the size can be tuned.
+ * Thread-safe: the UI thread reads it while the prefetch thread fills it.
+ *
+ * @param <V> rendered text (e.g. pre-measured text on Android, plain text on the JVM)
+ */
+public class QuestionTextCache<V> {
+
+    private final int mMaxSize;
+    private final LinkedHashMap<Integer, V> mEntries;
+
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+
+    public QuestionTextCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        mMaxSize = maxSize;
+        // access order: iteration starts from the least recently used entry
+        mEntries = new LinkedHashMap<Integer, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, V> eldest) {
+                if (size() > mMaxSize) {
+                    mEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * Looking up the text, counted as a hit or a miss.
+     *
+     * @return the text, null if it isn't cached
+     */
+    public synchronized V get(int index) {
+        V value = mEntries.get(index);
+        if (value != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return value;
+    }
+
+    /**
+     * Checking if the text is cached, without counting it or refreshing the entry.
+     */
+    public synchronized boolean contains(int index) {
+        return mEntries.containsKey(index);
+    }
+
+    /**
+     * Caching the text, the least recently used text is evicted if the cache is full.
+     */
+    public synchronized void put(int index, V value) {
+        mEntries.put(index, value);
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * Share of the lookups which were hits, 0 if there were no lookups.
+     */
+    public synchronized double getHitRate() {
+        long lookups = mHits + mMisses;
+        return lookups == 0 ? 0 : (double) mHits / lookups;
+    }
+}
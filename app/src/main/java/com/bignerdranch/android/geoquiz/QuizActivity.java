@@ -2,9 +2,15 @@ package com.bignerdranch.android.geoquiz;
 
 import android.app.Activity;
 import android.content.Intent;
+import android.content.res.Resources;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.view.Gravity;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.widget.Button;
 import android.widget.ImageButton;
@@ -13,24 +19,74 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
-
-import java.util.HashMap;
+import androidx.appcompat.widget.SearchView;
+import androidx.core.os.ConfigurationCompat;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
-public class QuizActivity extends AppCompatActivity {
+public class QuizActivity extends AppCompatActivity implements CheatReveal.Host {
 
     // string keys for saving and loading various parameters of the activity
     private static final String TAG = "QuizActivity";
-    private static final String KEY_INDEX = "index";
-    private static final String ANSWERED_QUESTIONS_KEY = "answeredQuestions";
-    private static final String CORRECT_ANSWERS_KEY = "correctAnswers";
-    private static final String FINISHED_KEY = "isQuizFinished";
-    private static final String CHEATER_KEY = "isCheater";
-    private static final String CHEAT_COUNTER_KEY = "mCheatCount";
+    private static final String SESSION_STATE_KEY = "sessionState";
+    private static final String RESULT_STATE_KEY = "resultState";
+    private static final String ADAPTIVE_ORDER_KEY = "adaptiveOrder";
+    private static final String BANK_KEY_KEY = "bankKey";
 
     private static final int REQUEST_CODE_CHEAT = 0;
-    private static final int MAX_CHEAT_COUNT = 3;
+
+    // question pack in the app's files dir which replaces the built-in questions, if present
+    private static final String QUESTION_PACK_FILE = "questions.gqpk";
+    // question pack with the texts in many locales, preferred to the single-locale one
+    private static final String LOCALIZED_PACK_FILE = "questions.gqlp";
+    // journal of the session events in the app's files dir, keeps the progress after the process death
+    private static final String SESSION_JOURNAL_FILE = "session.journal";
+    // times of the last cheats in the app's files dir, "Start again" doesn't reset them
+    private static final String CHEAT_WINDOW_FILE = "cheats";
+    // metrics dump in the app's files dir, appended when the activity stops
+    private static final String METRICS_FILE = "metrics.txt";
+    // pending results and the outbox of the result batches in the app's files dir
+    private static final String RESULTS_DIR = "results";
+    // versioned question pack in the app's files dir, updated with deltas
+    private static final String PACK_UPDATES_DIR = "packs";
+    // downloaded delta to the next version of the pack, applied in background
+    private static final String PACK_DELTA_FILE = "questions.gqpd";
+
+    // one exporter for all the instances of the activity, they share the pending results
+    private static ResultExporter sResultExporter;
+    // scheduler of the adaptive order, handed over from an activity instance to the next one (e.g. after
+    // the rotation), so the mistakes of the past rounds are kept while the process lives
+    private static QuestionScheduler sQuestionScheduler;
+    // one updater for all the instances of the activity, they share the installed pack
+    private static PackUpdater sPackUpdater;
+    // thread of the journal I/O of all the activity instances, in order: the journal of the destroyed instance
+    // is closed before the next instance opens it
+    private static final ExecutorService sJournalExecutor = Executors.newSingleThreadExecutor();
+    // thread of the result exporter I/O of all the activity instances, in order: the result of the finished quiz
+    // is stored before the next one is kept in onStop, and the kept one is read after it's written
+    private static final ExecutorService sResultExecutor = Executors.newSingleThreadExecutor();
+    // limit of the cheats over time for all the quizzes of the install, loaded off the main thread;
+    // null until then, and CHEAT! isn't taken
+    private static volatile CheatWindow sCheatWindow;
+    // search index of the questions, kept while the process lives so a recreated activity doesn't index
+    // the bank again; it's built for the bank and the locale in sSearchIndexKey
+    private static QuestionSearchIndex sSearchIndex;
+    private static String sSearchIndexKey;
+
+    // number of questions in each direction whose texts are rendered ahead, and the size of their cache
+    private static final int PREFETCH_DISTANCE = 3;
+    private static final int TEXT_CACHE_SIZE = 32;
 
     private Button mTrueButton;
     private Button mFalseButton;
@@ -39,62 +95,129 @@ public class QuizActivity extends AppCompatActivity {
     private ImageButton mPrevButton;
     private ImageButton mNextButton;
     private TextView mQuestionTextView;
-    private int mCorrectAnswers;
-    private boolean isQuizFinished;
-    private boolean mIsCheater;
 
-    private final Question[] mQuestionBank = new Question[]{
+    private final QuestionStore mBuiltInQuestions = new PackedQuestionStore(
             new Question(R.string.question_australia, true),
             new Question(R.string.question_oceans, true),
             new Question(R.string.question_mideast, false),
             new Question(R.string.question_africa, false),
             new Question(R.string.question_americas, true),
             new Question(R.string.question_asia, true)
+    );
+
+    // all the state of the quiz lives in the session owned by the event loop, the activity only renders
+    // the snapshots of it and offers the commands of user
+    private QuestionStore mQuestions;
+    // where the questions come from, the same for the same bank (e.g. after the rotation)
+    private String mQuestionsKey;
+    // hash of mQuestionsKey in the journal and the saved state, the state of another bank isn't restored
+    private long mBankKey;
+    private SessionEventLoop mEventLoop;
+    // opened by the loop when it restores the session, owned by the loop thread until the loop is closed
+    private SessionJournal mJournal;
+    // snapshot on the screen, and the latest one waiting for the main thread
+    private SessionEventLoop.Snapshot mSnapshot;
+    private final AtomicReference<SessionEventLoop.Snapshot> mPendingSnapshot = new AtomicReference<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mSnapshotRenderer = new Runnable() {
+        @Override
+        public void run() {
+            SessionEventLoop.Snapshot snapshot = mPendingSnapshot.getAndSet(null);
+            if (snapshot != null && mEventLoop != null) {
+                showSnapshot(snapshot);
+            }
+        }
     };
 
-    private HashMap<Integer, Boolean> mAnsweredQuestions = new HashMap<>(mQuestionBank.length);
+    // texts of the questions are resolved and measured in background before they are shown
+    private QuestionPrefetcher<CharSequence> mTextPrefetcher;
+    private ExecutorService mPrefetchExecutor;
 
-    {
-        clearInitAnsweredQuestions();
-    }
+    // applies the state of the buttons, touching only the changed ones
+    private QuizViewRenderer mViewRenderer;
 
-    private int mCurrentIndex = 0;
-    private int mCheatCount = 0;
+    // full-text search over the questions, built in background after the bank is loaded
+    private QuestionSearchIndex mSearchIndex;
+
+    // answers and their times for the export of the result when the quiz is finished
+    private QuizResult.Recorder mResultRecorder;
+    // the recorder continues the result saved in the Bundle, the one kept by the exporter isn't needed
+    private boolean mResultRestored;
+
+    // cheat reveal in the dialog or in CheatActivity, one for all the cheats of the screen
+    private final CheatReveal mCheatReveal = new CheatReveal();
+    // start of the cheat reveal for the round trip timing, 0 if there's none
+    private long mCheatStartedAt;
+    // offer of the answer and of the move waiting for their snapshot, for the timing; 0 if there's none
+    private long mAnswerOfferedAt;
+    private long mMoveOfferedAt;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long startNanos = BuildConfig.METRICS_ENABLED ? QuizMetrics.now() : 0;
         super.onCreate(savedInstanceState);
-        Log.d(TAG, "onCreate(Bundle) called");
+        count(QuizMetrics.Counter.ACTIVITY_CREATED);
         setContentView(R.layout.activity_quiz);
 
-        // Loading the state of the app if user got back to it in some way
-        if (savedInstanceState != null) {
-
-            // obtaining the question that was active previously
-            mCurrentIndex = savedInstanceState.getInt(KEY_INDEX, 0);
-
-            // obtaining the number of correct answers
-            mCorrectAnswers = savedInstanceState.getInt(CORRECT_ANSWERS_KEY, 0);
-
-            // obtaining the collection of all the answered questions to date
-            try {
-                if (savedInstanceState.getSerializable(ANSWERED_QUESTIONS_KEY) instanceof HashMap)
-                    mAnsweredQuestions = (HashMap<Integer, Boolean>) savedInstanceState.get(ANSWERED_QUESTIONS_KEY);
-            } catch (ClassCastException e) {
-                e.printStackTrace();
+        QuizSession session = new QuizSession(loadQuestions());
+        mQuestions = session.getQuestionStore();
+        mBankKey = bankKey(mQuestionsKey);
+        applyPackUpdate();
+
+        // Loading the state of the app if user got back to it in some way, unless the question bank has changed
+        Bundle savedState = savedInstanceState;
+        // state of the session saved in the Bundle, restored by the loop if the journal has none
+        SessionState savedSession = null;
+        if (savedState != null && savedState.getLong(BANK_KEY_KEY) != mBankKey) {
+            Log.w(TAG, "Saved state is of another question bank, starting again");
+            savedState = null;
+        }
+        if (savedState != null) {
+            // obtaining the encoded state of the session: the question that was active previously,
+            // answered questions, number of correct answers, the flag if user has cheated and the number of cheats
+            byte[] sessionState = savedState.getByteArray(SESSION_STATE_KEY);
+
+            if (sessionState != null) {
+                // decoding straight into the immutable state, the state which fails to decode doesn't touch
+                // the session, and no arrays of a whole session are allocated on the main thread
+                try {
+                    savedSession = QuizStateCodec.decode(sessionState, mQuestions.size());
+                } catch (IllegalArgumentException e) { // question bank has changed since the state was saved
+                    Log.w(TAG, "Saved state doesn't match the question bank, starting again", e);
+                }
             }
 
-            // obtaining the flag of finished quiz
-            isQuizFinished = savedInstanceState.getBoolean(FINISHED_KEY, false);
-
-            // obtaining the flag if user has cheated
-            mIsCheater = savedInstanceState.getBoolean(CHEATER_KEY, false);
-
-            // obtaining the flag if user has cheated
-            mCheatCount = savedInstanceState.getInt(CHEAT_COUNTER_KEY, 0);
+            byte[] resultState = savedState.getByteArray(RESULT_STATE_KEY);
+            if (resultState != null) {
+                try {
+                    mResultRecorder = new QuizResult.Recorder(ResultBatchCodec.decode(resultState).get(0));
+                    mResultRestored = true;
+                } catch (IllegalArgumentException e) {
+                    Log.w(TAG, "Failed to restore the answer times", e);
+                }
+            }
+        }
+        if (mResultRecorder == null || mResultRecorder.getQuestionCount() != session.getQuestionCount()) {
+            mResultRecorder = new QuizResult.Recorder(session.getQuestionCount(), System.currentTimeMillis());
+            mResultRestored = false;
+        }
+        // adaptive order of the questions, if user has switched it on
+        QuestionScheduler scheduler = sQuestionScheduler;
+        sQuestionScheduler = null;
+        if (scheduler != null && scheduler.getQuestionCount() != session.getQuestionCount()) {
+            scheduler = null;
+        }
+        // the scheduler may still be used by the loop of the previous instance, the new loop sets it to the session
+        boolean adaptiveOrder = savedState != null && savedState.getBoolean(ADAPTIVE_ORDER_KEY, false);
+        if (adaptiveOrder && scheduler == null) {
+            scheduler = new QuestionScheduler(session.getQuestionCount());
         }
+        // from now on only the loop touches the session, it recovers the progress before the first command
+        startEventLoop(session, scheduler, adaptiveOrder, savedSession);
 
         mQuestionTextView = findViewById(R.id.question_text_view);
+        createTextPrefetcher();
+        buildSearchIndex();
         // user can get the next question by pressing the text of the question
         mQuestionTextView.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -136,7 +259,6 @@ public class QuizActivity extends AppCompatActivity {
         });
 
         mStartAgainButton = findViewById(R.id.start_again_button);
-        mStartAgainButton.setVisibility(View.INVISIBLE);
         mStartAgainButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
@@ -148,13 +270,40 @@ public class QuizActivity extends AppCompatActivity {
         mCheatButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                boolean answerIsTrue = mQuestionBank[mCurrentIndex].isAnswerTrue();
-                Intent intent = CheatActivity.newIntent(QuizActivity.this, answerIsTrue);
-                startActivityForResult(intent, REQUEST_CODE_CHEAT);
+                if (!mCheatReveal.canOpen(mSnapshot)) {
+                    return;
+                }
+                // the quiz may allow the cheat after a restart, the window of the install may not
+                CheatWindow cheatWindow = sCheatWindow;
+                if (cheatWindow == null) {
+                    return;
+                }
+                if (!cheatWindow.isAllowed(System.currentTimeMillis())) {
+                    Toast.makeText(QuizActivity.this, R.string.cheat_limit_toast, Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                if (BuildConfig.METRICS_ENABLED) {
+                    mCheatStartedAt = QuizMetrics.now();
+                }
+                mCheatReveal.open();
+                // the answer goes with the reveal, the recreated dialog shows it before the session is restored
+                boolean answerIsTrue = mSnapshot.isCurrentAnswerTrue();
+                if (BuildConfig.CHEAT_DIALOG) {
+                    CheatDialogFragment.newInstance(answerIsTrue)
+                            .show(getSupportFragmentManager(), CheatDialogFragment.TAG);
+                } else {
+                    Intent intent = CheatActivity.newIntent(QuizActivity.this, answerIsTrue);
+                    startActivityForResult(intent, REQUEST_CODE_CHEAT);
+                }
             }
         });
 
+        createViewRenderer();
         initQuestions();
+
+        if (BuildConfig.METRICS_ENABLED) {
+            QuizMetrics.get().recordSince(QuizMetrics.Timer.ON_CREATE, startNanos);
+        }
     }
 
     /**
@@ -162,43 +311,120 @@ public class QuizActivity extends AppCompatActivity {
      */
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        long startNanos = BuildConfig.METRICS_ENABLED ? QuizMetrics.now() : 0;
         super.onActivityResult(requestCode, resultCode, data);
 
-        if (resultCode != Activity.RESULT_OK) {
-            return;
-        }
+        // the result is timed whichever way it's handled, the canceled cheats and the empty results as well
+        try {
+            if (requestCode == REQUEST_CODE_CHEAT) {
+                onCheatClosed();
+            }
 
-        if (requestCode == REQUEST_CODE_CHEAT) {
-            if (data == null) {
+            if (resultCode != Activity.RESULT_OK) {
                 return;
             }
-            mIsCheater = CheatActivity.wasAnswerShown(data);
 
-            if (mIsCheater) { // if user has successfully cheated, then increment the "cheat count"
-                mCheatCount++;
+            if (requestCode == REQUEST_CODE_CHEAT) {
+                if (data == null) {
+                    return;
+                }
+                onCheatResult(CheatActivity.wasAnswerShown(data));
             }
+        } finally {
+            if (BuildConfig.METRICS_ENABLED) {
+                QuizMetrics.get().recordSince(QuizMetrics.Timer.ON_ACTIVITY_RESULT, startNanos);
+            }
+        }
+    }
 
-            // disable CHEAT! button only if cheat count is maxed out after returning to QuizActivity
-            checkCheatCount(true);
+    @Override
+    public CheatReveal getCheatReveal() {
+        return mCheatReveal;
+    }
+
+    /**
+     * Handling the result of the cheat reveal, from CheatDialogFragment or CheatActivity.
+     */
+    @Override
+    public void onCheatResult(boolean answerShown) {
+        // if user has successfully cheated, the session increments the "cheat count";
+        // CHEAT! button is disabled with the snapshot if cheat count is maxed out, the next reveal waits for it
+        offer(mEventLoop.offerCheat(answerShown));
+        mCheatReveal.awaitCheat(mEventLoop.getOfferedCount());
+        if (answerShown) {
+            recordCheat();
+            count(QuizMetrics.Counter.CHEAT_SHOWN);
         }
     }
 
+    @Override
+    public void onCheatClosed() {
+        mCheatReveal.close();
+        if (BuildConfig.METRICS_ENABLED && mCheatStartedAt != 0) {
+            QuizMetrics.get().recordSince(QuizMetrics.Timer.CHEAT_ROUND_TRIP, mCheatStartedAt);
+            mCheatStartedAt = 0;
+        }
+    }
+
+    /**
+     * Switching the adaptive order of the questions, see {@link QuestionScheduler}.
+     */
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.adaptive_order) {
+            boolean adaptive = !item.isChecked();
+            item.setChecked(adaptive);
+            offer(mEventLoop.offerAdaptiveOrder(adaptive));
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.adaptive_order).setChecked(mSnapshot.isAdaptiveOrder());
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.quiz_menu, menu);
+        final MenuItem searchItem = menu.findItem(R.id.search_question);
+        final SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                if (showSearchResult(query)) {
+                    searchView.clearFocus();
+                }
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                return false;
+            }
+        });
+        return true;
+    }
+
     @Override
     public void onStart() {
         super.onStart();
-        Log.d(TAG, "onStart() called");
+        count(QuizMetrics.Counter.ACTIVITY_STARTED);
     }
 
     @Override
     public void onResume() {
         super.onResume();
-        Log.d(TAG, "onResume() called");
+        count(QuizMetrics.Counter.ACTIVITY_RESUMED);
     }
 
     @Override
     public void onPause() {
         super.onPause();
-        Log.d(TAG, "onPause() called");
+        count(QuizMetrics.Counter.ACTIVITY_PAUSED);
     }
 
     /**
@@ -212,256 +438,772 @@ public class QuizActivity extends AppCompatActivity {
         super.onSaveInstanceState(savedInstanceState);
         Log.i(TAG, "onSaveInstanceState");
 
-        // save current index for the active question
-        savedInstanceState.putInt(KEY_INDEX, mCurrentIndex);
-
-        // save the collection of answered questions
-        savedInstanceState.putSerializable(ANSWERED_QUESTIONS_KEY, mAnsweredQuestions);
-
-        // save number of correct answers
-        savedInstanceState.putInt(CORRECT_ANSWERS_KEY, mCorrectAnswers);
-
-        // save the flag if the quiz is finished
-        savedInstanceState.putBoolean(FINISHED_KEY, isQuizFinished);
-
-        // save the flag if user has cheated on a question
-        savedInstanceState.putBoolean(CHEATER_KEY, mIsCheater);
-
-        // save the number of cheats in the session
-        savedInstanceState.putInt(CHEAT_COUNTER_KEY, mCheatCount);
+        // save the whole state of the session (current index, answered questions, counters) as one compact byte[],
+        // from the latest snapshot of the loop (the commands still in the ring reach the journal when applied)
+        SessionEventLoop.Snapshot snapshot = mEventLoop.getSnapshot();
+        savedInstanceState.putByteArray(SESSION_STATE_KEY, QuizStateCodec.encode(snapshot.getState()));
+        savedInstanceState.putLong(BANK_KEY_KEY, mBankKey);
+        savedInstanceState.putBoolean(ADAPTIVE_ORDER_KEY, snapshot.isAdaptiveOrder());
+        // answers recorded so far for the export, as a batch of one partial result
+        QuizResult result;
+        synchronized (mResultRecorder) {
+            result = mResultRecorder.snapshot(System.currentTimeMillis(), snapshot.getScorePercent());
+        }
+        savedInstanceState.putByteArray(RESULT_STATE_KEY, ResultBatchCodec.encode(Collections.singletonList(result)));
     }
 
     @Override
     public void onStop() {
         super.onStop();
-        Log.d(TAG, "onStop() called");
+        count(QuizMetrics.Counter.ACTIVITY_STOPPED);
+        saveCurrentResult();
+        flushDueResults();
+
+        if (BuildConfig.METRICS_ENABLED) {
+            exportMetrics();
+        }
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
-        Log.d(TAG, "onDestroy() called");
+        count(QuizMetrics.Counter.ACTIVITY_DESTROYED);
+
+        mPrefetchExecutor.shutdownNow();
+        QuestionTextCache<CharSequence> cache = mTextPrefetcher.getCache();
+        Log.i(TAG, String.format(Locale.ENGLISH, "Question text cache: hit rate %.2f, %d evictions, %d prefetched",
+                cache.getHitRate(), cache.getEvictions(), mTextPrefetcher.getPrefetched()));
+
+        // the loop applies the remaining commands and ends on its own, the main thread doesn't wait for it:
+        // it may still be restoring the session or writing the journal
+        final SessionEventLoop loop = mEventLoop;
+        loop.close();
+        // the next loop uses the scheduler only after this one has ended, see restoreSession
+        sQuestionScheduler = loop.getScheduler();
+        mEventLoop = null;
+        mMainHandler.removeCallbacks(mSnapshotRenderer);
+        // the last batch of the journal and its fsync go on the journal thread after the end of the loop,
+        // the next instance opens the journal there after them, so it recovers all the events
+        sJournalExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                awaitClosed(loop);
+                SessionJournal journal = mJournal;
+                mJournal = null;
+                if (journal != null) {
+                    try {
+                        journal.close();
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to write session journal", e);
+                    }
+                }
+            }
+        });
     }
 
     /**
      * Initializing questions after starting the app or after opening up again.
      */
     private void initQuestions() {
-        mQuestionTextView.setText(mQuestionBank[mCurrentIndex].getTextResId());
+        showCurrentQuestion();
         changeButtonsAfterUpdate();
     }
 
     /**
-     * Changing the question on the screen after user presses NEXT or PREV buttons.
-     * If the current question is the first/last one, then the sequence may loop.
-     *
-     * @param isNext true if user pressed NEXT, false - PREV.
+     * Loading the question bank: question pack from the app's files dir if there's one, built-in questions otherwise.
+     * Opening the pack only maps the file, the questions are decoded when they are shown.
+     * The localized pack shows the texts in the locale of the device (or in its default locale).
+     * The pack installed by the updates is preferred to the one put into the files dir.
      */
-    private void updateQuestion(boolean isNext) {
-        // update the index of the question
-        if (isNext) {
-            mCurrentIndex = (mCurrentIndex + 1) % mQuestionBank.length;
-        } else {
-            if (mCurrentIndex != 0) {
-                mCurrentIndex = mCurrentIndex - 1;
-            } else {
-                mCurrentIndex = mQuestionBank.length - 1;
+    private QuestionStore loadQuestions() {
+        File localizedPackFile = new File(getFilesDir(), LOCALIZED_PACK_FILE);
+        if (localizedPackFile.isFile()) {
+            try {
+                LocalizedQuestionPack pack = LocalizedQuestionPack.open(localizedPackFile);
+                if (pack.size() > 0) {
+                    pack.setLocale(ConfigurationCompat.getLocales(getResources().getConfiguration()).get(0));
+                    mQuestionsKey = fileKey(localizedPackFile);
+                    return pack;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open localized question pack", e);
+            }
+        }
+        try {
+            File updatedPackFile = getPackUpdater().getInstalledPack();
+            if (updatedPackFile != null) {
+                QuestionPack pack = QuestionPack.open(updatedPackFile);
+                if (pack.size() > 0) {
+                    mQuestionsKey = fileKey(updatedPackFile);
+                    return pack;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open updated question pack", e);
+        }
+        File packFile = new File(getFilesDir(), QUESTION_PACK_FILE);
+        if (packFile.isFile()) {
+            try {
+                QuestionPack pack = QuestionPack.open(packFile);
+                if (pack.size() > 0) {
+                    mQuestionsKey = fileKey(packFile);
+                    return pack;
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open question pack, using built-in questions", e);
             }
         }
+        // the built-in questions change with the app
+        mQuestionsKey = "built-in:" + BuildConfig.VERSION_CODE + ":" + mBuiltInQuestions.size();
+        return mBuiltInQuestions;
+    }
 
-        // updating the text of the question
-        int question = mQuestionBank[mCurrentIndex].getTextResId();
-        mQuestionTextView.setText(question);
+    private static String fileKey(File file) {
+        return file.getPath() + ":" + file.length() + ":" + file.lastModified();
+    }
 
-        changeButtonsAfterUpdate();
+    /**
+     * 64-bit FNV-1a hash of the key of the questions, see {@link SessionJournal#open(File, QuizSession, long)}.
+     */
+    private static long bankKey(String questionsKey) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < questionsKey.length(); i++) {
+            hash = (hash ^ questionsKey.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
     }
 
     /**
-     * This function checks the answer for correctness.
-     * User gets the appropriate message (Correct/Incorrect) depending on her answer.
-     * After receiving the answer the app locks answer buttons.
-     * Also the app checks whether the answered question was the last one and orchestrates the closure.
+     * Recovering the progress on the loop thread: from the journal (it survives the process death), or from the state
+     * saved in the Bundle if the journal has none. The journal wins: the commands still in the ring when the state
+     * was saved reach the journal only when the loop is closed in onDestroy, so the saved state is older.
+     * Without the Bundle the answers recorded for the export are recovered along with the journal.
+     * The journal is opened after the loop of the previous instance has ended, so its scheduler is free to use then.
+     */
+    private void restoreSession(QuizSession session, Future<SessionJournal> journal, QuestionScheduler scheduler,
+                                boolean adaptiveOrder, SessionState savedSession) {
+        mJournal = awaitJournal(journal, session);
+        loadCheatWindow(new File(getFilesDir(), CHEAT_WINDOW_FILE));
+        if (adaptiveOrder) {
+            session.setScheduler(scheduler);
+        }
+        if (savedSession != null && (mJournal == null || !mJournal.isRestored())) {
+            savedSession.restoreInto(session);
+            // the journal continues from the saved state
+            if (mJournal != null) {
+                mJournal.snapshot(session);
+            }
+        } else if (mJournal != null && mJournal.isRestored() && !mResultRestored) {
+            restoreResult(session);
+        }
+    }
+
+    /**
+     * Loading the cheat window of the install once per process, off the main thread.
+     */
+    private static CheatWindow loadCheatWindow(File file) {
+        synchronized (QuizActivity.class) {
+            if (sCheatWindow == null) {
+                CheatWindow cheatWindow = new CheatWindow(file);
+                try {
+                    cheatWindow.load();
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to load the cheat window, starting an empty one", e);
+                }
+                sCheatWindow = cheatWindow;
+            }
+            return sCheatWindow;
+        }
+    }
+
+    /**
+     * Counting the shown answer in the cheat window and saving it in background. The window is counted
+     * right away when it's loaded, so the next CHEAT! sees the cheat; otherwise (the dialog recreated
+     * after the process death) it's counted after the load.
+     */
+    private void recordCheat() {
+        final long now = System.currentTimeMillis();
+        final CheatWindow loaded = sCheatWindow;
+        if (loaded != null) {
+            loaded.record(now);
+        }
+        final File file = new File(getFilesDir(), CHEAT_WINDOW_FILE);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                CheatWindow cheatWindow = loadCheatWindow(file);
+                if (loaded == null) {
+                    cheatWindow.record(now);
+                }
+                try {
+                    cheatWindow.save();
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to save the cheat window", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Continuing the recording of the answers of the quiz recovered from the journal, with the result kept
+     * in onStop (see {@link #saveCurrentResult()}). The result which doesn't match the recovered session
+     * (the answers given after it was kept) is dropped, the recording starts over then.
+     * It's read on the exporter thread, after the results stored by the previous activity instance.
+     */
+    private void restoreResult(QuizSession session) {
+        final ResultExporter exporter = getResultExporter();
+        QuizResult partial;
+        try {
+            partial = sResultExecutor.submit(new Callable<QuizResult>() {
+                @Override
+                public QuizResult call() throws IOException {
+                    return exporter.loadCurrent();
+                }
+            }).get();
+        } catch (ExecutionException e) {
+            Log.w(TAG, "Failed to restore the answer times", e.getCause());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        if (partial == null || partial.getQuestionCount() != session.getQuestionCount()
+                || partial.getAnswerCount() != session.getAnsweredCount()) {
+            return;
+        }
+        synchronized (mResultRecorder) {
+            mResultRecorder.restore(partial);
+        }
+    }
+
+    /**
+     * Opening the session journal and replaying it into the session on the journal thread, after the journal
+     * of the previous activity instance is closed there. It's submitted on the main thread before the loop starts,
+     * so it always goes before the close of this instance; the session is touched by the journal thread only
+     * until the loop gets the journal with {@link #awaitJournal}.
+     */
+    private Future<SessionJournal> openJournal(final QuizSession session) {
+        final File file = new File(getFilesDir(), SESSION_JOURNAL_FILE);
+        final long bankKey = mBankKey;
+        return sJournalExecutor.submit(new Callable<SessionJournal>() {
+            @Override
+            public SessionJournal call() throws IOException {
+                return SessionJournal.open(file, session, bankKey);
+            }
+        });
+    }
+
+    /**
+     * Waiting on the loop thread for the journal to be opened. Without the journal the quiz still works,
+     * only the progress isn't kept after the process death.
      *
-     * @param userPressedTrue true, if user pressed "Correct", false - "Incorrect"
+     * @return opened journal, null if it has failed
      */
-    private void checkAnswer(boolean userPressedTrue) {
-        boolean answerIsTrue = mQuestionBank[mCurrentIndex].isAnswerTrue();
+    private static SessionJournal awaitJournal(Future<SessionJournal> journal, QuizSession session) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return journal.get();
+                } catch (InterruptedException e) {
+                    // the replay goes on with the session, so it's waited for anyway
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Failed to open session journal", e.getCause());
+            session.restart();
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-        int messageResId;
+    /**
+     * Waiting on the journal thread for the loop of the destroyed instance to end, the journal and the scheduler
+     * are free after that.
+     */
+    private static void awaitClosed(SessionEventLoop loop) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                loop.awaitClosed();
+                break;
+            } catch (InterruptedException e) {
+                // the last events are still to be written, so it's waited for anyway
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        if (mIsCheater) { // check if user has cheated on CheatActivity
-            messageResId = R.string.judgement_toast;
-            mIsCheater = false;
-        } else {
-            if (userPressedTrue == answerIsTrue) {
-                messageResId = R.string.correct_toast;
-                mCorrectAnswers++;
-            } else {
-                messageResId = R.string.incorrect_toast;
+    /**
+     * Handing the session over to the event loop, see {@link SessionEventLoop}.
+     * The loop restores the session first (see {@link #restoreSession}), so the journal isn't read on the main thread.
+     * The journal and the result recorder are fed on the loop thread, the snapshots are rendered on the main one:
+     * only the latest snapshot matters, so there's at most one post waiting for the main thread.
+     *
+     * @param scheduler     scheduler of the adaptive order, null if there's none yet
+     * @param adaptiveOrder true, if the saved state has the adaptive order switched on
+     * @param savedSession  state of the session saved in the Bundle, null if there's none
+     */
+    private void startEventLoop(QuizSession session, final QuestionScheduler scheduler, final boolean adaptiveOrder,
+                                final SessionState savedSession) {
+        final QuizResult.Recorder recorder = mResultRecorder;
+        mEventLoop = new SessionEventLoop(session, SessionEventLoop.DEFAULT_CAPACITY, scheduler,
+                new SessionEventLoop.Listener() {
+                    @Override
+                    public void onAnswered(int index, boolean userPressedTrue, QuizSession.Verdict verdict) {
+                        synchronized (recorder) {
+                            recorder.recordAnswer(index, verdict, System.currentTimeMillis());
+                        }
+                        switch (verdict) {
+                            case CHEATED:
+                                count(QuizMetrics.Counter.ANSWER_CHEATED);
+                                break;
+                            case CORRECT:
+                                count(QuizMetrics.Counter.ANSWER_CORRECT);
+                                break;
+                            default:
+                                count(QuizMetrics.Counter.ANSWER_INCORRECT);
+                                break;
+                        }
+                    }
+
+                    @Override
+                    public void onCheated(boolean answerShown) {
+                    }
+
+                    @Override
+                    public void onRestarted() {
+                        synchronized (recorder) {
+                            recorder.start(System.currentTimeMillis());
+                        }
+                    }
+
+                    @Override
+                    public void onEvents(int[] events, int count) {
+                        if (mJournal != null) {
+                            mJournal.append(events, 0, count);
+                        }
+                    }
+
+                    @Override
+                    public void onSnapshot(QuizSession session, SessionEventLoop.Snapshot snapshot) {
+                        if (mJournal != null) {
+                            mJournal.snapshotIfNeeded(session);
+                        }
+                        if (mPendingSnapshot.getAndSet(snapshot) == null) {
+                            mMainHandler.post(mSnapshotRenderer);
+                        }
+                    }
+                });
+        final Future<SessionJournal> journal = openJournal(session);
+        // the saved state is on the screen right away, without the Bundle the controls wait for the journal
+        mEventLoop.start(new SessionEventLoop.Restorer() {
+            @Override
+            public void restore(QuizSession session) {
+                restoreSession(session, journal, scheduler, adaptiveOrder, savedSession);
             }
+        }, savedSession, adaptiveOrder);
+        mSnapshot = mEventLoop.getSnapshot();
+    }
+
+    /**
+     * Checking that the command went to the loop; it's dropped only if the loop is far behind (or failed).
+     */
+    private void offer(boolean offered) {
+        if (!offered) {
+            Log.w(TAG, "Session command is dropped, the event loop is behind");
+            count(QuizMetrics.Counter.SESSION_COMMAND_DROPPED);
         }
-        // checking the question as answered
-        mAnsweredQuestions.put(mCurrentIndex, true);
+    }
 
-        // show info message depending on the answer
-        Toast toast = Toast.makeText(
-                QuizActivity.this, messageResId, Toast.LENGTH_SHORT);
-        toast.setGravity(Gravity.TOP, 0, 400);
-        toast.show();
+    /**
+     * Counting the event, compiled out with the metrics.
+     */
+    private static void count(QuizMetrics.Counter counter) {
+        if (BuildConfig.METRICS_ENABLED) {
+            QuizMetrics.get().increment(counter);
+        }
+    }
 
-        lockAnswerButtons();
+    /**
+     * Appending the current metrics to the metrics file. The snapshot is taken now, the file is written
+     * in background, so stopping the activity doesn't wait for the disk.
+     */
+    private void exportMetrics() {
+        final MetricsSnapshot snapshot = QuizMetrics.get().snapshot();
+        final MetricsExporter exporter = new FileMetricsExporter(new File(getFilesDir(), METRICS_FILE));
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    exporter.export(snapshot);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to export metrics", e);
+                }
+            }
+        });
+    }
 
-        // if the current question was the last one, the app locks the buttons and shows the feedback about the result
-        if (!checkIfFinished()) { // if the quiz is finished the question won't update
-            // after giving the answer the question automatically updates to the next one
-            updateQuestion(true);
+    /**
+     * Creating the prefetch of the question texts: plain text for the questions from packs,
+     * string resource for the built-in ones, measured for the question's TextView.
+     */
+    private void createTextPrefetcher() {
+        final QuestionStore questions = mQuestions;
+        final PrecomputedTextCompat.Params textParams = TextViewCompat.getTextMetricsParams(mQuestionTextView);
+        mPrefetchExecutor = Executors.newSingleThreadExecutor();
+        mTextPrefetcher = new QuestionPrefetcher<CharSequence>(new QuestionPrefetcher.Renderer<CharSequence>() {
+            @Override
+            public CharSequence render(int index) {
+                CharSequence text = questions.getText(index);
+                if (text == null) {
+                    text = getString(questions.getTextResId(index));
+                }
+                return PrecomputedTextCompat.create(text, textParams);
+            }
+        }, questions.size(), PREFETCH_DISTANCE, new QuestionTextCache<CharSequence>(TEXT_CACHE_SIZE), mPrefetchExecutor);
+    }
+
+    /**
+     * Indexing the texts of the questions for search in background, question by question,
+     * so the questions indexed so far can be searched while the rest of the pack is indexed.
+     * The index is shared by the instances of the activity: it's built once per bank and locale,
+     * and the task holds only the questions and the resources of the app, not the activity.
+     */
+    private void buildSearchIndex() {
+        String key = mQuestionsKey + "/" + ConfigurationCompat.getLocales(getResources().getConfiguration()).get(0);
+        final QuestionSearchIndex searchIndex;
+        synchronized (QuizActivity.class) {
+            if (sSearchIndex != null && key.equals(sSearchIndexKey)) {
+                mSearchIndex = sSearchIndex;
+                return;
+            }
+            searchIndex = new QuestionSearchIndex();
+            sSearchIndex = searchIndex;
+            sSearchIndexKey = key;
+        }
+        mSearchIndex = searchIndex;
+        final QuestionStore questions = mQuestions;
+        final Resources resources = getApplicationContext().getResources();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                int size = questions.size();
+                // stopping if the index was replaced by the one of another bank
+                for (int index = 0; index < size && isSearchIndex(searchIndex); index++) {
+                    CharSequence text = questions.getText(index);
+                    searchIndex.add(index, text != null ? text : resources.getString(questions.getTextResId(index)));
+                }
+            }
+        });
+    }
+
+    private static boolean isSearchIndex(QuestionSearchIndex searchIndex) {
+        synchronized (QuizActivity.class) {
+            return sSearchIndex == searchIndex;
         }
     }
 
     /**
-     * Method to lock answer buttons (Correct/Incorrect).
+     * Jumping to the next question matching the search query after the current one.
+     *
+     * @return true if a question was found
      */
-    private void lockAnswerButtons() {
-        mTrueButton.setEnabled(false);
-        mFalseButton.setEnabled(false);
-        checkCheatCount(false);
+    private boolean showSearchResult(String query) {
+        int index = mSearchIndex.findNext(query, mSnapshot.getState().getCurrentIndex() + 1);
+        if (index < 0) {
+            Toast.makeText(this, R.string.search_not_found, Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        offer(mEventLoop.offerMoveTo(index));
+        return true;
+    }
+
+    /**
+     * Setting the text of the current question from the prefetch cache (it's measured already),
+     * then prefetching the texts around it.
+     */
+    private void showCurrentQuestion() {
+        int index = mSnapshot.getState().getCurrentIndex();
+        CharSequence text = mTextPrefetcher.get(index);
+        if (text instanceof PrecomputedTextCompat) {
+            TextViewCompat.setPrecomputedText(mQuestionTextView, (PrecomputedTextCompat) text);
+        } else {
+            mQuestionTextView.setText(text);
+        }
+        mTextPrefetcher.prefetchAround(index);
     }
 
     /**
-     * Method to unlock answer buttons (Correct/Incorrect).
+     * Changing the question on the screen after user presses NEXT or PREV buttons.
+     * If the current question is the first/last one, then the sequence may loop.
+     * The question is shown with the snapshot after the move, see {@link #showSnapshot}.
+     *
+     * @param isNext true if user pressed NEXT, false - PREV.
      */
-    private void unlockAnswerButtons() {
-        mTrueButton.setEnabled(true);
-        mFalseButton.setEnabled(true);
-        checkCheatCount(true);
+    private void updateQuestion(boolean isNext) {
+        if (BuildConfig.METRICS_ENABLED && mMoveOfferedAt == 0) {
+            mMoveOfferedAt = QuizMetrics.now();
+        }
+        offer(isNext ? mEventLoop.offerNext() : mEventLoop.offerPrev());
     }
 
     /**
-     * Method to lock navigation buttons (PREV/NEXT).
+     * This function sends the answer to the question on the screen for checking.
+     * The session judges the answer, marks the question as answered and moves to the next one (unless the quiz
+     * is finished), then the snapshot brings the verdict, see {@link #showSnapshot}.
+     *
+     * @param userPressedTrue true, if user pressed "Correct", false - "Incorrect"
      */
-    private void lockNavigationButtons() {
-        mPrevButton.setEnabled(false);
-        mNextButton.setEnabled(false);
-        mQuestionTextView.setClickable(false);
+    private void checkAnswer(boolean userPressedTrue) {
+        if (BuildConfig.METRICS_ENABLED && mAnswerOfferedAt == 0) {
+            mAnswerOfferedAt = QuizMetrics.now();
+        }
+        offer(mEventLoop.offerAnswer(mSnapshot.getState().getCurrentIndex(), userPressedTrue));
     }
 
     /**
-     * Method to lock navigation buttons (PREV/NEXT).
+     * Rendering the snapshot published by the loop: the verdict on the new answer,
+     * the question if it has changed, the feedback about the result if the quiz is finished, and the buttons.
      */
-    private void unlockNavigationButtons() {
-        mPrevButton.setEnabled(true);
-        mNextButton.setEnabled(true);
-        mQuestionTextView.setClickable(true);
+    private void showSnapshot(SessionEventLoop.Snapshot snapshot) {
+        SessionEventLoop.Snapshot previous = mSnapshot;
+        mSnapshot = snapshot;
+        boolean answered = snapshot.getAnswerCount() > previous.getAnswerCount();
+        if (answered) {
+            showVerdict(snapshot.getLastVerdict());
+        }
+        if (snapshot.getState().getCurrentIndex() != previous.getState().getCurrentIndex()) {
+            showCurrentQuestion();
+        }
+        // if the last question was answered, the app locks the buttons and shows the feedback about the result
+        if (answered && snapshot.getState().isFinished()) {
+            showFinalResult();
+            exportResult();
+        }
+        changeButtonsAfterUpdate();
+
+        if (BuildConfig.METRICS_ENABLED) {
+            // from the tap to the rendered result, the hop to the loop and back included
+            if (answered && mAnswerOfferedAt != 0) {
+                QuizMetrics.get().recordSince(QuizMetrics.Timer.CHECK_ANSWER, mAnswerOfferedAt);
+                mAnswerOfferedAt = 0;
+            } else if (mMoveOfferedAt != 0) {
+                QuizMetrics.get().recordSince(QuizMetrics.Timer.UPDATE_QUESTION, mMoveOfferedAt);
+                mMoveOfferedAt = 0;
+            }
+        }
+    }
+
+    /**
+     * User gets the appropriate message (Correct/Incorrect) depending on her answer.
+     */
+    private void showVerdict(QuizSession.Verdict verdict) {
+        int messageResId;
+
+        switch (verdict) {
+            case CHEATED: // user has cheated on the reveal
+                messageResId = R.string.judgement_toast;
+                break;
+            case CORRECT:
+                messageResId = R.string.correct_toast;
+                break;
+            default:
+                messageResId = R.string.incorrect_toast;
+                break;
+        }
+
+        // show info message depending on the answer
+        Toast toast = Toast.makeText(
+                QuizActivity.this, messageResId, Toast.LENGTH_SHORT);
+        toast.setGravity(Gravity.TOP, 0, 400);
+        toast.show();
     }
 
     /**
      * Showing message about the result at the end of the quiz (after all questions are answered)
      */
     private void showFinalResult() {
-        double finalResult = (double) mCorrectAnswers / mQuestionBank.length * 100;
-        StringBuilder finalReviewMessage = new StringBuilder()
-                .append("Well done! You've scored ")
-                .append((int) finalResult)
-                .append("% correct answers!");
-
         Toast.makeText(
                 QuizActivity.this,
-                String.format(Locale.ENGLISH, "Well done! You've scored %d%% correct answers!", (int) finalResult),
+                String.format(Locale.ENGLISH, "Well done! You've scored %d%% correct answers!",
+                        mSnapshot.getScorePercent()),
                 Toast.LENGTH_LONG).show();
+    }
 
-        isQuizFinished = true;
+    /**
+     * Storing the result of the finished quiz for the export, in background.
+     * Results go to the outbox in compressed batches, see {@link ResultExporter}.
+     */
+    private void exportResult() {
+        final QuizResult result;
+        synchronized (mResultRecorder) {
+            result = mResultRecorder.snapshot(System.currentTimeMillis(), mSnapshot.getScorePercent());
+        }
+        final ResultExporter exporter = getResultExporter();
+        sResultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (exporter.add(result)) {
+                        Log.i(TAG, "Result batch is ready, " + exporter.getOutbox().size() + " batches in the outbox");
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to store the quiz result", e);
+                }
+            }
+        });
     }
 
     /**
-     * Updating buttons' state after an action.
-     * If there's still some questions unanswered AND the question is marked as answered - answer buttons are locked.
-     * If there's no more questions to answer - answer/navigation buttons are locked.
-     * Otherwise answer buttons are kept unlocked (quiz is just initialized) .
+     * Keeping the answers recorded so far in background, the journal recovers the session after the process death
+     * and the recording continues with them, see {@link #restoreResult(QuizSession)}.
      */
-    @SuppressWarnings("ConstantConditions")
-    public void changeButtonsAfterUpdate() {
-        if (mAnsweredQuestions.get(mCurrentIndex) &&
-                !isQuizFinished) {
-            lockAnswerButtons();
-        } else if (isQuizFinished) {
-            lockAnswerButtons();
-            lockNavigationButtons();
-            mStartAgainButton.setVisibility(View.VISIBLE);
-        } else {
-            unlockAnswerButtons();
-            unlockNavigationButtons();
-            mStartAgainButton.setVisibility(View.INVISIBLE);
+    private void saveCurrentResult() {
+        final QuizResult partial;
+        synchronized (mResultRecorder) {
+            partial = mResultRecorder.snapshot(System.currentTimeMillis(), mSnapshot.getScorePercent());
         }
+        final ResultExporter exporter = getResultExporter();
+        sResultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    exporter.saveCurrent(partial);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to keep the current result", e);
+                }
+            }
+        });
     }
 
     /**
-     * Check if the quiz is finished by iterating through collection of answered questions.
-     * If all the values in the collection are true - quiz is finished.
-     * Otherwise - some questions are still unanswered.
-     * <p>
-     * Returns true if the quiz is finished, otherwise - false.
+     * Moving the pending results to the outbox in background if they have waited for a full batch too long,
+     * the app may not be started again for a while.
      */
-    private boolean checkIfFinished() {
-        int counter = 0;
-        for (Map.Entry<Integer, Boolean> entry : mAnsweredQuestions.entrySet()) {
-            if (!entry.getValue()) {
-                return false; // exiting the method if getting unanswered question
-            } else {
-                counter++; //counting the number of answered questions
+    private void flushDueResults() {
+        final ResultExporter exporter = getResultExporter();
+        sResultExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (exporter.flushIfDue(System.currentTimeMillis()) != null) {
+                        Log.i(TAG, "Old results are flushed, "
+                                + exporter.getOutbox().size() + " batches in the outbox");
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to flush the quiz results", e);
+                }
             }
+        });
+    }
 
-            if (counter == mQuestionBank.length) {
-                showFinalResult();
-                lockNavigationButtons();
-                mStartAgainButton.setVisibility(View.VISIBLE);
-                return true;
+    /**
+     * Applying the downloaded delta of the question pack in background, see {@link PackUpdater}.
+     * The running session keeps its questions, the new version is loaded with the next start of the activity.
+     */
+    private void applyPackUpdate() {
+        final File deltaFile = new File(getFilesDir(), PACK_DELTA_FILE);
+        if (!deltaFile.isFile()) {
+            return;
+        }
+        final PackUpdater updater = getPackUpdater();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    PackUpdater.Report report = updater.apply(deltaFile);
+                    Log.i(TAG, "Question pack updated, " + report);
+                    if (BuildConfig.METRICS_ENABLED) {
+                        QuizMetrics metrics = QuizMetrics.get();
+                        metrics.record(QuizMetrics.Timer.PACK_UPDATE, report.getApplyNanos());
+                        metrics.add(QuizMetrics.Counter.PACK_BYTES_WRITTEN, report.getBytesWritten());
+                        metrics.add(QuizMetrics.Counter.PACK_BYTES_COPIED, report.getBytesCopied());
+                    }
+                } catch (PackDelta.InvalidDeltaException e) {
+                    // a delta which doesn't apply won't apply next time either
+                    Log.e(TAG, "Question pack update is invalid, dropping it", e);
+                } catch (IOException e) {
+                    // the storage has failed, not the delta: it's applied again on the next start
+                    Log.e(TAG, "Failed to apply question pack update", e);
+                    return;
+                }
+                if (!deltaFile.delete()) {
+                    Log.w(TAG, "Failed to delete question pack update " + deltaFile);
+                }
             }
+        });
+    }
+
+    private PackUpdater getPackUpdater() {
+        synchronized (QuizActivity.class) {
+            if (sPackUpdater == null) {
+                sPackUpdater = new PackUpdater(new File(getApplicationContext().getFilesDir(), PACK_UPDATES_DIR));
+            }
+            return sPackUpdater;
+        }
+    }
+
+    private ResultExporter getResultExporter() {
+        synchronized (QuizActivity.class) {
+            if (sResultExporter == null) {
+                sResultExporter = new ResultExporter(new File(getApplicationContext().getFilesDir(), RESULTS_DIR),
+                        ResultExporter.DEFAULT_BATCH_SIZE);
+            }
+            return sResultExporter;
         }
-        return false;
     }
 
     /**
-     * Method to reinitialize the quiz from the beginning.
-     * Clears counters, sets the question to the first one, unlocks the buttons etc...
+     * Updating buttons' state after a snapshot (see {@link QuizViewState#of(QuizSession)} for the rules).
+     * Only the buttons whose state has changed are touched.
      */
-    private void startAgain() {
-        clearInitAnsweredQuestions();
-        mCorrectAnswers = 0;
-        isQuizFinished = false;
-        mCurrentIndex = 0;
-        mCheatCount = 0;
-        mQuestionTextView.setText(mQuestionBank[mCurrentIndex].getTextResId());
-        changeButtonsAfterUpdate();
+    public void changeButtonsAfterUpdate() {
+        mViewRenderer.render(mSnapshot.getViewState());
     }
 
     /**
-     * Additional method for filling answered questions collection
-     * with indexes according to the total number of questions.
-     * Helps to avoid getting NPE on accessing.
+     * Creating the renderer of the buttons' state over the views of the activity.
      */
-    private void clearInitAnsweredQuestions() {
-        Integer i = 0;
-        for (Question q : mQuestionBank) {
-            mAnsweredQuestions.put(i, false);
-            i++;
-        }
+    private void createViewRenderer() {
+        mViewRenderer = new QuizViewRenderer(new QuizViewRenderer.Target() {
+            @Override
+            public void setAnswerEnabled(boolean enabled) {
+                mTrueButton.setEnabled(enabled);
+                mFalseButton.setEnabled(enabled);
+            }
+
+            @Override
+            public void setCheatEnabled(boolean enabled) {
+                mCheatButton.setEnabled(enabled);
+            }
+
+            @Override
+            public void setNavigationEnabled(boolean enabled) {
+                mPrevButton.setEnabled(enabled);
+                mNextButton.setEnabled(enabled);
+                mQuestionTextView.setClickable(enabled);
+            }
+
+            @Override
+            public void setStartAgainVisible(boolean visible) {
+                mStartAgainButton.setVisibility(visible ? View.VISIBLE : View.INVISIBLE);
+            }
+        });
     }
 
     /**
-     * Additional check for CHEAT! button.
-     * If the number of cheats is higher than 2, then the button is disabled.
-     *
-     * @param isHardEnable true, if unlockAnswerButtons() was called
+     * Method to reinitialize the quiz from the beginning.
+     * Clears counters, sets the question to the first one, unlocks the buttons etc... with the next snapshot.
      */
-    private void checkCheatCount(boolean isHardEnable) {
-        if (mCheatCount >= MAX_CHEAT_COUNT) { // disable CHEAT button if number of cheats maxed out
-            mCheatButton.setEnabled(false);
-        } else {
-            if (isHardEnable) { // enabled CHEAT button in cases of positive updating buttons
-                mCheatButton.setEnabled(true);
-            } else {
-                mCheatButton.setEnabled(false);
-            }
-        }
+    private void startAgain() {
+        offer(mEventLoop.offerRestart());
     }
 }
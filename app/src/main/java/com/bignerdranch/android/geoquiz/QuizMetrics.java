@@ -0,0 +1,136 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide metrics of the quiz: timings of the lifecycle callbacks and of the hot paths
+ * in preallocated lock-free histograms, plus event counters.
+ * Recording doesn't allocate, so it can stay on in the hot paths; reading is done by
+ * {@link #snapshot()} and handed to a {@link MetricsExporter}.
+ * <p>
+ * Call sites guard the recording with {@code if (BuildConfig.METRICS_ENABLED)}: it's a compile-time
+ * constant, so with {@code -Pmetrics=off} the calls are compiled out and the classes are shrunk away.
+ */
+public final class QuizMetrics {
+
+    /**
+     * Timed operations.
+     */
+    public enum Timer {
+        ON_CREATE,
+        ON_ACTIVITY_RESULT,
+        CHECK_ANSWER,
+        UPDATE_QUESTION,
+        CHEAT_ROUND_TRIP,
+        PACK_UPDATE
+    }
+
+    /**
+     * Counted events.
+     */
+    public enum Counter {
+        ACTIVITY_CREATED,
+        ACTIVITY_STARTED,
+        ACTIVITY_RESUMED,
+        ACTIVITY_PAUSED,
+        ACTIVITY_STOPPED,
+        ACTIVITY_DESTROYED,
+        ANSWER_CORRECT,
+        ANSWER_INCORRECT,
+        ANSWER_CHEATED,
+        CHEAT_SHOWN,
+        PACK_BYTES_WRITTEN,
+        PACK_BYTES_COPIED,
+        SESSION_COMMAND_DROPPED
+    }
+
+    private static final Timer[] TIMERS = Timer.values();
+    private static final Counter[] COUNTERS = Counter.values();
+
+    private static final QuizMetrics INSTANCE = new QuizMetrics();
+
+    private final LatencyHistogram[] mTimers = new LatencyHistogram[TIMERS.length];
+    private final AtomicLongArray mCounters = new AtomicLongArray(COUNTERS.length);
+
+    public QuizMetrics() {
+        for (int i = 0; i < mTimers.length; i++) {
+            mTimers[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Metrics of the process.
+     */
+    public static QuizMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Start time for {@link #recordSince(Timer, long)}.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Recording the time since the start of the operation.
+     *
+     * @param startNanos value of {@link #now()} at the start
+     */
+    public void recordSince(Timer timer, long startNanos) {
+        mTimers[timer.ordinal()].record(System.nanoTime() - startNanos);
+    }
+
+    public void record(Timer timer, long nanos) {
+        mTimers[timer.ordinal()].record(nanos);
+    }
+
+    public void increment(Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    public void add(Counter counter, long delta) {
+        mCounters.addAndGet(counter.ordinal(), delta);
+    }
+
+    public LatencyHistogram getHistogram(Timer timer) {
+        return mTimers[timer.ordinal()];
+    }
+
+    public long getCount(Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    /**
+     * Copy of the current values for the exporters.
+     */
+    public MetricsSnapshot snapshot() {
+        long[] timerCounts = new long[TIMERS.length];
+        long[][] timerValues = new long[TIMERS.length][];
+        for (int i = 0; i < TIMERS.length; i++) {
+            LatencyHistogram histogram = mTimers[i];
+            timerCounts[i] = histogram.getCount();
+            timerValues[i] = new long[]{
+                    (long) histogram.getMean(),
+                    histogram.getPercentile(50),
+                    histogram.getPercentile(90),
+                    histogram.getPercentile(99),
+                    histogram.getMax()
+            };
+        }
+        long[] counters = new long[COUNTERS.length];
+        for (int i = 0; i < COUNTERS.length; i++) {
+            counters[i] = mCounters.get(i);
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), timerCounts, timerValues, counters);
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : mTimers) {
+            histogram.reset();
+        }
+        for (int i = 0; i < COUNTERS.length; i++) {
+            mCounters.set(i, 0);
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.Arrays;
+
+/**
+ * Result of the finished quiz for the export: correctness and cheating per question,
+ * the order of the answers with their times and the final score.
+ * Results are encoded in batches by {@link ResultBatchCodec}.
+ */
+public final class QuizResult {
+
+    private final int mQuestionCount;
+    private final long mStartedAtMillis;
+    private final long mFinishedAtMillis;
+    private final int mScorePercent;
+    private final long[] mCorrect;
+    private final long[] mCheated;
+    private final int[] mAnswerOrder;
+    private final long[] mAnswerTimes;
+
+    /**
+     * @param questionCount    number of questions in the bank
+     * @param startedAtMillis  wall clock time of the start of the quiz
+     * @param finishedAtMillis wall clock time of the end of the quiz
+     * @param scorePercent     final score, as shown to user
+     * @param correct          bitset of the questions answered correctly
+     * @param cheated          bitset of the questions answered after cheating
+     * @param answerOrder      indices of the answered questions in the order of the answers
+     * @param answerTimes      wall clock times of the answers, in the same order (not decreasing)
+     */
+    QuizResult(int questionCount, long startedAtMillis, long finishedAtMillis, int scorePercent,
+               long[] correct, long[] cheated, int[] answerOrder, long[] answerTimes) {
+        if (answerOrder.length != answerTimes.length) {
+            throw new IllegalArgumentException("Every answer must have its time");
+        }
+        long previous = startedAtMillis;
+        for (long time : answerTimes) {
+            if (time < previous) {
+                throw new IllegalArgumentException("Times of the answers must not go back");
+            }
+            previous = time;
+        }
+        mQuestionCount = questionCount;
+        mStartedAtMillis = startedAtMillis;
+        mFinishedAtMillis = finishedAtMillis;
+        mScorePercent = scorePercent;
+        mCorrect = correct;
+        mCheated = cheated;
+        mAnswerOrder = answerOrder;
+        mAnswerTimes = answerTimes;
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    public long getStartedAtMillis() {
+        return mStartedAtMillis;
+    }
+
+    public long getFinishedAtMillis() {
+        return mFinishedAtMillis;
+    }
+
+    public int getScorePercent() {
+        return mScorePercent;
+    }
+
+    public int getAnswerCount() {
+        return mAnswerOrder.length;
+    }
+
+    /**
+     * Index of the question answered n-th.
+     */
+    public int getAnsweredQuestion(int n) {
+        return mAnswerOrder[n];
+    }
+
+    /**
+     * Wall clock time of the n-th answer.
+     */
+    public long getAnswerTime(int n) {
+        return mAnswerTimes[n];
+    }
+
+    public boolean isCorrect(int index) {
+        return (mCorrect[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public boolean isCheated(int index) {
+        return (mCheated[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QuizResult)) {
+            return false;
+        }
+        QuizResult other = (QuizResult) o;
+        return mQuestionCount == other.mQuestionCount && mStartedAtMillis == other.mStartedAtMillis
+                && mFinishedAtMillis == other.mFinishedAtMillis && mScorePercent == other.mScorePercent
+                && Arrays.equals(mCorrect, other.mCorrect) && Arrays.equals(mCheated, other.mCheated)
+                && Arrays.equals(mAnswerOrder, other.mAnswerOrder) && Arrays.equals(mAnswerTimes, other.mAnswerTimes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(mAnswerOrder) + (int) (mStartedAtMillis ^ (mStartedAtMillis >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "QuizResult{" + mScorePercent + "%, " + mAnswerOrder.length + "/" + mQuestionCount
+                + " answered in " + (mFinishedAtMillis - mStartedAtMillis) + " ms}";
+    }
+
+    /**
+     * Collecting the result while the quiz goes on: the answers are recorded as they are given.
+     */
+    public static class Recorder {
+
+        private final int mQuestionCount;
+        private long mStartedAtMillis;
+        private long[] mCorrect;
+        private long[] mCheated;
+        private int[] mAnswerOrder = new int[16];
+        private long[] mAnswerTimes = new long[16];
+        private int mAnswerCount;
+
+        public Recorder(int questionCount, long startedAtMillis) {
+            mQuestionCount = questionCount;
+            start(startedAtMillis);
+        }
+
+        /**
+         * Continuing the recording of the result saved with {@link #snapshot(long, int)}.
+         */
+        public Recorder(QuizResult partial) {
+            this(partial.mQuestionCount, partial.mStartedAtMillis);
+            restore(partial);
+        }
+
+        public int getQuestionCount() {
+            return mQuestionCount;
+        }
+
+        /**
+         * Continuing the recording of the result saved with {@link #snapshot(long, int)}, the answers recorded
+         * so far are replaced.
+         *
+         * @throws IllegalArgumentException if the result is of another number of questions
+         */
+        public void restore(QuizResult partial) {
+            if (partial.mQuestionCount != mQuestionCount) {
+                throw new IllegalArgumentException("Result of " + partial.mQuestionCount
+                        + " questions can't be continued with " + mQuestionCount);
+            }
+            mStartedAtMillis = partial.mStartedAtMillis;
+            mCorrect = partial.mCorrect.clone();
+            mCheated = partial.mCheated.clone();
+            mAnswerCount = 0;
+            for (int i = 0; i < partial.mAnswerOrder.length; i++) {
+                addAnswer(partial.mAnswerOrder[i], partial.mAnswerTimes[i]);
+            }
+        }
+
+        /**
+         * Starting over, as after "Start again".
+         */
+        public void start(long startedAtMillis) {
+            mStartedAtMillis = startedAtMillis;
+            mCorrect = new long[(mQuestionCount + 63) >>> 6];
+            mCheated = new long[mCorrect.length];
+            mAnswerCount = 0;
+        }
+
+        /**
+         * Recording the answer to the question.
+         *
+         * @param index      index of the answered question
+         * @param verdict    verdict on the answer
+         * @param timeMillis wall clock time of the answer
+         */
+        public void recordAnswer(int index, QuizSession.Verdict verdict, long timeMillis) {
+            if (verdict == QuizSession.Verdict.CORRECT) {
+                mCorrect[index >>> 6] |= 1L << index;
+            } else if (verdict == QuizSession.Verdict.CHEATED) {
+                mCheated[index >>> 6] |= 1L << index;
+            }
+            // the clock may step back, the times of the answers stay in order after the start
+            long previous = mAnswerCount > 0 ? mAnswerTimes[mAnswerCount - 1] : mStartedAtMillis;
+            addAnswer(index, Math.max(timeMillis, previous));
+        }
+
+        /**
+         * Result recorded so far.
+         *
+         * @param finishedAtMillis wall clock time of the end of the quiz (or of the snapshot)
+         * @param scorePercent     final score
+         */
+        public QuizResult snapshot(long finishedAtMillis, int scorePercent) {
+            return new QuizResult(mQuestionCount, mStartedAtMillis, finishedAtMillis, scorePercent,
+                    mCorrect.clone(), mCheated.clone(), Arrays.copyOf(mAnswerOrder, mAnswerCount),
+                    Arrays.copyOf(mAnswerTimes, mAnswerCount));
+        }
+
+        private void addAnswer(int index, long timeMillis) {
+            if (mAnswerCount == mAnswerOrder.length) {
+                mAnswerOrder = Arrays.copyOf(mAnswerOrder, mAnswerCount * 2);
+                mAnswerTimes = Arrays.copyOf(mAnswerTimes, mAnswerCount * 2);
+            }
+            mAnswerOrder[mAnswerCount] = index;
+            mAnswerTimes[mAnswerCount] = timeMillis;
+            mAnswerCount++;
+        }
+    }
+}
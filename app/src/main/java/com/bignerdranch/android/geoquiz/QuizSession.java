@@ -0,0 +1,398 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.Arrays;
+
+/**
+ * Headless quiz engine holding the whole state of a quiz session (current question, answered questions,
+ * score and cheating counters) without any dependency on Android framework classes.
+ * QuizActivity is only a view over this class, so the rules of the quiz can be tested on the JVM.
+ * <p>
+ * Answered questions are tracked in a bitset with a running counter, so finish detection is constant time.
+ * Jumping to the next unanswered question uses a "next free slot" union-find with path halving,
+ * which costs amortized near-constant time per jump regardless of the size of the question bank.
+ * <p>
+ * By default NEXT goes through the questions in order. With a {@link QuestionScheduler} set, NEXT goes to
+ * the question picked by the scheduler (adaptive order) other than the current one, and every answer
+ * reschedules the question. PREV then goes back to the question the last NEXT came from, once;
+ * after that (or after a jump, an answer in order...) it goes in order as well.
+ */
+public class QuizSession {
+
+    public static final int MAX_CHEAT_COUNT = 3;
+
+    /**
+     * Possible outcomes of answering a question.
+     */
+    public enum Verdict {
+        CORRECT,
+        INCORRECT,
+        CHEATED
+    }
+
+    private final QuestionStore mQuestionStore;
+    private final int mQuestionCount;
+
+    // one bit per question, set if the question is answered
+    private final long[] mAnswered;
+    // mNextUnanswered[i] leads to the first unanswered question at index >= i, mQuestionCount means "none"
+    private final int[] mNextUnanswered;
+    private int mAnsweredCount;
+
+    private int mCurrentIndex;
+    private int mCorrectAnswers;
+    private int mCheatCount;
+    private boolean mIsCheater;
+    private boolean mIsFinished;
+
+    // adaptive order of the questions, null - questions go in order
+    private QuestionScheduler mScheduler;
+    // question the last adaptive NEXT came from, for PREV; -1 if there's none
+    private int mPrevIndex = -1;
+
+    public QuizSession(Question[] questionBank) {
+        this(new PackedQuestionStore(questionBank));
+    }
+
+    public QuizSession(QuestionStore questionStore) {
+        if (questionStore.size() == 0) {
+            throw new IllegalArgumentException("Question bank is empty");
+        }
+        mQuestionStore = questionStore;
+        mQuestionCount = questionStore.size();
+        mAnswered = new long[wordCount(mQuestionCount)];
+        mNextUnanswered = new int[mQuestionCount + 1];
+        resetNextUnanswered();
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    public int getCurrentIndex() {
+        return mCurrentIndex;
+    }
+
+    public QuestionStore getQuestionStore() {
+        return mQuestionStore;
+    }
+
+    public Question getQuestion(int index) {
+        return mQuestionStore.getQuestion(index);
+    }
+
+    public Question getCurrentQuestion() {
+        return mQuestionStore.getQuestion(mCurrentIndex);
+    }
+
+    public int getCurrentTextResId() {
+        return mQuestionStore.getTextResId(mCurrentIndex);
+    }
+
+    /**
+     * Plain text of the current question, null if the text is a string resource (see getCurrentTextResId()).
+     */
+    public CharSequence getCurrentText() {
+        return mQuestionStore.getText(mCurrentIndex);
+    }
+
+    public boolean isCurrentAnswerTrue() {
+        return mQuestionStore.isAnswerTrue(mCurrentIndex);
+    }
+
+    public int getAnsweredCount() {
+        return mAnsweredCount;
+    }
+
+    public int getCorrectAnswers() {
+        return mCorrectAnswers;
+    }
+
+    public int getCheatCount() {
+        return mCheatCount;
+    }
+
+    public boolean isCheater() {
+        return mIsCheater;
+    }
+
+    public boolean isFinished() {
+        return mIsFinished;
+    }
+
+    public boolean isAnswered(int index) {
+        return (mAnswered[index >>> 6] & (1L << index)) != 0;
+    }
+
+    public boolean isCurrentAnswered() {
+        return isAnswered(mCurrentIndex);
+    }
+
+    public QuestionScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Switching the order of the questions: adaptive with the scheduler, in order without it (null).
+     * Questions which are already answered in the session are taken out of the scheduler's round.
+     * The scheduler keeps its state across restarts of the session, so mistakes come back in the next rounds.
+     *
+     * @param scheduler scheduler of the same question bank, or null
+     */
+    public void setScheduler(QuestionScheduler scheduler) {
+        if (scheduler != null && scheduler.getQuestionCount() != mQuestionCount) {
+            throw new IllegalArgumentException("Scheduler doesn't match the question bank");
+        }
+        mScheduler = scheduler;
+        mPrevIndex = -1;
+        syncScheduler();
+    }
+
+    /**
+     * CHEAT! is available only while the number of cheats in the session is not maxed out.
+     */
+    public boolean isCheatAvailable() {
+        return mCheatCount < MAX_CHEAT_COUNT;
+    }
+
+    /**
+     * Final result of the quiz in % of correct answers.
+     */
+    public int getScorePercent() {
+        return (int) ((double) mCorrectAnswers / mQuestionCount * 100);
+    }
+
+    /**
+     * Moving to the next question. After the last question the sequence loops to the first one.
+     * In adaptive order it's the question picked by the scheduler other than the current one,
+     * while there are such unanswered ones.
+     */
+    public void moveToNext() {
+        if (mScheduler != null) {
+            int next = mScheduler.nextOtherThan(mCurrentIndex);
+            if (next >= 0) {
+                mPrevIndex = mCurrentIndex;
+                mCurrentIndex = next;
+                return;
+            }
+        }
+        mPrevIndex = -1;
+        mCurrentIndex = (mCurrentIndex + 1) % mQuestionCount;
+    }
+
+    /**
+     * Moving to the previous question. Before the first question the sequence loops to the last one.
+     * In adaptive order the first PREV after NEXT goes back to the question NEXT came from.
+     */
+    public void moveToPrev() {
+        if (mScheduler != null && mPrevIndex >= 0) {
+            mCurrentIndex = mPrevIndex;
+            mPrevIndex = -1;
+            return;
+        }
+        if (mCurrentIndex != 0) {
+            mCurrentIndex = mCurrentIndex - 1;
+        } else {
+            mCurrentIndex = mQuestionCount - 1;
+        }
+    }
+
+    /**
+     * Moving straight to the question with the given index.
+     *
+     * @param index index of the question in the bank
+     */
+    public void moveTo(int index) {
+        if (index < 0 || index >= mQuestionCount) {
+            throw new IndexOutOfBoundsException("Question index " + index + " is out of range");
+        }
+        mPrevIndex = -1;
+        mCurrentIndex = index;
+    }
+
+    /**
+     * Moving to the closest unanswered question after the current one (looping to the beginning if needed).
+     *
+     * @return true if such question was found, false - all the questions are answered
+     */
+    public boolean moveToNextUnanswered() {
+        int next = findUnanswered(mCurrentIndex + 1);
+        if (next == mQuestionCount) {
+            next = findUnanswered(0);
+        }
+        if (next == mQuestionCount) {
+            return false;
+        }
+        mPrevIndex = -1;
+        mCurrentIndex = next;
+        return true;
+    }
+
+    /**
+     * Checking the answer to the current question and marking it as answered.
+     * If user has cheated on the question, the answer isn't counted and the cheating flag is cleared.
+     *
+     * @param userPressedTrue true, if user pressed "Correct", false - "Incorrect"
+     * @return verdict on the answer
+     */
+    public Verdict checkAnswer(boolean userPressedTrue) {
+        if (isCurrentAnswered()) {
+            throw new IllegalStateException("Question " + mCurrentIndex + " is already answered");
+        }
+
+        Verdict verdict;
+        if (mIsCheater) {
+            verdict = Verdict.CHEATED;
+            mIsCheater = false;
+        } else if (userPressedTrue == mQuestionStore.isAnswerTrue(mCurrentIndex)) {
+            verdict = Verdict.CORRECT;
+            mCorrectAnswers++;
+        } else {
+            verdict = Verdict.INCORRECT;
+        }
+
+        markAnswered(mCurrentIndex);
+        if (mScheduler != null) {
+            mScheduler.record(mCurrentIndex, verdict == Verdict.CORRECT);
+        }
+        return verdict;
+    }
+
+    /**
+     * Registering the result of the cheat reveal (CheatDialogFragment or CheatActivity).
+     *
+     * @param answerShown true, if user was shown the answer
+     */
+    public void registerCheat(boolean answerShown) {
+        mIsCheater = answerShown;
+        if (answerShown) {
+            mCheatCount++;
+        }
+    }
+
+    /**
+     * Reinitializing the quiz from the beginning: clears answers and counters, sets the first question.
+     */
+    public void restart() {
+        Arrays.fill(mAnswered, 0L);
+        resetNextUnanswered();
+        mAnsweredCount = 0;
+        mCorrectAnswers = 0;
+        mIsFinished = false;
+        mCurrentIndex = 0;
+        mPrevIndex = -1;
+        mCheatCount = 0;
+        if (mScheduler != null) {
+            mScheduler.newRound();
+            mCurrentIndex = mScheduler.next();
+        }
+    }
+
+    /**
+     * Copy of the answered questions bitset (one bit per question) for saving the state.
+     */
+    public long[] getAnsweredBits() {
+        return mAnswered.clone();
+    }
+
+    /**
+     * Restoring the state of the session which was saved earlier (after rotating the phone etc...).
+     *
+     * @param currentIndex   index of the active question
+     * @param answeredBits   answered questions bitset, as returned by {@link #getAnsweredBits()}
+     * @param correctAnswers number of correct answers
+     * @param isCheater      true, if user has cheated on the current question
+     * @param cheatCount     number of cheats in the session
+     */
+    public void restoreState(int currentIndex, long[] answeredBits, int correctAnswers,
+                             boolean isCheater, int cheatCount) {
+        if (answeredBits.length != mAnswered.length) {
+            throw new IllegalArgumentException("Answered bitset doesn't match the question bank");
+        }
+        moveTo(currentIndex);
+        System.arraycopy(answeredBits, 0, mAnswered, 0, mAnswered.length);
+        restoreCounters(correctAnswers, isCheater, cheatCount);
+    }
+
+    /**
+     * Internal answered questions bitset, so {@link QuizStateCodec} can encode and decode it without copying.
+     * After writing to it the state must be completed with {@link #restoreCounters(int, boolean, int)}.
+     */
+    long[] answeredWords() {
+        return mAnswered;
+    }
+
+    /**
+     * Completing the restore after the answered questions bitset was filled:
+     * recomputing derived counters and setting the saved ones.
+     */
+    void restoreCounters(int correctAnswers, boolean isCheater, int cheatCount) {
+        // bits beyond the last question must never be set
+        int tail = mQuestionCount & 63;
+        if (tail != 0) {
+            mAnswered[mAnswered.length - 1] &= (1L << tail) - 1;
+        }
+
+        mAnsweredCount = 0;
+        for (long word : mAnswered) {
+            mAnsweredCount += Long.bitCount(word);
+        }
+        mNextUnanswered[mQuestionCount] = mQuestionCount;
+        for (int i = mQuestionCount - 1; i >= 0; i--) {
+            mNextUnanswered[i] = isAnswered(i) ? i + 1 : i;
+        }
+
+        mCorrectAnswers = correctAnswers;
+        mIsCheater = isCheater;
+        mCheatCount = cheatCount;
+        mIsFinished = mAnsweredCount == mQuestionCount;
+        syncScheduler();
+    }
+
+    // the scheduler's round holds exactly the unanswered questions
+    private void syncScheduler() {
+        if (mScheduler == null) {
+            return;
+        }
+        mScheduler.newRound();
+        for (int word = 0; word < mAnswered.length; word++) {
+            long bits = mAnswered[word];
+            while (bits != 0) {
+                mScheduler.removeFromRound((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    private void markAnswered(int index) {
+        mAnswered[index >>> 6] |= 1L << index;
+        mNextUnanswered[index] = index + 1;
+        mAnsweredCount++;
+        if (mAnsweredCount == mQuestionCount) {
+            mIsFinished = true;
+        }
+    }
+
+    /**
+     * Finding the first unanswered question at index >= from, or mQuestionCount if there's none.
+     * Path halving keeps the chains short, so repeated lookups stay close to constant time.
+     */
+    private int findUnanswered(int from) {
+        int i = from;
+        while (mNextUnanswered[i] != i) {
+            int next = mNextUnanswered[i];
+            mNextUnanswered[i] = mNextUnanswered[next];
+            i = next;
+        }
+        return i;
+    }
+
+    private void resetNextUnanswered() {
+        for (int i = 0; i <= mQuestionCount; i++) {
+            mNextUnanswered[i] = i;
+        }
+    }
+
+    private static int wordCount(int bits) {
+        return (bits + 63) >>> 6;
+    }
+}
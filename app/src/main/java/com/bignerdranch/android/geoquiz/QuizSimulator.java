@@ -0,0 +1,303 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Deterministic simulation of quiz sessions for fuzzing the rules of the quiz and measuring their throughput.
+ * <p>
+ * Every session plays random actions the way user does them on QuizActivity: answering (the quiz moves to
+ * the next question after the answer), cheating while CHEAT! is enabled, PREV/NEXT with wrap-around,
+ * "Start again" after the end and saving/restoring the state at random points (like rotating the phone).
+ * Only the actions enabled by {@link QuizViewState} are taken, except for occasional answers to answered
+ * questions, which the session must reject.
+ * <p>
+ * After every action the session is checked against a simple model of the rules, and at the end of the session
+ * the state reduced from its events by {@link SessionReducer} must match the session.
+ * Sessions are seeded from the run seed and their number, so a failing session is reproduced
+ * with {@link #runSession(long)} and the seed from the failure message.
+ */
+public class QuizSimulator {
+
+    private static final int MAX_BANK_SIZE = 130;
+    private static final int MAX_ACTIONS = 400;
+
+    /**
+     * Results of the simulation.
+     */
+    public static class Result {
+
+        private final long mSessions;
+        private final long mActions;
+        private final long mElapsedNanos;
+        private final long mChecksum;
+
+        Result(long sessions, long actions, long elapsedNanos, long checksum) {
+            mSessions = sessions;
+            mActions = actions;
+            mElapsedNanos = elapsedNanos;
+            mChecksum = checksum;
+        }
+
+        public long getSessions() {
+            return mSessions;
+        }
+
+        public long getActions() {
+            return mActions;
+        }
+
+        public long getElapsedNanos() {
+            return mElapsedNanos;
+        }
+
+        /**
+         * Checksum of the final states of all the sessions, the same for the same seed.
+         */
+        public long getChecksum() {
+            return mChecksum;
+        }
+
+        public double getSessionsPerSecond() {
+            return mElapsedNanos == 0 ? 0 : mSessions * 1e9 / mElapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH,
+                    "simulated %,d sessions (%,d actions) in %.2f s (%,.0f sessions/s), checksum %016x",
+                    mSessions, mActions, mElapsedNanos / 1e9, getSessionsPerSecond(), mChecksum);
+        }
+    }
+
+    // question banks of every size, shared by the sessions (the session never changes the bank)
+    private final QuestionStore[] mBanks = new QuestionStore[MAX_BANK_SIZE + 1];
+    private final SessionReducer[] mReducers = new SessionReducer[MAX_BANK_SIZE + 1];
+    private long mActions;
+
+    public QuizSimulator() {
+        Random random = new Random(0);
+        for (int size = 1; size <= MAX_BANK_SIZE; size++) {
+            Question[] questions = new Question[size];
+            for (int i = 0; i < size; i++) {
+                questions[i] = new Question(i, random.nextBoolean());
+            }
+            mBanks[size] = new PackedQuestionStore(questions);
+            mReducers[size] = new SessionReducer(mBanks[size]);
+        }
+    }
+
+    /**
+     * Simulating the given number of sessions.
+     *
+     * @param seed     seed of the run
+     * @param sessions number of sessions
+     * @throws IllegalStateException if a session breaks a rule of the quiz, the message has the seed of the session
+     */
+    public Result run(long seed, long sessions) {
+        long actionsBefore = mActions;
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (long i = 0; i < sessions; i++) {
+            checksum = checksum * 31 + runSession(sessionSeed(seed, i));
+        }
+        return new Result(sessions, mActions - actionsBefore, System.nanoTime() - start, checksum);
+    }
+
+    /**
+     * Seed of the session with the given number in the run.
+     */
+    public static long sessionSeed(long seed, long session) {
+        long z = seed + (session + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Simulating one session.
+     *
+     * @return hash of the final state of the session
+     * @throws IllegalStateException if the session breaks a rule of the quiz
+     */
+    public long runSession(long seed) {
+        Random random = new Random(seed);
+        int size = 1 + random.nextInt(MAX_BANK_SIZE);
+        QuestionStore bank = mBanks[size];
+        QuizSession session = new QuizSession(bank);
+        Model model = new Model(size);
+        SessionEventLog log = new SessionEventLog(mReducers[size], mReducers[size].initial(), 64);
+        int actions = random.nextInt(MAX_ACTIONS);
+
+        for (int step = 0; step < actions; step++) {
+            QuizViewState view = QuizViewState.of(session);
+            int action = random.nextInt(100);
+            if (action < 40 && view.isAnswerEnabled()) {
+                boolean pressedTrue = random.nextBoolean();
+                int index = session.getCurrentIndex();
+                QuizSession.Verdict verdict = session.checkAnswer(pressedTrue);
+                log.append(SessionEvent.answered(index, pressedTrue));
+                if (verdict != model.answer(index, pressedTrue == bank.isAnswerTrue(index))) {
+                    fail(seed, step, "verdict " + verdict);
+                }
+                if (!session.isFinished()) {
+                    session.moveToNext();
+                    model.moveToNext();
+                    log.append(SessionEvent.navigated(session.getCurrentIndex()));
+                }
+            } else if (action < 42 && session.isCurrentAnswered()) {
+                boolean accepted = true;
+                try {
+                    session.checkAnswer(random.nextBoolean());
+                } catch (IllegalStateException expected) { // the second answer is rejected
+                    accepted = false;
+                }
+                if (accepted) {
+                    fail(seed, step, "answered question " + session.getCurrentIndex() + " twice");
+                }
+            } else if (action < 52 && view.isCheatEnabled()) {
+                boolean shown = random.nextInt(4) != 0;
+                session.registerCheat(shown);
+                model.cheat(shown);
+                log.append(SessionEvent.cheated(shown));
+            } else if (action < 82 && view.isNavigationEnabled()) {
+                if (random.nextBoolean()) {
+                    session.moveToNext();
+                    model.moveToNext();
+                } else {
+                    session.moveToPrev();
+                    model.moveToPrev();
+                }
+                log.append(SessionEvent.navigated(session.getCurrentIndex()));
+            } else if (action < 92 && view.isStartAgainVisible()) {
+                session.restart();
+                model.restart();
+                log.append(SessionEvent.restarted());
+            } else if (action < 93) {
+                // saving the state and restoring it into the new session, as after rotating the phone
+                QuizSession restored = new QuizSession(bank);
+                QuizStateCodec.decode(QuizStateCodec.encode(session), restored);
+                session = restored;
+            }
+            checkInvariants(session, model, seed, step);
+        }
+        mActions += actions;
+
+        SessionState reduced = log.getState();
+        if (!reduced.sameAs(SessionState.of(session))) {
+            fail(seed, actions, "replayed state " + reduced);
+        }
+        return ((long) session.getCurrentIndex() << 48) ^ ((long) session.getAnsweredCount() << 32)
+                ^ ((long) session.getCorrectAnswers() << 16) ^ (session.getCheatCount() << 1)
+                ^ (session.isCheater() ? 1 : 0);
+    }
+
+    private static void checkInvariants(QuizSession session, Model model, long seed, int step) {
+        // messages are built only on failure, the checks run after every action
+        if (session.getCurrentIndex() != model.mCurrentIndex) {
+            fail(seed, step, "current question " + session.getCurrentIndex() + ", expected " + model.mCurrentIndex);
+        }
+        if (session.getAnsweredCount() != model.mAnsweredCount) {
+            fail(seed, step, "answered " + session.getAnsweredCount() + ", expected " + model.mAnsweredCount);
+        }
+        if (session.getCorrectAnswers() != model.mCorrectAnswers) {
+            fail(seed, step, "score " + session.getCorrectAnswers() + ", expected " + model.mCorrectAnswers);
+        }
+        if (session.getCorrectAnswers() > session.getAnsweredCount()) {
+            fail(seed, step, "score " + session.getCorrectAnswers() + " above answered " + session.getAnsweredCount());
+        }
+        if (session.getCheatCount() != model.mCheatCount || session.getCheatCount() > QuizSession.MAX_CHEAT_COUNT) {
+            fail(seed, step, "cheats " + session.getCheatCount() + ", expected " + model.mCheatCount);
+        }
+        if (session.isCheater() != model.mIsCheater) {
+            fail(seed, step, "cheating flag " + session.isCheater());
+        }
+        if (session.isCurrentAnswered() != model.mAnswered[model.mCurrentIndex]) {
+            fail(seed, step, "answered flag of question " + model.mCurrentIndex);
+        }
+        if (session.isFinished() != (model.mAnsweredCount == model.mAnswered.length)) {
+            fail(seed, step, "finished flag " + session.isFinished());
+        }
+
+        QuizViewState view = QuizViewState.of(session);
+        if (view.isCheatEnabled() && (!view.isAnswerEnabled() || !session.isCheatAvailable())) {
+            fail(seed, step, "CHEAT! enabled with " + session.getCheatCount() + " cheats");
+        }
+        if (view.isAnswerEnabled() == session.isCurrentAnswered()) {
+            fail(seed, step, "answer buttons " + view);
+        }
+        if (view.isStartAgainVisible() != session.isFinished()) {
+            fail(seed, step, "\"Start again\" " + view);
+        }
+    }
+
+    private static void fail(long seed, int step, String message) {
+        throw new IllegalStateException(String.format(Locale.ENGLISH, "Session %d, step %d: %s", seed, step, message));
+    }
+
+    /**
+     * Reference model of the rules, as plain as possible.
+     */
+    private static class Model {
+        final boolean[] mAnswered;
+        int mAnsweredCount;
+        int mCurrentIndex;
+        int mCorrectAnswers;
+        int mCheatCount;
+        boolean mIsCheater;
+
+        Model(int size) {
+            mAnswered = new boolean[size];
+        }
+
+        QuizSession.Verdict answer(int index, boolean correct) {
+            mAnswered[index] = true;
+            mAnsweredCount++;
+            if (mIsCheater) {
+                mIsCheater = false;
+                return QuizSession.Verdict.CHEATED;
+            }
+            if (correct) {
+                mCorrectAnswers++;
+                return QuizSession.Verdict.CORRECT;
+            }
+            return QuizSession.Verdict.INCORRECT;
+        }
+
+        void cheat(boolean shown) {
+            mIsCheater = shown;
+            if (shown) {
+                mCheatCount++;
+            }
+        }
+
+        void moveToNext() {
+            mCurrentIndex = mCurrentIndex == mAnswered.length - 1 ? 0 : mCurrentIndex + 1;
+        }
+
+        void moveToPrev() {
+            mCurrentIndex = mCurrentIndex == 0 ? mAnswered.length - 1 : mCurrentIndex - 1;
+        }
+
+        void restart() {
+            Arrays.fill(mAnswered, false);
+            mAnsweredCount = 0;
+            mCurrentIndex = 0;
+            mCorrectAnswers = 0;
+            mCheatCount = 0;
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length > 2) {
+            System.err.println("Usage: QuizSimulator [sessions] [seed]");
+            System.exit(2);
+        }
+        long sessions = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+
+        System.out.println("seed " + seed);
+        System.out.println(new QuizSimulator().run(seed, sessions));
+    }
+}
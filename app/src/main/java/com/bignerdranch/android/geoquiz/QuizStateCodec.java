@@ -0,0 +1,255 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of the quiz session state for saving it into a Bundle as a single byte[].
+ * The answered questions bitset is stored either raw (1 bit per question) or run-length encoded,
+ * whichever is smaller: a quiz answered in order compresses to a few bytes for any size of the bank.
+ * <p>
+ * Format (version 1): version byte, flags byte (bit 0 - user has cheated, bit 1 - run-length encoded),
+ * varints of the number of questions, current index, correct answers and cheats, then the bitset:
+ * raw bytes (least significant bit first), or varint lengths of alternating runs of unanswered and
+ * answered questions, starting with an unanswered run (possibly empty).
+ */
+public final class QuizStateCodec {
+
+    private static final int VERSION = 1;
+    private static final int FLAG_CHEATER = 1;
+    private static final int FLAG_RUN_LENGTH = 2;
+
+    // fields of the header returned by decodeInto
+    private static final int HEADER_FLAGS = 0;
+    private static final int HEADER_CURRENT_INDEX = 1;
+    private static final int HEADER_CORRECT_ANSWERS = 2;
+    private static final int HEADER_CHEAT_COUNT = 3;
+
+    private QuizStateCodec() {
+    }
+
+    /**
+     * Encoding the state of the session.
+     *
+     * @param session quiz session
+     * @return encoded state
+     */
+    public static byte[] encode(QuizSession session) {
+        return encode(session.answeredWords(), session.getQuestionCount(), session.getCurrentIndex(),
+                session.getCorrectAnswers(), session.getCheatCount(), session.isCheater());
+    }
+
+    /**
+     * Encoding the state published by the session loop, the same bytes as for the session in that state.
+     *
+     * @param state state of the session, e.g. of {@link SessionEventLoop.Snapshot#getState()}
+     * @return encoded state
+     */
+    public static byte[] encode(SessionState state) {
+        return encode(state.getAnsweredBits(), state.getQuestionCount(), state.getCurrentIndex(),
+                state.getCorrectAnswers(), state.getCheatCount(), state.isCheater());
+    }
+
+    private static byte[] encode(long[] words, int questionCount, int currentIndex, int correctAnswers,
+                                 int cheatCount, boolean cheater) {
+        int rawSize = (questionCount + 7) >>> 3;
+        int runLengthSize = runLengthSize(words, questionCount, rawSize);
+        boolean runLength = runLengthSize < rawSize;
+
+        int flags = (cheater ? FLAG_CHEATER : 0) | (runLength ? FLAG_RUN_LENGTH : 0);
+        int headerSize = 2 + varintSize(questionCount) + varintSize(currentIndex)
+                + varintSize(correctAnswers) + varintSize(cheatCount);
+
+        byte[] state = new byte[headerSize + (runLength ? runLengthSize : rawSize)];
+        int position = 0;
+        state[position++] = VERSION;
+        state[position++] = (byte) flags;
+        position = writeVarint(state, position, questionCount);
+        position = writeVarint(state, position, currentIndex);
+        position = writeVarint(state, position, correctAnswers);
+        position = writeVarint(state, position, cheatCount);
+
+        if (runLength) {
+            boolean answered = false;
+            int run = 0;
+            for (int i = 0; i < questionCount; i++) {
+                if (isSet(words, i) != answered) {
+                    position = writeVarint(state, position, run);
+                    answered = !answered;
+                    run = 0;
+                }
+                run++;
+            }
+            writeVarint(state, position, run);
+        } else {
+            for (int i = 0; i < rawSize; i++) {
+                state[position + i] = (byte) (words[i >>> 3] >>> ((i & 7) << 3));
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Restoring the state of the session from the encoded one, straight into the session's bitset.
+     * If the state is malformed or doesn't match the question bank, the session is restarted.
+     *
+     * @param state   encoded state, as returned by {@link #encode(QuizSession)}
+     * @param session quiz session over the same question bank
+     * @throws IllegalArgumentException if the state can't be restored
+     */
+    public static void decode(byte[] state, QuizSession session) {
+        try {
+            int[] header = decodeInto(state, session.getQuestionCount(), session.answeredWords());
+            session.moveTo(header[HEADER_CURRENT_INDEX]);
+            session.restoreCounters(header[HEADER_CORRECT_ANSWERS], (header[HEADER_FLAGS] & FLAG_CHEATER) != 0,
+                    header[HEADER_CHEAT_COUNT]);
+        } catch (IllegalArgumentException e) {
+            session.restart();
+            throw e;
+        } catch (IndexOutOfBoundsException e) {
+            session.restart();
+            throw new IllegalArgumentException("Truncated or corrupted quiz state", e);
+        }
+    }
+
+    /**
+     * Decoding the state straight into the immutable state of the session, without a session:
+     * it costs the answered bitset twice (the decoded words and the chunks of the state), not the arrays
+     * of a whole session, so it may be done on the UI thread for a large bank.
+     *
+     * @param state         encoded state, as returned by {@link #encode(QuizSession)}
+     * @param questionCount number of questions in the bank the state must match
+     * @throws IllegalArgumentException if the state is malformed or doesn't match the question bank
+     */
+    public static SessionState decode(byte[] state, int questionCount) {
+        try {
+            long[] words = new long[(questionCount + 63) >>> 6];
+            int[] header = decodeInto(state, questionCount, words);
+            return SessionState.of(questionCount, words, header[HEADER_CURRENT_INDEX],
+                    header[HEADER_CORRECT_ANSWERS], header[HEADER_CHEAT_COUNT],
+                    (header[HEADER_FLAGS] & FLAG_CHEATER) != 0);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or corrupted quiz state", e);
+        }
+    }
+
+    /**
+     * Decoding the answered bitset into the words and reading the rest of the header.
+     *
+     * @return the flags, the current index, the correct answers and the cheats, at the HEADER_ indexes
+     */
+    private static int[] decodeInto(byte[] state, int expectedQuestionCount, long[] words) {
+        if (state.length < 2 || state[0] != VERSION) {
+            throw new IllegalArgumentException("Unsupported quiz state");
+        }
+        int flags = state[1];
+        int[] position = {2};
+        int questionCount = readVarint(state, position);
+        int currentIndex = readVarint(state, position);
+        int correctAnswers = readVarint(state, position);
+        int cheatCount = readVarint(state, position);
+        if (questionCount != expectedQuestionCount) {
+            throw new IllegalArgumentException("Quiz state doesn't match the question bank");
+        }
+
+        Arrays.fill(words, 0L);
+        if ((flags & FLAG_RUN_LENGTH) != 0) {
+            boolean answered = false;
+            int index = 0;
+            while (index < questionCount) {
+                int run = readVarint(state, position);
+                if (run > questionCount - index) {
+                    throw new IllegalArgumentException("Run-length bitset is longer than the question bank");
+                }
+                if (answered) {
+                    setRange(words, index, index + run);
+                }
+                index += run;
+                answered = !answered;
+            }
+        } else {
+            int rawSize = (questionCount + 7) >>> 3;
+            if (state.length - position[0] != rawSize) {
+                throw new IllegalArgumentException("Raw bitset doesn't match the question bank");
+            }
+            for (int i = 0; i < rawSize; i++) {
+                words[i >>> 3] |= (state[position[0] + i] & 0xFFL) << ((i & 7) << 3);
+            }
+        }
+
+        return new int[]{flags, currentIndex, correctAnswers, cheatCount};
+    }
+
+    /**
+     * Size of the run-length encoded bitset, or the limit if it's not smaller than the limit.
+     */
+    private static int runLengthSize(long[] words, int questionCount, int limit) {
+        int size = 0;
+        boolean answered = false;
+        int run = 0;
+        for (int i = 0; i < questionCount; i++) {
+            // skipping whole words of the same bit at once
+            if ((i & 63) == 0 && questionCount - i >= 64 && words[i >>> 6] == (answered ? -1L : 0L)) {
+                run += 64;
+                i += 63;
+                continue;
+            }
+            if (isSet(words, i) != answered) {
+                size += varintSize(run);
+                if (size >= limit) {
+                    return limit;
+                }
+                answered = !answered;
+                run = 0;
+            }
+            run++;
+        }
+        return Math.min(limit, size + varintSize(run));
+    }
+
+    private static boolean isSet(long[] words, int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static void setRange(long[] words, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if ((i & 63) == 0 && to - i >= 64) {
+                words[i >>> 6] = -1L;
+                i += 63;
+            } else {
+                words[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static int writeVarint(byte[] buffer, int position, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return position;
+    }
+
+    private static int readVarint(byte[] buffer, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative value in quiz state");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in quiz state");
+    }
+}
@@ -0,0 +1,63 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Applying {@link QuizViewState} to the views: only the controls whose state differs from the last rendered
+ * state are changed, so an action which doesn't change a control doesn't invalidate it.
+ * The first state is applied in full, as the views may be in any state after inflating.
+ */
+public class QuizViewRenderer {
+
+    /**
+     * Views of the quiz screen, implemented by QuizActivity (and by the tests on the JVM).
+     */
+    public interface Target {
+
+        void setAnswerEnabled(boolean enabled);
+
+        void setCheatEnabled(boolean enabled);
+
+        void setNavigationEnabled(boolean enabled);
+
+        void setStartAgainVisible(boolean visible);
+    }
+
+    private final Target mTarget;
+    // last applied state, null - nothing is applied yet
+    private QuizViewState mRendered;
+
+    public QuizViewRenderer(Target target) {
+        mTarget = target;
+    }
+
+    public QuizViewState getRendered() {
+        return mRendered;
+    }
+
+    /**
+     * Applying the changed controls of the state.
+     *
+     * @return number of controls changed
+     */
+    public int render(QuizViewState state) {
+        QuizViewState rendered = mRendered;
+        mRendered = state;
+        int changes = 0;
+        if (rendered == null || rendered.isAnswerEnabled() != state.isAnswerEnabled()) {
+            mTarget.setAnswerEnabled(state.isAnswerEnabled());
+            changes++;
+        }
+        if (rendered == null || rendered.isCheatEnabled() != state.isCheatEnabled()) {
+            mTarget.setCheatEnabled(state.isCheatEnabled());
+            changes++;
+        }
+        if (rendered == null || rendered.isNavigationEnabled() != state.isNavigationEnabled()) {
+            mTarget.setNavigationEnabled(state.isNavigationEnabled());
+            changes++;
+        }
+        if (rendered == null || rendered.isStartAgainVisible() != state.isStartAgainVisible()) {
+            mTarget.setStartAgainVisible(state.isStartAgainVisible());
+            changes++;
+        }
+        return changes;
+    }
+}
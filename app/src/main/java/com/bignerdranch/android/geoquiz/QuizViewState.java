@@ -0,0 +1,85 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Immutable state of the quiz screen controls, computed from the session.
+ * {@link QuizViewRenderer} applies it to the views, touching only the controls whose state has changed.
+ */
+public final class QuizViewState {
+
+    private final boolean mAnswerEnabled;
+    private final boolean mCheatEnabled;
+    private final boolean mNavigationEnabled;
+    private final boolean mStartAgainVisible;
+
+    public QuizViewState(boolean answerEnabled, boolean cheatEnabled, boolean navigationEnabled,
+                         boolean startAgainVisible) {
+        mAnswerEnabled = answerEnabled;
+        mCheatEnabled = cheatEnabled;
+        mNavigationEnabled = navigationEnabled;
+        mStartAgainVisible = startAgainVisible;
+    }
+
+    /**
+     * State of the controls for the session:
+     * answer buttons (Correct/Incorrect) are enabled only for an unanswered question,
+     * CHEAT! - along with them while the number of cheats isn't maxed out,
+     * navigation (PREV/NEXT and the question text) - until the quiz is finished,
+     * "Start again" is shown when the quiz is finished.
+     */
+    public static QuizViewState of(QuizSession session) {
+        boolean finished = session.isFinished();
+        boolean answerEnabled = !finished && !session.isCurrentAnswered();
+        return new QuizViewState(answerEnabled, answerEnabled && session.isCheatAvailable(), !finished, finished);
+    }
+
+    /**
+     * State of the controls for the session in the given state, by the same rules as {@link #of(QuizSession)}.
+     */
+    public static QuizViewState of(SessionState state) {
+        boolean finished = state.isFinished();
+        boolean answerEnabled = !finished && !state.isAnswered(state.getCurrentIndex());
+        return new QuizViewState(answerEnabled, answerEnabled && state.getCheatCount() < QuizSession.MAX_CHEAT_COUNT,
+                !finished, finished);
+    }
+
+    public boolean isAnswerEnabled() {
+        return mAnswerEnabled;
+    }
+
+    public boolean isCheatEnabled() {
+        return mCheatEnabled;
+    }
+
+    public boolean isNavigationEnabled() {
+        return mNavigationEnabled;
+    }
+
+    public boolean isStartAgainVisible() {
+        return mStartAgainVisible;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof QuizViewState)) {
+            return false;
+        }
+        QuizViewState other = (QuizViewState) o;
+        return mAnswerEnabled == other.mAnswerEnabled && mCheatEnabled == other.mCheatEnabled
+                && mNavigationEnabled == other.mNavigationEnabled && mStartAgainVisible == other.mStartAgainVisible;
+    }
+
+    @Override
+    public int hashCode() {
+        return (mAnswerEnabled ? 1 : 0) | (mCheatEnabled ? 2 : 0) | (mNavigationEnabled ? 4 : 0)
+                | (mStartAgainVisible ? 8 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "QuizViewState{answer " + mAnswerEnabled + ", cheat " + mCheatEnabled
+                + ", navigation " + mNavigationEnabled + ", start again " + mStartAgainVisible + "}";
+    }
+}
@@ -0,0 +1,339 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed columnar encoding of a batch of quiz results for the export.
+ * <p>
+ * The values of the same kind from all the results of the batch are stored together (columns),
+ * so they are small and alike, and deflate compresses them well: booleans are bit-packed,
+ * times are stored as deltas (the start of the quiz from the start of the previous result,
+ * every answer from the previous answer), question indices in the answer order as deltas
+ * from the previous index (+1 for the quiz answered in order).
+ * <p>
+ * Format (version 1): int magic, version byte, int length and int CRC32 of the columns,
+ * then the deflated columns: varint number of results; varints of question counts; varints of answer counts;
+ * zigzag varlongs of start deltas; zigzag varlongs of durations; score bytes; bits of correct answers
+ * and bits of cheated answers (question count bits per result, least significant bit first);
+ * zigzag varints of answer order deltas; varlongs of answer time deltas.
+ */
+public final class ResultBatchCodec {
+
+    private static final int MAGIC = 0x47515242; // "GQRB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 13;
+    private static final int MAX_COLUMNS_SIZE = 64 * 1024 * 1024;
+
+    private ResultBatchCodec() {
+    }
+
+    /**
+     * Encoding the batch of results.
+     *
+     * @param results results of the batch, in any order
+     * @return encoded batch
+     */
+    public static byte[] encode(List<QuizResult> results) {
+        Columns columns = new Columns();
+        columns.writeVarint(results.size());
+        for (QuizResult result : results) {
+            columns.writeVarint(result.getQuestionCount());
+        }
+        for (QuizResult result : results) {
+            columns.writeVarint(result.getAnswerCount());
+        }
+        long previousStart = 0;
+        for (QuizResult result : results) {
+            columns.writeZigzag(result.getStartedAtMillis() - previousStart);
+            previousStart = result.getStartedAtMillis();
+        }
+        for (QuizResult result : results) {
+            columns.writeZigzag(result.getFinishedAtMillis() - result.getStartedAtMillis());
+        }
+        for (QuizResult result : results) {
+            columns.writeByte(result.getScorePercent());
+        }
+        for (int column = 0; column < 2; column++) {
+            boolean cheated = column == 1;
+            for (QuizResult result : results) {
+                for (int i = 0; i < result.getQuestionCount(); i++) {
+                    columns.writeBit(cheated ? result.isCheated(i) : result.isCorrect(i));
+                }
+            }
+            columns.flushBits();
+        }
+        for (QuizResult result : results) {
+            int previousIndex = -1;
+            for (int n = 0; n < result.getAnswerCount(); n++) {
+                columns.writeZigzag(result.getAnsweredQuestion(n) - previousIndex);
+                previousIndex = result.getAnsweredQuestion(n);
+            }
+        }
+        for (QuizResult result : results) {
+            long previousTime = result.getStartedAtMillis();
+            for (int n = 0; n < result.getAnswerCount(); n++) {
+                columns.writeVarlong(result.getAnswerTime(n) - previousTime);
+                previousTime = result.getAnswerTime(n);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(columns.mBytes, 0, columns.mSize);
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(columns.mBytes, 0, columns.mSize);
+        deflater.finish();
+        byte[] batch = new byte[HEADER_SIZE + columns.mSize / 2 + 64];
+        ByteBuffer.wrap(batch).putInt(MAGIC).put((byte) VERSION).putInt(columns.mSize).putInt((int) crc.getValue());
+        int size = HEADER_SIZE;
+        while (!deflater.finished()) {
+            if (size == batch.length) {
+                batch = Arrays.copyOf(batch, batch.length * 2);
+            }
+            size += deflater.deflate(batch, size, batch.length - size);
+        }
+        deflater.end();
+        return Arrays.copyOf(batch, size);
+    }
+
+    /**
+     * Decoding the batch of results.
+     *
+     * @param batch encoded batch, as returned by {@link #encode(List)}
+     * @return results of the batch, in the order they were encoded
+     * @throws IllegalArgumentException if the batch is malformed or corrupted
+     */
+    public static List<QuizResult> decode(byte[] batch) {
+        if (batch.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated result batch");
+        }
+        ByteBuffer header = ByteBuffer.wrap(batch);
+        if (header.getInt() != MAGIC || header.get() != VERSION) {
+            throw new IllegalArgumentException("Unsupported result batch");
+        }
+        int size = header.getInt();
+        int expectedCrc = header.getInt();
+        if (size < 0 || size > MAX_COLUMNS_SIZE) {
+            throw new IllegalArgumentException("Result batch is too large");
+        }
+
+        Columns columns = new Columns();
+        columns.mBytes = new byte[size];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(batch, HEADER_SIZE, batch.length - HEADER_SIZE);
+            int inflated = 0;
+            while (inflated < size) {
+                int read = inflater.inflate(columns.mBytes, inflated, size - inflated);
+                if (read == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalArgumentException("Truncated result batch");
+                }
+                inflated += read;
+            }
+            // reading the end of the stream verifies its checksum too
+            if (!inflater.finished() && (inflater.inflate(new byte[1]) != 0 || !inflater.finished())
+                    || inflater.getRemaining() != 0) {
+                throw new IllegalArgumentException("Result batch is longer than its header says");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupted result batch", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(columns.mBytes, 0, size);
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IllegalArgumentException("Result batch checksum mismatch");
+        }
+
+        columns.mSize = size;
+        try {
+            return readResults(columns);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated result batch", e);
+        }
+    }
+
+    private static List<QuizResult> readResults(Columns columns) {
+        int count = columns.readVarint();
+        if (count > columns.mSize) { // every result takes a byte at least
+            throw new IllegalArgumentException("Result count is out of range");
+        }
+        int[] questionCounts = new int[count];
+        int[] answerCounts = new int[count];
+        long[] startedAt = new long[count];
+        long[] finishedAt = new long[count];
+        int[] scores = new int[count];
+        long totalBits = 0;
+        for (int i = 0; i < count; i++) {
+            questionCounts[i] = columns.readVarint();
+            totalBits += questionCounts[i];
+        }
+        if (totalBits > 8L * columns.mSize) {
+            throw new IllegalArgumentException("Question counts are out of range");
+        }
+        for (int i = 0; i < count; i++) {
+            answerCounts[i] = columns.readVarint();
+            if (answerCounts[i] > questionCounts[i]) {
+                throw new IllegalArgumentException("More answers than questions");
+            }
+        }
+        long previousStart = 0;
+        for (int i = 0; i < count; i++) {
+            startedAt[i] = previousStart + columns.readZigzag();
+            previousStart = startedAt[i];
+        }
+        for (int i = 0; i < count; i++) {
+            finishedAt[i] = startedAt[i] + columns.readZigzag();
+        }
+        for (int i = 0; i < count; i++) {
+            scores[i] = columns.readByte();
+        }
+        long[][] correct = new long[count][];
+        long[][] cheated = new long[count][];
+        for (int column = 0; column < 2; column++) {
+            long[][] bits = column == 0 ? correct : cheated;
+            for (int i = 0; i < count; i++) {
+                bits[i] = new long[(questionCounts[i] + 63) >>> 6];
+                for (int index = 0; index < questionCounts[i]; index++) {
+                    if (columns.readBit()) {
+                        bits[i][index >>> 6] |= 1L << index;
+                    }
+                }
+            }
+            columns.skipBits();
+        }
+        int[][] answerOrder = new int[count][];
+        for (int i = 0; i < count; i++) {
+            answerOrder[i] = new int[answerCounts[i]];
+            int previousIndex = -1;
+            for (int n = 0; n < answerCounts[i]; n++) {
+                int index = previousIndex + (int) columns.readZigzag();
+                if (index < 0 || index >= questionCounts[i]) {
+                    throw new IllegalArgumentException("Answered question is out of range");
+                }
+                answerOrder[i][n] = index;
+                previousIndex = index;
+            }
+        }
+        List<QuizResult> results = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long[] answerTimes = new long[answerCounts[i]];
+            long previousTime = startedAt[i];
+            for (int n = 0; n < answerCounts[i]; n++) {
+                answerTimes[n] = previousTime + columns.readVarlong();
+                previousTime = answerTimes[n];
+            }
+            results.add(new QuizResult(questionCounts[i], startedAt[i], finishedAt[i], scores[i],
+                    correct[i], cheated[i], answerOrder[i], answerTimes));
+        }
+        if (columns.mPosition != columns.mSize) {
+            throw new IllegalArgumentException("Trailing bytes in result batch");
+        }
+        return results;
+    }
+
+    /**
+     * Growing buffer of the columns, with the bit and varint writers and readers.
+     */
+    private static class Columns {
+        byte[] mBytes = new byte[256];
+        int mSize;
+        int mPosition;
+        int mBits;
+        int mBitCount;
+
+        void writeByte(int value) {
+            if (mSize == mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, mSize * 2);
+            }
+            mBytes[mSize++] = (byte) value;
+        }
+
+        void writeVarint(int value) {
+            writeVarlong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarlong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        void writeZigzag(long value) {
+            writeVarlong((value << 1) ^ (value >> 63));
+        }
+
+        void writeBit(boolean bit) {
+            if (bit) {
+                mBits |= 1 << mBitCount;
+            }
+            if (++mBitCount == 8) {
+                flushBits();
+            }
+        }
+
+        void flushBits() {
+            if (mBitCount > 0) {
+                writeByte(mBits);
+                mBits = 0;
+                mBitCount = 0;
+            }
+        }
+
+        int readByte() {
+            if (mPosition >= mSize) {
+                throw new IndexOutOfBoundsException("End of the columns");
+            }
+            return mBytes[mPosition++] & 0xFF;
+        }
+
+        int readVarint() {
+            long value = readVarlong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Varint is out of range");
+            }
+            return (int) value;
+        }
+
+        long readVarlong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readZigzag() {
+            long value = readVarlong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        boolean readBit() {
+            if (mBitCount == 0) {
+                mBits = readByte();
+                mBitCount = 8;
+            }
+            boolean bit = (mBits & 1) != 0;
+            mBits >>>= 1;
+            mBitCount--;
+            return bit;
+        }
+
+        void skipBits() {
+            mBitCount = 0;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Offline-first export of the quiz results: results are kept on the device and handed over in batches.
+ * <p>
+ * Every finished quiz is appended to the pending file as a small record (one write of ~100 bytes, no fsync),
+ * so it survives the process death. When enough results are pending, or the oldest of them has waited
+ * for the maximal age, they are encoded together into a compressed columnar batch ({@link ResultBatchCodec})
+ * and moved to the outbox as one file. The age is checked with every result and by {@link #flushIfDue(long)},
+ * which the app calls when it goes to the background, so a few results don't wait for a full batch forever.
+ * The batches wait in the outbox until a {@link Sender} delivers them, so nothing is lost without the network,
+ * and the device wakes up the radio once per batch instead of once per quiz.
+ * <p>
+ * Pending file: records of int length and one-result batch. A torn record at the end is dropped.
+ * Outbox: batch files named by the batch id, delivered in its order. The id is the finish time of the oldest
+ * result and the CRC-32 of the pending records, so flushing the same results again gives the same batch:
+ * if the process dies after the batch is in the outbox but before the pending file is deleted, the pending
+ * results are recognized by their batch and dropped when the exporter is used again.
+ * <p>
+ * The result of the unfinished quiz may be kept aside with {@link #saveCurrent(QuizResult)}, so the recording
+ * continues after the process death along with the session; it isn't exported until the quiz is finished.
+ * <p>
+ * Delivery is at least once: if the process dies after a batch was sent but before its file is deleted,
+ * the batch is sent again. The collector drops the batches whose id it has seen already
+ * (e.g. ResultCollector on the server).
+ * Methods are synchronized, the exporter may be used from any background thread.
+ */
+public class ResultExporter {
+
+    public static final int DEFAULT_BATCH_SIZE = 32;
+    public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String PENDING_FILE = "pending";
+    private static final String CURRENT_FILE = "current";
+    private static final String BATCH_SUFFIX = ".gqrb";
+    private static final int MAX_RECORD_SIZE = 1024 * 1024;
+
+    /**
+     * Delivery of the batches to the collector.
+     */
+    public interface Sender {
+
+        /**
+         * Sending the batch, it's deleted from the outbox when this method returns.
+         * The same batch may be sent again after the process death, with the same id.
+         *
+         * @param batchId id of the batch, unique for its results
+         * @throws IOException if the batch wasn't delivered, it's retried with the next delivery then
+         */
+        void send(String batchId, byte[] batch) throws IOException;
+    }
+
+    private final File mDirectory;
+    private final File mPendingFile;
+    private final int mBatchSize;
+    private final long mMaxAgeMillis;
+    private int mPendingCount = -1;
+    // finish time of the oldest pending result, known along with mPendingCount
+    private long mOldestPendingMillis = Long.MAX_VALUE;
+
+    /**
+     * @param directory directory of the pending results and the outbox, created if needed
+     * @param batchSize number of the results in a batch
+     */
+    public ResultExporter(File directory, int batchSize) {
+        this(directory, batchSize, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param directory    directory of the pending results and the outbox, created if needed
+     * @param batchSize    number of the results in a batch
+     * @param maxAgeMillis time the oldest pending result may wait for the batch to fill up
+     */
+    public ResultExporter(File directory, int batchSize, long maxAgeMillis) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        if (maxAgeMillis < 0) {
+            throw new IllegalArgumentException("Maximal age must not be negative");
+        }
+        mDirectory = directory;
+        mPendingFile = new File(directory, PENDING_FILE);
+        mBatchSize = batchSize;
+        mMaxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Adding the result of the finished quiz, it's moved to the outbox with the batch.
+     * The batch is flushed when it's full, or when the oldest pending result is older than the maximal age
+     * at the finish of this one.
+     *
+     * @return true, if the batch was flushed to the outbox
+     * @throws IOException if the result can't be stored
+     */
+    public synchronized boolean add(QuizResult result) throws IOException {
+        byte[] record = ResultBatchCodec.encode(Collections.singletonList(result));
+        ensureDirectory();
+        int pendingCount = getPendingCount();
+        FileOutputStream out = new FileOutputStream(mPendingFile, true);
+        try {
+            out.write(ByteBuffer.allocate(4 + record.length).putInt(record.length).put(record).array());
+        } finally {
+            out.close();
+        }
+        mPendingCount = pendingCount + 1;
+        mOldestPendingMillis = Math.min(mOldestPendingMillis, result.getFinishedAtMillis());
+        if (mPendingCount >= mBatchSize || isDue(result.getFinishedAtMillis())) {
+            flush();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Flushing the pending results if the oldest of them is older than the maximal age, even if the batch
+     * isn't full.
+     *
+     * @param nowMillis wall clock time
+     * @return the batch file, null if nothing was due
+     * @throws IOException if the batch can't be written, the results stay pending then
+     */
+    public synchronized File flushIfDue(long nowMillis) throws IOException {
+        return getPendingCount() > 0 && isDue(nowMillis) ? flush() : null;
+    }
+
+    private boolean isDue(long nowMillis) {
+        return nowMillis - mOldestPendingMillis >= mMaxAgeMillis;
+    }
+
+    /**
+     * Number of the results waiting for the next batch.
+     */
+    public synchronized int getPendingCount() throws IOException {
+        if (mPendingCount < 0) {
+            CRC32 checksum = new CRC32();
+            List<QuizResult> results = readPending(checksum);
+            if (!results.isEmpty() && batchFile(results, checksum).isFile()) {
+                // the process died right after the flush, the results are in the outbox already
+                deletePending();
+                results.clear();
+            }
+            mPendingCount = results.size();
+            mOldestPendingMillis = Long.MAX_VALUE;
+            for (QuizResult result : results) {
+                mOldestPendingMillis = Math.min(mOldestPendingMillis, result.getFinishedAtMillis());
+            }
+        }
+        return mPendingCount;
+    }
+
+    /**
+     * Moving the pending results to the outbox as one batch, even if the batch isn't full.
+     *
+     * @return the batch file, null if there were no pending results
+     * @throws IOException if the batch can't be written, the results stay pending then
+     */
+    public synchronized File flush() throws IOException {
+        getPendingCount();
+        CRC32 checksum = new CRC32();
+        List<QuizResult> results = readPending(checksum);
+        if (results.isEmpty()) {
+            mPendingCount = 0;
+            mOldestPendingMillis = Long.MAX_VALUE;
+            return null;
+        }
+        byte[] batch = ResultBatchCodec.encode(results);
+        File file = batchFile(results, checksum);
+        File temp = new File(mDirectory, file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(batch);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to move the batch to the outbox " + file);
+        }
+        // the batch is durable, the pending results may go
+        deletePending();
+        mPendingCount = 0;
+        mOldestPendingMillis = Long.MAX_VALUE;
+        return file;
+    }
+
+    /**
+     * Keeping the result of the unfinished quiz, it replaces the one kept before. The file is replaced by a rename,
+     * a crash in the middle leaves the previous result.
+     *
+     * @param partial result recorded so far, see {@link QuizResult.Recorder#snapshot(long, int)}
+     * @throws IOException if the result can't be stored
+     */
+    public synchronized void saveCurrent(QuizResult partial) throws IOException {
+        byte[] record = ResultBatchCodec.encode(Collections.singletonList(partial));
+        ensureDirectory();
+        File file = new File(mDirectory, CURRENT_FILE);
+        File temp = new File(mDirectory, CURRENT_FILE + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(record);
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Failed to replace the current result " + file);
+        }
+    }
+
+    /**
+     * Result of the unfinished quiz kept with {@link #saveCurrent(QuizResult)}.
+     *
+     * @return the result, null if there's none or it doesn't decode
+     * @throws IOException if the result can't be read
+     */
+    public synchronized QuizResult loadCurrent() throws IOException {
+        File file = new File(mDirectory, CURRENT_FILE);
+        if (!file.isFile() || file.length() > MAX_RECORD_SIZE) {
+            return null;
+        }
+        try {
+            List<QuizResult> results = ResultBatchCodec.decode(readFile(file));
+            return results.size() == 1 ? results.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Id of the batch in the outbox, the one given to the {@link Sender}.
+     */
+    public static String getBatchId(File batchFile) {
+        String name = batchFile.getName();
+        return name.endsWith(BATCH_SUFFIX) ? name.substring(0, name.length() - BATCH_SUFFIX.length()) : name;
+    }
+
+    /**
+     * Batch files in the outbox, oldest first.
+     */
+    public synchronized List<File> getOutbox() {
+        File[] files = mDirectory.listFiles();
+        List<File> batches = new ArrayList<>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.getName().endsWith(BATCH_SUFFIX)) {
+                    batches.add(file);
+                }
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Delivering the batches of the outbox, oldest first, until the first failure.
+     *
+     * @return number of the delivered batches
+     * @throws IOException if a batch can't be read or deleted
+     */
+    public synchronized int deliver(Sender sender) throws IOException {
+        getPendingCount();
+        int delivered = 0;
+        for (File file : getOutbox()) {
+            byte[] batch = readFile(file);
+            try {
+                sender.send(getBatchId(file), batch);
+            } catch (IOException e) {
+                break;
+            }
+            if (!file.delete()) {
+                throw new IOException("Failed to delete the delivered batch " + file);
+            }
+            delivered++;
+        }
+        return delivered;
+    }
+
+    /**
+     * Batch file of the pending results, see the class docs for the id.
+     */
+    private File batchFile(List<QuizResult> results, CRC32 checksum) {
+        long oldest = Long.MAX_VALUE;
+        for (QuizResult result : results) {
+            oldest = Math.min(oldest, result.getFinishedAtMillis());
+        }
+        return new File(mDirectory, String.format(Locale.ENGLISH, "%013d-%08x%s",
+                oldest, checksum.getValue(), BATCH_SUFFIX));
+    }
+
+    private void deletePending() throws IOException {
+        if (!mPendingFile.delete()) {
+            throw new IOException("Failed to delete the pending results " + mPendingFile);
+        }
+    }
+
+    /**
+     * Reading the valid pending results.
+     *
+     * @param checksum receives the valid records
+     */
+    private List<QuizResult> readPending(CRC32 checksum) throws IOException {
+        List<QuizResult> results = new ArrayList<>();
+        if (!mPendingFile.isFile()) {
+            return results;
+        }
+        byte[] content = readFile(mPendingFile);
+        ByteBuffer records = ByteBuffer.wrap(content);
+        long validLength = 0;
+        while (records.remaining() >= 4) {
+            int length = records.getInt();
+            if (length <= 0 || length > MAX_RECORD_SIZE || length > records.remaining()) {
+                break;
+            }
+            byte[] record = new byte[length];
+            records.get(record);
+            try {
+                results.addAll(ResultBatchCodec.decode(record));
+            } catch (IllegalArgumentException e) {
+                break;
+            }
+            validLength = records.position();
+        }
+        checksum.update(content, 0, (int) validLength);
+        if (validLength < mPendingFile.length()) { // dropping the torn record, the next one goes after the valid ones
+            RandomAccessFile raf = new RandomAccessFile(mPendingFile, "rw");
+            try {
+                raf.setLength(validLength);
+            } finally {
+                raf.close();
+            }
+        }
+        return results;
+    }
+
+    private void ensureDirectory() throws IOException {
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Failed to create the result directory " + mDirectory);
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(file.length(), MAX_RECORD_SIZE));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
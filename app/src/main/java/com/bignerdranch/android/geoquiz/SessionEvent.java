@@ -0,0 +1,137 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Immutable event of the quiz session. The state of a session is the result of reducing its events
+ * in order with {@link SessionReducer}, starting from {@link SessionState#initial(int)}.
+ * <p>
+ * Events pack into one int for the compact logs ({@link #pack()}): type in the 2 highest bits,
+ * flag in bit 29, index of the question in the low 29 bits.
+ */
+public final class SessionEvent {
+
+    /**
+     * Types of the events.
+     */
+    public enum Type {
+        // user answered the question (flag - pressed "Correct")
+        ANSWERED,
+        // result of the cheat reveal (flag - the answer was shown)
+        CHEATED,
+        // user moved to the question
+        NAVIGATED,
+        // user started the quiz again
+        RESTARTED
+    }
+
+    public static final int MAX_INDEX = (1 << 29) - 1;
+
+    private static final Type[] TYPES = Type.values();
+    private static final SessionEvent RESTARTED = new SessionEvent(Type.RESTARTED, 0, false);
+
+    private final Type mType;
+    private final int mIndex;
+    private final boolean mFlag;
+
+    private SessionEvent(Type type, int index, boolean flag) {
+        if (index < 0 || index > MAX_INDEX) {
+            throw new IllegalArgumentException("Question index " + index + " is out of range");
+        }
+        mType = type;
+        mIndex = index;
+        mFlag = flag;
+    }
+
+    public static SessionEvent answered(int index, boolean userPressedTrue) {
+        return new SessionEvent(Type.ANSWERED, index, userPressedTrue);
+    }
+
+    public static SessionEvent cheated(boolean answerShown) {
+        return new SessionEvent(Type.CHEATED, 0, answerShown);
+    }
+
+    public static SessionEvent navigated(int index) {
+        return new SessionEvent(Type.NAVIGATED, index, false);
+    }
+
+    public static SessionEvent restarted() {
+        return RESTARTED;
+    }
+
+    /**
+     * Restoring the event from its packed form.
+     *
+     * @param packed event packed with {@link #pack()}
+     */
+    public static SessionEvent unpack(int packed) {
+        return new SessionEvent(typeOf(packed), indexOf(packed), flagOf(packed));
+    }
+
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * Index of the answered question or the question user moved to, 0 for the other events.
+     */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    /**
+     * "Correct" was pressed for ANSWERED, the answer was shown for CHEATED, false for the other events.
+     */
+    public boolean getFlag() {
+        return mFlag;
+    }
+
+    public int pack() {
+        return pack(mType, mIndex, mFlag);
+    }
+
+    static int pack(Type type, int index, boolean flag) {
+        return (type.ordinal() << 30) | (flag ? 1 << 29 : 0) | index;
+    }
+
+    static Type typeOf(int packed) {
+        return TYPES[packed >>> 30];
+    }
+
+    static int indexOf(int packed) {
+        return packed & MAX_INDEX;
+    }
+
+    static boolean flagOf(int packed) {
+        return (packed & (1 << 29)) != 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SessionEvent)) {
+            return false;
+        }
+        SessionEvent other = (SessionEvent) o;
+        return mType == other.mType && mIndex == other.mIndex && mFlag == other.mFlag;
+    }
+
+    @Override
+    public int hashCode() {
+        return pack();
+    }
+
+    @Override
+    public String toString() {
+        switch (mType) {
+            case ANSWERED:
+                return "Answered(" + mIndex + ", " + mFlag + ")";
+            case CHEATED:
+                return "Cheated(" + mFlag + ")";
+            case NAVIGATED:
+                return "Navigated(" + mIndex + ")";
+            default:
+                return "Restarted";
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.Arrays;
+
+/**
+ * Append-only log of the session events with periodic snapshots of the state.
+ * <p>
+ * Events are kept packed, 4 bytes each. After every {@link #getSnapshotInterval()} events the state is kept
+ * as a snapshot (states share the unchanged parts, so a snapshot costs the chunks changed since the previous one).
+ * The state after any number of events is then restored from the closest snapshot before it
+ * by replaying at most one interval of events, whatever the length of the log.
+ * <p>
+ * The log isn't thread-safe, it belongs to the thread of the session.
+ */
+public class SessionEventLog {
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 1024;
+
+    private final SessionReducer mReducer;
+    private final int mSnapshotInterval;
+
+    private int[] mEvents = new int[256];
+    private int mSize;
+    // mSnapshots[i] - state after i * mSnapshotInterval events
+    private SessionState[] mSnapshots = new SessionState[16];
+    private SessionState mState;
+
+    public SessionEventLog(SessionReducer reducer) {
+        this(reducer, reducer.initial(), DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * @param reducer          reducer over the question bank of the session
+     * @param initialState     state before the first event of the log
+     * @param snapshotInterval number of events between the snapshots
+     */
+    public SessionEventLog(SessionReducer reducer, SessionState initialState, int snapshotInterval) {
+        if (snapshotInterval <= 0) {
+            throw new IllegalArgumentException("Snapshot interval must be positive");
+        }
+        mReducer = reducer;
+        mSnapshotInterval = snapshotInterval;
+        mSnapshots[0] = initialState;
+        mState = initialState;
+    }
+
+    /**
+     * Rebuilding the log from the packed events, e.g. the events of a session from the field.
+     *
+     * @param events events packed with {@link SessionEvent#pack()}
+     * @throws IllegalArgumentException if an event can't happen in the state it's applied to
+     */
+    public static SessionEventLog replay(SessionReducer reducer, int[] events, int snapshotInterval) {
+        SessionEventLog log = new SessionEventLog(reducer, reducer.initial(), snapshotInterval);
+        for (int from = 0; from < events.length; from += snapshotInterval) {
+            log.appendAll(events, from, Math.min(events.length, from + snapshotInterval));
+        }
+        return log;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int getSnapshotInterval() {
+        return mSnapshotInterval;
+    }
+
+    /**
+     * State after all the events of the log.
+     */
+    public SessionState getState() {
+        return mState;
+    }
+
+    public SessionEvent getEvent(int position) {
+        checkPosition(position, mSize - 1);
+        return SessionEvent.unpack(mEvents[position]);
+    }
+
+    /**
+     * Copy of the events of the log, packed with {@link SessionEvent#pack()}.
+     */
+    public int[] getPackedEvents() {
+        return Arrays.copyOf(mEvents, mSize);
+    }
+
+    /**
+     * Appending the event and applying it to the state.
+     *
+     * @return state after the event
+     * @throws IllegalArgumentException if the event can't happen in the current state, it's not appended then
+     */
+    public SessionState append(SessionEvent event) {
+        SessionState state = mReducer.reduce(mState, event);
+        add(event.pack());
+        mState = state;
+        takeSnapshotIfNeeded();
+        return state;
+    }
+
+    /**
+     * State after the given number of events: the closest snapshot and at most one interval of events.
+     *
+     * @param count number of events from the beginning of the log, 0 - the initial state
+     */
+    public SessionState stateAt(int count) {
+        checkPosition(count, mSize);
+        if (count == mSize) {
+            return mState;
+        }
+        int snapshot = count / mSnapshotInterval;
+        return mReducer.replay(mSnapshots[snapshot], mEvents, snapshot * mSnapshotInterval, count);
+    }
+
+    // events of one snapshot interval at most, so the snapshot after them is taken in time
+    private void appendAll(int[] events, int from, int to) {
+        mState = mReducer.replay(mState, events, from, to);
+        for (int i = from; i < to; i++) {
+            add(events[i]);
+        }
+        takeSnapshotIfNeeded();
+    }
+
+    private void add(int event) {
+        if (mSize == mEvents.length) {
+            mEvents = Arrays.copyOf(mEvents, mSize * 2);
+        }
+        mEvents[mSize++] = event;
+    }
+
+    private void takeSnapshotIfNeeded() {
+        if (mSize % mSnapshotInterval != 0) {
+            return;
+        }
+        int snapshot = mSize / mSnapshotInterval;
+        if (snapshot == mSnapshots.length) {
+            mSnapshots = Arrays.copyOf(mSnapshots, snapshot * 2);
+        }
+        mSnapshots[snapshot] = mState;
+    }
+
+    private static void checkPosition(int position, int max) {
+        if (position < 0 || position > max) {
+            throw new IndexOutOfBoundsException("Position " + position + " is out of range");
+        }
+    }
+}
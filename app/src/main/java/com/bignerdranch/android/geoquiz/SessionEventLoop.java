@@ -0,0 +1,543 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Single writer of the quiz session: after {@link #start()} only the loop thread touches the session.
+ * The UI offers commands (answer, cheat, navigation, restart) and renders the immutable {@link Snapshot}s
+ * the loop publishes, so the rules, the journal and the recording of the answers never run on the UI thread.
+ * <p>
+ * Commands go through a bounded lock-free ring of packed ints: offering a command is a CAS on the tail and
+ * a store to the slot, it never blocks and never allocates. A full ring rejects the command (the UI is
+ * far ahead of the loop then). The loop takes the commands in batches of up to {@link #MAX_BATCH},
+ * and after each batch it publishes one snapshot, so a burst of taps costs one state copy and one
+ * UI update instead of one per tap. The snapshot state is the previous one with the events of the batch
+ * replayed by {@link SessionReducer}, which copies only the chunks of the answered bitset the batch has changed.
+ * <p>
+ * Answers and moves carry the question the UI has shown. A command which doesn't fit the session anymore
+ * (e.g. the second tap on an answered question) is rejected by the loop and counted in the snapshot.
+ * The loop parks when the ring is empty; offering a command unparks it only if it's parked.
+ */
+public class SessionEventLoop implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    // commands applied before the snapshot is published, so a long burst still updates the UI
+    public static final int MAX_BATCH = 256;
+
+    // type in the 3 highest bits, the flag in bit 28, index of the question in the low 28 bits; never 0
+    private static final int COMMAND_ANSWER = 1;
+    private static final int COMMAND_CHEAT = 2;
+    private static final int COMMAND_NEXT = 3;
+    private static final int COMMAND_PREV = 4;
+    private static final int COMMAND_MOVE = 5;
+    private static final int COMMAND_RESTART = 6;
+    private static final int COMMAND_ADAPTIVE_ORDER = 7;
+    private static final int FLAG = 1 << 28;
+    public static final int MAX_INDEX = FLAG - 1;
+
+    /**
+     * Receiver of the applied commands, called on the loop thread in the order of the commands.
+     * The slow work (journal, analytics) goes here, {@link #onSnapshot} is the place to hand the state to the UI.
+     */
+    public interface Listener {
+
+        /**
+         * The question was answered; the session has already moved to the next question.
+         */
+        void onAnswered(int index, boolean userPressedTrue, QuizSession.Verdict verdict);
+
+        void onCheated(boolean answerShown);
+
+        void onRestarted();
+
+        /**
+         * Events of the batch in order, packed with {@link SessionEvent#pack()}, e.g. to be appended to
+         * {@link SessionJournal}; called before {@link #onSnapshot}. Reducing them from the previous snapshot's state
+         * gives the state of the new one.
+         *
+         * @param events array reused by the loop, read it until the method returns
+         * @param count  number of the events of the batch, it may be 0
+         */
+        void onEvents(int[] events, int count);
+
+        /**
+         * The batch of commands is applied and its snapshot is published.
+         *
+         * @param session session with the batch applied, may be read until the method returns
+         */
+        void onSnapshot(QuizSession session, Snapshot snapshot);
+    }
+
+    /**
+     * Restoring the session on the loop thread before the first command, e.g. from {@link SessionJournal},
+     * so the disk isn't read on the UI thread.
+     */
+    public interface Restorer {
+
+        /**
+         * @param session session of the loop, owned by the restorer until the method returns
+         */
+        void restore(QuizSession session);
+    }
+
+    /**
+     * Immutable state of the session published by the loop, safe to read from any thread.
+     */
+    public static final class Snapshot {
+        private final long mSequence;
+        private final SessionState mState;
+        private final QuizViewState mViewState;
+        private final boolean mCurrentAnswerTrue;
+        private final int mScorePercent;
+        private final long mAnswerCount;
+        private final QuizSession.Verdict mLastVerdict;
+        private final long mRejectedCount;
+        private final boolean mAdaptiveOrder;
+
+        Snapshot(long sequence, SessionState state, QuizSession session, long answerCount,
+                 QuizSession.Verdict lastVerdict, long rejectedCount) {
+            this(sequence, state, QuizViewState.of(session), session.isCurrentAnswerTrue(),
+                    answerCount, lastVerdict, rejectedCount, session.getScheduler() != null);
+        }
+
+        private Snapshot(long sequence, SessionState state, QuizViewState viewState, boolean currentAnswerTrue,
+                         long answerCount, QuizSession.Verdict lastVerdict, long rejectedCount,
+                         boolean adaptiveOrder) {
+            mSequence = sequence;
+            mState = state;
+            mViewState = viewState;
+            mCurrentAnswerTrue = currentAnswerTrue;
+            mScorePercent = state.getScorePercent();
+            mAnswerCount = answerCount;
+            mLastVerdict = lastVerdict;
+            mRejectedCount = rejectedCount;
+            mAdaptiveOrder = adaptiveOrder;
+        }
+
+        /**
+         * Number of commands taken from the ring so far (applied or rejected).
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        public SessionState getState() {
+            return mState;
+        }
+
+        public QuizViewState getViewState() {
+            return mViewState;
+        }
+
+        public boolean isCurrentAnswerTrue() {
+            return mCurrentAnswerTrue;
+        }
+
+        public int getScorePercent() {
+            return mScorePercent;
+        }
+
+        /**
+         * Number of answers applied by the loop, it grows when a snapshot brings new verdicts.
+         */
+        public long getAnswerCount() {
+            return mAnswerCount;
+        }
+
+        /**
+         * Verdict on the last applied answer, null if there was none.
+         */
+        public QuizSession.Verdict getLastVerdict() {
+            return mLastVerdict;
+        }
+
+        /**
+         * Number of commands which didn't fit the session when the loop took them.
+         */
+        public long getRejectedCount() {
+            return mRejectedCount;
+        }
+
+        /**
+         * Checking if NEXT goes in the adaptive order of the scheduler.
+         */
+        public boolean isAdaptiveOrder() {
+            return mAdaptiveOrder;
+        }
+    }
+
+    private final QuizSession mSession;
+    private final Listener mListener;
+    // scheduler of the adaptive order, created when the order is switched on for the first time
+    private volatile QuestionScheduler mScheduler;
+
+    // ring of the commands: 0 - free slot, producers claim slots at the tail, the loop takes them at the head
+    private final AtomicIntegerArray mSlots;
+    private final int mMask;
+    private final AtomicLong mTail = new AtomicLong();
+    private final AtomicLong mHead = new AtomicLong();
+    private volatile boolean mParked;
+    private volatile boolean mClosed;
+    private volatile Snapshot mSnapshot;
+    private volatile Thread mThread;
+    private Restorer mRestorer;
+
+    // owned by the loop thread
+    private final SessionReducer mReducer;
+    private SessionState mState;
+    private final int[] mEvents = new int[MAX_BATCH * 2];
+    private int mEventCount;
+    private long mSequence;
+    private long mAnswerCount;
+    private QuizSession.Verdict mLastVerdict;
+    private long mRejectedCount;
+
+    public SessionEventLoop(QuizSession session, int capacity, Listener listener) {
+        this(session, capacity, null, listener);
+    }
+
+    /**
+     * @param session   session in its restored state, owned by the loop after {@link #start()}
+     * @param capacity  number of commands the ring holds, rounded up to a power of two
+     * @param scheduler scheduler for the adaptive order (it keeps the mistakes of the past rounds),
+     *                  null - a new one when the order is switched on; the scheduler set to the session wins
+     * @param listener  receiver of the applied commands and the snapshots
+     */
+    public SessionEventLoop(QuizSession session, int capacity, QuestionScheduler scheduler, Listener listener) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is out of range");
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mSlots = new AtomicIntegerArray(size);
+        mMask = size - 1;
+        mSession = session;
+        mListener = listener;
+        mScheduler = session.getScheduler() != null ? session.getScheduler() : scheduler;
+        mReducer = new SessionReducer(session.getQuestionStore());
+        mState = SessionState.of(session);
+        mSnapshot = new Snapshot(0, mState, session, 0, null, 0);
+    }
+
+    /**
+     * Starting the loop thread, the commands offered before it are applied first.
+     */
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * Starting the loop thread which restores the session first and publishes the restored state.
+     * The commands offered before the restore are applied after it, so a command of the state on the screen
+     * which doesn't fit the restored one is rejected (e.g. an answer to a question which is answered already).
+     * Until the restored state is published the snapshot has all the controls disabled.
+     *
+     * @param restorer restorer of the session, null - the session is in its restored state already
+     */
+    public void start(Restorer restorer) {
+        start(restorer, null, false);
+    }
+
+    /**
+     * Starting the loop thread which restores the session first, with the snapshot of the state the restore
+     * is expected to give (e.g. the one saved in the Bundle, which is in memory already) published right away,
+     * so the UI renders it instead of the initial state while the restore reads the disk.
+     *
+     * @param restorer      restorer of the session, null - the session is in its restored state already
+     * @param expectedState state published until the restored one, null - the snapshot has all the controls
+     *                      disabled until then
+     * @param adaptiveOrder true, if the restorer switches the adaptive order on
+     */
+    public synchronized void start(Restorer restorer, SessionState expectedState, boolean adaptiveOrder) {
+        if (mThread != null) {
+            throw new IllegalStateException("Session event loop is already started");
+        }
+        if (expectedState != null && expectedState.getQuestionCount() != mSession.getQuestionCount()) {
+            throw new IllegalArgumentException("Expected state doesn't match the question bank");
+        }
+        if (restorer != null) {
+            SessionState state = expectedState != null ? expectedState : mState;
+            QuizViewState viewState = expectedState != null ? QuizViewState.of(expectedState)
+                    : new QuizViewState(false, false, false, false);
+            mSnapshot = new Snapshot(0, state, viewState,
+                    mSession.getQuestionStore().isAnswerTrue(state.getCurrentIndex()), 0, null, 0,
+                    expectedState != null && adaptiveOrder);
+        }
+        mRestorer = restorer;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runLoop();
+            }
+        }, "SessionEventLoop");
+        mThread.setDaemon(true);
+        mThread.start();
+    }
+
+    /**
+     * Latest published snapshot, the initial state of the session before the first batch.
+     */
+    public Snapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    /**
+     * Scheduler of the adaptive order, null if it was never switched on. The loop thread uses it until
+     * {@link #awaitClosed()} returns, so it's handed over to the next loop only after that.
+     */
+    public QuestionScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    /**
+     * Number of the commands offered so far: a snapshot with at least this sequence has applied all of them.
+     */
+    public long getOfferedCount() {
+        return mTail.get();
+    }
+
+    /**
+     * Answering the question shown to user.
+     *
+     * @param index           index of the shown question
+     * @param userPressedTrue true, if user pressed "Correct", false - "Incorrect"
+     * @return false, if the ring is full or the loop is closed
+     */
+    public boolean offerAnswer(int index, boolean userPressedTrue) {
+        return offer(command(COMMAND_ANSWER, index, userPressedTrue));
+    }
+
+    /**
+     * Registering the result of the cheat reveal, see {@link CheatReveal}.
+     */
+    public boolean offerCheat(boolean answerShown) {
+        return offer(command(COMMAND_CHEAT, 0, answerShown));
+    }
+
+    public boolean offerNext() {
+        return offer(command(COMMAND_NEXT, 0, false));
+    }
+
+    public boolean offerPrev() {
+        return offer(command(COMMAND_PREV, 0, false));
+    }
+
+    /**
+     * Moving straight to the question, e.g. to the search result.
+     */
+    public boolean offerMoveTo(int index) {
+        return offer(command(COMMAND_MOVE, index, false));
+    }
+
+    public boolean offerRestart() {
+        return offer(command(COMMAND_RESTART, 0, false));
+    }
+
+    /**
+     * Switching NEXT to the adaptive order of the questions (see {@link QuestionScheduler}) or back to the order
+     * of the bank.
+     */
+    public boolean offerAdaptiveOrder(boolean adaptive) {
+        return offer(command(COMMAND_ADAPTIVE_ORDER, 0, adaptive));
+    }
+
+    /**
+     * Stopping the loop after the commands offered so far: no more commands are taken, and the loop thread
+     * applies the ones in the ring, publishes their snapshot and ends. It doesn't wait for the loop thread,
+     * so it may be called on the UI thread while the loop is still restoring the session or writing the journal;
+     * {@link #awaitClosed()} waits for the end.
+     * Commands offered at the same time as the close may be dropped.
+     */
+    @Override
+    public void close() {
+        mClosed = true;
+        Thread thread = mThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Waiting for the loop thread to end after {@link #close()}, e.g. before the journal fed by the listener
+     * is closed. It waits for the disk when the loop does, so it's not for the UI thread.
+     */
+    public void awaitClosed() throws InterruptedException {
+        Thread thread = mThread;
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    private static int command(int type, int index, boolean flag) {
+        if (index < 0 || index > MAX_INDEX) {
+            throw new IllegalArgumentException("Question index " + index + " is out of range");
+        }
+        return (type << 29) | (flag ? FLAG : 0) | index;
+    }
+
+    private boolean offer(int command) {
+        if (mClosed) {
+            return false;
+        }
+        long tail;
+        do {
+            tail = mTail.get();
+            if (tail - mHead.get() > mMask) {
+                return false;
+            }
+        } while (!mTail.compareAndSet(tail, tail + 1));
+        // a volatile store, so the check of mParked below can't go before it and miss the parking loop
+        mSlots.set((int) tail & mMask, command);
+        if (mParked) {
+            LockSupport.unpark(mThread);
+        }
+        return true;
+    }
+
+    private void runLoop() {
+        try {
+            if (mRestorer != null) {
+                mRestorer.restore(mSession);
+                mRestorer = null;
+                mState = SessionState.of(mSession);
+                publish();
+            }
+            while (true) {
+                if (drain() > 0) {
+                    publish();
+                    continue;
+                }
+                if (mClosed) {
+                    if (mHead.get() == mTail.get()) {
+                        return;
+                    }
+                    // a producer has claimed the slot and is about to fill it
+                    Thread.yield();
+                    continue;
+                }
+                mParked = true;
+                if (mSlots.get((int) mHead.get() & mMask) == 0 && !mClosed) {
+                    LockSupport.park(this);
+                }
+                mParked = false;
+            }
+        } finally {
+            // a failed loop takes no more commands, they would only pile up in the ring
+            mClosed = true;
+        }
+    }
+
+    /**
+     * Taking and applying the batch of commands.
+     *
+     * @return number of commands taken
+     */
+    private int drain() {
+        long head = mHead.get();
+        int taken = 0;
+        while (taken < MAX_BATCH) {
+            int slot = (int) head & mMask;
+            int command = mSlots.get(slot);
+            if (command == 0) {
+                break;
+            }
+            // freeing the slot before moving the head, so the producer which reuses it sees it free
+            mSlots.lazySet(slot, 0);
+            mHead.lazySet(++head);
+            apply(command);
+            taken++;
+        }
+        return taken;
+    }
+
+    private void apply(int command) {
+        QuizSession session = mSession;
+        int index = command & MAX_INDEX;
+        boolean flag = (command & FLAG) != 0;
+        mSequence++;
+        switch (command >>> 29) {
+            case COMMAND_ANSWER:
+                if (session.isFinished() || index != session.getCurrentIndex() || session.isAnswered(index)) {
+                    mRejectedCount++;
+                    return;
+                }
+                QuizSession.Verdict verdict = session.checkAnswer(flag);
+                addEvent(SessionEvent.pack(SessionEvent.Type.ANSWERED, index, flag));
+                // after giving the answer the question moves to the next one, unless the quiz is finished
+                if (!session.isFinished()) {
+                    session.moveToNext();
+                    addNavigated(session);
+                }
+                mAnswerCount++;
+                mLastVerdict = verdict;
+                mListener.onAnswered(index, flag, verdict);
+                break;
+            case COMMAND_CHEAT:
+                session.registerCheat(flag);
+                addEvent(SessionEvent.pack(SessionEvent.Type.CHEATED, 0, flag));
+                mListener.onCheated(flag);
+                break;
+            case COMMAND_NEXT:
+            case COMMAND_PREV:
+            case COMMAND_MOVE:
+                // navigation is locked when the quiz is finished
+                if (session.isFinished() || index >= session.getQuestionCount()) {
+                    mRejectedCount++;
+                    return;
+                }
+                if (command >>> 29 == COMMAND_NEXT) {
+                    session.moveToNext();
+                } else if (command >>> 29 == COMMAND_PREV) {
+                    session.moveToPrev();
+                } else {
+                    session.moveTo(index);
+                }
+                addNavigated(session);
+                break;
+            case COMMAND_RESTART:
+                session.restart();
+                addEvent(SessionEvent.pack(SessionEvent.Type.RESTARTED, 0, false));
+                addNavigated(session);
+                mListener.onRestarted();
+                break;
+            case COMMAND_ADAPTIVE_ORDER:
+                if (flag == (session.getScheduler() != null)) {
+                    mRejectedCount++;
+                    return;
+                }
+                if (flag && mScheduler == null) {
+                    mScheduler = new QuestionScheduler(session.getQuestionCount());
+                }
+                session.setScheduler(flag ? mScheduler : null);
+                break;
+            default:
+                throw new IllegalStateException("Unknown command " + Integer.toHexString(command));
+        }
+    }
+
+    /**
+     * Mirroring the current question into the events, so the replayed state follows the order of the session
+     * (including the adaptive one).
+     */
+    private void addNavigated(QuizSession session) {
+        addEvent(SessionEvent.pack(SessionEvent.Type.NAVIGATED, session.getCurrentIndex(), false));
+    }
+
+    private void addEvent(int event) {
+        mEvents[mEventCount++] = event;
+    }
+
+    private void publish() {
+        mState = mReducer.replay(mState, mEvents, 0, mEventCount);
+        mListener.onEvents(mEvents, mEventCount);
+        mEventCount = 0;
+        Snapshot snapshot = new Snapshot(mSequence, mState, mSession, mAnswerCount, mLastVerdict, mRejectedCount);
+        mSnapshot = snapshot;
+        mListener.onSnapshot(mSession, snapshot);
+    }
+}
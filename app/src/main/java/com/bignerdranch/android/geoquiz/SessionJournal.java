@@ -0,0 +1,594 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Durable append-only journal of the quiz session events ({@link SessionEvent}s packed into ints, as the
+ * {@link SessionEventLoop} makes them), so the progress survives the process death.
+ * <p>
+ * Events are appended to an in-memory buffer and written by a background thread with group commit:
+ * all the events collected during the flush interval go to the file as one checksummed frame and one fsync.
+ * So appending never blocks the calling (UI) thread on I/O.
+ * <p>
+ * From time to time the whole session state is written as a compact snapshot ({@link QuizStateCodec})
+ * and the journal is truncated, so recovery only decodes the last snapshot and replays the events after it.
+ * The events are replayed with {@link SessionReducer}, the same rules the loop builds its snapshots with.
+ * Torn or corrupted frames at the end of the journal (e.g. after a crash during the write) are dropped on recovery.
+ * <p>
+ * Journal: int magic, int format version and long key of the question bank, then the frames.
+ * A journal of another format or of another question bank is discarded.
+ * Frame: int payload length, long sequence number of the first event, int CRC32 of both,
+ * then the events packed with {@link SessionEvent#pack()}, 4 bytes each.
+ * Snapshot file: int magic, long sequence number of the last event included, int CRC32 and length
+ * of the encoded state, then the encoded state.
+ */
+public class SessionJournal implements Closeable {
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 50;
+
+    private static final int EVENT_SIZE = 4;
+
+    private static final int JOURNAL_MAGIC = 0x4751534A; // "GQSJ"
+    // 1 - the own answer/cheat/restart events of the journal, 2 - packed SessionEvents, 3 - with the bank key
+    private static final int FORMAT_VERSION = 3;
+    private static final int HEADER_SIZE = 16;
+
+    private static final int FRAME_HEADER_SIZE = 16;
+    private static final int MAX_FRAME_PAYLOAD = 64 * 1024 * 1024;
+    // batch size which is written right away, without waiting for the end of the flush interval
+    private static final int EAGER_BATCH_SIZE = 64 * 1024;
+
+    private static final int SNAPSHOT_MAGIC = 0x47515353; // "GQSS"
+    private static final int SNAPSHOT_HEADER_SIZE = 20;
+    // results of reading the snapshot other than the sequence number of its last event
+    private static final long NO_SNAPSHOT = -1;
+    private static final long OTHER_BANK = -2;
+
+    private final File mSnapshotFile;
+    private final File mSnapshotTempFile;
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mSnapshotInterval;
+    private final long mFlushIntervalMillis;
+    private final long mRecoveredEvents;
+    private final boolean mRestored;
+
+    private final Object mLock = new Object();
+    // guarded by mLock
+    private byte[] mPending = new byte[EVENT_SIZE * 256];
+    private int mPendingSize;
+    private long mPendingFirstSequence;
+    private long mNextSequence;
+    private long mDurableSequence;
+    private int mEventsSinceSnapshot;
+    private byte[] mPendingSnapshot;
+    private long mPendingSnapshotSequence;
+    private boolean mFlushRequested;
+    private boolean mClosed;
+    private IOException mFailure;
+
+    // owned by the writer thread
+    private byte[] mSpare = new byte[EVENT_SIZE * 256];
+    private final ByteBuffer mFrameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+    private final CRC32 mCrc = new CRC32();
+    private final Thread mWriter;
+
+    private SessionJournal(File file, RandomAccessFile raf, long lastSequence, long recoveredEvents, boolean restored,
+                           int snapshotInterval, long flushIntervalMillis) {
+        mSnapshotFile = snapshotFile(file);
+        mSnapshotTempFile = new File(file.getPath() + ".snapshot.tmp");
+        mFile = raf;
+        mChannel = raf.getChannel();
+        mNextSequence = lastSequence + 1;
+        mDurableSequence = lastSequence;
+        mRecoveredEvents = recoveredEvents;
+        mRestored = restored;
+        mSnapshotInterval = snapshotInterval;
+        mFlushIntervalMillis = flushIntervalMillis;
+
+        mWriter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeLoop();
+            }
+        }, "SessionJournal");
+        mWriter.setDaemon(true);
+        mWriter.start();
+    }
+
+    /**
+     * Opening the journal with the default snapshot and flush intervals.
+     *
+     * @see #open(File, QuizSession, long, int, long)
+     */
+    public static SessionJournal open(File file, QuizSession session, long bankKey) throws IOException {
+        return open(file, session, bankKey, DEFAULT_SNAPSHOT_INTERVAL, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opening the journal: recovering the session from the last snapshot and the events after it,
+     * then starting the background writer for the new events.
+     * A journal of another format or of another question bank is discarded with its snapshot.
+     *
+     * @param file                journal file, the snapshot is kept next to it
+     * @param session             fresh session over the question bank of the journal, the recovered state goes there
+     * @param bankKey             key of the question bank (e.g. of the version of the pack); a journal written
+     *                            with another key is discarded, even if the bank has the same size
+     * @param snapshotInterval    number of events after which {@link #snapshotIfNeeded(QuizSession)} writes a snapshot
+     * @param flushIntervalMillis time to collect the events into one batch before writing them
+     * @return opened journal
+     * @throws IOException if the journal can't be read or written
+     */
+    public static SessionJournal open(File file, QuizSession session, long bankKey, int snapshotInterval,
+                                      long flushIntervalMillis) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            long snapshotSequence = hasHeader(channel, bankKey)
+                    ? readSnapshot(snapshotFile(file), session) : OTHER_BANK;
+            if (snapshotSequence == OTHER_BANK) { // new journal, or the one of another format or bank: starting over
+                reset(channel, bankKey, snapshotFile(file));
+            }
+            long[] recovered = replay(channel, session, Math.max(snapshotSequence, 0));
+            return new SessionJournal(file, raf, recovered[0], recovered[1], snapshotSequence >= 0 || recovered[1] > 0,
+                    snapshotInterval, flushIntervalMillis);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of events replayed on top of the snapshot when the journal was opened.
+     */
+    public long getRecoveredEvents() {
+        return mRecoveredEvents;
+    }
+
+    /**
+     * Checking if the session was restored from the journal: it had a snapshot or events to replay.
+     * A new journal, or the discarded one of another bank, leaves the session as it was given.
+     */
+    public boolean isRestored() {
+        return mRestored;
+    }
+
+    /**
+     * Appending the event of the session.
+     *
+     * @param event event packed with {@link SessionEvent#pack()}
+     */
+    public void append(int event) {
+        synchronized (mLock) {
+            if (!reserve(1)) {
+                return;
+            }
+            putEvent(mPending, mPendingSize, event);
+            appended(1);
+        }
+    }
+
+    /**
+     * Appending the events in order, e.g. the batch of {@link SessionEventLoop.Listener#onEvents(int[], int)}.
+     *
+     * @param events events packed with {@link SessionEvent#pack()}
+     * @param from   index of the first event to append
+     * @param to     index after the last event to append
+     */
+    public void append(int[] events, int from, int to) {
+        synchronized (mLock) {
+            if (from == to || !reserve(to - from)) {
+                return;
+            }
+            byte[] pending = mPending;
+            int position = mPendingSize;
+            for (int i = from; i < to; i++, position += EVENT_SIZE) {
+                putEvent(pending, position, events[i]);
+            }
+            appended(to - from);
+        }
+    }
+
+    /**
+     * Writing the snapshot of the session if enough events were appended since the last one.
+     * The session must already have all the appended events applied.
+     *
+     * @return true, if the snapshot was scheduled
+     */
+    public boolean snapshotIfNeeded(QuizSession session) {
+        synchronized (mLock) {
+            if (mEventsSinceSnapshot < mSnapshotInterval) {
+                return false;
+            }
+        }
+        snapshot(session);
+        return true;
+    }
+
+    /**
+     * Scheduling the snapshot of the session, the journal is truncated after it's written.
+     * The session must already have all the appended events applied.
+     */
+    public void snapshot(QuizSession session) {
+        byte[] state = QuizStateCodec.encode(session);
+        synchronized (mLock) {
+            mPendingSnapshot = state;
+            mPendingSnapshotSequence = mNextSequence - 1;
+            mEventsSinceSnapshot = 0;
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * Waiting until all the events appended so far are durable.
+     *
+     * @throws IOException if the background writer has failed
+     */
+    public void flush() throws IOException {
+        synchronized (mLock) {
+            long target = mNextSequence - 1;
+            mFlushRequested = true;
+            mLock.notifyAll();
+            while (mDurableSequence < target && mFailure == null && mWriter.isAlive()) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while flushing the journal");
+                }
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+        }
+    }
+
+    /**
+     * Writing the remaining events and closing the journal.
+     * Blocks until the last batch is written (one fsync at most).
+     *
+     * @throws IOException if the background writer has failed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (mLock) {
+            mClosed = true;
+            mLock.notifyAll();
+        }
+        try {
+            mWriter.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mFile.close();
+        synchronized (mLock) {
+            if (mFailure != null) {
+                throw mFailure;
+            }
+        }
+    }
+
+    /**
+     * Making room for the events in the pending batch, called under mLock.
+     *
+     * @return false, if the journal is broken and the events are to be dropped
+     */
+    private boolean reserve(int count) {
+        if (mClosed) {
+            throw new IllegalStateException("Session journal is closed");
+        }
+        if (mFailure != null) { // the journal is broken, the session goes on without it
+            return false;
+        }
+        int size = mPendingSize + count * EVENT_SIZE;
+        if (size > mPending.length) {
+            byte[] grown = new byte[Math.max(size, mPending.length * 2)];
+            System.arraycopy(mPending, 0, grown, 0, mPendingSize);
+            mPending = grown;
+        }
+        if (mPendingSize == 0) {
+            mPendingFirstSequence = mNextSequence;
+        }
+        return true;
+    }
+
+    /**
+     * Counting the events just put into the pending batch, called under mLock.
+     */
+    private void appended(int count) {
+        mPendingSize += count * EVENT_SIZE;
+        mNextSequence += count;
+        mEventsSinceSnapshot += count;
+        if (mPendingSize >= EAGER_BATCH_SIZE) {
+            mLock.notifyAll();
+        }
+    }
+
+    private static void putEvent(byte[] buffer, int position, int event) {
+        buffer[position] = (byte) (event >>> 24);
+        buffer[position + 1] = (byte) (event >>> 16);
+        buffer[position + 2] = (byte) (event >>> 8);
+        buffer[position + 3] = (byte) event;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            byte[] batch;
+            int batchSize;
+            long firstSequence;
+            byte[] snapshot;
+            long snapshotSequence;
+            boolean closing;
+
+            synchronized (mLock) {
+                try {
+                    while (mPendingSize == 0 && mPendingSnapshot == null && !mClosed && !mFlushRequested) {
+                        mLock.wait();
+                    }
+                    if (!mClosed && !mFlushRequested && mPendingSnapshot == null && mPendingSize < EAGER_BATCH_SIZE) {
+                        // group commit: letting more events join the batch
+                        mLock.wait(mFlushIntervalMillis);
+                    }
+                } catch (InterruptedException e) {
+                    mClosed = true;
+                }
+
+                batch = mPending;
+                batchSize = mPendingSize;
+                firstSequence = mPendingFirstSequence;
+                mPending = mSpare;
+                mPendingSize = 0;
+                snapshot = mPendingSnapshot;
+                snapshotSequence = mPendingSnapshotSequence;
+                mPendingSnapshot = null;
+                mFlushRequested = false;
+                closing = mClosed;
+            }
+
+            try {
+                if (batchSize > 0) {
+                    writeFrame(batch, batchSize, firstSequence);
+                }
+                long durableSequence = firstSequence + batchSize / EVENT_SIZE - 1;
+                if (snapshot != null) {
+                    writeSnapshot(snapshot, snapshotSequence, batchSize == 0 || snapshotSequence == durableSequence);
+                }
+                synchronized (mLock) {
+                    if (batchSize > 0) {
+                        mDurableSequence = durableSequence;
+                    }
+                    mLock.notifyAll();
+                }
+            } catch (IOException e) {
+                synchronized (mLock) {
+                    mFailure = e;
+                    mPendingSize = 0;
+                    mLock.notifyAll();
+                }
+                return;
+            }
+            mSpare = batch;
+
+            if (closing) {
+                synchronized (mLock) {
+                    if (mPendingSize == 0 && mPendingSnapshot == null) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeFrame(byte[] batch, int batchSize, long firstSequence) throws IOException {
+        mCrc.reset();
+        mFrameHeader.clear();
+        mFrameHeader.putLong(4, firstSequence);
+        mCrc.update(mFrameHeader.array(), 4, 8);
+        mCrc.update(batch, 0, batchSize);
+        mFrameHeader.putInt(0, batchSize);
+        mFrameHeader.putInt(12, (int) mCrc.getValue());
+
+        ByteBuffer payload = ByteBuffer.wrap(batch, 0, batchSize);
+        while (mFrameHeader.hasRemaining() || payload.hasRemaining()) {
+            mChannel.write(new ByteBuffer[]{mFrameHeader, payload});
+        }
+        mChannel.force(false);
+    }
+
+    /**
+     * Writing the snapshot atomically (temporary file + rename).
+     *
+     * @param truncate true, if all the events written to the journal are included in the snapshot
+     */
+    private void writeSnapshot(byte[] state, long lastSequence, boolean truncate) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(state);
+        ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE);
+        header.putInt(SNAPSHOT_MAGIC).putLong(lastSequence).putInt((int) crc.getValue()).putInt(state.length);
+
+        FileOutputStream out = new FileOutputStream(mSnapshotTempFile);
+        try {
+            out.write(header.array());
+            out.write(state);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!mSnapshotTempFile.renameTo(mSnapshotFile)) {
+            throw new IOException("Failed to replace the snapshot " + mSnapshotFile);
+        }
+
+        if (truncate) {
+            mChannel.truncate(HEADER_SIZE);
+            mChannel.position(HEADER_SIZE);
+            mChannel.force(false);
+        }
+    }
+
+    /**
+     * Checking if the journal starts with the header of the current format and of the question bank.
+     */
+    private static boolean hasHeader(FileChannel channel, long bankKey) throws IOException {
+        if (channel.size() < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        return header.getInt(0) == JOURNAL_MAGIC && header.getInt(4) == FORMAT_VERSION
+                && header.getLong(8) == bankKey;
+    }
+
+    /**
+     * Starting the journal over: only the header is left and the snapshot is deleted.
+     */
+    private static void reset(FileChannel channel, long bankKey, File snapshotFile) throws IOException {
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            throw new IOException("Failed to delete the stale snapshot " + snapshotFile);
+        }
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(JOURNAL_MAGIC).putInt(FORMAT_VERSION).putLong(bankKey).flip();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(false);
+    }
+
+    /**
+     * Restoring the session from the snapshot, if there's a valid one.
+     *
+     * @return sequence number of the last event included in the snapshot, {@link #NO_SNAPSHOT} if there's
+     * no valid snapshot, {@link #OTHER_BANK} if the snapshot is of another question bank
+     */
+    private static long readSnapshot(File snapshotFile, QuizSession session) throws IOException {
+        if (!snapshotFile.isFile() || snapshotFile.length() < SNAPSHOT_HEADER_SIZE
+                || snapshotFile.length() > Integer.MAX_VALUE) {
+            return NO_SNAPSHOT;
+        }
+        byte[] content = new byte[(int) snapshotFile.length()];
+        RandomAccessFile raf = new RandomAccessFile(snapshotFile, "r");
+        try {
+            raf.readFully(content);
+        } finally {
+            raf.close();
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(content);
+        long lastSequence = buffer.getLong(4);
+        int length = buffer.getInt(16);
+        if (buffer.getInt(0) != SNAPSHOT_MAGIC || length != content.length - SNAPSHOT_HEADER_SIZE) {
+            return NO_SNAPSHOT;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content, SNAPSHOT_HEADER_SIZE, length);
+        if ((int) crc.getValue() != buffer.getInt(12)) {
+            return NO_SNAPSHOT;
+        }
+
+        byte[] state = new byte[length];
+        System.arraycopy(content, SNAPSHOT_HEADER_SIZE, state, 0, length);
+        try {
+            QuizStateCodec.decode(state, session);
+        } catch (IllegalArgumentException e) {
+            return OTHER_BANK;
+        }
+        return lastSequence;
+    }
+
+    /**
+     * Replaying the journal events after the snapshot with {@link SessionReducer}
+     * and truncating the journal after the last valid frame.
+     * A frame is replayed whole or not at all: a frame with an event which doesn't fit the session
+     * is taken as corrupted, like the one with the wrong checksum.
+     *
+     * @return sequence number of the last event and the number of replayed events
+     */
+    private static long[] replay(FileChannel channel, QuizSession session, long snapshotSequence)
+            throws IOException {
+        SessionReducer reducer = new SessionReducer(session.getQuestionStore());
+        SessionState state = SessionState.of(session);
+        ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        ByteBuffer payload = ByteBuffer.allocate(EVENT_SIZE * 1024);
+        int[] events = new int[1024];
+        CRC32 crc = new CRC32();
+        long lastSequence = snapshotSequence;
+        long replayed = 0;
+        long position = HEADER_SIZE;
+        long size = channel.size();
+
+        while (position + FRAME_HEADER_SIZE <= size) {
+            header.clear();
+            readFully(channel, header, position);
+            int length = header.getInt(0);
+            long firstSequence = header.getLong(4);
+            if (length <= 0 || length % EVENT_SIZE != 0 || length > MAX_FRAME_PAYLOAD
+                    || position + FRAME_HEADER_SIZE + length > size) {
+                break;
+            }
+            if (payload.capacity() < length) {
+                payload = ByteBuffer.allocate(Math.max(length, payload.capacity() * 2));
+            }
+            payload.clear();
+            payload.limit(length);
+            readFully(channel, payload, position + FRAME_HEADER_SIZE);
+
+            crc.reset();
+            crc.update(header.array(), 4, 8);
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(12)) {
+                break;
+            }
+
+            int count = length / EVENT_SIZE;
+            // events up to the last sequence are in the snapshot already
+            long skipped = lastSequence + 1 - firstSequence;
+            if (skipped < 0) { // a gap after the snapshot
+                break;
+            }
+            if (skipped < count) {
+                if (events.length < count) {
+                    events = new int[Math.max(count, events.length * 2)];
+                }
+                payload.position(0);
+                payload.asIntBuffer().get(events, 0, count);
+                try {
+                    state = reducer.replay(state, events, (int) skipped, count);
+                } catch (IllegalArgumentException e) {
+                    break;
+                }
+                lastSequence = firstSequence + count - 1;
+                replayed += count - skipped;
+            }
+            position += FRAME_HEADER_SIZE + length;
+        }
+
+        if (replayed > 0) {
+            state.restoreInto(session);
+        }
+        // dropping the torn or corrupted tail, new frames go right after the last valid one
+        channel.truncate(position);
+        channel.position(position);
+        return new long[]{lastSequence, replayed};
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of the journal");
+            }
+        }
+    }
+
+    private static File snapshotFile(File file) {
+        return new File(file.getPath() + ".snapshot");
+    }
+}
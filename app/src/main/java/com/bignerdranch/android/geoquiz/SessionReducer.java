@@ -0,0 +1,108 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Pure reducer of the quiz session: the next state is a function of the previous state and the event only
+ * (the question bank is fixed). The rules are the same as in {@link QuizSession} in the default order
+ * of the questions, so the states replayed from a log match the session which produced the log.
+ */
+public final class SessionReducer {
+
+    private final QuestionStore mQuestionStore;
+
+    public SessionReducer(QuestionStore questionStore) {
+        mQuestionStore = questionStore;
+    }
+
+    public QuestionStore getQuestionStore() {
+        return mQuestionStore;
+    }
+
+    /**
+     * State of the new session over the question bank.
+     */
+    public SessionState initial() {
+        return SessionState.initial(mQuestionStore.size());
+    }
+
+    /**
+     * Applying the event to the state. The given state doesn't change.
+     *
+     * @param state state of the session over the question bank of the reducer
+     * @param event next event of the session
+     * @return state after the event
+     * @throws IllegalArgumentException if the event can't happen in the state (e.g. answering an answered question)
+     */
+    public SessionState reduce(SessionState state, SessionEvent event) {
+        checkBank(state);
+        SessionState.Builder builder = new SessionState.Builder(state);
+        apply(builder, event.pack());
+        return builder.build();
+    }
+
+    /**
+     * Applying the packed events in order, without making the intermediate states.
+     *
+     * @param state  state of the session over the question bank of the reducer
+     * @param events events packed with {@link SessionEvent#pack()}
+     * @param from   index of the first event to apply
+     * @param to     index after the last event to apply
+     * @return state after the events
+     * @throws IllegalArgumentException if an event can't happen in the state it's applied to
+     */
+    public SessionState replay(SessionState state, int[] events, int from, int to) {
+        checkBank(state);
+        SessionState.Builder builder = new SessionState.Builder(state);
+        for (int i = from; i < to; i++) {
+            apply(builder, events[i]);
+        }
+        return builder.build();
+    }
+
+    private void checkBank(SessionState state) {
+        if (state.getQuestionCount() != mQuestionStore.size()) {
+            throw new IllegalArgumentException("State doesn't match the question bank");
+        }
+    }
+
+    private void apply(SessionState.Builder state, int event) {
+        int index = SessionEvent.indexOf(event);
+        boolean flag = SessionEvent.flagOf(event);
+        switch (SessionEvent.typeOf(event)) {
+            case ANSWERED:
+                checkIndex(state, index);
+                if (state.isAnswered(index)) {
+                    throw new IllegalArgumentException("Question " + index + " is already answered");
+                }
+                state.mCurrentIndex = index;
+                if (state.mIsCheater) {
+                    state.mIsCheater = false;
+                } else if (flag == mQuestionStore.isAnswerTrue(index)) {
+                    state.mCorrectAnswers++;
+                }
+                state.markAnswered(index);
+                break;
+            case CHEATED:
+                state.mIsCheater = flag;
+                if (flag) {
+                    state.mCheatCount++;
+                }
+                break;
+            case NAVIGATED:
+                checkIndex(state, index);
+                state.mCurrentIndex = index;
+                break;
+            default: // RESTARTED, the cheating flag stays as in QuizSession.restart()
+                state.clearAnswered();
+                state.mCurrentIndex = 0;
+                state.mCorrectAnswers = 0;
+                state.mCheatCount = 0;
+                break;
+        }
+    }
+
+    private static void checkIndex(SessionState.Builder state, int index) {
+        if (index >= state.mQuestionCount) {
+            throw new IllegalArgumentException("Question index " + index + " is out of range");
+        }
+    }
+}
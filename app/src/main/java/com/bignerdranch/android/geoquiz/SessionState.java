@@ -0,0 +1,266 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.Arrays;
+
+/**
+ * Immutable state of the quiz session: current question, answered questions, score and cheating counters.
+ * New states are made by {@link SessionReducer} from the events of the session.
+ * <p>
+ * The answered questions bitset is split into chunks of {@link #CHUNK_QUESTIONS} questions, and the states
+ * share the chunks they don't change. So answering a question copies one small chunk and the array of
+ * chunk references instead of the bitset of the whole bank.
+ * Replaying many events goes through a {@link Builder}, which changes the chunks it has copied in place.
+ */
+public final class SessionState {
+
+    // 64 words - 4096 questions per chunk
+    static final int CHUNK_WORDS = 64;
+    static final int CHUNK_QUESTIONS = CHUNK_WORDS * 64;
+
+    private final int mQuestionCount;
+    private final long[][] mChunks;
+    private final int mAnsweredCount;
+    private final int mCurrentIndex;
+    private final int mCorrectAnswers;
+    private final int mCheatCount;
+    private final boolean mIsCheater;
+
+    private SessionState(int questionCount, long[][] chunks, int answeredCount, int currentIndex,
+                         int correctAnswers, int cheatCount, boolean isCheater) {
+        mQuestionCount = questionCount;
+        mChunks = chunks;
+        mAnsweredCount = answeredCount;
+        mCurrentIndex = currentIndex;
+        mCorrectAnswers = correctAnswers;
+        mCheatCount = cheatCount;
+        mIsCheater = isCheater;
+    }
+
+    /**
+     * State of the new session: the first question, nothing answered.
+     *
+     * @param questionCount number of questions in the bank
+     */
+    public static SessionState initial(int questionCount) {
+        if (questionCount <= 0) {
+            throw new IllegalArgumentException("Question bank is empty");
+        }
+        long[][] chunks = new long[(questionCount + CHUNK_QUESTIONS - 1) / CHUNK_QUESTIONS][];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new long[CHUNK_WORDS];
+        }
+        return new SessionState(questionCount, chunks, 0, 0, 0, 0, false);
+    }
+
+    /**
+     * Current state of the session, e.g. to start the event log from a restored session.
+     */
+    public static SessionState of(QuizSession session) {
+        Builder builder = new Builder(initial(session.getQuestionCount()));
+        long[] answered = session.getAnsweredBits();
+        for (int word = 0; word < answered.length; word++) {
+            long bits = answered[word];
+            while (bits != 0) {
+                builder.markAnswered((word << 6) + Long.numberOfTrailingZeros(bits));
+                bits &= bits - 1;
+            }
+        }
+        builder.mCurrentIndex = session.getCurrentIndex();
+        builder.mCorrectAnswers = session.getCorrectAnswers();
+        builder.mCheatCount = session.getCheatCount();
+        builder.mIsCheater = session.isCheater();
+        return builder.build();
+    }
+
+    /**
+     * State decoded from its saved form (see {@link QuizStateCodec#decode(byte[], int)}), made straight from
+     * the answered bitset without a session.
+     *
+     * @param answeredBits answered questions bitset in the layout of {@link QuizSession#getAnsweredBits()},
+     *                     the bits beyond the last question are ignored
+     * @throws IllegalArgumentException if the bitset or the current index doesn't match the question bank
+     */
+    static SessionState of(int questionCount, long[] answeredBits, int currentIndex, int correctAnswers,
+                           int cheatCount, boolean isCheater) {
+        if (questionCount <= 0 || answeredBits.length != (questionCount + 63) >>> 6) {
+            throw new IllegalArgumentException("Answered bitset doesn't match the question bank");
+        }
+        if (currentIndex < 0 || currentIndex >= questionCount) {
+            throw new IllegalArgumentException("Question index " + currentIndex + " is out of range");
+        }
+        long[][] chunks = new long[(questionCount + CHUNK_QUESTIONS - 1) / CHUNK_QUESTIONS][];
+        int answeredCount = 0;
+        for (int chunk = 0; chunk < chunks.length; chunk++) {
+            int from = chunk * CHUNK_WORDS;
+            chunks[chunk] = Arrays.copyOfRange(answeredBits, from, from + CHUNK_WORDS);
+            int tail = questionCount - chunk * CHUNK_QUESTIONS;
+            if (tail < CHUNK_QUESTIONS) {
+                // bits beyond the last question must never be set
+                long[] words = chunks[chunk];
+                if ((tail & 63) != 0) {
+                    words[tail >>> 6] &= (1L << tail) - 1;
+                }
+                Arrays.fill(words, (tail + 63) >>> 6, CHUNK_WORDS, 0L);
+            }
+            for (long word : chunks[chunk]) {
+                answeredCount += Long.bitCount(word);
+            }
+        }
+        return new SessionState(questionCount, chunks, answeredCount, currentIndex, correctAnswers,
+                cheatCount, isCheater);
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    public int getAnsweredCount() {
+        return mAnsweredCount;
+    }
+
+    public int getCurrentIndex() {
+        return mCurrentIndex;
+    }
+
+    public int getCorrectAnswers() {
+        return mCorrectAnswers;
+    }
+
+    public int getCheatCount() {
+        return mCheatCount;
+    }
+
+    public boolean isCheater() {
+        return mIsCheater;
+    }
+
+    public boolean isFinished() {
+        return mAnsweredCount == mQuestionCount;
+    }
+
+    /**
+     * Score in % of correct answers, as {@link QuizSession#getScorePercent()}.
+     */
+    public int getScorePercent() {
+        return (int) ((double) mCorrectAnswers / mQuestionCount * 100);
+    }
+
+    public boolean isAnswered(int index) {
+        return isSet(mChunks, index);
+    }
+
+    /**
+     * Answered questions bitset (one bit per question), in the layout of {@link QuizSession#getAnsweredBits()}.
+     */
+    public long[] getAnsweredBits() {
+        long[] bits = new long[(mQuestionCount + 63) >>> 6];
+        for (int chunk = 0; chunk < mChunks.length; chunk++) {
+            int from = chunk * CHUNK_WORDS;
+            System.arraycopy(mChunks[chunk], 0, bits, from, Math.min(CHUNK_WORDS, bits.length - from));
+        }
+        return bits;
+    }
+
+    /**
+     * Putting this state into the session over the same question bank.
+     */
+    public void restoreInto(QuizSession session) {
+        session.restoreState(mCurrentIndex, getAnsweredBits(), mCorrectAnswers, mIsCheater, mCheatCount);
+    }
+
+    /**
+     * Checking if both states are the same, e.g. the replayed one and the one from the snapshot.
+     */
+    public boolean sameAs(SessionState other) {
+        if (mQuestionCount != other.mQuestionCount || mAnsweredCount != other.mAnsweredCount
+                || mCurrentIndex != other.mCurrentIndex || mCorrectAnswers != other.mCorrectAnswers
+                || mCheatCount != other.mCheatCount || mIsCheater != other.mIsCheater) {
+            return false;
+        }
+        for (int chunk = 0; chunk < mChunks.length; chunk++) {
+            if (mChunks[chunk] != other.mChunks[chunk]
+                    && !Arrays.equals(mChunks[chunk], other.mChunks[chunk])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "SessionState{question " + mCurrentIndex + ", answered " + mAnsweredCount + "/" + mQuestionCount
+                + ", correct " + mCorrectAnswers + ", cheats " + mCheatCount + (mIsCheater ? ", cheater}" : "}");
+    }
+
+    private static boolean isSet(long[][] chunks, int index) {
+        return (chunks[index / CHUNK_QUESTIONS][(index >>> 6) & (CHUNK_WORDS - 1)] & (1L << index)) != 0;
+    }
+
+    /**
+     * Mutable copy of the state for applying many events at once. It shares the chunks with the state
+     * it was made of and copies each chunk on the first write, so the original state never changes.
+     * After {@link #build()} the chunks are shared with the built state again and copied on the next write.
+     */
+    static final class Builder {
+
+        final int mQuestionCount;
+        private long[][] mChunks;
+        private boolean mChunksOwned;
+        private boolean[] mOwned;
+
+        int mAnsweredCount;
+        int mCurrentIndex;
+        int mCorrectAnswers;
+        int mCheatCount;
+        boolean mIsCheater;
+
+        Builder(SessionState state) {
+            mQuestionCount = state.mQuestionCount;
+            mChunks = state.mChunks;
+            mOwned = new boolean[mChunks.length];
+            mAnsweredCount = state.mAnsweredCount;
+            mCurrentIndex = state.mCurrentIndex;
+            mCorrectAnswers = state.mCorrectAnswers;
+            mCheatCount = state.mCheatCount;
+            mIsCheater = state.mIsCheater;
+        }
+
+        boolean isAnswered(int index) {
+            return isSet(mChunks, index);
+        }
+
+        void markAnswered(int index) {
+            int chunk = index / CHUNK_QUESTIONS;
+            if (!mOwned[chunk]) {
+                if (!mChunksOwned) {
+                    mChunks = mChunks.clone();
+                    mChunksOwned = true;
+                }
+                mChunks[chunk] = mChunks[chunk].clone();
+                mOwned[chunk] = true;
+            }
+            mChunks[chunk][(index >>> 6) & (CHUNK_WORDS - 1)] |= 1L << index;
+            mAnsweredCount++;
+        }
+
+        void clearAnswered() {
+            long[][] chunks = new long[mChunks.length][];
+            for (int i = 0; i < chunks.length; i++) {
+                chunks[i] = new long[CHUNK_WORDS];
+            }
+            mChunks = chunks;
+            mChunksOwned = true;
+            Arrays.fill(mOwned, true);
+            mAnsweredCount = 0;
+        }
+
+        SessionState build() {
+            if (mChunksOwned) {
+                mChunksOwned = false;
+                Arrays.fill(mOwned, false);
+            }
+            return new SessionState(mQuestionCount, mChunks, mAnsweredCount, mCurrentIndex,
+                    mCorrectAnswers, mCheatCount, mIsCheater);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Human-readable dump of the metrics (timings in microseconds), e.g. to the log or to the console.
+ */
+public class TextMetricsExporter implements MetricsExporter {
+
+    private final Appendable mOut;
+
+    public TextMetricsExporter(Appendable out) {
+        mOut = out;
+    }
+
+    @Override
+    public void export(MetricsSnapshot snapshot) throws IOException {
+        format(snapshot, mOut);
+    }
+
+    /**
+     * Writing the dump of the snapshot to the output.
+     */
+    public static void format(MetricsSnapshot snapshot, Appendable out) throws IOException {
+        out.append("metrics at ").append(String.valueOf(snapshot.getTimestamp())).append('\n');
+        for (QuizMetrics.Timer timer : QuizMetrics.Timer.values()) {
+            long count = snapshot.getCount(timer);
+            if (count == 0) {
+                continue;
+            }
+            out.append(String.format(Locale.ENGLISH,
+                    "%-20s count %d, mean %.1f us, p50 %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us%n",
+                    timer.name().toLowerCase(Locale.ENGLISH), count, micros(snapshot.getMean(timer)),
+                    micros(snapshot.getP50(timer)), micros(snapshot.getP90(timer)),
+                    micros(snapshot.getP99(timer)), micros(snapshot.getMax(timer))));
+        }
+        for (QuizMetrics.Counter counter : QuizMetrics.Counter.values()) {
+            out.append(String.format(Locale.ENGLISH, "%-20s %d%n",
+                    counter.name().toLowerCase(Locale.ENGLISH), snapshot.getCount(counter)));
+        }
+    }
+
+    private static double micros(long nanos) {
+        return nanos / 1000.0;
+    }
+}
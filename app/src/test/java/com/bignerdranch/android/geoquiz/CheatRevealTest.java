@@ -0,0 +1,189 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JVM tests of the cheat reveal decisions: when the reveal may be opened, one result per reveal,
+ * and the limit of the cheats when the reveals are faster than the session loop.
+ */
+public class CheatRevealTest {
+
+    private static QuizSession session(int size) {
+        PackedQuestionStore store = new PackedQuestionStore(size);
+        for (int i = 0; i < size; i++) {
+            store.set(i, i, (i & 1) == 0);
+        }
+        return new QuizSession(store);
+    }
+
+    /**
+     * Host as QuizActivity does it, with the snapshots taken straight from the loop.
+     */
+    private static class LoopHost implements CheatReveal.Host {
+        final CheatReveal mReveal = new CheatReveal();
+        final SessionEventLoop mLoop;
+        int mResults;
+        int mClosed;
+
+        LoopHost(SessionEventLoop loop) {
+            mLoop = loop;
+        }
+
+        /**
+         * Tap on CHEAT! and on SHOW ANSWER, then closing the dialog.
+         *
+         * @return false, if the reveal wasn't opened
+         */
+        boolean cheat() {
+            if (!mReveal.canOpen(mLoop.getSnapshot())) {
+                return false;
+            }
+            mReveal.open();
+            if (mReveal.showAnswer()) {
+                onCheatResult(true);
+            }
+            mReveal.close();
+            onCheatClosed();
+            return true;
+        }
+
+        @Override
+        public CheatReveal getCheatReveal() {
+            return mReveal;
+        }
+
+        @Override
+        public void onCheatResult(boolean answerShown) {
+            mResults++;
+            assertTrue(mLoop.offerCheat(answerShown));
+            mReveal.awaitCheat(mLoop.getOfferedCount());
+        }
+
+        @Override
+        public void onCheatClosed() {
+            mClosed++;
+        }
+    }
+
+    private static SessionEventLoop loop(QuizSession session) {
+        return new SessionEventLoop(session, SessionEventLoop.DEFAULT_CAPACITY, new SessionEventLoop.Listener() {
+            @Override
+            public void onAnswered(int index, boolean userPressedTrue, QuizSession.Verdict verdict) {
+            }
+
+            @Override
+            public void onCheated(boolean answerShown) {
+            }
+
+            @Override
+            public void onRestarted() {
+            }
+
+            @Override
+            public void onEvents(int[] events, int count) {
+            }
+
+            @Override
+            public void onSnapshot(QuizSession session, SessionEventLoop.Snapshot snapshot) {
+            }
+        });
+    }
+
+    @Test
+    public void showAnswer_givesOneResultPerReveal() {
+        CheatReveal reveal = new CheatReveal();
+        assertFalse(reveal.showAnswer());
+
+        reveal.open();
+        assertTrue(reveal.isOpen());
+        assertFalse(reveal.isAnswerShown());
+        // double tap on SHOW ANSWER
+        assertTrue(reveal.showAnswer());
+        assertFalse(reveal.showAnswer());
+        assertTrue(reveal.isAnswerShown());
+        try {
+            reveal.open();
+            fail("Reveal must not be opened twice");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        // rotation after the answer was shown: the result was given already
+        reveal.restore(true);
+        assertFalse(reveal.showAnswer());
+        // rotation before it
+        reveal.restore(false);
+        assertTrue(reveal.showAnswer());
+
+        reveal.close();
+        assertFalse(reveal.isOpen());
+        assertFalse(reveal.showAnswer());
+        reveal.open();
+        assertFalse(reveal.isAnswerShown());
+    }
+
+    @Test
+    public void canOpen_followsTheSession() throws InterruptedException {
+        QuizSession session = session(10);
+        SessionEventLoop loop = loop(session);
+        CheatReveal reveal = new CheatReveal();
+        assertTrue(reveal.canOpen(loop.getSnapshot()));
+        reveal.open();
+        // double tap on CHEAT!
+        assertFalse(reveal.canOpen(loop.getSnapshot()));
+        reveal.close();
+
+        // answered question can't be cheated on
+        loop.offerAnswer(0, true);
+        loop.offerPrev();
+        loop.start();
+        loop.close();
+        loop.awaitClosed();
+        assertEquals(0, loop.getSnapshot().getState().getCurrentIndex());
+        assertFalse(reveal.canOpen(loop.getSnapshot()));
+    }
+
+    @Test
+    public void fastReveals_waitForTheCheatToReachTheSession() throws InterruptedException {
+        SessionEventLoop loop = loop(session(10));
+        LoopHost host = new LoopHost(loop);
+
+        // the loop isn't running: the cheat stays in the ring and the snapshot still allows cheating
+        assertTrue(host.cheat());
+        assertTrue(loop.getSnapshot().getViewState().isCheatEnabled());
+        assertFalse(host.cheat());
+
+        loop.start();
+        for (int i = 1; i < QuizSession.MAX_CHEAT_COUNT; i++) {
+            awaitSnapshot(loop);
+            assertTrue(host.cheat());
+        }
+        awaitSnapshot(loop);
+        loop.close();
+        loop.awaitClosed();
+        // the limit is reached, however fast user taps
+        assertFalse(host.cheat());
+        assertFalse(loop.getSnapshot().getViewState().isCheatEnabled());
+        assertEquals(QuizSession.MAX_CHEAT_COUNT, loop.getSnapshot().getState().getCheatCount());
+        assertEquals(QuizSession.MAX_CHEAT_COUNT, host.mResults);
+        assertEquals(QuizSession.MAX_CHEAT_COUNT, host.mClosed);
+    }
+
+    /**
+     * Waiting for the loop to apply everything offered, as the main thread gets the snapshot posted.
+     */
+    private static void awaitSnapshot(SessionEventLoop loop) {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (loop.getSnapshot().getSequence() < loop.getOfferedCount()) {
+            if (System.nanoTime() > deadline) {
+                fail("Loop doesn't apply the commands");
+            }
+            Thread.yield();
+        }
+    }
+}
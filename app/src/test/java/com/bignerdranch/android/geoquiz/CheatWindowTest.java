@@ -0,0 +1,78 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests of the cheat limit of the install: the restarts of the quiz and of the app don't give
+ * the cheats back, the window gives them back over time.
+ */
+public class CheatWindowTest {
+
+    private static final long MINUTE = 60 * 1000;
+    private static final long NOW = 1_600_000_000_000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void restarts_doNotResetTheLimit() throws IOException {
+        File file = new File(mFolder.getRoot(), "cheats");
+        CheatWindow window = new CheatWindow(file, 6, 8 * MINUTE);
+        window.load();
+        long time = NOW;
+        // "Start again" after every quiz of MAX_CHEAT_COUNT cheats
+        for (int quiz = 0; quiz < 2; quiz++) {
+            QuizSession session = new QuizSession(new Question[]{
+                    new Question(1, true), new Question(2, false), new Question(3, true), new Question(4, true)});
+            for (int i = 0; i < QuizSession.MAX_CHEAT_COUNT; i++) {
+                assertTrue(session.isCheatAvailable());
+                assertTrue(window.isAllowed(time));
+                session.registerCheat(true);
+                window.record(time);
+                time += 10_000;
+            }
+            session.restart();
+            assertTrue(session.isCheatAvailable());
+        }
+        assertFalse(window.isAllowed(time));
+        window.save();
+
+        // the process died, the limit is still there
+        CheatWindow reloaded = new CheatWindow(file, 6, 8 * MINUTE);
+        reloaded.load();
+        assertEquals(6, reloaded.getCheats(time));
+        assertFalse(reloaded.isAllowed(time));
+        // the first cheat has left the window
+        assertTrue(reloaded.isAllowed(NOW + 8 * MINUTE));
+        assertEquals(5, reloaded.getCheats(NOW + 8 * MINUTE));
+        // the clock set back far doesn't lock the cheats out
+        assertTrue(reloaded.isAllowed(NOW - 9 * MINUTE));
+    }
+
+    @Test
+    public void fileOfAnotherLimit_isDropped() throws IOException {
+        File file = new File(mFolder.getRoot(), "cheats");
+        CheatWindow window = new CheatWindow(file, 3, 8 * MINUTE);
+        window.record(NOW);
+        window.save();
+
+        CheatWindow other = new CheatWindow(file, 6, 8 * MINUTE);
+        other.load();
+        assertEquals(0, other.getCheats(NOW));
+
+        Files.write(file.toPath(), new byte[]{1, 2, 3});
+        CheatWindow torn = new CheatWindow(file, 3, 8 * MINUTE);
+        torn.load();
+        assertTrue(torn.isAllowed(NOW));
+    }
+}
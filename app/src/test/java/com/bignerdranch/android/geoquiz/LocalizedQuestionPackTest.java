@@ -0,0 +1,117 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the question packs with the texts in many locales.
+ */
+public class LocalizedQuestionPackTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File writeGeography() throws IOException {
+        LocalizedQuestionPackWriter writer = new LocalizedQuestionPackWriter("en", "en-GB", "de", "pt-BR");
+        writer.add(true, "Canberra is the capital of Australia.", "Canberra is the capital of Australia.",
+                "Canberra ist die Hauptstadt Australiens.", "Canberra é a capital da Austrália.");
+        writer.add(false, "The color of the Red Sea is red.", "The colour of the Red Sea is red.",
+                "Die Farbe des Roten Meeres ist rot.", null);
+        writer.add(true, "Baikal", "Baikal", "Baikal", "Baikal");
+        assertEquals(11, writer.getTextCount());
+        assertEquals(7, writer.getPoolSize());
+
+        File file = mFolder.newFile("questions.gqlp");
+        writer.write(file);
+        return file;
+    }
+
+    @Test
+    public void texts_areReadInTheCurrentLocale() throws IOException {
+        LocalizedQuestionPack pack = LocalizedQuestionPack.open(writeGeography());
+
+        assertEquals(3, pack.size());
+        assertEquals(7, pack.getPoolSize());
+        assertArrayEquals(new String[]{"en", "en-GB", "de", "pt-BR"}, pack.getLocales());
+        assertEquals("en", pack.getLocale());
+        assertEquals("The color of the Red Sea is red.", pack.getText(1).toString());
+
+        assertTrue(pack.setLocale("en_GB"));
+        assertEquals("The colour of the Red Sea is red.", pack.getText(1).toString());
+        assertEquals("Canberra is the capital of Australia.", pack.getText(0).toString());
+
+        assertTrue(pack.setLocale(Locale.GERMANY));
+        assertEquals("de", pack.getLocale());
+        assertEquals("Die Farbe des Roten Meeres ist rot.", pack.getText(1).toString());
+
+        assertTrue(pack.setLocale("pt-BR"));
+        assertEquals("Canberra é a capital da Austrália.", pack.getText(0).toString());
+        // not translated, the default locale is shown
+        assertEquals("The color of the Red Sea is red.", pack.getText(1).toString());
+        assertEquals("Baikal", pack.getText(2).toString());
+
+        assertFalse(pack.setLocale("fr-FR"));
+        assertEquals("en", pack.getLocale());
+        assertTrue(pack.isAnswerTrue(0));
+        assertFalse(pack.isAnswerTrue(1));
+        assertEquals(0, pack.getTextResId(2));
+    }
+
+    @Test
+    public void largePool_isFrontCodedAcrossBlocks() throws IOException {
+        String[] locales = new String[20];
+        for (int i = 0; i < locales.length; i++) {
+            locales[i] = "l" + i;
+        }
+        LocalizedQuestionPackWriter writer = new LocalizedQuestionPackWriter(locales);
+        int questions = 5000;
+        long rawBytes = 0;
+        for (int q = 0; q < questions; q++) {
+            String[] texts = new String[locales.length];
+            for (int l = 0; l < locales.length; l++) {
+                // half of the locales share the text, like the untranslated questions
+                texts[l] = l % 2 == 0 ? "What is the capital of country number " + q + " in locale " + l + "?"
+                        : "What is the capital of country number " + q + "?";
+                rawBytes += texts[l].length();
+            }
+            writer.add(q % 3 == 0, texts);
+        }
+        File file = mFolder.newFile("large.gqlp");
+        writer.write(file);
+
+        LocalizedQuestionPack pack = LocalizedQuestionPack.open(file);
+        assertEquals(questions * 11, pack.getPoolSize());
+        for (int q = 0; q < questions; q += 7) {
+            pack.setLocale("l" + (q % locales.length));
+            int l = q % locales.length;
+            String expected = l % 2 == 0 ? "What is the capital of country number " + q + " in locale " + l + "?"
+                    : "What is the capital of country number " + q + "?";
+            assertEquals(expected, pack.getText(q).toString());
+            assertEquals(q % 3 == 0, pack.isAnswerTrue(q));
+        }
+        // the tables of the locales and the front-coded pool are far smaller than the texts of all the locales
+        assertTrue(file.length() < rawBytes / 3);
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedHeader_isRejected() throws IOException {
+        File file = writeGeography();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(40);
+        raf.writeLong(file.length());
+        raf.close();
+
+        LocalizedQuestionPack.open(file);
+    }
+}
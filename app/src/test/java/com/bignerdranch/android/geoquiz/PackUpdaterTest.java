@@ -0,0 +1,253 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JVM tests for the versioned question packs: chunked hashes, binary deltas and crash-safe updates.
+ */
+public class PackUpdaterTest {
+
+    private static final int QUESTION_COUNT = 5000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Local stand-in for the update server: keeps every version and builds the delta from the installed one.
+     */
+    private static class VersionSource implements PackUpdater.Source {
+        final TreeMap<Long, byte[]> mVersions = new TreeMap<>();
+
+        @Override
+        public byte[] fetchDelta(long installedVersion) {
+            long latest = mVersions.lastKey();
+            if (installedVersion >= latest) {
+                return null;
+            }
+            byte[] target = mVersions.get(latest);
+            byte[] base = mVersions.get(installedVersion);
+            return PackDelta.create(base != null ? PackManifest.of(installedVersion, base) : null, base,
+                    PackManifest.of(latest, target), target);
+        }
+    }
+
+    static List<String> questionTexts(int count) {
+        List<String> texts = new ArrayList<>();
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            texts.add(String.format(Locale.ENGLISH, "Question %d: the river %08x flows into the sea %08x.",
+                    i, random.nextInt(), random.nextInt()));
+        }
+        return texts;
+    }
+
+    static byte[] packBytes(File file, List<String> texts) throws IOException {
+        QuestionPackWriter writer = new QuestionPackWriter(file);
+        for (int i = 0; i < texts.size(); i++) {
+            writer.add(texts.get(i), i % 3 == 0);
+        }
+        writer.close();
+        return Files.readAllBytes(file.toPath());
+    }
+
+    private byte[] packBytes(List<String> texts) throws IOException {
+        return packBytes(mFolder.newFile(), texts);
+    }
+
+    @Test
+    public void chunks_surviveInsertionBeforeThem() {
+        byte[] content = new byte[256 * 1024];
+        new Random(7).nextBytes(content);
+        byte[] edited = new byte[content.length + 100];
+        System.arraycopy(content, 0, edited, 0, 1000);
+        System.arraycopy(content, 1000, edited, 1100, content.length - 1000);
+
+        PackManifest before = PackManifest.of(1, content);
+        PackManifest after = PackManifest.of(2, edited);
+        assertEquals(content.length, before.getLength());
+        Set<String> hashes = new HashSet<>();
+        for (int chunk = 0; chunk < before.getChunkCount(); chunk++) {
+            hashes.add(Arrays.toString(before.getChunkHash(chunk)));
+        }
+        int shared = 0;
+        for (int chunk = 0; chunk < after.getChunkCount(); chunk++) {
+            shared += hashes.contains(Arrays.toString(after.getChunkHash(chunk))) ? 1 : 0;
+        }
+        assertTrue("Only " + shared + " of " + after.getChunkCount() + " chunks are shared",
+                shared >= after.getChunkCount() - 2);
+    }
+
+    @Test
+    public void update_installsTheWholePackThenOnlyTheChangedChunks() throws IOException {
+        List<String> texts = questionTexts(QUESTION_COUNT);
+        VersionSource source = new VersionSource();
+        source.mVersions.put(1L, packBytes(texts));
+        File directory = new File(mFolder.getRoot(), "packs");
+        PackUpdater updater = new PackUpdater(directory);
+        assertEquals(0, updater.getInstalledVersion());
+        assertNull(updater.getInstalledPack());
+
+        PackUpdater.Report full = updater.update(source);
+        assertEquals(0, full.getFromVersion());
+        assertEquals(1, full.getToVersion());
+        assertEquals(0, full.getBytesCopied());
+        assertArrayEquals(source.mVersions.get(1L), Files.readAllBytes(updater.getInstalledPack().toPath()));
+
+        texts.set(2500, "Question 2500: a longer text of the question which was fixed in the second version.");
+        texts.add("Question 5000: a new question.");
+        byte[] second = packBytes(texts);
+        source.mVersions.put(2L, second);
+        PackUpdater.Report delta = updater.update(source);
+        assertEquals(1, delta.getFromVersion());
+        assertEquals(2, delta.getToVersion());
+        assertEquals(2, updater.getInstalledVersion());
+        assertArrayEquals(second, Files.readAllBytes(updater.getInstalledPack().toPath()));
+        assertEquals(second.length, delta.getBytesWritten() + delta.getBytesCopied());
+        // the edit shifts the offsets of the following questions in the index, the patches stay tiny anyway
+        assertTrue("Delta of " + delta.getDeltaBytes() + " bytes", delta.getDeltaBytes() * 20 < full.getDeltaBytes());
+        assertTrue("Written " + delta.getBytesWritten() + " bytes", delta.getBytesWritten() * 4 < second.length);
+
+        QuestionPack pack = QuestionPack.open(updater.getInstalledPack());
+        assertEquals(QUESTION_COUNT + 1, pack.size());
+        assertEquals(texts.get(2500), pack.getText(2500).toString());
+        assertNull(updater.update(source));
+        // nothing but the installed version is left
+        assertEquals(new HashSet<>(Arrays.asList("current", "2.gqpk", "2.chunks")),
+                new HashSet<>(Arrays.asList(directory.list())));
+
+        // another updater over the same directory sees the same version
+        assertEquals(2, new PackUpdater(directory).getInstalledVersion());
+    }
+
+    @Test
+    public void corruptedDelta_keepsTheInstalledVersion() throws IOException {
+        List<String> texts = questionTexts(QUESTION_COUNT);
+        byte[] first = packBytes(texts);
+        texts.set(10, "Question 10: changed.");
+        byte[] second = packBytes(texts);
+        PackManifest firstManifest = PackManifest.of(1, first);
+        PackManifest secondManifest = PackManifest.of(2, second);
+        File directory = new File(mFolder.getRoot(), "packs");
+        PackUpdater updater = new PackUpdater(directory);
+        updater.apply(PackDelta.create(null, null, firstManifest, first));
+
+        byte[] delta = PackDelta.create(firstManifest, first, secondManifest, second);
+        Random random = new Random(1);
+        for (int attempt = 0; attempt < 20; attempt++) {
+            byte[] corrupted = delta.clone();
+            corrupted[PackDelta.HEADER_SIZE + random.nextInt(corrupted.length - PackDelta.HEADER_SIZE)] ^= 0x10;
+            try {
+                updater.apply(corrupted);
+                fail("Corrupted delta was applied");
+            } catch (PackDelta.InvalidDeltaException expected) {
+                // the installed version stays
+            }
+            assertEquals(1, updater.getInstalledVersion());
+            assertEquals(3, directory.list().length);
+        }
+        assertArrayEquals(first, Files.readAllBytes(updater.getInstalledPack().toPath()));
+    }
+
+    @Test
+    public void deltaForAnotherVersion_isRejected() throws IOException {
+        List<String> texts = questionTexts(100);
+        byte[] first = packBytes(texts);
+        texts.set(1, "Question 1: changed.");
+        byte[] second = packBytes(texts);
+        texts.set(2, "Question 2: changed.");
+        byte[] third = packBytes(texts);
+        PackUpdater updater = new PackUpdater(new File(mFolder.getRoot(), "packs"));
+        updater.apply(PackDelta.create(null, null, PackManifest.of(1, first), first));
+
+        try {
+            updater.apply(PackDelta.create(PackManifest.of(2, second), second, PackManifest.of(3, third), third));
+            fail("Delta for version 2 was applied to version 1");
+        } catch (PackDelta.InvalidDeltaException expected) {
+            assertEquals(1, updater.getInstalledVersion());
+        }
+        try {
+            updater.apply(PackDelta.create(null, null, PackManifest.of(1, third), third));
+            fail("Installed version was replaced by the same version");
+        } catch (PackDelta.InvalidDeltaException expected) {
+            assertArrayEquals(first, Files.readAllBytes(updater.getInstalledPack().toPath()));
+        }
+    }
+
+    @Test
+    public void failedWrite_isNotAnInvalidDelta() throws IOException {
+        byte[] first = packBytes(questionTexts(100));
+        byte[] delta = PackDelta.create(null, null, PackManifest.of(1, first), first);
+        // the directory of the packs can't be created
+        File directory = mFolder.newFile("packs");
+        try {
+            new PackUpdater(directory).apply(delta);
+            fail("Pack was written over a file");
+        } catch (PackDelta.InvalidDeltaException e) {
+            fail("Valid delta was taken as invalid: " + e);
+        } catch (IOException expected) {
+            // the same delta is applied once the storage is fine
+        }
+        assertTrue(directory.delete());
+        assertEquals(1, new PackUpdater(directory).apply(delta).getToVersion());
+    }
+
+    @Test
+    public void interruptedUpdate_leavesOneVersionInstalled() throws IOException {
+        List<String> texts = questionTexts(100);
+        byte[] first = packBytes(texts);
+        texts.set(1, "Question 1: changed.");
+        byte[] second = packBytes(texts);
+        File directory = new File(mFolder.getRoot(), "packs");
+        new PackUpdater(directory).apply(PackDelta.create(null, null, PackManifest.of(1, first), first));
+
+        // the process died while writing the new version: its files go, the installed version stays
+        write(new File(directory, "2.gqpk"), second);
+        write(new File(directory, "2.chunks.tmp"), new byte[10]);
+        PackUpdater updater = new PackUpdater(directory);
+        assertEquals(1, updater.getInstalledVersion());
+        assertEquals(new HashSet<>(Arrays.asList("current", "1.gqpk", "1.chunks")),
+                new HashSet<>(Arrays.asList(directory.list())));
+
+        // the process died right after the switch: the old version goes
+        write(new File(directory, "2.gqpk"), second);
+        write(new File(directory, "2.chunks"), PackManifest.of(2, second).encode());
+        RandomAccessFile current = new RandomAccessFile(new File(directory, "current"), "rw");
+        current.writeLong(2);
+        current.close();
+        updater = new PackUpdater(directory);
+        assertEquals(2, updater.getInstalledVersion());
+        assertArrayEquals(second, Files.readAllBytes(updater.getInstalledPack().toPath()));
+        assertEquals(3, directory.list().length);
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the primitive-backed question store.
+ */
+public class PackedQuestionStoreTest {
+
+    @Test
+    public void packsQuestionEntities() {
+        PackedQuestionStore store = new PackedQuestionStore(
+                new Question(10, true),
+                new Question(20, false),
+                new Question(30, true));
+
+        assertEquals(3, store.size());
+        assertEquals(20, store.getTextResId(1));
+        assertTrue(store.isAnswerTrue(0));
+        assertFalse(store.isAnswerTrue(1));
+
+        Question question = store.getQuestion(2);
+        assertEquals(30, question.getTextResId());
+        assertTrue(question.isAnswerTrue());
+    }
+
+    @Test
+    public void set_overwritesAnswerBits() {
+        PackedQuestionStore store = new PackedQuestionStore(130);
+        store.set(129, 1, true);
+        assertTrue(store.isAnswerTrue(129));
+        assertFalse(store.isAnswerTrue(65));
+
+        store.set(129, 2, false);
+        assertFalse(store.isAnswerTrue(129));
+        assertEquals(2, store.getTextResId(129));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void isAnswerTrue_rejectsIndexInsideLastWord() {
+        new PackedQuestionStore(3).isAnswerTrue(5);
+    }
+}
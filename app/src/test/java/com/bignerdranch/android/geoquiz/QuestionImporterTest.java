@@ -0,0 +1,188 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JVM tests for the streaming import of CSV/JSON exports into question packs.
+ */
+public class QuestionImporterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void csv_handlesQuotesAndRejectsInvalidRows() throws IOException {
+        String csv = "id,answer,text\r\n"
+                + "1,true,Canberra is the capital of Australia.\r\n"
+                + "2,FALSE,\"The Suez Canal connects the Red Sea, and the \"\"Indian\"\" Ocean.\"\r\n"
+                + "3,maybe,Invalid answer\n"
+                + "4,1,\"Multi-line\ntext\"\n"
+                + "5,0,\n"
+                + "\n"
+                + "6,0";
+
+        QuestionPack pack = importPack(QuestionImporter.Format.CSV, csv, 3, 3);
+
+        assertEquals("Canberra is the capital of Australia.", pack.getText(0).toString());
+        assertTrue(pack.isAnswerTrue(0));
+        assertEquals("The Suez Canal connects the Red Sea, and the \"Indian\" Ocean.", pack.getText(1).toString());
+        assertFalse(pack.isAnswerTrue(1));
+        assertEquals("Multi-line\ntext", pack.getText(2).toString());
+        assertTrue(pack.isAnswerTrue(2));
+    }
+
+    @Test(expected = IOException.class)
+    public void csv_requiresHeaderColumns() throws IOException {
+        new CsvQuestionReader(new StringReader("question,correct\nText,true\n")).next();
+    }
+
+    @Test
+    public void json_readsArrayAndSkipsUnknownMembers() throws IOException {
+        String json = "[\n"
+                + "  {\"id\": 1, \"text\": \"Lake Baikal is the world\\u2019s deepest lake.\", \"answer\": true},\n"
+                + "  {\"question\": \"Escaped \\\"quotes\\\"\\nand lines\", \"answer\": \"false\","
+                + " \"tags\": [\"asia\", {\"nested\": [1, 2]}]},\n"
+                + "  {\"text\": \"No answer\"},\n"
+                + "  {\"text\": \"Numeric answer\", \"answer\": 1, \"meta\": null}\n"
+                + "]";
+
+        QuestionPack pack = importPack(QuestionImporter.Format.JSON, json, 3, 1);
+
+        assertEquals("Lake Baikal is the world\u2019s deepest lake.", pack.getText(0).toString());
+        assertEquals("Escaped \"quotes\"\nand lines", pack.getText(1).toString());
+        assertFalse(pack.isAnswerTrue(1));
+        assertEquals("Numeric answer", pack.getText(2).toString());
+        assertTrue(pack.isAnswerTrue(2));
+    }
+
+    @Test
+    public void json_readsNewlineDelimitedObjects() throws IOException {
+        String json = "{\"text\": \"First\", \"answer\": false}\n{\"text\": \"Second\", \"answer\": true}\n";
+
+        QuestionPack pack = importPack(QuestionImporter.Format.JSON, json, 2, 0);
+
+        assertEquals("Second", pack.getText(1).toString());
+        assertTrue(pack.isAnswerTrue(1));
+    }
+
+    @Test(expected = IOException.class)
+    public void json_rejectsMalformedInput() throws IOException {
+        importPack(QuestionImporter.Format.JSON, "[{\"text\": \"Broken\" \"answer\": true}]", 0, 0);
+    }
+
+    @Test
+    public void overlongField_isRejected() throws IOException {
+        StringBuilder longText = new StringBuilder();
+        for (int i = 0; i <= QuestionRowReader.MAX_FIELD_LENGTH; i++) {
+            longText.append('x');
+        }
+        importPack(QuestionImporter.Format.CSV, "text,answer\n" + longText + ",true\nShort,false\n", 1, 1);
+    }
+
+    @Test
+    public void failedImport_leavesThePreviousPack() throws IOException {
+        File export = mFolder.newFile("export.json");
+        File output = new File(mFolder.getRoot(), "questions.gqpk");
+        Files.write(export.toPath(), "[{\"text\": \"First\", \"answer\": true}]".getBytes(StandardCharsets.UTF_8));
+        QuestionImporter.main(new String[]{export.getPath(), output.getPath()});
+        byte[] imported = Files.readAllBytes(output.toPath());
+
+        Files.write(export.toPath(), "[{\"text\": \"Broken\" \"answer\": true}]".getBytes(StandardCharsets.UTF_8));
+        try {
+            QuestionImporter.main(new String[]{export.getPath(), output.getPath()});
+            fail("Malformed export must fail the import");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertArrayEquals(imported, Files.readAllBytes(output.toPath()));
+        // neither the unfinished pack nor its index is left behind
+        assertEquals(2, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void largeExport_isStreamedRowByRow() throws IOException {
+        final int rows = 500_000;
+        File file = mFolder.newFile("large.gqpk");
+        QuestionPackWriter writer = new QuestionPackWriter(file);
+
+        QuestionImporter.Report report = new QuestionImporter().importQuestions(
+                new CsvQuestionReader(new GeneratedCsvReader(rows)), writer);
+        writer.close();
+
+        assertEquals(rows, report.getImportedRows());
+        assertEquals(0, report.getRejectedRows());
+        assertTrue(report.getRowsPerSecond() > 0);
+
+        QuestionPack pack = QuestionPack.open(file);
+        assertEquals(rows, pack.size());
+        assertEquals("Generated question 499999, \"quoted\" part", pack.getText(rows - 1).toString());
+    }
+
+    private QuestionPack importPack(QuestionImporter.Format format, String input,
+                                    int expectedImported, int expectedRejected) throws IOException {
+        File file = mFolder.newFile();
+        QuestionPackWriter writer = new QuestionPackWriter(file);
+        // tiny batches to exercise flushing
+        QuestionImporter.Report report = new QuestionImporter(2).importQuestions(
+                format.newReader(new StringReader(input)), writer);
+        writer.close();
+
+        assertEquals(expectedImported, report.getImportedRows());
+        assertEquals(expectedRejected, report.getRejectedRows());
+        assertEquals(expectedRejected, report.getErrors().size());
+
+        QuestionPack pack = QuestionPack.open(file);
+        assertEquals(expectedImported, pack.size());
+        return pack;
+    }
+
+    /**
+     * CSV export generated on the fly, so the test input never sits in memory as a whole.
+     */
+    private static class GeneratedCsvReader extends Reader {
+
+        private final int mRows;
+        private int mRow = -1;
+        private String mLine = "text,answer\n";
+        private int mOffset;
+
+        GeneratedCsvReader(int rows) {
+            mRows = rows;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (mOffset == mLine.length()) {
+                mRow++;
+                if (mRow == mRows) {
+                    return -1;
+                }
+                mLine = "\"Generated question " + mRow + ", \"\"quoted\"\" part\"," + (mRow % 2 == 0) + "\n";
+                mOffset = 0;
+            }
+            int count = Math.min(length, mLine.length() - mOffset);
+            mLine.getChars(mOffset, mOffset + count, buffer, offset);
+            mOffset += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
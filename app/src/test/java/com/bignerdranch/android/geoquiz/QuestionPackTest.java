@@ -0,0 +1,150 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JVM tests for writing and memory-mapped reading of binary question packs.
+ */
+public class QuestionPackTest {
+
+    // non-ASCII text to check the UTF-8 round trip
+    private static final String UNICODE_TEXT =
+            "Lake Baikal \u2014 \u041e\u0437\u0435\u0440\u043e \u0411\u0430\u0439\u043a\u0430\u043b";
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void writtenPack_readsBackTextsAndAnswers() throws IOException {
+        File file = mFolder.newFile("small.gqpk");
+        QuestionPackWriter writer = new QuestionPackWriter(file);
+        writer.add("Canberra is the capital of Australia.", true);
+        writer.add("", false);
+        writer.add(UNICODE_TEXT, true);
+        writer.close();
+
+        QuestionPack pack = QuestionPack.open(file);
+        assertEquals(3, pack.size());
+        assertEquals("Canberra is the capital of Australia.", pack.getText(0).toString());
+        assertEquals("", pack.getText(1).toString());
+        assertEquals(UNICODE_TEXT, pack.getText(2).toString());
+        assertTrue(pack.isAnswerTrue(0));
+        assertFalse(pack.isAnswerTrue(1));
+        assertEquals(0, pack.getTextResId(2));
+
+        Question question = pack.getQuestion(2);
+        assertTrue(question.isAnswerTrue());
+        assertEquals(UNICODE_TEXT, question.getText().toString());
+        assertFalse(new File(file.getPath() + ".index").exists());
+    }
+
+    @Test
+    public void sessionOverPack_exposesPlainTexts() throws IOException {
+        File file = mFolder.newFile("session.gqpk");
+        QuestionPackWriter writer = new QuestionPackWriter(file);
+        writer.add("The source of the Nile River is in Egypt.", false);
+        writer.close();
+
+        QuizSession session = new QuizSession(QuestionPack.open(file));
+        assertEquals("The source of the Nile River is in Egypt.", session.getCurrentText().toString());
+        assertEquals(QuizSession.Verdict.CORRECT, session.checkAnswer(false));
+        assertTrue(session.isFinished());
+
+        assertNull(new QuizSession(new Question[]{new Question(1, true)}).getCurrentText());
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsForeignFile() throws IOException {
+        File file = mFolder.newFile("foreign.gqpk");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.write(new byte[64]);
+        raf.close();
+        QuestionPack.open(file);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void getText_rejectsIndexOutOfRange() throws IOException {
+        File file = mFolder.newFile("range.gqpk");
+        QuestionPackWriter writer = new QuestionPackWriter(file);
+        writer.add("Question", true);
+        writer.close();
+        QuestionPack.open(file).getText(1);
+    }
+
+    @Test
+    public void failedPacking_leavesThePreviousPack() throws IOException {
+        File input = mFolder.newFile("questions.tsv");
+        File output = new File(mFolder.getRoot(), "questions.gqpk");
+        Files.write(input.toPath(), "true\tFirst\nfalse\tSecond\n".getBytes(StandardCharsets.UTF_8));
+        QuestionPackWriter.main(new String[]{input.getPath(), output.getPath()});
+        byte[] packed = Files.readAllBytes(output.toPath());
+
+        Files.write(input.toPath(), "true\tThird\nmaybe\tFourth\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            QuestionPackWriter.main(new String[]{input.getPath(), output.getPath()});
+            fail("Line without the answer must fail the packing");
+        } catch (IOException expected) {
+            // expected
+        }
+        assertArrayEquals(packed, Files.readAllBytes(output.toPath()));
+        assertEquals(2, QuestionPack.open(output).size());
+        // neither the unfinished pack nor its index is left behind
+        assertEquals(2, mFolder.getRoot().list().length);
+    }
+
+    @Test
+    public void open_readsOnlyTheHeader() throws IOException {
+        File large = mFolder.newFile("large.gqpk");
+        int count = 1_000_000;
+        QuestionPackWriter writer = new QuestionPackWriter(large);
+        for (int i = 0; i < count; i++) {
+            writer.add("Question number " + i + " of the large question pack, padded to a typical length.", i % 3 == 0);
+        }
+        writer.close();
+
+        QuestionPack pack = QuestionPack.open(large);
+        assertEquals(count, pack.size());
+        assertEquals("Question number 765432 of the large question pack, padded to a typical length.",
+                pack.getText(765432).toString());
+        assertFalse(pack.isAnswerTrue(765431));
+        assertTrue(pack.isAnswerTrue(765432 - 765432 % 3));
+
+        // wiping everything after the header: the open doesn't see it, only the questions read later do
+        RandomAccessFile raf = new RandomAccessFile(large, "rw");
+        try {
+            byte[] garbage = new byte[64 * 1024];
+            Arrays.fill(garbage, (byte) 0xFF);
+            raf.seek(QuestionPack.HEADER_SIZE);
+            for (long left = raf.length() - QuestionPack.HEADER_SIZE; left > 0; left -= garbage.length) {
+                raf.write(garbage, 0, (int) Math.min(left, garbage.length));
+            }
+        } finally {
+            raf.close();
+        }
+        QuestionPack wiped = QuestionPack.open(large);
+        assertEquals(count, wiped.size());
+        assertTrue(wiped.isAnswerTrue(765431));
+        try {
+            wiped.getText(765432);
+            fail("Text of the wiped index must not be readable");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
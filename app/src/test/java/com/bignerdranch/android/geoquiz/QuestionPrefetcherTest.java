@@ -0,0 +1,133 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the prefetch and the LRU cache of the question texts.
+ */
+public class QuestionPrefetcherTest {
+
+    // executor which runs the tasks only when asked, like a busy background thread
+    private static class QueueExecutor implements Executor {
+        final ArrayDeque<Runnable> mTasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            mTasks.add(task);
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                mTasks.poll().run();
+            }
+        }
+    }
+
+    // renders "text #i" and remembers what was rendered
+    private static class RecordingRenderer implements QuestionPrefetcher.Renderer<String> {
+        final List<Integer> mRendered = new ArrayList<>();
+
+        @Override
+        public String render(int index) {
+            mRendered.add(index);
+            return "text #" + index;
+        }
+    }
+
+    @Test
+    public void cache_evictsLeastRecentlyUsed() {
+        QuestionTextCache<String> cache = new QuestionTextCache<>(2);
+        cache.put(1, "one");
+        cache.put(2, "two");
+        assertEquals("one", cache.get(1));
+        cache.put(3, "three");
+
+        assertNull(cache.get(2));
+        assertEquals("one", cache.get(1));
+        assertEquals("three", cache.get(3));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(0.75, cache.getHitRate(), 1e-9);
+    }
+
+    @Test
+    public void prefetchAround_rendersNeighboursNearestFirstWithWrapAround() {
+        RecordingRenderer renderer = new RecordingRenderer();
+        QueueExecutor executor = new QueueExecutor();
+        QuestionPrefetcher<String> prefetcher = new QuestionPrefetcher<>(renderer, 10, 2,
+                new QuestionTextCache<String>(16), executor);
+
+        prefetcher.prefetchAround(0);
+        executor.runAll();
+
+        assertEquals(4, renderer.mRendered.size());
+        assertEquals(Integer.valueOf(1), renderer.mRendered.get(0));
+        assertEquals(Integer.valueOf(9), renderer.mRendered.get(1));
+        assertEquals(Integer.valueOf(2), renderer.mRendered.get(2));
+        assertEquals(Integer.valueOf(8), renderer.mRendered.get(3));
+        assertEquals(4, prefetcher.getPrefetched());
+    }
+
+    @Test
+    public void navigation_hitsPrefetchedTexts() {
+        RecordingRenderer renderer = new RecordingRenderer();
+        QueueExecutor executor = new QueueExecutor();
+        QuestionPrefetcher<String> prefetcher = new QuestionPrefetcher<>(renderer, 100, 3,
+                new QuestionTextCache<String>(16), executor);
+
+        // the first question is a miss, every NEXT after it is a hit
+        for (int index = 0; index < 50; index++) {
+            assertEquals("text #" + index, prefetcher.get(index));
+            prefetcher.prefetchAround(index);
+            executor.runAll();
+        }
+
+        QuestionTextCache<String> cache = prefetcher.getCache();
+        assertEquals(1, cache.getMisses());
+        assertEquals(49, cache.getHits());
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.size() <= 16);
+    }
+
+    @Test
+    public void prefetch_skipsCachedAndInFlightQuestions() {
+        RecordingRenderer renderer = new RecordingRenderer();
+        QueueExecutor executor = new QueueExecutor();
+        QuestionPrefetcher<String> prefetcher = new QuestionPrefetcher<>(renderer, 10, 1,
+                new QuestionTextCache<String>(16), executor);
+
+        prefetcher.get(5);
+        prefetcher.prefetch(5);
+        prefetcher.prefetch(6);
+        prefetcher.prefetch(6);
+        assertEquals(1, executor.mTasks.size());
+        executor.runAll();
+
+        assertEquals(2, renderer.mRendered.size());
+        assertFalse(executor.mTasks.size() > 0);
+    }
+
+    @Test
+    public void tinyBank_prefetchesEveryQuestionOnce() {
+        RecordingRenderer renderer = new RecordingRenderer();
+        QueueExecutor executor = new QueueExecutor();
+        QuestionPrefetcher<String> prefetcher = new QuestionPrefetcher<>(renderer, 3, 5,
+                new QuestionTextCache<String>(16), executor);
+
+        prefetcher.prefetchAround(0);
+        executor.runAll();
+
+        assertEquals(2, renderer.mRendered.size());
+    }
+}
@@ -0,0 +1,176 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the adaptive order of the questions.
+ */
+public class QuestionSchedulerTest {
+
+    @Test
+    public void newScheduler_goesInOrder() {
+        QuestionScheduler scheduler = new QuestionScheduler(3);
+
+        assertEquals(0, scheduler.next());
+        scheduler.record(0, true);
+        assertEquals(1, scheduler.next());
+        scheduler.record(1, true);
+        assertEquals(2, scheduler.next());
+        scheduler.record(2, true);
+        assertEquals(-1, scheduler.next());
+    }
+
+    @Test
+    public void mistakes_comeFirstInNextRound() {
+        QuestionScheduler scheduler = new QuestionScheduler(4);
+        scheduler.record(0, true);
+        scheduler.record(1, true);
+        scheduler.record(2, false);
+        scheduler.record(3, true);
+
+        scheduler.newRound();
+
+        assertEquals(2, scheduler.next());
+        assertEquals(1, scheduler.getMistakes(2));
+        assertEquals(0, scheduler.getBox(2));
+        assertEquals(1, scheduler.getBox(0));
+    }
+
+    @Test
+    public void next_matchesLinearScanAfterRandomAnswers() {
+        int size = 500;
+        QuestionScheduler scheduler = new QuestionScheduler(size);
+        Random random = new Random(13);
+        for (int round = 0; round < 20; round++) {
+            while (scheduler.next() >= 0) {
+                assertEquals(expectedNext(scheduler), scheduler.next());
+                // sometimes answering a question which isn't the first one
+                int index = scheduler.next();
+                if (random.nextInt(4) == 0) {
+                    int other = random.nextInt(size);
+                    if (scheduler.isInRound(other)) {
+                        index = other;
+                    }
+                }
+                scheduler.record(index, random.nextInt(3) != 0);
+                assertFalse(scheduler.isInRound(index));
+            }
+            scheduler.newRound();
+            assertEquals(size, scheduler.getRemaining());
+        }
+    }
+
+    private static int expectedNext(QuestionScheduler scheduler) {
+        int best = -1;
+        for (int i = 0; i < scheduler.getQuestionCount(); i++) {
+            if (!scheduler.isInRound(i)) {
+                continue;
+            }
+            if (best < 0 || scheduler.getDue(i) < scheduler.getDue(best)
+                    || scheduler.getDue(i) == scheduler.getDue(best)
+                    && scheduler.getMistakes(i) > scheduler.getMistakes(best)) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void session_followsSchedulerAndKeepsItAcrossRestarts() {
+        QuizSession session = new QuizSession(new PackedQuestionStore(
+                new Question(1, true), new Question(2, true), new Question(3, true)));
+        QuestionScheduler scheduler = new QuestionScheduler(3);
+        session.setScheduler(scheduler);
+
+        session.checkAnswer(true);
+        session.moveToNext();
+        assertEquals(1, session.getCurrentIndex());
+        session.checkAnswer(false);
+        session.moveToNext();
+        session.checkAnswer(true);
+        assertTrue(session.isFinished());
+
+        session.restart();
+        // the mistake comes first
+        assertEquals(1, session.getCurrentIndex());
+    }
+
+    @Test
+    public void next_onUnansweredQuestion_movesToAnotherOne() {
+        QuizSession session = new QuizSession(new PackedQuestionStore(
+                new Question(1, true), new Question(2, true), new Question(3, true), new Question(4, true)));
+        QuestionScheduler scheduler = new QuestionScheduler(4);
+        session.setScheduler(scheduler);
+        assertEquals(0, scheduler.next());
+
+        // the current question stays in the round, NEXT picks the best of the others
+        session.moveToNext();
+        assertEquals(1, session.getCurrentIndex());
+        session.moveToNext();
+        assertEquals(0, session.getCurrentIndex());
+        session.moveTo(2);
+        session.moveToNext();
+        assertEquals(0, session.getCurrentIndex());
+
+        // PREV goes back to where NEXT came from once, then in order
+        session.moveToPrev();
+        assertEquals(2, session.getCurrentIndex());
+        session.moveToPrev();
+        assertEquals(1, session.getCurrentIndex());
+
+        // the only unanswered question: NEXT goes in order
+        session.moveTo(0);
+        session.checkAnswer(true);
+        session.moveTo(1);
+        session.checkAnswer(true);
+        session.moveTo(2);
+        session.checkAnswer(true);
+        session.moveTo(3);
+        assertEquals(-1, scheduler.nextOtherThan(3));
+        session.moveToNext();
+        assertEquals(0, session.getCurrentIndex());
+    }
+
+    @Test
+    public void setScheduler_skipsAnsweredQuestions() {
+        QuizSession session = new QuizSession(new PackedQuestionStore(
+                new Question(1, true), new Question(2, true), new Question(3, true)));
+        session.checkAnswer(true);
+        session.moveTo(1);
+        session.checkAnswer(true);
+
+        QuestionScheduler scheduler = new QuestionScheduler(3);
+        session.setScheduler(scheduler);
+        session.moveToNext();
+
+        assertEquals(2, session.getCurrentIndex());
+        assertEquals(1, scheduler.getRemaining());
+    }
+
+    @Test
+    public void largeBank_staysResponsive() {
+        int size = 1_000_000;
+        QuestionScheduler scheduler = new QuestionScheduler(size);
+        Random random = new Random(14);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < size; i++) {
+            scheduler.record(scheduler.next(), random.nextInt(5) != 0);
+        }
+        scheduler.newRound();
+        for (int i = 0; i < 100_000; i++) {
+            scheduler.record(scheduler.next(), true);
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertEquals(size - 100_000, scheduler.getRemaining());
+        // about a microsecond per answer, with a wide margin for slow machines
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 20_000);
+    }
+}
@@ -0,0 +1,109 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the full-text search over the question bank.
+ */
+public class QuestionSearchIndexTest {
+
+    private static QuestionSearchIndex index(String... texts) {
+        QuestionSearchIndex index = new QuestionSearchIndex();
+        for (int i = 0; i < texts.length; i++) {
+            index.add(i, texts[i]);
+        }
+        return index;
+    }
+
+    private static final String[] GEOGRAPHY = {
+            "Canberra is the capital of Australia.",
+            "The Pacific Ocean is larger than\nthe Atlantic Ocean.",
+            "The Suez Canal connects the Red Sea\nand the Indian Ocean.",
+            "The source of the Nile River is in Egypt.",
+            "The Amazon River is the longest river\nin the Americas.",
+            "Lake Baikal is the world's oldest and deepest\nfreshwater lake."
+    };
+
+    @Test
+    public void search_matchesWholeTokensIgnoringCase() {
+        QuestionSearchIndex index = index(GEOGRAPHY);
+
+        assertArrayEquals(new int[]{1, 2}, index.search("OCEAN", 10));
+        assertArrayEquals(new int[]{3, 4}, index.search("river", 10));
+        assertArrayEquals(new int[]{5}, index.search("world", 10));
+    }
+
+    @Test
+    public void search_matchesPrefixesAndRequiresAllTokens() {
+        QuestionSearchIndex index = index(GEOGRAPHY);
+
+        assertArrayEquals(new int[]{0, 2}, index.search("ca", 10));
+        assertArrayEquals(new int[]{4}, index.search("riv americ", 10));
+        assertArrayEquals(new int[0], index.search("nile ocean", 10));
+        assertArrayEquals(new int[0], index.search("volcano", 10));
+        assertArrayEquals(new int[0], index.search("  ?! ", 10));
+    }
+
+    @Test
+    public void search_stopsAtLimit() {
+        QuestionSearchIndex index = index(GEOGRAPHY);
+
+        assertArrayEquals(new int[]{0, 1, 2}, index.search("the", 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void search_rejectsNegativeLimit() {
+        index(GEOGRAPHY).search("the", -1);
+    }
+
+    @Test
+    public void findNext_loopsToTheBeginning() {
+        QuestionSearchIndex index = index(GEOGRAPHY);
+
+        assertEquals(2, index.findNext("ocean", 2));
+        assertEquals(1, index.findNext("ocean", 3));
+        assertEquals(1, index.findNext("ocean", GEOGRAPHY.length));
+        assertEquals(-1, index.findNext("volcano", 0));
+    }
+
+    @Test
+    public void incrementalBuild_searchesQuestionsAddedSoFar() {
+        QuestionSearchIndex index = index(GEOGRAPHY[0], GEOGRAPHY[1]);
+        assertArrayEquals(new int[]{1}, index.search("ocean", 10));
+
+        for (int i = 2; i < GEOGRAPHY.length; i++) {
+            index.add(i, GEOGRAPHY[i]);
+        }
+        assertArrayEquals(new int[]{1, 2}, index.search("ocean", 10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void add_rejectsQuestionsOutOfOrder() {
+        QuestionSearchIndex index = index(GEOGRAPHY[0]);
+        index.add(2, GEOGRAPHY[2]);
+    }
+
+    @Test
+    public void largeBank_findsEveryPostingAcrossLongGaps() {
+        QuestionSearchIndex index = new QuestionSearchIndex();
+        int size = 1_000_000;
+        for (int i = 0; i < size; i++) {
+            // "rare" every 100 000 questions gives deltas needing 3 varint bytes
+            index.add(i, "question " + (i % 1000) + (i % 100_000 == 7 ? " rare" : ""));
+        }
+
+        int[] rare = index.search("rare", 100);
+        assertEquals(10, rare.length);
+        for (int i = 0; i < rare.length; i++) {
+            assertEquals(i * 100_000 + 7, rare[i]);
+        }
+        assertEquals(1000, index.search("question 999", 10_000).length);
+        assertEquals(7, index.findNext("rare", size - 1));
+        // one byte per delta for the token found in every question
+        assertTrue(index.getPostingBytes() < 3L * size);
+    }
+}
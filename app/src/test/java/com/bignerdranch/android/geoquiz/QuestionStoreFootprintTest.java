@@ -0,0 +1,47 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checking the heap footprint of the packed question store against the plain Question[] bank.
+ * A question costs a bit over 4 bytes in the store and about 28 bytes as an object with a reference to it,
+ * the assertion keeps a margin for the noise of the heap measurement.
+ */
+public class QuestionStoreFootprintTest {
+
+    @Test
+    public void packedStore_isFourTimesSmallerThanQuestionArray() {
+        int size = 1_000_000;
+        long before = usedHeap();
+        Question[] array = new Question[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = new Question(i, (i & 1) == 0);
+        }
+        long arrayBytes = usedHeap() - before;
+
+        before = usedHeap();
+        PackedQuestionStore packed = new PackedQuestionStore(size);
+        for (int i = 0; i < size; i++) {
+            packed.set(i, i, (i & 1) == 0);
+        }
+        long packedBytes = usedHeap() - before;
+
+        // keeping both banks reachable until both measurements are done
+        assertEquals(array.length, packed.size());
+        assertTrue("packed " + packedBytes + " bytes, array " + arrayBytes + " bytes",
+                packedBytes * 4 < arrayBytes);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
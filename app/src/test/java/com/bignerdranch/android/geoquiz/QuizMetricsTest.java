@@ -0,0 +1,105 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the metrics and their exporters.
+ */
+public class QuizMetricsTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void snapshot_holdsTimingsAndCounters() {
+        QuizMetrics metrics = new QuizMetrics();
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(QuizMetrics.Timer.CHECK_ANSWER, i * 1000L);
+        }
+        metrics.increment(QuizMetrics.Counter.ANSWER_CORRECT);
+        metrics.increment(QuizMetrics.Counter.ANSWER_CORRECT);
+
+        MetricsSnapshot snapshot = metrics.snapshot();
+
+        assertEquals(100, snapshot.getCount(QuizMetrics.Timer.CHECK_ANSWER));
+        assertEquals(0, snapshot.getCount(QuizMetrics.Timer.ON_CREATE));
+        assertEquals(100_000, snapshot.getMax(QuizMetrics.Timer.CHECK_ANSWER));
+        assertEquals(50_500, snapshot.getMean(QuizMetrics.Timer.CHECK_ANSWER));
+        // buckets are within 12.5%
+        assertEquals(50_000, snapshot.getP50(QuizMetrics.Timer.CHECK_ANSWER), 50_000 / 8);
+        assertEquals(2, snapshot.getCount(QuizMetrics.Counter.ANSWER_CORRECT));
+
+        metrics.reset();
+        assertEquals(0, metrics.snapshot().getCount(QuizMetrics.Timer.CHECK_ANSWER));
+        assertEquals(0, metrics.getCount(QuizMetrics.Counter.ANSWER_CORRECT));
+    }
+
+    @Test
+    public void recording_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        QuizMetrics metrics = new QuizMetrics();
+        long threadId = Thread.currentThread().getId();
+        // warming up, so class loading and compilation don't count
+        record(metrics, 100_000);
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        record(metrics, 1_000_000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // getThreadAllocatedBytes() itself may allocate a little
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static void record(QuizMetrics metrics, int count) {
+        for (int i = 0; i < count; i++) {
+            long start = QuizMetrics.now();
+            metrics.increment(QuizMetrics.Counter.ANSWER_INCORRECT);
+            metrics.recordSince(QuizMetrics.Timer.UPDATE_QUESTION, start);
+        }
+    }
+
+    @Test
+    public void textExporter_dumpsRecordedTimersAndAllCounters() throws Exception {
+        QuizMetrics metrics = new QuizMetrics();
+        metrics.record(QuizMetrics.Timer.CHEAT_ROUND_TRIP, 2_000_000);
+        metrics.increment(QuizMetrics.Counter.CHEAT_SHOWN);
+        StringBuilder out = new StringBuilder();
+
+        new TextMetricsExporter(out).export(metrics.snapshot());
+
+        String dump = out.toString();
+        assertTrue(dump, dump.contains("cheat_round_trip     count 1, mean 2000.0 us"));
+        assertTrue(dump, !dump.contains("on_create"));
+        assertTrue(dump, dump.contains("cheat_shown          1"));
+        assertTrue(dump, dump.contains("answer_correct       0"));
+    }
+
+    @Test
+    public void fileExporter_appendsAndRotates() throws Exception {
+        File file = new File(mFolder.getRoot(), "metrics.txt");
+        FileMetricsExporter exporter = new FileMetricsExporter(file, 400);
+        QuizMetrics metrics = new QuizMetrics();
+        metrics.increment(QuizMetrics.Counter.ACTIVITY_STARTED);
+
+        exporter.export(metrics.snapshot());
+        exporter.export(metrics.snapshot());
+        String text = new String(Files.readAllBytes(file.toPath()), Charset.forName("UTF-8"));
+        assertEquals(2, text.split("metrics at").length - 1);
+
+        // the file is over 400 bytes now, the next export starts a new one
+        assertTrue(file.length() > 400);
+        exporter.export(metrics.snapshot());
+        assertTrue(new File(file.getPath() + ".old").isFile());
+        assertTrue(file.length() < 400);
+    }
+}
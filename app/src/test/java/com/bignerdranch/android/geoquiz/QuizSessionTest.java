@@ -0,0 +1,156 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the headless quiz engine, including the large question banks.
+ */
+public class QuizSessionTest {
+
+    private static final int LARGE_BANK_SIZE = 1_000_000;
+
+    private static Question[] bank(int size) {
+        Question[] questions = new Question[size];
+        for (int i = 0; i < size; i++) {
+            questions[i] = new Question(i, i % 2 == 0);
+        }
+        return questions;
+    }
+
+    @Test
+    public void checkAnswer_judgesAnswersAndCountsScore() {
+        QuizSession session = new QuizSession(bank(4));
+
+        assertEquals(QuizSession.Verdict.CORRECT, session.checkAnswer(true));
+        session.moveToNext();
+        assertEquals(QuizSession.Verdict.INCORRECT, session.checkAnswer(true));
+
+        assertEquals(2, session.getAnsweredCount());
+        assertEquals(1, session.getCorrectAnswers());
+        assertTrue(session.isAnswered(0));
+        assertTrue(session.isAnswered(1));
+        assertFalse(session.isAnswered(2));
+        assertFalse(session.isFinished());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void checkAnswer_rejectsAnsweredQuestion() {
+        QuizSession session = new QuizSession(bank(2));
+        session.checkAnswer(true);
+        session.checkAnswer(true);
+    }
+
+    @Test
+    public void cheatedAnswer_isNotCounted() {
+        QuizSession session = new QuizSession(bank(2));
+
+        session.registerCheat(true);
+        assertEquals(QuizSession.Verdict.CHEATED, session.checkAnswer(true));
+        assertFalse(session.isCheater());
+        assertEquals(0, session.getCorrectAnswers());
+        assertEquals(1, session.getCheatCount());
+    }
+
+    @Test
+    public void cheat_isUnavailableAfterMaxCount() {
+        QuizSession session = new QuizSession(bank(2));
+        for (int i = 0; i < QuizSession.MAX_CHEAT_COUNT; i++) {
+            assertTrue(session.isCheatAvailable());
+            session.registerCheat(true);
+        }
+        assertFalse(session.isCheatAvailable());
+
+        session.restart();
+        assertTrue(session.isCheatAvailable());
+    }
+
+    @Test
+    public void navigation_wrapsAround() {
+        QuizSession session = new QuizSession(bank(3));
+
+        session.moveToPrev();
+        assertEquals(2, session.getCurrentIndex());
+        session.moveToNext();
+        assertEquals(0, session.getCurrentIndex());
+    }
+
+    @Test
+    public void moveToNextUnanswered_skipsAnsweredQuestions() {
+        QuizSession session = new QuizSession(bank(5));
+        session.moveTo(1);
+        session.checkAnswer(false);
+        session.moveTo(2);
+        session.checkAnswer(false);
+        session.moveTo(4);
+        session.checkAnswer(false);
+
+        session.moveTo(0);
+        assertTrue(session.moveToNextUnanswered());
+        assertEquals(3, session.getCurrentIndex());
+        assertTrue(session.moveToNextUnanswered());
+        assertEquals(0, session.getCurrentIndex());
+    }
+
+    @Test
+    public void restoreState_rebuildsCountersFromBitset() {
+        QuizSession session = new QuizSession(bank(130));
+        for (int i = 0; i < 129; i++) {
+            session.moveTo(i);
+            session.checkAnswer(true);
+        }
+
+        QuizSession restored = new QuizSession(bank(130));
+        restored.restoreState(5, session.getAnsweredBits(), session.getCorrectAnswers(), true, 2);
+
+        assertEquals(129, restored.getAnsweredCount());
+        assertEquals(5, restored.getCurrentIndex());
+        assertEquals(65, restored.getCorrectAnswers());
+        assertTrue(restored.isCheater());
+        assertEquals(2, restored.getCheatCount());
+        assertFalse(restored.isFinished());
+
+        assertTrue(restored.moveToNextUnanswered());
+        assertEquals(129, restored.getCurrentIndex());
+        restored.checkAnswer(true);
+        assertTrue(restored.isFinished());
+    }
+
+    @Test
+    public void largeBank_finishesAfterAnsweringEveryQuestion() {
+        QuizSession session = new QuizSession(bank(LARGE_BANK_SIZE));
+
+        for (int i = 0; i < LARGE_BANK_SIZE; i++) {
+            assertFalse(session.isFinished());
+            session.checkAnswer(i % 2 == 0);
+            session.moveToNext();
+        }
+
+        assertTrue(session.isFinished());
+        assertEquals(LARGE_BANK_SIZE, session.getAnsweredCount());
+        assertEquals(100, session.getScorePercent());
+        assertFalse(session.moveToNextUnanswered());
+    }
+
+    @Test
+    public void largeBank_jumpsToNextUnansweredInScatteredOrder() {
+        QuizSession session = new QuizSession(bank(LARGE_BANK_SIZE));
+
+        // answering every question except the last one, always jumping from the very first question
+        for (int i = 0; i < LARGE_BANK_SIZE - 1; i++) {
+            session.moveTo(0);
+            if (session.isCurrentAnswered()) {
+                assertTrue(session.moveToNextUnanswered());
+            }
+            assertEquals(i, session.getCurrentIndex());
+            session.checkAnswer(true);
+        }
+
+        session.moveTo(0);
+        assertTrue(session.moveToNextUnanswered());
+        assertEquals(LARGE_BANK_SIZE - 1, session.getCurrentIndex());
+    }
+}
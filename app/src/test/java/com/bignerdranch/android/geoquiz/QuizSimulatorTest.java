@@ -0,0 +1,40 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests running the simulated sessions through the rules of the quiz.
+ */
+public class QuizSimulatorTest {
+
+    private static final int SESSIONS = 20_000;
+
+    @Test
+    public void randomSessions_keepTheInvariants() {
+        QuizSimulator.Result result = new QuizSimulator().run(42, SESSIONS);
+
+        assertEquals(SESSIONS, result.getSessions());
+        assertTrue(result.getActions() > SESSIONS);
+    }
+
+    @Test
+    public void simulation_isDeterministic() {
+        QuizSimulator simulator = new QuizSimulator();
+        long checksum = simulator.run(7, 1000).getChecksum();
+
+        assertEquals(checksum, new QuizSimulator().run(7, 1000).getChecksum());
+        assertNotEquals(checksum, simulator.run(8, 1000).getChecksum());
+    }
+
+    @Test
+    public void session_isReproducedFromItsSeed() {
+        QuizSimulator simulator = new QuizSimulator();
+        long seed = QuizSimulator.sessionSeed(7, 123);
+
+        assertEquals(simulator.runSession(seed), simulator.runSession(seed));
+    }
+}
@@ -0,0 +1,165 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JVM tests for the compact encoding of the quiz session state.
+ */
+public class QuizStateCodecTest {
+
+    private static final int BANK_SIZE = 100_000;
+
+    private static QuizSession session(int size) {
+        PackedQuestionStore store = new PackedQuestionStore(size);
+        for (int i = 0; i < size; i++) {
+            store.set(i, i, (i & 1) == 0);
+        }
+        return new QuizSession(store);
+    }
+
+    private static void assertSameState(QuizSession expected, QuizSession actual) {
+        assertEquals(expected.getCurrentIndex(), actual.getCurrentIndex());
+        assertEquals(expected.getAnsweredCount(), actual.getAnsweredCount());
+        assertEquals(expected.getCorrectAnswers(), actual.getCorrectAnswers());
+        assertEquals(expected.getCheatCount(), actual.getCheatCount());
+        assertEquals(expected.isCheater(), actual.isCheater());
+        assertEquals(expected.isFinished(), actual.isFinished());
+        assertArrayEquals(expected.getAnsweredBits(), actual.getAnsweredBits());
+    }
+
+    @Test
+    public void answeredInOrder_encodesToFewBytes() {
+        QuizSession session = session(BANK_SIZE);
+        for (int i = 0; i < BANK_SIZE / 2; i++) {
+            session.checkAnswer(true);
+            session.moveToNext();
+        }
+        session.registerCheat(true);
+
+        byte[] state = QuizStateCodec.encode(session);
+        // header (2 + 3 + 3 + 3 + 1) + runs: 0, 50000, 50000
+        assertEquals(19, state.length);
+
+        QuizSession restored = session(BANK_SIZE);
+        QuizStateCodec.decode(state, restored);
+        assertSameState(session, restored);
+        assertTrue(restored.isCheater());
+    }
+
+    @Test
+    public void scatteredAnswers_fallBackToRawBitset() {
+        QuizSession session = session(BANK_SIZE);
+        Random random = new Random(42);
+        for (int i = 0; i < BANK_SIZE; i++) {
+            if (random.nextBoolean()) {
+                session.moveTo(i);
+                session.checkAnswer(random.nextBoolean());
+            }
+        }
+        session.moveTo(777);
+
+        byte[] state = QuizStateCodec.encode(session);
+        // header (2 + 3 + 2 + 3 + 1) + one bit per question
+        assertEquals(11 + BANK_SIZE / 8, state.length);
+
+        QuizSession restored = session(BANK_SIZE);
+        QuizStateCodec.decode(state, restored);
+        assertSameState(session, restored);
+    }
+
+    @Test
+    public void stateOfTheLoop_encodesLikeTheSession() {
+        QuizSession session = session(BANK_SIZE);
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            session.moveTo(random.nextInt(BANK_SIZE));
+            if (!session.isCurrentAnswered()) {
+                session.checkAnswer(random.nextBoolean());
+            }
+        }
+        session.registerCheat(true);
+        assertArrayEquals(QuizStateCodec.encode(session), QuizStateCodec.encode(SessionState.of(session)));
+    }
+
+    @Test
+    public void decodedState_isTheStateOfTheSession() {
+        QuizSession session = session(BANK_SIZE + 5);
+        Random random = new Random(13);
+        for (int i = 0; i < 5000; i++) {
+            session.moveTo(random.nextInt(session.getQuestionCount()));
+            if (!session.isCurrentAnswered()) {
+                session.checkAnswer(random.nextBoolean());
+            }
+        }
+        session.registerCheat(true);
+        SessionState state = QuizStateCodec.decode(QuizStateCodec.encode(session), session.getQuestionCount());
+        assertTrue(state.sameAs(SessionState.of(session)));
+
+        for (int i = 0; i < session.getQuestionCount(); i++) {
+            if (!session.isAnswered(i)) {
+                session.moveTo(i);
+                session.checkAnswer(true);
+            }
+        }
+        state = QuizStateCodec.decode(QuizStateCodec.encode(session), session.getQuestionCount());
+        assertTrue(state.isFinished());
+        assertTrue(state.sameAs(SessionState.of(session)));
+        try {
+            QuizStateCodec.decode(QuizStateCodec.encode(session), 10);
+            fail("State of another bank must be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void finishedQuiz_isRestoredAsFinished() {
+        QuizSession session = session(130);
+        for (int i = 0; i < 130; i++) {
+            session.checkAnswer(false);
+            session.moveToNext();
+        }
+
+        QuizSession restored = session(130);
+        QuizStateCodec.decode(QuizStateCodec.encode(session), restored);
+        assertSameState(session, restored);
+        assertTrue(restored.isFinished());
+        assertFalse(restored.moveToNextUnanswered());
+    }
+
+    @Test
+    public void stateOfAnotherBank_isRejectedAndSessionRestarted() {
+        QuizSession session = session(10);
+        session.checkAnswer(true);
+        byte[] state = QuizStateCodec.encode(session);
+
+        QuizSession other = session(11);
+        other.checkAnswer(true);
+        try {
+            QuizStateCodec.decode(state, other);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals(0, other.getAnsweredCount());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedState_isRejected() {
+        QuizSession session = session(BANK_SIZE);
+        session.moveTo(3);
+        session.checkAnswer(true);
+        byte[] state = QuizStateCodec.encode(session);
+
+        byte[] truncated = new byte[state.length - 1];
+        System.arraycopy(state, 0, truncated, 0, truncated.length);
+        QuizStateCodec.decode(truncated, session(BANK_SIZE));
+    }
+}
@@ -0,0 +1,153 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the state of the quiz screen controls and its diff-based rendering.
+ */
+public class QuizViewRendererTest {
+
+    /**
+     * Views counting the mutations: one per view setter, as in QuizActivity.
+     */
+    private static class CountingViews implements QuizViewRenderer.Target {
+        int mMutations;
+        boolean mAnswerEnabled = true;
+        boolean mCheatEnabled = true;
+        boolean mNavigationEnabled = true;
+        boolean mStartAgainVisible = true;
+
+        @Override
+        public void setAnswerEnabled(boolean enabled) {
+            mAnswerEnabled = enabled;
+            mMutations += 2; // Correct and Incorrect buttons
+        }
+
+        @Override
+        public void setCheatEnabled(boolean enabled) {
+            mCheatEnabled = enabled;
+            mMutations++;
+        }
+
+        @Override
+        public void setNavigationEnabled(boolean enabled) {
+            mNavigationEnabled = enabled;
+            mMutations += 3; // PREV, NEXT and the question text
+        }
+
+        @Override
+        public void setStartAgainVisible(boolean visible) {
+            mStartAgainVisible = visible;
+            mMutations++;
+        }
+    }
+
+    /**
+     * View mutations of the former QuizActivity.changeButtonsAfterUpdate(), which set the buttons every time.
+     */
+    private static int legacyMutations(QuizSession session) {
+        if (session.isCurrentAnswered() && !session.isFinished()) {
+            return 3; // answer buttons and CHEAT!
+        }
+        return 7; // answer buttons, CHEAT!, navigation and "Start again"
+    }
+
+    private static QuizSession session(int size) {
+        Question[] questions = new Question[size];
+        for (int i = 0; i < size; i++) {
+            questions[i] = new Question(i, true);
+        }
+        return new QuizSession(questions);
+    }
+
+    @Test
+    public void viewState_followsTheSession() {
+        QuizSession session = session(2);
+        assertEquals(new QuizViewState(true, true, true, false), QuizViewState.of(session));
+
+        session.checkAnswer(true);
+        assertEquals(new QuizViewState(false, false, true, false), QuizViewState.of(session));
+
+        session.moveToNext();
+        for (int i = 0; i < QuizSession.MAX_CHEAT_COUNT; i++) {
+            session.registerCheat(true);
+        }
+        assertEquals(new QuizViewState(true, false, true, false), QuizViewState.of(session));
+
+        session.checkAnswer(true);
+        assertEquals(new QuizViewState(false, false, false, true), QuizViewState.of(session));
+    }
+
+    @Test
+    public void render_appliesTheFirstStateInFull() {
+        CountingViews views = new CountingViews();
+        QuizViewRenderer renderer = new QuizViewRenderer(views);
+
+        assertEquals(4, renderer.render(QuizViewState.of(session(3))));
+        assertEquals(7, views.mMutations);
+        assertFalse(views.mStartAgainVisible);
+        assertEquals(0, renderer.render(QuizViewState.of(session(3))));
+    }
+
+    @Test
+    public void render_touchesOnlyTheChangedControls() {
+        QuizSession session = session(3);
+        CountingViews views = new CountingViews();
+        QuizViewRenderer renderer = new QuizViewRenderer(views);
+        renderer.render(QuizViewState.of(session));
+        views.mMutations = 0;
+
+        // answering the question and coming back to it: answer buttons and CHEAT! only
+        session.checkAnswer(true);
+        renderer.render(QuizViewState.of(session));
+        assertEquals(3, views.mMutations);
+        assertFalse(views.mAnswerEnabled);
+        assertFalse(views.mCheatEnabled);
+
+        // finishing the quiz: navigation and "Start again" change, answer buttons are locked already
+        views.mMutations = 0;
+        session.moveToNext();
+        session.checkAnswer(true);
+        session.moveToNext();
+        session.checkAnswer(true);
+        renderer.render(QuizViewState.of(session));
+        assertEquals(4, views.mMutations);
+        assertFalse(views.mNavigationEnabled);
+        assertTrue(views.mStartAgainVisible);
+    }
+
+    @Test
+    public void render_cutsMutationsOfTypicalQuiz() {
+        QuizSession session = session(100);
+        CountingViews views = new CountingViews();
+        QuizViewRenderer renderer = new QuizViewRenderer(views);
+        renderer.render(QuizViewState.of(session));
+        int legacy = 0;
+        views.mMutations = 0;
+
+        // browsing the questions first, then answering them one by one with NEXT in between, as in QuizActivity
+        for (int i = 0; i < 100; i++) {
+            session.moveToNext();
+            renderer.render(QuizViewState.of(session));
+            legacy += legacyMutations(session);
+        }
+        for (int i = 0; i < 100; i++) {
+            session.checkAnswer(true);
+            legacy += 3; // lockAnswerButtons() after every answer
+            if (!session.isFinished()) {
+                session.moveToNext();
+                legacy += legacyMutations(session);
+            } else {
+                legacy += 4; // checkIfFinished() locked navigation and showed "Start again"
+            }
+            renderer.render(QuizViewState.of(session));
+        }
+
+        assertEquals(7, views.mMutations); // every control once, when the quiz is finished
+        assertEquals(1697, legacy);
+    }
+}
@@ -0,0 +1,106 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JVM tests for the compressed columnar encoding of the quiz results.
+ */
+public class ResultBatchCodecTest {
+
+    /**
+     * Result of a quiz played the way it's played on QuizActivity: answers in order, a few seconds each.
+     */
+    static QuizResult playedQuiz(Random random, int questionCount, long startedAt) {
+        QuizResult.Recorder recorder = new QuizResult.Recorder(questionCount, startedAt);
+        long time = startedAt;
+        int correct = 0;
+        int cheats = 0;
+        for (int i = 0; i < questionCount; i++) {
+            time += 2000 + random.nextInt(10_000);
+            QuizSession.Verdict verdict;
+            if (cheats < QuizSession.MAX_CHEAT_COUNT && random.nextInt(10) == 0) {
+                verdict = QuizSession.Verdict.CHEATED;
+                cheats++;
+            } else if (random.nextInt(4) != 0) {
+                verdict = QuizSession.Verdict.CORRECT;
+                correct++;
+            } else {
+                verdict = QuizSession.Verdict.INCORRECT;
+            }
+            recorder.recordAnswer(i, verdict, time);
+        }
+        return recorder.snapshot(time + 500, correct * 100 / questionCount);
+    }
+
+    @Test
+    public void batch_roundTrips() {
+        Random random = new Random(42);
+        List<QuizResult> results = new ArrayList<>();
+        long startedAt = 1_600_000_000_000L;
+        for (int i = 0; i < 100; i++) {
+            startedAt += random.nextInt(3_600_000);
+            results.add(playedQuiz(random, 1 + random.nextInt(200), startedAt));
+        }
+        // unfinished quiz answered out of order, with the clock stepping back
+        QuizResult.Recorder recorder = new QuizResult.Recorder(70, startedAt);
+        recorder.recordAnswer(65, QuizSession.Verdict.CORRECT, startedAt + 5000);
+        recorder.recordAnswer(3, QuizSession.Verdict.CHEATED, startedAt + 1000);
+        results.add(recorder.snapshot(startedAt - 10, 1));
+
+        List<QuizResult> decoded = ResultBatchCodec.decode(ResultBatchCodec.encode(results));
+
+        assertEquals(results, decoded);
+        QuizResult partial = decoded.get(100);
+        assertEquals(3, partial.getAnsweredQuestion(1));
+        assertEquals(startedAt + 5000, partial.getAnswerTime(1));
+        assertTrue(partial.isCheated(3));
+        assertTrue(partial.isCorrect(65));
+    }
+
+    @Test
+    public void batch_isSmallerThanTheRawResults() {
+        Random random = new Random(7);
+        List<QuizResult> results = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            results.add(playedQuiz(random, 6, 1_600_000_000_000L + i * 600_000L));
+        }
+
+        int single = ResultBatchCodec.encode(Collections.singletonList(results.get(0))).length;
+        int batch = ResultBatchCodec.encode(results).length;
+
+        // raw: 8 bytes per time, 4 per index, 2 bytes of flags per question at least
+        assertTrue(batch / 32 < 6 * (8 + 4 + 2));
+        assertTrue(batch < single * 32 / 2);
+    }
+
+    @Test
+    public void corruptedBatch_isRejected() {
+        byte[] batch = ResultBatchCodec.encode(Collections.singletonList(playedQuiz(new Random(1), 50, 0)));
+        for (int i = 0; i < batch.length; i++) {
+            byte[] corrupted = batch.clone();
+            corrupted[i] ^= 0x10;
+            try {
+                ResultBatchCodec.decode(corrupted);
+                fail("Corrupted byte " + i + " wasn't detected");
+            } catch (IllegalArgumentException expected) {
+                // magic, version, length, checksum or deflate stream is broken
+            }
+        }
+        try {
+            ResultBatchCodec.decode(Arrays.copyOf(batch, batch.length - 3));
+            fail("Truncated batch wasn't detected");
+        } catch (IllegalArgumentException expected) {
+            // the deflate stream is cut
+        }
+    }
+}
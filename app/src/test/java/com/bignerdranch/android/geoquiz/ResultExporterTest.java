@@ -0,0 +1,175 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the offline-first export of the quiz results.
+ */
+public class ResultExporterTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Sender collecting the batches, failing when asked to.
+     */
+    private static class CollectingSender implements ResultExporter.Sender {
+        final List<QuizResult> mResults = new ArrayList<>();
+        final List<String> mBatchIds = new ArrayList<>();
+        boolean mOffline;
+
+        @Override
+        public void send(String batchId, byte[] batch) throws IOException {
+            if (mOffline) {
+                throw new IOException("No network");
+            }
+            mBatchIds.add(batchId);
+            mResults.addAll(ResultBatchCodec.decode(batch));
+        }
+    }
+
+    @Test
+    public void results_areBatchedAndDelivered() throws IOException {
+        File directory = new File(mFolder.getRoot(), "results");
+        ResultExporter exporter = new ResultExporter(directory, 3);
+        Random random = new Random(42);
+        List<QuizResult> results = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            results.add(ResultBatchCodecTest.playedQuiz(random, 6, i * 60_000L));
+            assertEquals(i % 3 == 2, exporter.add(results.get(i)));
+        }
+        assertEquals(2, exporter.getOutbox().size());
+        assertEquals(1, exporter.getPendingCount());
+
+        CollectingSender sender = new CollectingSender();
+        sender.mOffline = true;
+        assertEquals(0, exporter.deliver(sender));
+        assertEquals(2, exporter.getOutbox().size());
+
+        sender.mOffline = false;
+        assertTrue(exporter.flush() != null);
+        assertEquals(3, exporter.deliver(sender));
+        assertEquals(results, sender.mResults);
+        assertTrue(exporter.getOutbox().isEmpty());
+        assertNull(exporter.flush());
+    }
+
+    @Test
+    public void oldPendingResults_areFlushedWithoutFullBatch() throws IOException {
+        File directory = new File(mFolder.getRoot(), "results");
+        long hour = 3_600_000L;
+        ResultExporter exporter = new ResultExporter(directory, 32, hour);
+        Random random = new Random(3);
+        QuizResult first = ResultBatchCodecTest.playedQuiz(random, 6, 0);
+        assertFalse(exporter.add(first));
+        assertNull(exporter.flushIfDue(first.getFinishedAtMillis() + hour - 1));
+
+        // the age is known after the restart as well
+        exporter = new ResultExporter(directory, 32, hour);
+        assertTrue(exporter.flushIfDue(first.getFinishedAtMillis() + hour) != null);
+        assertEquals(0, exporter.getPendingCount());
+        assertNull(exporter.flushIfDue(first.getFinishedAtMillis() + 2 * hour));
+
+        // a result finishing after the oldest pending one got too old takes it along
+        assertFalse(exporter.add(ResultBatchCodecTest.playedQuiz(random, 6, 2 * hour)));
+        assertTrue(exporter.add(ResultBatchCodecTest.playedQuiz(random, 6, 4 * hour)));
+        assertEquals(2, exporter.getOutbox().size());
+    }
+
+    @Test
+    public void pendingResults_surviveRestartAndTornWrites() throws IOException {
+        File directory = new File(mFolder.getRoot(), "results");
+        Random random = new Random(7);
+        QuizResult first = ResultBatchCodecTest.playedQuiz(random, 6, 0);
+        QuizResult second = ResultBatchCodecTest.playedQuiz(random, 6, 100_000);
+        new ResultExporter(directory, 10).add(first);
+        new ResultExporter(directory, 10).add(second);
+
+        // the process died in the middle of the next write
+        FileOutputStream out = new FileOutputStream(new File(directory, "pending"), true);
+        out.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+        out.close();
+
+        ResultExporter exporter = new ResultExporter(directory, 10);
+        assertEquals(2, exporter.getPendingCount());
+        exporter.add(first);
+        exporter.flush();
+
+        CollectingSender sender = new CollectingSender();
+        assertEquals(1, exporter.deliver(sender));
+        assertEquals(3, sender.mResults.size());
+        assertEquals(second, sender.mResults.get(1));
+        assertFalse(new File(directory, "pending").exists());
+    }
+
+    @Test
+    public void flushInterruptedBeforeDeletingPending_isNotExportedTwice() throws IOException {
+        File directory = new File(mFolder.getRoot(), "results");
+        Random random = new Random(11);
+        ResultExporter exporter = new ResultExporter(directory, 10);
+        exporter.add(ResultBatchCodecTest.playedQuiz(random, 6, 0));
+        exporter.add(ResultBatchCodecTest.playedQuiz(random, 6, 100_000));
+        File pending = new File(directory, "pending");
+        byte[] records = Files.readAllBytes(pending.toPath());
+        File batch = exporter.flush();
+        assertEquals(batch, exporter.getOutbox().get(0));
+
+        // the process died after moving the batch to the outbox, before deleting the pending results
+        Files.write(pending.toPath(), records);
+        exporter = new ResultExporter(directory, 10);
+        exporter.add(ResultBatchCodecTest.playedQuiz(random, 6, 200_000));
+        assertEquals(1, exporter.getPendingCount());
+        exporter.flush();
+
+        CollectingSender sender = new CollectingSender();
+        assertEquals(2, exporter.deliver(sender));
+        assertEquals(3, sender.mResults.size());
+        assertEquals(ResultExporter.getBatchId(batch), sender.mBatchIds.get(0));
+    }
+
+    @Test
+    public void currentResult_continuesTheRecordingAfterTheProcessDeath() throws IOException {
+        File directory = new File(mFolder.getRoot(), "results");
+        ResultExporter exporter = new ResultExporter(directory, 10);
+        assertNull(exporter.loadCurrent());
+
+        QuizResult.Recorder recorder = new QuizResult.Recorder(6, 1000);
+        recorder.recordAnswer(0, QuizSession.Verdict.CORRECT, 3000);
+        exporter.saveCurrent(recorder.snapshot(3500, 16));
+        recorder.recordAnswer(1, QuizSession.Verdict.CHEATED, 5000);
+        QuizResult partial = recorder.snapshot(5500, 16);
+        exporter.saveCurrent(partial);
+
+        // the process died, a new exporter and an empty recorder
+        exporter = new ResultExporter(directory, 10);
+        QuizResult.Recorder restored = new QuizResult.Recorder(6, 9000);
+        restored.recordAnswer(4, QuizSession.Verdict.INCORRECT, 9500);
+        restored.restore(exporter.loadCurrent());
+        assertEquals(partial, restored.snapshot(5500, 16));
+        restored.recordAnswer(2, QuizSession.Verdict.INCORRECT, 7000);
+        QuizResult result = restored.snapshot(7500, 16);
+        assertEquals(3, result.getAnswerCount());
+        assertEquals(1000, result.getStartedAtMillis());
+        assertEquals(7000, result.getAnswerTime(2));
+        // the unfinished quiz isn't exported
+        assertEquals(0, exporter.getPendingCount());
+
+        Files.write(new File(directory, "current").toPath(), new byte[]{1, 2, 3});
+        assertNull(exporter.loadCurrent());
+    }
+}
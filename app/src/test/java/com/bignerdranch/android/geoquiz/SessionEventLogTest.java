@@ -0,0 +1,158 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * JVM tests for the event-sourced session model: reducer, event log and snapshots.
+ */
+public class SessionEventLogTest {
+
+    private static Question[] bank(int size) {
+        Question[] questions = new Question[size];
+        for (int i = 0; i < size; i++) {
+            questions[i] = new Question(i, i % 3 == 0);
+        }
+        return questions;
+    }
+
+    /**
+     * Random session of the given length, played on the session and appended to the log at the same time.
+     */
+    private static void play(QuizSession session, SessionEventLog log, int events, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < events; i++) {
+            int action = random.nextInt(100);
+            if (action < 60 && !session.isFinished()) {
+                if (session.isCurrentAnswered()) {
+                    session.moveToNextUnanswered();
+                    log.append(SessionEvent.navigated(session.getCurrentIndex()));
+                }
+                boolean pressedTrue = random.nextBoolean();
+                log.append(SessionEvent.answered(session.getCurrentIndex(), pressedTrue));
+                session.checkAnswer(pressedTrue);
+            } else if (action < 90) {
+                int index = random.nextInt(session.getQuestionCount());
+                session.moveTo(index);
+                log.append(SessionEvent.navigated(index));
+            } else if (action < 99) {
+                boolean shown = random.nextBoolean();
+                session.registerCheat(shown);
+                log.append(SessionEvent.cheated(shown));
+            } else {
+                session.restart();
+                log.append(SessionEvent.restarted());
+            }
+        }
+    }
+
+    private static void assertMatches(QuizSession session, SessionState state) {
+        assertEquals(session.getCurrentIndex(), state.getCurrentIndex());
+        assertEquals(session.getAnsweredCount(), state.getAnsweredCount());
+        assertEquals(session.getCorrectAnswers(), state.getCorrectAnswers());
+        assertEquals(session.getCheatCount(), state.getCheatCount());
+        assertEquals(session.isCheater(), state.isCheater());
+        assertEquals(session.isFinished(), state.isFinished());
+        assertArrayEquals(session.getAnsweredBits(), state.getAnsweredBits());
+    }
+
+    @Test
+    public void reduce_followsTheRulesOfTheSession() {
+        Question[] questions = bank(10_000);
+        QuizSession session = new QuizSession(questions);
+        SessionEventLog log = new SessionEventLog(new SessionReducer(new PackedQuestionStore(questions)));
+
+        play(session, log, 20_000, 42);
+
+        assertMatches(session, log.getState());
+    }
+
+    @Test
+    public void reduce_leavesThePreviousStateIntact() {
+        SessionReducer reducer = new SessionReducer(new PackedQuestionStore(bank(5000)));
+        SessionState initial = reducer.initial();
+
+        SessionState answered = reducer.reduce(initial, SessionEvent.answered(4500, true));
+        SessionState cheated = reducer.reduce(answered, SessionEvent.cheated(true));
+
+        assertFalse(initial.isAnswered(4500));
+        assertEquals(0, initial.getCurrentIndex());
+        assertTrue(answered.isAnswered(4500));
+        assertEquals(1, answered.getCorrectAnswers());
+        assertFalse(answered.isCheater());
+        assertTrue(cheated.isCheater());
+        assertTrue(cheated.isAnswered(4500));
+    }
+
+    @Test
+    public void reduce_rejectsImpossibleEvents() {
+        SessionReducer reducer = new SessionReducer(new PackedQuestionStore(bank(5)));
+        SessionState answered = reducer.reduce(reducer.initial(), SessionEvent.answered(1, true));
+        try {
+            reducer.reduce(answered, SessionEvent.answered(1, false));
+            fail("Answered the question twice");
+        } catch (IllegalArgumentException expected) {
+            // the question is answered already
+        }
+        try {
+            reducer.reduce(answered, SessionEvent.navigated(5));
+            fail("Moved beyond the last question");
+        } catch (IllegalArgumentException expected) {
+            // there's no such question
+        }
+    }
+
+    @Test
+    public void stateAt_matchesReplayFromTheBeginning() {
+        Question[] questions = bank(3000);
+        SessionReducer reducer = new SessionReducer(new PackedQuestionStore(questions));
+        SessionEventLog log = new SessionEventLog(reducer, reducer.initial(), 100);
+        play(new QuizSession(questions), log, 5000, 7);
+
+        int[] events = log.getPackedEvents();
+        for (int count : new int[]{0, 1, 99, 100, 101, 2500, log.size() - 1}) {
+            SessionState replayed = reducer.replay(reducer.initial(), events, 0, count);
+            assertTrue("state after " + count + " events", replayed.sameAs(log.stateAt(count)));
+        }
+        assertSame(log.getState(), log.stateAt(log.size()));
+    }
+
+    @Test
+    public void replay_rebuildsTheLogFromPackedEvents() {
+        Question[] questions = bank(3000);
+        SessionReducer reducer = new SessionReducer(new PackedQuestionStore(questions));
+        QuizSession session = new QuizSession(questions);
+        SessionEventLog log = new SessionEventLog(reducer);
+        play(session, log, 5000, 11);
+
+        SessionEventLog rebuilt = SessionEventLog.replay(reducer, log.getPackedEvents(), 64);
+
+        assertEquals(log.size(), rebuilt.size());
+        assertTrue(log.getState().sameAs(rebuilt.getState()));
+        assertEquals(log.getEvent(1234), rebuilt.getEvent(1234));
+
+        QuizSession restored = new QuizSession(questions);
+        rebuilt.getState().restoreInto(restored);
+        assertMatches(session, SessionState.of(restored));
+    }
+
+    @Test
+    public void event_packsAndUnpacks() {
+        SessionEvent[] events = {
+                SessionEvent.answered(SessionEvent.MAX_INDEX, true), SessionEvent.answered(0, false),
+                SessionEvent.cheated(true), SessionEvent.cheated(false),
+                SessionEvent.navigated(123_456), SessionEvent.restarted()
+        };
+        for (SessionEvent event : events) {
+            assertEquals(event, SessionEvent.unpack(event.pack()));
+        }
+    }
+}
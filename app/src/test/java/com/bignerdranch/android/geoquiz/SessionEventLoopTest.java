@@ -0,0 +1,459 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the single-writer session loop: same rules as the inline session, stale commands,
+ * and the bursts of input applied in order and journaled.
+ */
+public class SessionEventLoopTest {
+
+    // key of the question bank the journals are written for
+    private static final long BANK_KEY = 1;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static QuizSession session(int size) {
+        PackedQuestionStore store = new PackedQuestionStore(size);
+        for (int i = 0; i < size; i++) {
+            store.set(i, i, (i & 1) == 0);
+        }
+        return new QuizSession(store);
+    }
+
+    /**
+     * Listener collecting what the loop reports, as QuizActivity would journal and record it.
+     */
+    private static class Recording implements SessionEventLoop.Listener {
+        final List<QuizSession.Verdict> mVerdicts = new ArrayList<>();
+        int mCheats;
+        int mRestarts;
+        int mSnapshots;
+        SessionJournal mJournal;
+
+        @Override
+        public void onAnswered(int index, boolean userPressedTrue, QuizSession.Verdict verdict) {
+            mVerdicts.add(verdict);
+        }
+
+        @Override
+        public void onCheated(boolean answerShown) {
+            mCheats++;
+        }
+
+        @Override
+        public void onRestarted() {
+            mRestarts++;
+        }
+
+        @Override
+        public void onEvents(int[] events, int count) {
+            if (mJournal != null) {
+                mJournal.append(events, 0, count);
+            }
+        }
+
+        @Override
+        public void onSnapshot(QuizSession session, SessionEventLoop.Snapshot snapshot) {
+            mSnapshots++;
+            if (mJournal != null) {
+                mJournal.snapshotIfNeeded(session);
+            }
+        }
+    }
+
+    @Test
+    public void commands_followTheRulesOfTheSession() throws InterruptedException {
+        QuizSession inline = session(50);
+        Recording recording = new Recording();
+        SessionEventLoop loop = new SessionEventLoop(session(50), 4096, recording);
+        loop.start();
+
+        Random random = new Random(5);
+        List<QuizSession.Verdict> verdicts = new ArrayList<>();
+        int cheats = 0;
+        for (int i = 0; i < 2000; i++) {
+            int action = random.nextInt(10);
+            if (action < 5 && !inline.isFinished()) {
+                boolean userPressedTrue = random.nextBoolean();
+                int index = inline.getCurrentIndex();
+                if (!inline.isAnswered(index)) {
+                    verdicts.add(inline.checkAnswer(userPressedTrue));
+                    if (!inline.isFinished()) {
+                        inline.moveToNext();
+                    }
+                    offer(loop.offerAnswer(index, userPressedTrue));
+                }
+            } else if (action == 5) {
+                boolean answerShown = random.nextBoolean();
+                inline.registerCheat(answerShown);
+                cheats++;
+                offer(loop.offerCheat(answerShown));
+            } else if (action < 8 && !inline.isFinished()) {
+                inline.moveToNext();
+                offer(loop.offerNext());
+            } else if (action == 8 && !inline.isFinished()) {
+                inline.moveToPrev();
+                offer(loop.offerPrev());
+            } else if (inline.isFinished()) {
+                inline.restart();
+                offer(loop.offerRestart());
+            }
+        }
+        loop.close();
+        loop.awaitClosed();
+
+        SessionEventLoop.Snapshot snapshot = loop.getSnapshot();
+        assertTrue(snapshot.getState().sameAs(SessionState.of(inline)));
+        assertEquals(0, snapshot.getRejectedCount());
+        assertEquals(verdicts, recording.mVerdicts);
+        assertEquals(verdicts.size(), snapshot.getAnswerCount());
+        assertEquals(cheats, recording.mCheats);
+        assertEquals(QuizViewState.of(inline), snapshot.getViewState());
+        assertEquals(inline.getScorePercent(), snapshot.getScorePercent());
+        assertEquals(inline.isCurrentAnswerTrue(), snapshot.isCurrentAnswerTrue());
+        assertTrue(recording.mSnapshots <= snapshot.getSequence());
+    }
+
+    /**
+     * The journal written by the loop is replayed by the reducer into the state of the last snapshot,
+     * including the question user has moved to.
+     */
+    @Test
+    public void journalOfTheLoop_replaysToTheLastSnapshot() throws IOException, InterruptedException {
+        File journalFile = mFolder.newFile("session.journal");
+        Recording recording = new Recording();
+        recording.mJournal = SessionJournal.open(journalFile, session(40), BANK_KEY, 64, 1);
+        SessionEventLoop loop = new SessionEventLoop(session(40), 4096, recording);
+        loop.start();
+
+        Random random = new Random(17);
+        for (int i = 0; i < 3000; i++) {
+            int action = random.nextInt(20);
+            SessionState state = loop.getSnapshot().getState();
+            if (action < 8) {
+                loop.offerAnswer(state.getCurrentIndex(), random.nextBoolean());
+            } else if (action < 10) {
+                loop.offerCheat(random.nextBoolean());
+            } else if (action < 13) {
+                loop.offerNext();
+            } else if (action < 16) {
+                loop.offerPrev();
+            } else if (action < 19) {
+                loop.offerMoveTo(random.nextInt(40));
+            } else if (state.isFinished() || random.nextInt(10) == 0) {
+                loop.offerRestart();
+            }
+        }
+        loop.close();
+        loop.awaitClosed();
+        recording.mJournal.close();
+
+        QuizSession recovered = session(40);
+        SessionJournal.open(journalFile, recovered, BANK_KEY).close();
+        SessionState expected = loop.getSnapshot().getState();
+        assertTrue(expected + " != " + SessionState.of(recovered), expected.sameAs(SessionState.of(recovered)));
+    }
+
+    /**
+     * Checking that the ring took the command (it holds all the commands of the test).
+     */
+    private static void offer(boolean offered) {
+        assertTrue("Ring is full", offered);
+    }
+
+    @Test
+    public void staleCommands_areRejected() throws InterruptedException {
+        Recording recording = new Recording();
+        SessionEventLoop loop = new SessionEventLoop(session(3), SessionEventLoop.DEFAULT_CAPACITY, recording);
+        assertNull(loop.getSnapshot().getLastVerdict());
+        // double tap on the first question, then the last question answered twice
+        loop.offerAnswer(0, true);
+        loop.offerAnswer(0, false);
+        loop.offerMoveTo(2);
+        loop.offerAnswer(2, true);
+        loop.offerAnswer(2, true);
+        loop.offerMoveTo(1);
+        loop.offerAnswer(1, false);
+        // the quiz is finished, navigation is locked until the restart
+        loop.offerNext();
+        loop.offerRestart();
+        loop.offerNext();
+        loop.start();
+        loop.close();
+        loop.awaitClosed();
+
+        SessionEventLoop.Snapshot snapshot = loop.getSnapshot();
+        assertEquals(10, snapshot.getSequence());
+        assertEquals(3, snapshot.getRejectedCount());
+        assertEquals(3, snapshot.getAnswerCount());
+        assertEquals(QuizSession.Verdict.CORRECT, snapshot.getLastVerdict());
+        assertEquals(1, recording.mRestarts);
+        // everything offered before the start is one batch
+        assertEquals(1, recording.mSnapshots);
+        assertEquals(1, snapshot.getState().getCurrentIndex());
+        assertEquals(0, snapshot.getState().getAnsweredCount());
+        assertFalse(loop.offerNext());
+    }
+
+    @Test
+    public void restorer_runsOnTheLoopThreadBeforeTheCommands() throws InterruptedException {
+        Recording recording = new Recording();
+        SessionEventLoop loop = new SessionEventLoop(session(10), SessionEventLoop.DEFAULT_CAPACITY, recording);
+        // the screen still shows the first question, which the restored session has answered
+        loop.offerAnswer(0, true);
+        loop.offerAnswer(4, false);
+        final Thread[] restoredOn = new Thread[1];
+        loop.start(new SessionEventLoop.Restorer() {
+            @Override
+            public void restore(QuizSession session) {
+                restoredOn[0] = Thread.currentThread();
+                session.checkAnswer(true);
+                session.moveTo(4);
+            }
+        });
+        loop.close();
+        loop.awaitClosed();
+
+        assertTrue(restoredOn[0] != null && restoredOn[0] != Thread.currentThread());
+        SessionEventLoop.Snapshot snapshot = loop.getSnapshot();
+        assertEquals(1, snapshot.getRejectedCount());
+        assertEquals(1, snapshot.getAnswerCount());
+        assertEquals(2, snapshot.getState().getAnsweredCount());
+        assertEquals(5, snapshot.getState().getCurrentIndex());
+        // the restored state and the batch after it
+        assertEquals(2, recording.mSnapshots);
+    }
+
+    @Test
+    public void close_doesNotWaitForTheRestore() throws InterruptedException {
+        Recording recording = new Recording();
+        SessionEventLoop loop = new SessionEventLoop(session(10), SessionEventLoop.DEFAULT_CAPACITY, recording);
+        final CountDownLatch restoring = new CountDownLatch(1);
+        final CountDownLatch diskDone = new CountDownLatch(1);
+        loop.start(new SessionEventLoop.Restorer() {
+            @Override
+            public void restore(QuizSession session) {
+                restoring.countDown();
+                // the journal of the previous instance is still being written
+                awaitUninterruptibly(diskDone);
+                session.moveTo(3);
+            }
+        });
+        assertTrue(restoring.await(5, TimeUnit.SECONDS));
+        assertTrue(loop.offerAnswer(3, true));
+        long startNanos = System.nanoTime();
+        loop.close();
+        assertTrue(System.nanoTime() - startNanos < TimeUnit.SECONDS.toNanos(1));
+        assertFalse(loop.offerNext());
+
+        diskDone.countDown();
+        loop.awaitClosed();
+        // the command offered before the close is applied after the restore
+        assertEquals(1, loop.getSnapshot().getAnswerCount());
+        assertEquals(4, loop.getSnapshot().getState().getCurrentIndex());
+        assertEquals(2, recording.mSnapshots);
+    }
+
+    @Test
+    public void snapshotBeforeTheRestore_showsTheSavedState() throws InterruptedException {
+        QuizSession saved = session(10);
+        saved.moveTo(6);
+        saved.checkAnswer(true);
+        saved.moveTo(2);
+        SessionState savedState = SessionState.of(saved);
+        final CountDownLatch diskDone = new CountDownLatch(1);
+        SessionEventLoop.Restorer restorer = new SessionEventLoop.Restorer() {
+            @Override
+            public void restore(QuizSession session) {
+                awaitUninterruptibly(diskDone);
+                session.moveTo(6);
+                session.checkAnswer(true);
+                session.moveTo(2);
+            }
+        };
+
+        SessionEventLoop loop = new SessionEventLoop(session(10), SessionEventLoop.DEFAULT_CAPACITY, new Recording());
+        loop.start(restorer, savedState, true);
+        SessionEventLoop.Snapshot snapshot = loop.getSnapshot();
+        assertEquals(2, snapshot.getState().getCurrentIndex());
+        assertTrue(snapshot.getState().isAnswered(6));
+        assertTrue(snapshot.getViewState().isAnswerEnabled());
+        assertTrue(snapshot.isCurrentAnswerTrue());
+        assertTrue(snapshot.isAdaptiveOrder());
+        diskDone.countDown();
+        loop.close();
+        loop.awaitClosed();
+        assertTrue(loop.getSnapshot().getState().sameAs(savedState));
+
+        // nothing saved: the controls wait for the restored state
+        final CountDownLatch coldDiskDone = new CountDownLatch(1);
+        SessionEventLoop cold = new SessionEventLoop(session(10), SessionEventLoop.DEFAULT_CAPACITY, new Recording());
+        cold.start(new SessionEventLoop.Restorer() {
+            @Override
+            public void restore(QuizSession session) {
+                awaitUninterruptibly(coldDiskDone);
+                session.moveTo(3);
+            }
+        });
+        assertEquals(new QuizViewState(false, false, false, false), cold.getSnapshot().getViewState());
+        assertFalse(cold.getSnapshot().isAdaptiveOrder());
+        coldDiskDone.countDown();
+        cold.close();
+        cold.awaitClosed();
+        assertEquals(3, cold.getSnapshot().getState().getCurrentIndex());
+        assertTrue(cold.getSnapshot().getViewState().isAnswerEnabled());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException e) {
+                // waiting on
+            }
+        }
+    }
+
+    @Test
+    public void adaptiveOrder_isSwitchedByTheLoop() throws InterruptedException {
+        SessionEventLoop loop = new SessionEventLoop(session(4), SessionEventLoop.DEFAULT_CAPACITY, new Recording());
+        assertFalse(loop.getSnapshot().isAdaptiveOrder());
+        loop.offerAdaptiveOrder(true);
+        loop.offerAdaptiveOrder(true);
+        loop.offerAnswer(0, false);
+        // the mistake stays out of the round, the unanswered question on the screen is skipped
+        loop.offerNext();
+        loop.start();
+        loop.close();
+        loop.awaitClosed();
+
+        SessionEventLoop.Snapshot snapshot = loop.getSnapshot();
+        assertTrue(snapshot.isAdaptiveOrder());
+        assertEquals(1, snapshot.getRejectedCount());
+        assertEquals(2, snapshot.getState().getCurrentIndex());
+        assertEquals(3, loop.getScheduler().getRemaining());
+    }
+
+    @Test
+    public void fullRing_rejectsTheCommand() throws InterruptedException {
+        SessionEventLoop loop = new SessionEventLoop(session(10), 5, new Recording());
+        for (int i = 0; i < 8; i++) {
+            assertTrue(loop.offerNext());
+        }
+        assertFalse(loop.offerNext());
+        loop.start();
+        loop.close();
+        loop.awaitClosed();
+        assertEquals(8, loop.getSnapshot().getSequence());
+        assertEquals(8, loop.getSnapshot().getState().getCurrentIndex());
+    }
+
+    /**
+     * Bursts of commands from the "UI" thread with pauses between them, the loop journaling every batch.
+     * A command the full ring rejects is offered again, as the UI would after the snapshot; every command
+     * is then applied once and in order, and the journal has all of them. The latencies of the loop are
+     * measured by SessionEventLoopBenchmark.
+     */
+    @Test
+    public void burstyInput_isAppliedInOrderAndJournaled() throws IOException, InterruptedException {
+        int bankSize = 200_000;
+        int bursts = 200;
+        int burstSize = SessionEventLoop.DEFAULT_CAPACITY / 2;
+        QuizSession session = session(bankSize);
+        final Recording recording = new Recording();
+        File journalFile = mFolder.newFile("session.journal");
+        recording.mJournal = SessionJournal.open(journalFile, session, BANK_KEY, 4096, 5);
+        // number of the answers which came in the order of the questions, as they were offered
+        final int[] inOrder = new int[1];
+        SessionEventLoop loop = new SessionEventLoop(session, SessionEventLoop.DEFAULT_CAPACITY,
+                new SessionEventLoop.Listener() {
+                    @Override
+                    public void onAnswered(int index, boolean userPressedTrue, QuizSession.Verdict verdict) {
+                        recording.onAnswered(index, userPressedTrue, verdict);
+                        if (index == inOrder[0]) {
+                            inOrder[0]++;
+                        }
+                    }
+
+                    @Override
+                    public void onCheated(boolean answerShown) {
+                        recording.onCheated(answerShown);
+                    }
+
+                    @Override
+                    public void onRestarted() {
+                        recording.onRestarted();
+                    }
+
+                    @Override
+                    public void onEvents(int[] events, int count) {
+                        recording.onEvents(events, count);
+                    }
+
+                    @Override
+                    public void onSnapshot(QuizSession session, SessionEventLoop.Snapshot snapshot) {
+                        recording.onSnapshot(session, snapshot);
+                    }
+                });
+        loop.start();
+
+        int index = 0;
+        for (int burst = 0; burst < bursts; burst++) {
+            for (int i = 0; i < burstSize; i++) {
+                // a look at the previous question and back after every 6 answers
+                while (!offerBursty(loop, i, index)) {
+                    Thread.yield();
+                }
+                if (i % 8 < 6) {
+                    index++;
+                }
+            }
+            // user takes a breath between the bursts
+            LockSupport.parkNanos(1_000_000);
+        }
+        loop.close();
+        loop.awaitClosed();
+        recording.mJournal.close();
+
+        SessionEventLoop.Snapshot snapshot = loop.getSnapshot();
+        assertEquals((long) bursts * burstSize, snapshot.getSequence());
+        assertEquals(0, snapshot.getRejectedCount());
+        assertEquals(index, snapshot.getAnswerCount());
+        assertEquals(index, inOrder[0]);
+        assertEquals(index, snapshot.getState().getCurrentIndex());
+        assertTrue(recording.mSnapshots <= snapshot.getSequence());
+
+        // the recovered journal has every command
+        QuizSession recovered = session(bankSize);
+        SessionJournal.open(journalFile, recovered, BANK_KEY).close();
+        assertTrue(snapshot.getState().sameAs(SessionState.of(recovered)));
+    }
+
+    private static boolean offerBursty(SessionEventLoop loop, int i, int index) {
+        if (i % 8 == 6) {
+            return loop.offerPrev();
+        } else if (i % 8 == 7) {
+            return loop.offerNext();
+        }
+        return loop.offerAnswer(index, (index & 1) == 0);
+    }
+}
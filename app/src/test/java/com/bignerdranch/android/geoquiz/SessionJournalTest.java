@@ -0,0 +1,246 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * JVM tests for the durable session journal: group commit, snapshots and recovery.
+ */
+public class SessionJournalTest {
+
+    // key of the question bank the journals are written for
+    private static final long BANK_KEY = 1;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static QuizSession session(int size) {
+        PackedQuestionStore store = new PackedQuestionStore(size);
+        for (int i = 0; i < size; i++) {
+            store.set(i, i, (i & 1) == 0);
+        }
+        return new QuizSession(store);
+    }
+
+    /**
+     * Answering the current question and journaling its events, the same way SessionEventLoop makes them.
+     */
+    private static void answer(QuizSession session, SessionJournal journal, boolean userPressedTrue) {
+        int index = session.getCurrentIndex();
+        session.checkAnswer(userPressedTrue);
+        journal.append(SessionEvent.answered(index, userPressedTrue).pack());
+        if (!session.isFinished()) {
+            session.moveToNext();
+            journal.append(SessionEvent.navigated(session.getCurrentIndex()).pack());
+        }
+        journal.snapshotIfNeeded(session);
+    }
+
+    private static void assertSameState(QuizSession expected, QuizSession actual) {
+        assertEquals(expected.getCurrentIndex(), actual.getCurrentIndex());
+        assertEquals(expected.getAnsweredCount(), actual.getAnsweredCount());
+        assertEquals(expected.getCorrectAnswers(), actual.getCorrectAnswers());
+        assertEquals(expected.getCheatCount(), actual.getCheatCount());
+        assertEquals(expected.isCheater(), actual.isCheater());
+        assertArrayEquals(expected.getAnsweredBits(), actual.getAnsweredBits());
+    }
+
+    @Test
+    public void recovery_replaysAnswersCheatsAndRestarts() throws IOException {
+        File file = mFolder.newFile("session.journal");
+        QuizSession session = session(10);
+        SessionJournal journal = SessionJournal.open(file, session, BANK_KEY);
+        answer(session, journal, true);
+        answer(session, journal, true);
+        session.restart();
+        journal.append(SessionEvent.restarted().pack());
+        session.registerCheat(true);
+        journal.append(SessionEvent.cheated(true).pack());
+        answer(session, journal, false);
+        answer(session, journal, false);
+        session.moveTo(7);
+        journal.append(SessionEvent.navigated(7).pack());
+        journal.close();
+
+        QuizSession recovered = session(10);
+        journal = SessionJournal.open(file, recovered, BANK_KEY);
+        assertEquals(11, journal.getRecoveredEvents());
+        journal.close();
+        assertSameState(session, recovered);
+        assertEquals(1, recovered.getCheatCount());
+        assertEquals(1, recovered.getCorrectAnswers());
+    }
+
+    @Test
+    public void snapshot_boundsReplayAndTruncatesJournal() throws IOException {
+        File file = mFolder.newFile("session.journal");
+        QuizSession session = session(1000);
+        SessionJournal journal = SessionJournal.open(file, session, BANK_KEY, 100, 1);
+        for (int i = 0; i < 250; i++) {
+            answer(session, journal, i % 3 == 0);
+            if (i % 10 == 0) {
+                journal.flush();
+            }
+        }
+        journal.close();
+
+        QuizSession recovered = session(1000);
+        journal = SessionJournal.open(file, recovered, BANK_KEY, 100, 1);
+        assertTrue(journal.getRecoveredEvents() <= 100);
+        assertSameState(session, recovered);
+
+        // the journal goes on after the recovery
+        answer(recovered, journal, true);
+        journal.close();
+        QuizSession again = session(1000);
+        SessionJournal.open(file, again, BANK_KEY).close();
+        assertSameState(recovered, again);
+    }
+
+    @Test
+    public void tornTail_isDroppedOnRecovery() throws IOException {
+        File file = mFolder.newFile("session.journal");
+        QuizSession session = session(10);
+        SessionJournal journal = SessionJournal.open(file, session, BANK_KEY);
+        answer(session, journal, true);
+        journal.flush();
+        QuizSession expected = session(10);
+        expected.restoreState(session.getCurrentIndex(), session.getAnsweredBits(),
+                session.getCorrectAnswers(), session.isCheater(), session.getCheatCount());
+        answer(session, journal, true);
+        journal.close();
+
+        // cutting the last frame in the middle, as if the process died during the write
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        QuizSession recovered = session(10);
+        journal = SessionJournal.open(file, recovered, BANK_KEY);
+        assertEquals(2, journal.getRecoveredEvents());
+        assertSameState(expected, recovered);
+
+        // new events go right after the last valid frame
+        answer(recovered, journal, false);
+        journal.close();
+        QuizSession again = session(10);
+        SessionJournal.open(file, again, BANK_KEY).close();
+        assertSameState(recovered, again);
+    }
+
+    @Test
+    public void journalOfAnotherBank_isDiscarded() throws IOException {
+        File file = mFolder.newFile("session.journal");
+        QuizSession session = session(10);
+        SessionJournal journal = SessionJournal.open(file, session, BANK_KEY);
+        answer(session, journal, true);
+        journal.snapshot(session);
+        journal.close();
+
+        QuizSession other = session(20);
+        journal = SessionJournal.open(file, other, BANK_KEY);
+        journal.close();
+        assertEquals(0, other.getAnsweredCount());
+        assertFalse(new File(file.getPath() + ".snapshot").exists());
+    }
+
+    @Test
+    public void journalOfAnotherBankKey_isDiscarded() throws IOException {
+        File file = mFolder.newFile("session.journal");
+        QuizSession session = session(10);
+        SessionJournal journal = SessionJournal.open(file, session, BANK_KEY);
+        answer(session, journal, true);
+        journal.snapshot(session);
+        answer(session, journal, true);
+        journal.close();
+
+        // a new version of the pack with as many questions
+        QuizSession updated = session(10);
+        journal = SessionJournal.open(file, updated, BANK_KEY + 1);
+        journal.close();
+        assertEquals(0, journal.getRecoveredEvents());
+        assertEquals(0, updated.getAnsweredCount());
+        assertFalse(new File(file.getPath() + ".snapshot").exists());
+    }
+
+    @Test
+    public void journalOfAnotherFormat_isDiscarded() throws IOException {
+        File file = mFolder.newFile("session.journal");
+        QuizSession session = session(10);
+        SessionJournal journal = SessionJournal.open(file, session, BANK_KEY);
+        answer(session, journal, true);
+        journal.snapshot(session);
+        answer(session, journal, true);
+        journal.close();
+
+        // the format version in the header isn't the current one
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(4);
+        raf.writeInt(1);
+        raf.close();
+
+        QuizSession recovered = session(10);
+        journal = SessionJournal.open(file, recovered, BANK_KEY);
+        assertEquals(0, journal.getRecoveredEvents());
+        assertEquals(0, recovered.getAnsweredCount());
+        assertFalse(new File(file.getPath() + ".snapshot").exists());
+
+        // the journal starts over in the current format
+        answer(recovered, journal, false);
+        journal.close();
+        QuizSession again = session(10);
+        SessionJournal.open(file, again, BANK_KEY).close();
+        assertSameState(recovered, again);
+    }
+
+    @Test
+    public void eventOutOfTheRules_dropsItsFrame() throws IOException {
+        File file = mFolder.newFile("session.journal");
+        QuizSession session = session(10);
+        SessionJournal journal = SessionJournal.open(file, session, BANK_KEY);
+        answer(session, journal, true);
+        journal.flush();
+        // the same question answered twice can't come from the loop
+        journal.append(SessionEvent.navigated(0).pack());
+        journal.append(SessionEvent.answered(0, false).pack());
+        journal.close();
+
+        QuizSession recovered = session(10);
+        journal = SessionJournal.open(file, recovered, BANK_KEY);
+        journal.close();
+        assertEquals(2, journal.getRecoveredEvents());
+        assertSameState(session, recovered);
+    }
+
+    @Test
+    public void appends_areGroupCommitted() throws IOException {
+        File file = mFolder.newFile("session.journal");
+        int bankSize = 100_000;
+        QuizSession session = session(bankSize);
+        SessionJournal journal = SessionJournal.open(file, session, BANK_KEY, Integer.MAX_VALUE, 5);
+
+        for (int i = 0; i < bankSize; i++) {
+            journal.append(SessionEvent.answered(i, true).pack());
+        }
+        journal.close();
+
+        // far fewer frames than events: 16 bytes of frame header per batch, 4 bytes per event
+        assertTrue(file.length() < bankSize * 4L + 16L * 100);
+
+        QuizSession recovered = session(bankSize);
+        journal = SessionJournal.open(file, recovered, BANK_KEY);
+        journal.close();
+        assertEquals(bankSize, journal.getRecoveredEvents());
+        assertTrue(recovered.isFinished());
+    }
+}
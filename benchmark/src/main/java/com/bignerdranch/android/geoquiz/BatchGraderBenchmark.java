@@ -0,0 +1,106 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Grading a batch of answer sheets: question by question like QuizSession.checkAnswer() does,
+ * versus the bitmaps of BatchGrader on one thread and on all cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class BatchGraderBenchmark {
+
+    @Param({"20", "200"})
+    public int questionCount;
+
+    @Param({"100000"})
+    public int sheetCount;
+
+    private PackedQuestionStore mQuestions;
+    private BatchGrader mGrader;
+    private AnswerSheet[] mSheets;
+    // the same sheets as one boolean per question
+    private boolean[][] mAnswered;
+    private boolean[][] mAnswers;
+    private boolean[][] mCheated;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mQuestions = new PackedQuestionStore(questionCount);
+        for (int i = 0; i < questionCount; i++) {
+            mQuestions.set(i, i, random.nextBoolean());
+        }
+        mGrader = new BatchGrader(mQuestions);
+
+        mSheets = new AnswerSheet[sheetCount];
+        mAnswered = new boolean[sheetCount][questionCount];
+        mAnswers = new boolean[sheetCount][questionCount];
+        mCheated = new boolean[sheetCount][questionCount];
+        for (int s = 0; s < sheetCount; s++) {
+            mSheets[s] = new AnswerSheet(questionCount);
+            for (int q = 0; q < questionCount; q++) {
+                int kind = random.nextInt(20);
+                if (kind == 0) {
+                    continue;
+                }
+                boolean answer = random.nextBoolean();
+                mSheets[s].setAnswer(q, answer);
+                mAnswered[s][q] = true;
+                mAnswers[s][q] = answer;
+                if (kind == 1) {
+                    mSheets[s].setCheated(q);
+                    mCheated[s][q] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * One comparison against isAnswerTrue() per answered question, as in QuizSession.checkAnswer().
+     */
+    @Benchmark
+    public int[] perQuestion() {
+        int[] scores = new int[sheetCount];
+        for (int s = 0; s < sheetCount; s++) {
+            boolean[] answered = mAnswered[s];
+            boolean[] answers = mAnswers[s];
+            boolean[] cheated = mCheated[s];
+            int correct = 0;
+            for (int q = 0; q < questionCount; q++) {
+                if (answered[q] && !cheated[q] && answers[q] == mQuestions.isAnswerTrue(q)) {
+                    correct++;
+                }
+            }
+            scores[s] = correct;
+        }
+        return scores;
+    }
+
+    @Benchmark
+    public int[] bitParallel() {
+        return mGrader.gradeAllSequential(mSheets);
+    }
+
+    @Benchmark
+    public int[] bitParallelForkJoin() {
+        return mGrader.gradeAll(mSheets);
+    }
+}
@@ -0,0 +1,65 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingestion rate of the difficulty calibration on one thread (events/us, x 60M for events/minute)
+ * and the cost of a snapshot (us).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class CalibrationBenchmark {
+
+    private static final int BATCH_SIZE = 4096;
+
+    @Param({"1000", "1000000"})
+    public int questionCount;
+
+    private DifficultyCalibrator mCalibrator;
+    private long[] mEvents;
+
+    @Setup
+    public void setUp() {
+        mCalibrator = new DifficultyCalibrator(questionCount);
+        Random random = new Random(42);
+        mEvents = new long[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            mEvents[i] = AnswerEvents.pack(random.nextInt(questionCount), random.nextBoolean(),
+                    random.nextInt(20) == 0, random.nextDouble());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void ingest() {
+        mCalibrator.acceptAll(mEvents, 0, BATCH_SIZE);
+    }
+
+    /**
+     * Copying the estimates of all the questions, ingestion is paused only while a block is copied
+     * and only if the optimistic copies of the block keep failing.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public CalibrationSnapshot snapshot() {
+        return mCalibrator.snapshot();
+    }
+}
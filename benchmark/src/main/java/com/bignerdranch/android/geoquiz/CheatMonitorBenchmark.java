@@ -0,0 +1,72 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of counting a cheat and of the check before it, for random users among a million, with 1 and 4 threads.
+ * The window moves on with the wall clock, as it does on the server. The memory of the monitor is printed
+ * at the start of the trial: it depends on the width only, not on the number of users.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheatMonitorBenchmark {
+
+    private static final int USERS = 1_000_000;
+    private static final int QUESTIONS = 1000;
+
+    @Param({"65536", "1048576"})
+    public int width;
+
+    private CheatMonitor mMonitor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mMonitor = new CheatMonitor(QUESTIONS, CheatMonitor.DEFAULT_WINDOW_MILLIS, CheatMonitor.DEFAULT_BUCKETS,
+                CheatMonitor.DEFAULT_LIMIT, width);
+        System.out.printf(Locale.ENGLISH, "%nwidth %d: %,d KB for any number of users%n",
+                width, mMonitor.getMemoryBytes() / 1024);
+    }
+
+    private boolean record() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return mMonitor.record(random.nextInt(USERS), random.nextInt(QUESTIONS), System.currentTimeMillis());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean record1Thread() {
+        return record();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean record4Threads() {
+        return record();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean isAllowed() {
+        return mMonitor.isAllowed(ThreadLocalRandom.current().nextInt(USERS), System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,152 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the reveal logic of one cheat, from the tap on CHEAT! to the result in the host, on the JVM:
+ * <ul>
+ * <li>dialog: the reveal of the host is reused, the answer is taken from the snapshot when the dialog is shown
+ * and the result is a direct call of the host;</li>
+ * <li>activityExtrasModel: a model of the marshalling only, the extras are a map written to and read from
+ * bytes in place of the parcelled Bundle, and CheatActivity makes its own reveal.</li>
+ * </ul>
+ * The model isn't the cost of the activity path: a real Intent, the binder, the launch of the activity, its window,
+ * the layout and the transitions aren't on the JVM, and they dominate on the device. Only the CHEAT_ROUND_TRIP
+ * timer of QuizMetrics (or an androidx.benchmark run on the device) compares the two paths; the numbers here
+ * mustn't be quoted as that comparison.
+ * Run with {@code -prof gc} for the allocations per cheat.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CheatRevealBenchmark {
+
+    private static final String EXTRA_ANSWER_IS_TRUE = "com.android.bignerdranch.geoquiz.answer_is_true";
+    private static final String EXTRA_ANSWER_IS_SHOWN = "com.android.bignerdranch.geoquiz.answer_is_shown";
+
+    private SessionEventLoop.Snapshot mSnapshot;
+    private CountingHost mHost;
+
+    /**
+     * Host counting the results instead of offering them to the loop, the same on both paths.
+     */
+    private static class CountingHost implements CheatReveal.Host {
+        private final CheatReveal mReveal = new CheatReveal();
+        private final SessionEventLoop.Snapshot mSnapshot;
+        private int mCheats;
+
+        CountingHost(SessionEventLoop.Snapshot snapshot) {
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        public CheatReveal getCheatReveal() {
+            return mReveal;
+        }
+
+        @Override
+        public void onCheatResult(boolean answerShown) {
+            if (answerShown) {
+                mCheats++;
+            }
+        }
+
+        @Override
+        public void onCheatClosed() {
+            mReveal.close();
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        PackedQuestionStore questions = new PackedQuestionStore(100);
+        for (int i = 0; i < 100; i++) {
+            questions.set(i, i, i % 2 == 0);
+        }
+        SessionEventLoop loop = new SessionEventLoop(new QuizSession(questions), SessionEventLoop.DEFAULT_CAPACITY,
+                null);
+        mSnapshot = loop.getSnapshot();
+        mHost = new CountingHost(mSnapshot);
+    }
+
+    @Benchmark
+    public int dialog() {
+        CheatReveal reveal = mHost.getCheatReveal();
+        if (!reveal.canOpen(mSnapshot)) {
+            throw new IllegalStateException("Cheating must be enabled");
+        }
+        reveal.open();
+        // the answer goes to the dialog with its arguments
+        boolean answerIsTrue = mHost.mSnapshot.isCurrentAnswerTrue();
+        if (reveal.showAnswer()) {
+            mHost.onCheatResult(true);
+        }
+        mHost.onCheatClosed();
+        return answerIsTrue ? mHost.mCheats : -mHost.mCheats;
+    }
+
+    @Benchmark
+    public int activityExtrasModel() throws IOException {
+        CheatReveal hostReveal = mHost.getCheatReveal();
+        if (!hostReveal.canOpen(mSnapshot)) {
+            throw new IllegalStateException("Cheating must be enabled");
+        }
+        hostReveal.open();
+        // QuizActivity -> CheatActivity
+        Map<String, Object> request = new HashMap<>();
+        request.put(EXTRA_ANSWER_IS_TRUE, mSnapshot.isCurrentAnswerTrue());
+        Map<String, Object> received = unparcel(parcel(request));
+        boolean answerIsTrue = (Boolean) received.get(EXTRA_ANSWER_IS_TRUE);
+        CheatReveal reveal = new CheatReveal();
+        reveal.open();
+        // CheatActivity -> QuizActivity
+        Map<String, Object> result = new HashMap<>();
+        result.put(EXTRA_ANSWER_IS_SHOWN, reveal.showAnswer());
+        Map<String, Object> returned = unparcel(parcel(result));
+        mHost.onCheatClosed();
+        mHost.onCheatResult((Boolean) returned.get(EXTRA_ANSWER_IS_SHOWN));
+        return answerIsTrue ? mHost.mCheats : -mHost.mCheats;
+    }
+
+    private static byte[] parcel(Map<String, Object> extras) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(extras.size());
+        for (Map.Entry<String, Object> extra : extras.entrySet()) {
+            out.writeUTF(extra.getKey());
+            out.writeBoolean((Boolean) extra.getValue());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Map<String, Object> unparcel(byte[] parcel) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(parcel));
+        int size = in.readInt();
+        Map<String, Object> extras = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            extras.put(in.readUTF(), in.readBoolean());
+        }
+        return extras;
+    }
+}
@@ -0,0 +1,84 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention on the leaderboard: a mix of submits (80%), rank queries (19%) and top-10 queries (1%)
+ * on a prefilled leaderboard, with 1, 4 and 16 threads. Throughput is per thread, multiply by
+ * the number of threads for the total.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx3g")
+public class LeaderboardBenchmark {
+
+    @Param({"1000000", "10000000"})
+    public int users;
+
+    private Leaderboard mLeaderboard;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        mLeaderboard = new Leaderboard();
+        SplittableRandom random = new SplittableRandom(42);
+        for (int user = 0; user < users; user++) {
+            mLeaderboard.submit(user, random.nextInt(Leaderboard.MAX_SCORE + 1), random.nextInt(1 << 30));
+        }
+    }
+
+    private Object mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int operation = random.nextInt(100);
+        long user = random.nextInt(users);
+        if (operation < 80) {
+            return mLeaderboard.submit(user, random.nextInt(Leaderboard.MAX_SCORE + 1), random.nextInt(1 << 30));
+        }
+        if (operation < 99) {
+            return mLeaderboard.getRank(user);
+        }
+        return mLeaderboard.getTop(10);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object mixed1Thread() {
+        return mixed();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object mixed4Threads() {
+        return mixed();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object mixed16Threads() {
+        return mixed();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int rank4Threads() {
+        return mLeaderboard.getRank(ThreadLocalRandom.current().nextInt(users));
+    }
+}
@@ -0,0 +1,96 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Localized question pack of 100k questions in 20 locales: text lookup latency in the current locale,
+ * switching the locale, and the size of the pack per locale compared with the texts stored per locale
+ * (printed at the start of the trial).
+ * Generated texts share words like the real ones, and a third of the questions isn't translated per locale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class LocalizedPackBenchmark {
+
+    private static final int QUESTIONS = 100_000;
+    private static final int LOCALES = 20;
+    private static final String[] SUBJECTS = {
+            "capital", "longest river", "highest mountain", "largest lake", "official language", "currency"
+    };
+
+    private File mFile;
+    private LocalizedQuestionPack mPack;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        final Random mRandom = new Random(7);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] locales = new String[LOCALES];
+        for (int l = 0; l < LOCALES; l++) {
+            locales[l] = "l" + l;
+        }
+        LocalizedQuestionPackWriter writer = new LocalizedQuestionPackWriter(locales);
+        Random random = new Random(42);
+        long plainBytes = 0;
+        for (int q = 0; q < QUESTIONS; q++) {
+            String subject = SUBJECTS[random.nextInt(SUBJECTS.length)];
+            String place = "Place" + random.nextInt(QUESTIONS / 4);
+            String[] texts = new String[LOCALES];
+            for (int l = 0; l < LOCALES; l++) {
+                String text = l > 0 && random.nextInt(3) == 0 ? texts[0]
+                        : "[" + l + "] Is the " + subject + " of " + place + " number " + q + "?";
+                texts[l] = text;
+                plainBytes += text.getBytes(StandardCharsets.UTF_8).length + 4;
+            }
+            writer.add(random.nextBoolean(), texts);
+        }
+        mFile = File.createTempFile("localized", ".gqlp");
+        writer.write(mFile);
+        mPack = LocalizedQuestionPack.open(mFile);
+        System.out.printf(Locale.ENGLISH, "pack %,d B per locale, plain texts %,d B per locale%n",
+                mFile.length() / LOCALES, plainBytes / LOCALES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public CharSequence lookup(Cursor cursor) {
+        return mPack.getText(cursor.mRandom.nextInt(QUESTIONS));
+    }
+
+    @Benchmark
+    public CharSequence switchLocaleAndLookup(Cursor cursor) {
+        mPack.setLocale("l" + cursor.mRandom.nextInt(LOCALES));
+        return mPack.getText(cursor.mRandom.nextInt(QUESTIONS));
+    }
+}
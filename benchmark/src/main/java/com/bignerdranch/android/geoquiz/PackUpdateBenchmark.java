@@ -0,0 +1,125 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the question pack updates on a pack of 100k questions with a few edited questions:
+ * applying the delta to the installed pack (the device side) next to hashing the whole pack (what a full
+ * verification would cost), and building the delta (the server side). The size of the delta and the bytes
+ * rebuilt from its patches are printed at the start of the trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PackUpdateBenchmark {
+
+    private static final int QUESTION_COUNT = 100_000;
+
+    @Param({"1", "100"})
+    public int editedQuestions;
+
+    private File mDirectory;
+    private byte[] mBase;
+    private byte[] mTarget;
+    private PackManifest mBaseManifest;
+    private PackManifest mTargetManifest;
+    private byte[] mDelta;
+    private RandomAccessFile mInstalled;
+    private RandomAccessFile mUpdated;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDirectory = Files.createTempDirectory("packs").toFile();
+        Random random = new Random(42);
+        String[] texts = new String[QUESTION_COUNT];
+        for (int i = 0; i < QUESTION_COUNT; i++) {
+            texts[i] = String.format(Locale.ENGLISH, "Question %d: is %d km the length of the river %08x?",
+                    i, random.nextInt(7000), random.nextInt());
+        }
+        mBase = write(new File(mDirectory, "1.gqpk"), texts);
+        for (int i = 0; i < editedQuestions; i++) {
+            int index = random.nextInt(QUESTION_COUNT);
+            texts[index] = texts[index] + " (fixed)";
+        }
+        mTarget = write(new File(mDirectory, "2.gqpk"), texts);
+        mBaseManifest = PackManifest.of(1, mBase);
+        mTargetManifest = PackManifest.of(2, mTarget);
+        mDelta = PackDelta.create(mBaseManifest, mBase, mTargetManifest, mTarget);
+        PackDelta delta = PackDelta.read(mDelta, mBaseManifest);
+        System.out.printf(Locale.ENGLISH,
+                "pack %,d B, delta %,d B (whole pack %,d B), rebuilt %,d B in %d of %d chunks%n", mTarget.length, mDelta.length, PackDelta.create(null, null, mTargetManifest, mTarget).length,
+                delta.getPatchedBytes(), delta.getPatchedChunkCount(), mTargetManifest.getChunkCount());
+        mInstalled = new RandomAccessFile(new File(mDirectory, "1.gqpk"), "r");
+        mUpdated = new RandomAccessFile(new File(mDirectory, "updated"), "rw");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        mInstalled.close();
+        mUpdated.close();
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.delete(file.toPath());
+            }
+        }
+        Files.delete(mDirectory.toPath());
+    }
+
+    private static byte[] write(File file, String[] texts) throws IOException {
+        QuestionPackWriter writer = new QuestionPackWriter(file);
+        for (int i = 0; i < texts.length; i++) {
+            writer.add(texts[i], i % 2 == 0);
+        }
+        writer.close();
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Rebuilding the new version from the installed one: copying the unchanged chunks,
+     * patching and verifying the changed ones (without the sync and the switch of {@link PackUpdater}).
+     */
+    @Benchmark
+    public long applyDelta() throws IOException {
+        mUpdated.setLength(0);
+        mUpdated.seek(0);
+        PackDelta.read(mDelta, mBaseManifest).apply(mInstalled.getChannel(), mUpdated.getChannel());
+        return mUpdated.length();
+    }
+
+    /**
+     * Chunking and hashing the whole pack, for comparison with verifying only the patched chunks.
+     */
+    @Benchmark
+    public PackManifest hashWholePack() {
+        return PackManifest.of(2, mTarget);
+    }
+
+    @Benchmark
+    public byte[] createDelta() {
+        return PackDelta.create(mBaseManifest, mBase, mTargetManifest, mTarget);
+    }
+}
@@ -0,0 +1,79 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selection latency of the adaptive order: picking the next question and rescheduling it after the answer.
+ * The rounds are restarted when they end, which amortizes to a constant per answer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuestionSchedulerBenchmark {
+
+    @Param({"1000", "1000000"})
+    public int bankSize;
+
+    private QuestionScheduler mScheduler;
+    private boolean[] mCorrect;
+    private int mAnswer;
+
+    @Setup
+    public void setUp() {
+        mScheduler = new QuestionScheduler(bankSize);
+        Random random = new Random(42);
+        mCorrect = new boolean[1 << 16];
+        for (int i = 0; i < mCorrect.length; i++) {
+            mCorrect[i] = random.nextInt(4) != 0;
+        }
+        // a few rounds, so the due times are spread like in real use
+        for (int round = 0; round < 3; round++) {
+            while (mScheduler.next() >= 0) {
+                mScheduler.record(mScheduler.next(), mCorrect[mAnswer++ & (mCorrect.length - 1)]);
+            }
+            mScheduler.newRound();
+        }
+    }
+
+    @Benchmark
+    public int nextAndRecord() {
+        int next = mScheduler.next();
+        if (next < 0) {
+            mScheduler.newRound();
+            next = mScheduler.next();
+        }
+        mScheduler.record(next, mCorrect[mAnswer++ & (mCorrect.length - 1)]);
+        return next;
+    }
+
+    /**
+     * Answering a question which isn't the first one (e.g. after PREV), it's removed from the middle of the heap.
+     */
+    @Benchmark
+    public int recordAnyQuestion() {
+        if (mScheduler.getRemaining() < bankSize / 2) {
+            mScheduler.newRound();
+        }
+        int index = (int) ((mAnswer++ * 0x9E3779B9L) & 0x7fffffff) % bankSize;
+        if (mScheduler.isInRound(index)) {
+            mScheduler.record(index, mCorrect[mAnswer & (mCorrect.length - 1)]);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,83 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query latency of the question search over a large bank of generated texts:
+ * a rare token, a common token, a short prefix and a query of two tokens.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class QuestionSearchBenchmark {
+
+    private static final String[] WORDS = {
+            "river", "ocean", "capital", "mountain", "lake", "desert", "island", "city", "border", "canal",
+            "longest", "largest", "oldest", "deepest", "highest", "north", "south", "east", "west", "sea"
+    };
+
+    @Param({"1000000"})
+    public int bankSize;
+
+    private QuestionSearchIndex mIndex;
+    private int mFrom;
+
+    @Setup
+    public void setUp() {
+        mIndex = new QuestionSearchIndex();
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < bankSize; i++) {
+            text.setLength(0);
+            text.append("The ");
+            for (int word = 0; word < 6; word++) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            // place names are rare tokens: about 10 questions per name
+            text.append("of place").append(random.nextInt(bankSize / 10)).append('.');
+            mIndex.add(i, text);
+        }
+    }
+
+    @Benchmark
+    public int[] rareToken() {
+        return mIndex.search("place12345", 20);
+    }
+
+    @Benchmark
+    public int[] commonToken() {
+        return mIndex.search("river", 20);
+    }
+
+    @Benchmark
+    public int[] prefix() {
+        return mIndex.search("de", 20);
+    }
+
+    @Benchmark
+    public int[] twoTokens() {
+        return mIndex.search("deepest lake", 20);
+    }
+
+    @Benchmark
+    public int findNext() {
+        mFrom = mIndex.findNext("oldest island", mFrom + 1);
+        return mFrom;
+    }
+}
@@ -0,0 +1,105 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the quiz hot paths behind QuizActivity, at different sizes of the question bank:
+ * answering, wrap-around navigation, finish check, buttons' state after an update and the saved state round trip.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QuizSessionBenchmark {
+
+    @Param({"6", "10000", "1000000"})
+    public int bankSize;
+
+    private QuizSession mSession;
+    // half-answered session for the queries and the saved state round trip
+    private QuizSession mHalfAnswered;
+    private QuizSession mRestored;
+
+    @Setup
+    public void setUp() {
+        PackedQuestionStore store = new PackedQuestionStore(bankSize);
+        for (int i = 0; i < bankSize; i++) {
+            store.set(i, i, (i & 1) == 0);
+        }
+        mSession = new QuizSession(store);
+
+        mHalfAnswered = new QuizSession(store);
+        for (int i = 0; i < bankSize; i += 2) {
+            mHalfAnswered.moveTo(i);
+            mHalfAnswered.checkAnswer(true);
+        }
+        mHalfAnswered.moveTo(0);
+        mRestored = new QuizSession(store);
+    }
+
+    /**
+     * checkAnswer() followed by moving to the next question, as after pressing TRUE/FALSE.
+     * The quiz is restarted when it's finished, which amortizes to a constant per answer.
+     */
+    @Benchmark
+    public QuizSession.Verdict checkAnswer() {
+        if (mSession.isFinished()) {
+            mSession.restart();
+        }
+        QuizSession.Verdict verdict = mSession.checkAnswer(true);
+        mSession.moveToNext();
+        return verdict;
+    }
+
+    /**
+     * updateQuestion(false) on the first question: wraps around to the last one and back.
+     */
+    @Benchmark
+    public int updateQuestionWrapAround() {
+        mHalfAnswered.moveToPrev();
+        int last = mHalfAnswered.getCurrentIndex();
+        mHalfAnswered.moveToNext();
+        return last + mHalfAnswered.getCurrentTextResId();
+    }
+
+    /**
+     * checkIfFinished() after an answer.
+     */
+    @Benchmark
+    public boolean checkIfFinished() {
+        return mHalfAnswered.isFinished();
+    }
+
+    /**
+     * Decision made for changeButtonsAfterUpdate(): which of the answer/navigation/cheat/start again buttons
+     * are enabled, by the same {@link QuizViewState#of(QuizSession)} the session loop uses.
+     */
+    @Benchmark
+    public QuizViewState changeButtonsAfterUpdateState() {
+        mHalfAnswered.moveToNext();
+        return QuizViewState.of(mHalfAnswered);
+    }
+
+    /**
+     * onSaveInstanceState() followed by the restore in onCreate(), without the Bundle itself.
+     */
+    @Benchmark
+    public QuizSession saveRestoreRoundTrip() {
+        QuizStateCodec.decode(QuizStateCodec.encode(mHalfAnswered), mRestored);
+        return mRestored;
+    }
+}
@@ -0,0 +1,78 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the result export: flushing a batch of results (columnar encoding and compression)
+ * and the size of one result in the batch (printed at the start of the trial).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResultExportBenchmark {
+
+    @Param({"32", "256"})
+    public int batchSize;
+
+    @Param({"6", "100"})
+    public int questionCount;
+
+    private List<QuizResult> mResults;
+    private byte[] mBatch;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        mResults = new ArrayList<>();
+        long startedAt = 1_600_000_000_000L;
+        for (int i = 0; i < batchSize; i++) {
+            startedAt += random.nextInt(3_600_000);
+            QuizResult.Recorder recorder = new QuizResult.Recorder(questionCount, startedAt);
+            long time = startedAt;
+            int correct = 0;
+            for (int index = 0; index < questionCount; index++) {
+                time += 2000 + random.nextInt(10_000);
+                boolean isCorrect = random.nextInt(4) != 0;
+                correct += isCorrect ? 1 : 0;
+                recorder.recordAnswer(index, isCorrect ? QuizSession.Verdict.CORRECT : QuizSession.Verdict.INCORRECT,
+                        time);
+            }
+            mResults.add(recorder.snapshot(time, correct * 100 / questionCount));
+        }
+        mBatch = ResultBatchCodec.encode(mResults);
+        System.out.printf(Locale.ENGLISH, "%.1f B per result in a batch%n", (double) mBatch.length / batchSize);
+    }
+
+    /**
+     * Batches flushed per second (multiply by the batch size for results per second).
+     */
+    @Benchmark
+    public byte[] flushBatch() {
+        return ResultBatchCodec.encode(mResults);
+    }
+
+    @Benchmark
+    public List<QuizResult> ingestBatch() {
+        return ResultBatchCodec.decode(mBatch);
+    }
+}
@@ -0,0 +1,114 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latencies of the session loop as the UI sees them, with the loop journaling every batch as QuizActivity does:
+ * <ul>
+ * <li>offer: the cost of a tap on the UI thread, a few atomic operations whatever the loop is doing;</li>
+ * <li>offerToSnapshot: from the tap to the snapshot which has applied it.</li>
+ * </ul>
+ * Sample time mode gives the percentiles (p50, p99) of both.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionEventLoopBenchmark {
+
+    private static final int BANK_SIZE = 200_000;
+    private static final long BANK_KEY = 1;
+
+    private File mFile;
+    private SessionJournal mJournal;
+    private SessionEventLoop mLoop;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        PackedQuestionStore store = new PackedQuestionStore(BANK_SIZE);
+        for (int i = 0; i < BANK_SIZE; i++) {
+            store.set(i, i, (i & 1) == 0);
+        }
+        QuizSession session = new QuizSession(store);
+        mFile = File.createTempFile("session", ".journal");
+        mJournal = SessionJournal.open(mFile, session, BANK_KEY);
+        final SessionJournal journal = mJournal;
+        mLoop = new SessionEventLoop(session, SessionEventLoop.DEFAULT_CAPACITY, new SessionEventLoop.Listener() {
+            @Override
+            public void onAnswered(int index, boolean userPressedTrue, QuizSession.Verdict verdict) {
+            }
+
+            @Override
+            public void onCheated(boolean answerShown) {
+            }
+
+            @Override
+            public void onRestarted() {
+            }
+
+            @Override
+            public void onEvents(int[] events, int count) {
+                journal.append(events, 0, count);
+            }
+
+            @Override
+            public void onSnapshot(QuizSession session, SessionEventLoop.Snapshot snapshot) {
+                journal.snapshotIfNeeded(session);
+            }
+        });
+        mLoop.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException, InterruptedException {
+        mLoop.close();
+        mLoop.awaitClosed();
+        mJournal.close();
+        mFile.delete();
+        new File(mFile.getPath() + ".snapshot").delete();
+    }
+
+    /**
+     * Answering the question on the screen; a full ring rejects the tap without waiting for the loop.
+     */
+    @Benchmark
+    public boolean offer() {
+        return mLoop.offerAnswer(mLoop.getSnapshot().getState().getCurrentIndex(), true);
+    }
+
+    /**
+     * Answering the question and waiting for the snapshot, as the main thread gets it posted.
+     */
+    @Benchmark
+    public SessionEventLoop.Snapshot offerToSnapshot() {
+        SessionEventLoop loop = mLoop;
+        SessionEventLoop.Snapshot snapshot = loop.getSnapshot();
+        if (snapshot.getState().isFinished()) {
+            loop.offerRestart();
+        } else {
+            loop.offerAnswer(snapshot.getState().getCurrentIndex(), true);
+        }
+        long offered = loop.getOfferedCount();
+        while ((snapshot = loop.getSnapshot()).getSequence() < offered) {
+            Thread.yield();
+        }
+        return snapshot;
+    }
+}
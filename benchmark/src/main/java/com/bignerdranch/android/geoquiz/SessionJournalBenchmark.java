@@ -0,0 +1,124 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the session journal: append throughput on the calling thread (the writer works in the background)
+ * and recovery time of journals with millions of events and no snapshot.
+ */
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SessionJournalBenchmark {
+
+    private static final int BANK_SIZE = 1_000_000;
+    private static final long BANK_KEY = 1;
+
+    private static QuizSession newSession() {
+        PackedQuestionStore store = new PackedQuestionStore(BANK_SIZE);
+        for (int i = 0; i < BANK_SIZE; i++) {
+            store.set(i, i, (i & 1) == 0);
+        }
+        return new QuizSession(store);
+    }
+
+    private static File tempJournal() throws IOException {
+        File file = File.createTempFile("session", ".journal");
+        file.deleteOnExit();
+        new File(file.getPath() + ".snapshot").deleteOnExit();
+        return file;
+    }
+
+    @State(Scope.Thread)
+    public static class AppendState {
+
+        File mFile;
+        SessionJournal mJournal;
+        int mIndex;
+
+        @Setup(Level.Iteration)
+        public void setUp() throws IOException {
+            mFile = tempJournal();
+            mJournal = SessionJournal.open(mFile, newSession(), BANK_KEY, Integer.MAX_VALUE,
+                    SessionJournal.DEFAULT_FLUSH_INTERVAL_MILLIS);
+        }
+
+        @TearDown(Level.Iteration)
+        public void tearDown() throws IOException {
+            mJournal.close();
+            mFile.delete();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RecoveryState {
+
+        @Param({"1000000", "5000000"})
+        public int events;
+
+        File mFile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws IOException {
+            mFile = tempJournal();
+            SessionJournal journal = SessionJournal.open(mFile, newSession(), BANK_KEY, Integer.MAX_VALUE, 10);
+            for (int i = 0; i < events; i++) {
+                int index = i % (BANK_SIZE + 1);
+                if (index == BANK_SIZE) {
+                    journal.append(SessionEvent.restarted().pack());
+                } else {
+                    journal.append(SessionEvent.answered(index, (i & 1) == 0).pack());
+                }
+            }
+            journal.close();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            mFile.delete();
+        }
+    }
+
+    /**
+     * Appending an answer from the UI thread: only a copy into the pending batch under a short lock.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void append(AppendState state) {
+        state.mJournal.append(SessionEvent.answered(state.mIndex, true).pack());
+        state.mIndex = (state.mIndex + 1) % BANK_SIZE;
+    }
+
+    /**
+     * Recovering a session by replaying the whole journal.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public QuizSession recover(RecoveryState state) throws IOException {
+        QuizSession session = newSession();
+        SessionJournal journal = SessionJournal.open(state.mFile, session, BANK_KEY);
+        journal.close();
+        if (journal.getRecoveredEvents() != state.events) {
+            throw new IllegalStateException("Recovered " + journal.getRecoveredEvents() + " events");
+        }
+        return session;
+    }
+}
@@ -0,0 +1,93 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay throughput of the event-sourced session over a bank of 1M questions and a log of 1M events:
+ * the whole log from the beginning (time per event), the state at a random point of the log restored
+ * from the closest snapshot, and appending one event through the pure reducer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SessionReplayBenchmark {
+
+    private static final int BANK_SIZE = 1_000_000;
+    private static final int EVENT_COUNT = 1_000_000;
+
+    private SessionReducer mReducer;
+    private SessionEventLog mLog;
+    private int[] mEvents;
+    private Random mRandom;
+    private SessionEventLog mAppendLog;
+    private int mNextToAnswer;
+
+    @Setup
+    public void setUp() {
+        Question[] questions = new Question[BANK_SIZE];
+        for (int i = 0; i < BANK_SIZE; i++) {
+            questions[i] = new Question(i, i % 2 == 0);
+        }
+        mReducer = new SessionReducer(new PackedQuestionStore(questions));
+
+        // answers in random order with navigation and cheats between them
+        Random random = new Random(42);
+        int[] order = new int[BANK_SIZE];
+        for (int i = 0; i < BANK_SIZE; i++) {
+            int j = random.nextInt(i + 1);
+            order[i] = order[j];
+            order[j] = i;
+        }
+        mEvents = new int[EVENT_COUNT];
+        int answered = 0;
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            int action = random.nextInt(10);
+            if (action < 6) {
+                mEvents[i] = SessionEvent.answered(order[answered++], random.nextBoolean()).pack();
+            } else if (action < 9) {
+                mEvents[i] = SessionEvent.navigated(random.nextInt(BANK_SIZE)).pack();
+            } else {
+                mEvents[i] = SessionEvent.cheated(random.nextBoolean()).pack();
+            }
+        }
+        mLog = SessionEventLog.replay(mReducer, mEvents, SessionEventLog.DEFAULT_SNAPSHOT_INTERVAL);
+        mRandom = new Random(7);
+        mAppendLog = new SessionEventLog(mReducer);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public SessionState replayWholeLog() {
+        return mReducer.replay(mReducer.initial(), mEvents, 0, EVENT_COUNT);
+    }
+
+    @Benchmark
+    public SessionState restoreFromSnapshot() {
+        return mLog.stateAt(mRandom.nextInt(EVENT_COUNT + 1));
+    }
+
+    @Benchmark
+    public SessionState appendEvent() {
+        if (mNextToAnswer == BANK_SIZE) {
+            mAppendLog = new SessionEventLog(mReducer);
+            mNextToAnswer = 0;
+        }
+        return mAppendLog.append(SessionEvent.answered(mNextToAnswer++, true));
+    }
+}
@@ -0,0 +1,73 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Answer events packed into one long each, so streams of them are plain long[] batches
+ * without an object per event:
+ * <pre>
+ * bits  0..31 index of the question
+ * bit      32 the answer was correct
+ * bit      33 the user cheated on the question
+ * bit      34 the ability of the user is known
+ * bits 48..63 ability of the user, 0..1 in steps of 1/65535
+ * </pre>
+ * The ability is the share of correct answers the user gave in the session before this answer,
+ * it's unknown for the first answer of the session.
+ */
+public final class AnswerEvents {
+
+    private static final long CORRECT = 1L << 32;
+    private static final long CHEATED = 1L << 33;
+    private static final long HAS_ABILITY = 1L << 34;
+    private static final int ABILITY_SHIFT = 48;
+    private static final int ABILITY_MAX = 0xffff;
+
+    private AnswerEvents() {
+    }
+
+    /**
+     * @param ability share of correct answers before this one, NaN if unknown
+     */
+    public static long pack(int questionIndex, boolean correct, boolean cheated, double ability) {
+        long event = questionIndex & 0xffffffffL;
+        if (correct) {
+            event |= CORRECT;
+        }
+        if (cheated) {
+            event |= CHEATED;
+        }
+        if (!Double.isNaN(ability)) {
+            long quantized = Math.round(Math.max(0, Math.min(1, ability)) * ABILITY_MAX);
+            event |= HAS_ABILITY | quantized << ABILITY_SHIFT;
+        }
+        return event;
+    }
+
+    /**
+     * Event of the answer which gave the verdict, in a session where correctAnswers of answeredCount
+     * answers before it were correct.
+     */
+    public static long of(int questionIndex, QuizSession.Verdict verdict, int correctAnswers, int answeredCount) {
+        return pack(questionIndex, verdict == QuizSession.Verdict.CORRECT, verdict == QuizSession.Verdict.CHEATED,
+                answeredCount > 0 ? (double) correctAnswers / answeredCount : Double.NaN);
+    }
+
+    public static int questionIndex(long event) {
+        return (int) event;
+    }
+
+    public static boolean isCorrect(long event) {
+        return (event & CORRECT) != 0;
+    }
+
+    public static boolean isCheated(long event) {
+        return (event & CHEATED) != 0;
+    }
+
+    public static boolean hasAbility(long event) {
+        return (event & HAS_ABILITY) != 0;
+    }
+
+    public static double ability(long event) {
+        return (double) (event >>> ABILITY_SHIFT) / ABILITY_MAX;
+    }
+}
@@ -0,0 +1,70 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Submitted answer sheet of one quiz, encoded as bitmaps with one bit per question,
+ * so {@link BatchGrader} can grade 64 questions with a few word operations.
+ */
+public class AnswerSheet {
+
+    private final int mQuestionCount;
+    // set if the question is answered
+    private final long[] mAnswered;
+    // set if the answer is "true", meaningful only for answered questions
+    private final long[] mAnswers;
+    // set if the user cheated on the question, so the answer isn't counted
+    private final long[] mCheated;
+
+    public AnswerSheet(int questionCount) {
+        mQuestionCount = questionCount;
+        int words = (questionCount + 63) >>> 6;
+        mAnswered = new long[words];
+        mAnswers = new long[words];
+        mCheated = new long[words];
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Recording the answer to the question.
+     *
+     * @param index           index of the question
+     * @param userPressedTrue answer of the user
+     */
+    public void setAnswer(int index, boolean userPressedTrue) {
+        checkIndex(index);
+        mAnswered[index >>> 6] |= 1L << index;
+        if (userPressedTrue) {
+            mAnswers[index >>> 6] |= 1L << index;
+        } else {
+            mAnswers[index >>> 6] &= ~(1L << index);
+        }
+    }
+
+    /**
+     * Marking the question as cheated on, like QuizSession does after CheatActivity showed the answer.
+     */
+    public void setCheated(int index) {
+        checkIndex(index);
+        mCheated[index >>> 6] |= 1L << index;
+    }
+
+    long[] answeredWords() {
+        return mAnswered;
+    }
+
+    long[] answerWords() {
+        return mAnswers;
+    }
+
+    long[] cheatedWords() {
+        return mCheated;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mQuestionCount) {
+            throw new IndexOutOfBoundsException("Question index " + index + " is out of range");
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Offline grader of answer sheets in bulk, with the same rules as {@link QuizSession#checkAnswer(boolean)}:
+ * an answer counts if it matches the key, unless the user cheated on the question.
+ * <p>
+ * The answer key and the sheets are bitmaps, so 64 questions are graded at once:
+ * correct = popcount(answered &amp; ~cheated &amp; ~(answers ^ key)).
+ * Large batches are split over the cores with fork-join.
+ */
+public class BatchGrader {
+
+    // a fork-join task grades at least this many words of answers sequentially
+    private static final int WORDS_PER_TASK = 16 * 1024;
+
+    private final int mQuestionCount;
+    private final long[] mKey;
+
+    public BatchGrader(QuestionStore questions) {
+        mQuestionCount = questions.size();
+        mKey = new long[(mQuestionCount + 63) >>> 6];
+        for (int i = 0; i < mQuestionCount; i++) {
+            if (questions.isAnswerTrue(i)) {
+                mKey[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Grading one sheet.
+     *
+     * @return number of correct answers
+     */
+    public int grade(AnswerSheet sheet) {
+        if (sheet.getQuestionCount() != mQuestionCount) {
+            throw new IllegalArgumentException("Answer sheet doesn't match the answer key");
+        }
+        long[] key = mKey;
+        long[] answered = sheet.answeredWords();
+        long[] answers = sheet.answerWords();
+        long[] cheated = sheet.cheatedWords();
+        int correct = 0;
+        for (int i = 0; i < key.length; i++) {
+            correct += Long.bitCount(answered[i] & ~cheated[i] & ~(answers[i] ^ key[i]));
+        }
+        return correct;
+    }
+
+    /**
+     * Grading the sheets on the common fork-join pool.
+     *
+     * @return number of correct answers of every sheet
+     */
+    public int[] gradeAll(AnswerSheet[] sheets) {
+        return gradeAll(sheets, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Grading the sheets on the given fork-join pool.
+     *
+     * @return number of correct answers of every sheet
+     */
+    public int[] gradeAll(AnswerSheet[] sheets, ForkJoinPool pool) {
+        int[] scores = new int[sheets.length];
+        int sheetsPerTask = Math.max(1, WORDS_PER_TASK / mKey.length);
+        pool.invoke(new GradeTask(sheets, scores, 0, sheets.length, sheetsPerTask));
+        return scores;
+    }
+
+    /**
+     * Grading the sheets one by one on the calling thread.
+     */
+    public int[] gradeAllSequential(AnswerSheet[] sheets) {
+        int[] scores = new int[sheets.length];
+        for (int i = 0; i < sheets.length; i++) {
+            scores[i] = grade(sheets[i]);
+        }
+        return scores;
+    }
+
+    private class GradeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final AnswerSheet[] mSheets;
+        private final int[] mScores;
+        private final int mFrom;
+        private final int mTo;
+        private final int mSheetsPerTask;
+
+        GradeTask(AnswerSheet[] sheets, int[] scores, int from, int to, int sheetsPerTask) {
+            mSheets = sheets;
+            mScores = scores;
+            mFrom = from;
+            mTo = to;
+            mSheetsPerTask = sheetsPerTask;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mSheetsPerTask) {
+                for (int i = mFrom; i < mTo; i++) {
+                    mScores[i] = grade(mSheets[i]);
+                }
+                return;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new GradeTask(mSheets, mScores, mFrom, middle, mSheetsPerTask),
+                    new GradeTask(mSheets, mScores, middle, mTo, mSheetsPerTask));
+        }
+    }
+}
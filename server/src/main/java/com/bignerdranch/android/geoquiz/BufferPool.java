@@ -0,0 +1,44 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of direct buffers of one size, so connections don't allocate a buffer per read or response.
+ * Connections hold a buffer only while they have unparsed input or unsent output.
+ * <p>
+ * Not thread-safe: every IO loop of {@link QuizHttpServer} has its own pool.
+ */
+public class BufferPool {
+
+    private final int mBufferSize;
+    private final int mMaxPooled;
+    private final ArrayDeque<ByteBuffer> mFree = new ArrayDeque<>();
+
+    public BufferPool(int bufferSize, int maxPooled) {
+        mBufferSize = bufferSize;
+        mMaxPooled = maxPooled;
+    }
+
+    public int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Taking a cleared buffer from the pool, allocating a new one if the pool is empty.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = mFree.pollFirst();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(mBufferSize);
+    }
+
+    /**
+     * Returning the buffer to the pool. Buffers of other sizes (oversized responses) are just dropped.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() == mBufferSize && mFree.size() < mMaxPooled) {
+            buffer.clear();
+            mFree.addFirst(buffer);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Estimates of the questions at the moment of {@link DifficultyCalibrator#snapshot()}.
+ * The raw sums are copied, the estimates are derived on request.
+ */
+public class CalibrationSnapshot {
+
+    final long[] mAnswers;
+    final long[] mCorrect;
+    final long[] mCheated;
+    final long[] mRated;
+    final long[] mRatedCorrect;
+    final double[] mAbilitySum;
+    final double[] mAbilitySquareSum;
+    final double[] mCorrectAbilitySum;
+
+    CalibrationSnapshot(int questionCount) {
+        mAnswers = new long[questionCount];
+        mCorrect = new long[questionCount];
+        mCheated = new long[questionCount];
+        mRated = new long[questionCount];
+        mRatedCorrect = new long[questionCount];
+        mAbilitySum = new double[questionCount];
+        mAbilitySquareSum = new double[questionCount];
+        mCorrectAbilitySum = new double[questionCount];
+    }
+
+    public int getQuestionCount() {
+        return mAnswers.length;
+    }
+
+    /**
+     * Number of counted (not cheated) answers to the question.
+     */
+    public long getAnswers(int question) {
+        return mAnswers[question];
+    }
+
+    public long getCheats(int question) {
+        return mCheated[question];
+    }
+
+    /**
+     * Share of correct answers to the question, NaN if there are no counted answers yet.
+     */
+    public double getCorrectRate(int question) {
+        return mAnswers[question] == 0 ? Double.NaN : (double) mCorrect[question] / mAnswers[question];
+    }
+
+    /**
+     * Difficulty of the question: 0 - everybody answers correctly, 1 - nobody does.
+     */
+    public double getDifficulty(int question) {
+        return 1 - getCorrectRate(question);
+    }
+
+    /**
+     * Share of the answers to the question given after cheating, NaN if there are no answers yet.
+     */
+    public double getCheatRate(int question) {
+        long all = mAnswers[question] + mCheated[question];
+        return all == 0 ? Double.NaN : (double) mCheated[question] / all;
+    }
+
+    /**
+     * Discrimination of the question: correlation between answering it correctly and the ability
+     * of the user, from -1 to 1. High values mean that stronger users answer it correctly more often;
+     * values near 0 or negative mark a question which doesn't tell users apart (or has a wrong answer).
+     * NaN if it can't be estimated yet (every rated answer is correct, or every one is wrong,
+     * or all the users had the same ability).
+     */
+    public double getDiscrimination(int question) {
+        long n = mRated[question];
+        if (n < 2) {
+            return Double.NaN;
+        }
+        double meanAbility = mAbilitySum[question] / n;
+        double abilityVariance = mAbilitySquareSum[question] / n - meanAbility * meanAbility;
+        double correctShare = (double) mRatedCorrect[question] / n;
+        double correctVariance = correctShare * (1 - correctShare);
+        if (abilityVariance <= 0 || correctVariance <= 0) {
+            return Double.NaN;
+        }
+        double covariance = mCorrectAbilitySum[question] / n - correctShare * meanAbility;
+        return covariance / Math.sqrt(abilityVariance * correctVariance);
+    }
+}
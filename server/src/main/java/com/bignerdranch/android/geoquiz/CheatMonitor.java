@@ -0,0 +1,264 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Detection of the cheating abuse over the cheats of all the sessions: QuizSession limits the cheats
+ * by {@link QuizSession#MAX_CHEAT_COUNT}, but restarting the quiz resets the limit. The monitor counts
+ * the cheats of every user over a sliding window, whatever the restarts: a user may cheat up to the limit
+ * in the window, and the cheats over the limit are flagged as abuse.
+ * <p>
+ * The window is split into {@link #getBucketCount()} buckets by time, the oldest bucket is cleared when
+ * the window moves on. Cheats of the users are counted in a count-min sketch: {@link #DEPTH} rows of
+ * {@code width} cells, a user is counted in one cell of every row chosen by a hash of its id, and its
+ * estimate is the smallest of the sums of its cells over the buckets of the window. The estimate never
+ * falls short of the real count and exceeds it by at most e / width of all the cheats in the window
+ * (with probability 1 - e^-DEPTH), so the width is chosen from the expected cheats per window and
+ * the memory is fixed however many users there are. The buckets of a cell lie side by side, so a cheat
+ * touches {@link #DEPTH} cache lines. Cheats of every question are counted exactly, one ring of buckets
+ * per question.
+ * <p>
+ * Counting is lock-free (atomic increments); only the move of the window to the next bucket is locked.
+ * A cheat counted at the same time as its bucket is cleared may be lost or counted in the new bucket.
+ */
+public class CheatMonitor {
+
+    public static final int DEPTH = 4;
+    public static final int DEFAULT_WIDTH = 1 << 16;
+    public static final long DEFAULT_WINDOW_MILLIS = 8 * 60 * 1000;
+    public static final int DEFAULT_BUCKETS = 8;
+    // two quizzes' worth of cheats in the window: one restart is fine, a series of them is not
+    public static final int DEFAULT_LIMIT = 2 * QuizSession.MAX_CHEAT_COUNT;
+
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final int mQuestionCount;
+    private final int mWidth;
+    private final int mBuckets;
+    private final long mBucketMillis;
+    private final int mLimit;
+
+    // cell counts: [row][column][bucket], flattened
+    private final AtomicIntegerArray mUserCounts;
+    // question counts: [question][bucket], flattened
+    private final AtomicIntegerArray mQuestionCounts;
+    // time bucket (time / bucket length) held by each slot, -1 - none yet
+    private final AtomicLongArray mSlotBuckets;
+    // newest time bucket seen, written under the lock
+    private volatile long mLatestBucket = -1;
+
+    private final LongAdder mCheats = new LongAdder();
+    private final LongAdder mFlaggedCheats = new LongAdder();
+
+    /**
+     * Monitor with the default window, limit and sketch width.
+     */
+    public CheatMonitor(int questionCount) {
+        this(questionCount, DEFAULT_WINDOW_MILLIS, DEFAULT_BUCKETS, DEFAULT_LIMIT, DEFAULT_WIDTH);
+    }
+
+    /**
+     * @param questionCount number of questions in the bank
+     * @param windowMillis  length of the sliding window
+     * @param buckets       number of the buckets of the window, the window moves by one bucket at a time
+     * @param limit         number of cheats a user may make in the window
+     * @param width         number of cells in a row of the sketch, a power of two
+     */
+    public CheatMonitor(int questionCount, long windowMillis, int buckets, int limit, int width) {
+        if (buckets <= 0 || windowMillis < buckets) {
+            throw new IllegalArgumentException("Window of " + windowMillis + " ms can't have " + buckets + " buckets");
+        }
+        if (width <= 0 || Integer.bitCount(width) != 1 || (long) DEPTH * width * buckets > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Sketch width " + width + " isn't a power of two or is too large");
+        }
+        mQuestionCount = questionCount;
+        mWidth = width;
+        mBuckets = buckets;
+        mBucketMillis = windowMillis / buckets;
+        mLimit = limit;
+        mUserCounts = new AtomicIntegerArray(DEPTH * width * buckets);
+        mQuestionCounts = new AtomicIntegerArray(questionCount * buckets);
+        mSlotBuckets = new AtomicLongArray(buckets);
+        for (int slot = 0; slot < buckets; slot++) {
+            mSlotBuckets.set(slot, -1);
+        }
+    }
+
+    public int getBucketCount() {
+        return mBuckets;
+    }
+
+    public int getLimit() {
+        return mLimit;
+    }
+
+    /**
+     * Memory of the counters, fixed at creation.
+     */
+    public long getMemoryBytes() {
+        return 4L * (mUserCounts.length() + mQuestionCounts.length()) + 8L * mSlotBuckets.length();
+    }
+
+    /**
+     * Number of cheats counted so far.
+     */
+    public long getCheats() {
+        return mCheats.sum();
+    }
+
+    /**
+     * Number of cheats over the limit of their users.
+     */
+    public long getFlaggedCheats() {
+        return mFlaggedCheats.sum();
+    }
+
+    /**
+     * Counting the cheat (the answer to the question was shown to the user).
+     *
+     * @param userId     id of the user (or of the session)
+     * @param question   index of the question
+     * @param timeMillis time of the cheat, milliseconds since the epoch
+     * @return true, if the cheat is over the limit of the user (abuse)
+     * @throws IndexOutOfBoundsException if the question index is out of range
+     */
+    public boolean record(long userId, int question, long timeMillis) {
+        if (question < 0 || question >= mQuestionCount) {
+            throw new IndexOutOfBoundsException("Question index " + question + " is out of range");
+        }
+        long bucket = timeMillis / mBucketMillis;
+        int slot = slotOf(bucket);
+        if (!moveTo(slot, bucket)) { // older than the window
+            return false;
+        }
+        mCheats.increment();
+        mQuestionCounts.incrementAndGet(question * mBuckets + slot);
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int cell = cellOf(row, userId);
+            mUserCounts.incrementAndGet(cell + slot);
+            estimate = Math.min(estimate, sumOfCell(cell, bucket));
+        }
+        if (estimate > mLimit) {
+            mFlaggedCheats.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checking if the user may cheat once more, e.g. before showing the answer.
+     *
+     * @param timeMillis current time, milliseconds since the epoch
+     */
+    public boolean isAllowed(long userId, long timeMillis) {
+        return getUserCheats(userId, timeMillis) < mLimit;
+    }
+
+    /**
+     * Estimated number of cheats of the user in the window ending at the given time: never less than the real one.
+     */
+    public int getUserCheats(long userId, long timeMillis) {
+        long bucket = timeMillis / mBucketMillis;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            estimate = Math.min(estimate, sumOfCell(cellOf(row, userId), bucket));
+        }
+        return estimate;
+    }
+
+    /**
+     * Number of cheats on the question in the window ending at the given time.
+     *
+     * @throws IndexOutOfBoundsException if the question index is out of range
+     */
+    public int getQuestionCheats(int question, long timeMillis) {
+        if (question < 0 || question >= mQuestionCount) {
+            throw new IndexOutOfBoundsException("Question index " + question + " is out of range");
+        }
+        long bucket = timeMillis / mBucketMillis;
+        int from = question * mBuckets;
+        int sum = 0;
+        for (int slot = 0; slot < mBuckets; slot++) {
+            if (inWindow(slot, bucket)) {
+                sum += mQuestionCounts.get(from + slot);
+            }
+        }
+        return sum;
+    }
+
+    private int slotOf(long bucket) {
+        return (int) (bucket % mBuckets);
+    }
+
+    /**
+     * Index of the first bucket of the user's cell in the row.
+     */
+    private int cellOf(int row, long userId) {
+        // murmur3 finalizer over the id mixed with the seed of the row
+        long hash = userId ^ SEEDS[row];
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        hash = (hash ^ (hash >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return (row * mWidth + ((int) hash & (mWidth - 1))) * mBuckets;
+    }
+
+    private int sumOfCell(int cell, long bucket) {
+        int sum = 0;
+        for (int slot = 0; slot < mBuckets; slot++) {
+            if (inWindow(slot, bucket)) {
+                sum += mUserCounts.get(cell + slot);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Checking if the slot holds one of the buckets of the window ending with the given bucket.
+     */
+    private boolean inWindow(int slot, long bucket) {
+        long slotBucket = mSlotBuckets.get(slot);
+        return slotBucket >= 0 && slotBucket <= bucket && bucket - slotBucket < mBuckets;
+    }
+
+    /**
+     * Making the slot hold the bucket, clearing the counts of the expired bucket it held before.
+     *
+     * @return false, if the bucket is out of the window already
+     */
+    private boolean moveTo(int slot, long bucket) {
+        if (bucket + mBuckets <= mLatestBucket) {
+            return false;
+        }
+        long slotBucket = mSlotBuckets.get(slot);
+        if (slotBucket == bucket) {
+            return true;
+        }
+        if (slotBucket > bucket) {
+            return false;
+        }
+        synchronized (this) {
+            slotBucket = mSlotBuckets.get(slot);
+            if (slotBucket != bucket) {
+                if (slotBucket > bucket) {
+                    return false;
+                }
+                for (int i = slot; i < mUserCounts.length(); i += mBuckets) {
+                    mUserCounts.lazySet(i, 0);
+                }
+                for (int i = slot; i < mQuestionCounts.length(); i += mBuckets) {
+                    mQuestionCounts.lazySet(i, 0);
+                }
+                mSlotBuckets.set(slot, bucket);
+            }
+            if (bucket > mLatestBucket) {
+                mLatestBucket = bucket;
+            }
+        }
+        return true;
+    }
+}
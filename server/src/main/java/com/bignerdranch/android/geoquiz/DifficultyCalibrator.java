@@ -0,0 +1,144 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Online calibration of the questions from a stream of answer events ({@link AnswerEvents}):
+ * difficulty (share of wrong answers, i.e. 1 minus the correct rate) and discrimination (point-biserial
+ * correlation between answering the question correctly and the ability of the user) of every question.
+ * <p>
+ * Every event only adds to running sums in primitive arrays, so the memory is constant per question
+ * however many events arrive. Cheated answers are counted apart and excluded from the estimates,
+ * the same way QuizSession doesn't count them.
+ * <p>
+ * Questions are split into blocks of {@link #BLOCK_SIZE} with their own {@link StampedLock}.
+ * Writers take the lock of one block per event, while {@link #snapshot()} copies block by block
+ * with optimistic reads, so taking a snapshot doesn't stop the ingestion.
+ */
+public class DifficultyCalibrator {
+
+    public static final int BLOCK_SIZE = 4096;
+    private static final int BLOCK_SHIFT = 12;
+    // optimistic reads of a block before falling back to the read lock
+    private static final int OPTIMISTIC_ATTEMPTS = 8;
+
+    private final int mQuestionCount;
+    private final StampedLock[] mLocks;
+
+    // counted (not cheated) answers and correct ones
+    private final long[] mAnswers;
+    private final long[] mCorrect;
+    private final long[] mCheated;
+    // answers with a known ability: count, correct ones, sum of abilities, sum of squares, sum over correct answers
+    private final long[] mRated;
+    private final long[] mRatedCorrect;
+    private final double[] mAbilitySum;
+    private final double[] mAbilitySquareSum;
+    private final double[] mCorrectAbilitySum;
+
+    public DifficultyCalibrator(int questionCount) {
+        mQuestionCount = questionCount;
+        mLocks = new StampedLock[(questionCount + BLOCK_SIZE - 1) >>> BLOCK_SHIFT];
+        for (int i = 0; i < mLocks.length; i++) {
+            mLocks[i] = new StampedLock();
+        }
+        mAnswers = new long[questionCount];
+        mCorrect = new long[questionCount];
+        mCheated = new long[questionCount];
+        mRated = new long[questionCount];
+        mRatedCorrect = new long[questionCount];
+        mAbilitySum = new double[questionCount];
+        mAbilitySquareSum = new double[questionCount];
+        mCorrectAbilitySum = new double[questionCount];
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    /**
+     * Taking one event into account.
+     *
+     * @throws IndexOutOfBoundsException if the question index is out of range
+     */
+    public void accept(long event) {
+        int question = AnswerEvents.questionIndex(event);
+        if (question < 0 || question >= mQuestionCount) {
+            throw new IndexOutOfBoundsException("Question index " + question + " is out of range");
+        }
+        StampedLock lock = mLocks[question >>> BLOCK_SHIFT];
+        long stamp = lock.writeLock();
+        try {
+            if (AnswerEvents.isCheated(event)) {
+                mCheated[question]++;
+                return;
+            }
+            boolean correct = AnswerEvents.isCorrect(event);
+            mAnswers[question]++;
+            if (correct) {
+                mCorrect[question]++;
+            }
+            if (AnswerEvents.hasAbility(event)) {
+                double ability = AnswerEvents.ability(event);
+                mRated[question]++;
+                mAbilitySum[question] += ability;
+                mAbilitySquareSum[question] += ability * ability;
+                if (correct) {
+                    mRatedCorrect[question]++;
+                    mCorrectAbilitySum[question] += ability;
+                }
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Taking a batch of events into account.
+     */
+    public void acceptAll(long[] events, int from, int to) {
+        for (int i = from; i < to; i++) {
+            accept(events[i]);
+        }
+    }
+
+    /**
+     * Consistent copy of the estimates of every block of questions, taken without stopping the writers.
+     */
+    public CalibrationSnapshot snapshot() {
+        CalibrationSnapshot snapshot = new CalibrationSnapshot(mQuestionCount);
+        for (int block = 0; block < mLocks.length; block++) {
+            int from = block << BLOCK_SHIFT;
+            int length = Math.min(BLOCK_SIZE, mQuestionCount - from);
+            StampedLock lock = mLocks[block];
+            boolean copied = false;
+            for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS && !copied; attempt++) {
+                long stamp = lock.tryOptimisticRead();
+                if (stamp != 0) {
+                    copyBlock(snapshot, from, length);
+                    copied = lock.validate(stamp);
+                }
+            }
+            if (!copied) {
+                long stamp = lock.readLock();
+                try {
+                    copyBlock(snapshot, from, length);
+                } finally {
+                    lock.unlockRead(stamp);
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    private void copyBlock(CalibrationSnapshot snapshot, int from, int length) {
+        System.arraycopy(mAnswers, from, snapshot.mAnswers, from, length);
+        System.arraycopy(mCorrect, from, snapshot.mCorrect, from, length);
+        System.arraycopy(mCheated, from, snapshot.mCheated, from, length);
+        System.arraycopy(mRated, from, snapshot.mRated, from, length);
+        System.arraycopy(mRatedCorrect, from, snapshot.mRatedCorrect, from, length);
+        System.arraycopy(mAbilitySum, from, snapshot.mAbilitySum, from, length);
+        System.arraycopy(mAbilitySquareSum, from, snapshot.mAbilitySquareSum, from, length);
+        System.arraycopy(mCorrectAbilitySum, from, snapshot.mCorrectAbilitySum, from, length);
+    }
+}
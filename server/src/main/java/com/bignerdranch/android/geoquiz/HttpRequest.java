@@ -0,0 +1,149 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Minimal HTTP/1.x request, parsed straight from the bytes received by {@link QuizHttpServer}.
+ * Only what the quiz API needs is kept: method, path, keep-alive and the body.
+ */
+public class HttpRequest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String mMethod;
+    private final String mPath;
+    private final boolean mKeepAlive;
+    private final String mBody;
+
+    HttpRequest(String method, String path, boolean keepAlive, String body) {
+        mMethod = method;
+        mPath = path;
+        mKeepAlive = keepAlive;
+        mBody = body;
+    }
+
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * Path of the request without the query string.
+     */
+    public String getPath() {
+        return mPath;
+    }
+
+    public boolean isKeepAlive() {
+        return mKeepAlive;
+    }
+
+    public String getBody() {
+        return mBody;
+    }
+
+    /**
+     * Parsing one request from the bytes between position and limit of the buffer.
+     * On success the position is moved past the request, so pipelined requests are parsed by calling it again.
+     *
+     * @return the request, null if the buffer doesn't hold a complete request yet (position is left untouched)
+     * @throws IllegalArgumentException if the request is malformed
+     */
+    public static HttpRequest parse(ByteBuffer buffer) {
+        int start = buffer.position();
+        int headerEnd = indexOfHeaderEnd(buffer, start, buffer.limit());
+        if (headerEnd < 0) {
+            return null;
+        }
+
+        int lineEnd = indexOfLineEnd(buffer, start, headerEnd);
+        int firstSpace = indexOf(buffer, ' ', start, lineEnd);
+        int secondSpace = indexOf(buffer, ' ', firstSpace + 1, lineEnd);
+        if (firstSpace < 0 || secondSpace < 0) {
+            throw new IllegalArgumentException("Malformed request line");
+        }
+        String method = ascii(buffer, start, firstSpace);
+        int pathEnd = indexOf(buffer, '?', firstSpace + 1, secondSpace);
+        String path = ascii(buffer, firstSpace + 1, pathEnd < 0 ? secondSpace : pathEnd);
+        boolean keepAlive = !ascii(buffer, secondSpace + 1, lineEnd).equals("HTTP/1.0");
+
+        int contentLength = 0;
+        int line = lineEnd + 2;
+        while (line < headerEnd) {
+            int end = indexOfLineEnd(buffer, line, headerEnd);
+            int colon = indexOf(buffer, ':', line, end);
+            if (colon < 0) {
+                throw new IllegalArgumentException("Malformed header");
+            }
+            String name = ascii(buffer, line, colon);
+            if (name.equalsIgnoreCase("Content-Length")) {
+                try {
+                    contentLength = Integer.parseInt(ascii(buffer, colon + 1, end).trim());
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Malformed Content-Length");
+                }
+                if (contentLength < 0) {
+                    throw new IllegalArgumentException("Malformed Content-Length");
+                }
+            } else if (name.equalsIgnoreCase("Connection")) {
+                String value = ascii(buffer, colon + 1, end).trim();
+                if (value.equalsIgnoreCase("close")) {
+                    keepAlive = false;
+                } else if (value.equalsIgnoreCase("keep-alive")) {
+                    keepAlive = true;
+                }
+            }
+            line = end + 2;
+        }
+
+        int bodyStart = headerEnd + 4;
+        if (buffer.limit() - bodyStart < contentLength) {
+            if (bodyStart + contentLength - start > buffer.capacity()) {
+                throw new IllegalArgumentException("Request is too large");
+            }
+            return null;
+        }
+        String body = "";
+        if (contentLength > 0) {
+            byte[] bytes = new byte[contentLength];
+            buffer.position(bodyStart);
+            buffer.get(bytes);
+            body = new String(bytes, UTF_8);
+        }
+        buffer.position(bodyStart + contentLength);
+        return new HttpRequest(method, path, keepAlive, body);
+    }
+
+    // index of "\r\n\r\n", -1 if there's none
+    private static int indexOfHeaderEnd(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i + 3 < to; i++) {
+            if (buffer.get(i) == '\r' && buffer.get(i + 1) == '\n'
+                    && buffer.get(i + 2) == '\r' && buffer.get(i + 3) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOfLineEnd(ByteBuffer buffer, int from, int headerEnd) {
+        int end = indexOf(buffer, '\r', from, headerEnd);
+        return end < 0 ? headerEnd : end;
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String ascii(ByteBuffer buffer, int from, int to) {
+        char[] chars = new char[to - from];
+        for (int i = from; i < to; i++) {
+            chars[i - from] = (char) (buffer.get(i) & 0xff);
+        }
+        return new String(chars);
+    }
+}
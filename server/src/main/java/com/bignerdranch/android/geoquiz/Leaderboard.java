@@ -0,0 +1,242 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Leaderboard of the best quiz result of every user, ordered by score (higher first)
+ * and completion time (earlier first), for submits, "what is my rank" and top-K queries
+ * under heavy concurrent writes.
+ * <p>
+ * Scores are percents, as shown by QuizActivity, so there are only 101 of them: every score has
+ * its own {@link RankTree} of (completion time, user) with its own lock, and the number of entries
+ * of every score is kept in an atomic array. The rank of a user is the number of entries with better
+ * scores (at most 100 counters to add) plus the rank in the tree of the score, O(log n).
+ * The best result of every user is kept in primitive hash tables split into {@link #STRIPES}
+ * stripes with their own locks, like the sessions of {@link QuizSessionManager}.
+ * <p>
+ * Queries don't lock the whole leaderboard, so under concurrent submits a rank reflects the
+ * submits finished before the query and possibly some of the ones running at the same time.
+ */
+public class Leaderboard {
+
+    public static final int MAX_SCORE = 100;
+    public static final int STRIPES = 256;
+
+    private static final int TIME_BITS = 56;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+
+    private final RankTree[] mTrees = new RankTree[MAX_SCORE + 1];
+    private final AtomicIntegerArray mCounts = new AtomicIntegerArray(MAX_SCORE + 1);
+    private final UserTable[] mUsers = new UserTable[STRIPES];
+
+    public Leaderboard() {
+        for (int i = 0; i <= MAX_SCORE; i++) {
+            mTrees[i] = new RankTree();
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            mUsers[i] = new UserTable();
+        }
+    }
+
+    /**
+     * Number of users on the leaderboard.
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i <= MAX_SCORE; i++) {
+            size += mCounts.get(i);
+        }
+        return size;
+    }
+
+    /**
+     * Submitting a result of the user. Only the best result of every user is kept.
+     *
+     * @param userId         id of the user (or of the session), not negative
+     * @param scorePercent   result in % of correct answers
+     * @param completionTime time when the quiz was finished, milliseconds since the epoch
+     * @return true, if the result is the new best result of the user
+     */
+    public boolean submit(long userId, int scorePercent, long completionTime) {
+        if (userId < 0) {
+            throw new IllegalArgumentException("User id must not be negative");
+        }
+        if (scorePercent < 0 || scorePercent > MAX_SCORE) {
+            throw new IllegalArgumentException("Score must be between 0 and " + MAX_SCORE);
+        }
+        if (completionTime < 0 || completionTime > TIME_MASK) {
+            throw new IllegalArgumentException("Completion time is out of range");
+        }
+
+        long result = pack(scorePercent, completionTime);
+        UserTable users = mUsers[stripe(userId)];
+        synchronized (users) {
+            long previous = users.get(userId);
+            if (previous >= 0 && !isBetter(result, previous)) {
+                return false;
+            }
+            users.put(userId, result);
+            if (previous >= 0) {
+                int previousScore = score(previous);
+                RankTree tree = mTrees[previousScore];
+                synchronized (tree) {
+                    tree.remove(time(previous), userId);
+                }
+                mCounts.decrementAndGet(previousScore);
+            }
+            RankTree tree = mTrees[scorePercent];
+            synchronized (tree) {
+                tree.insert(completionTime, userId);
+            }
+            mCounts.incrementAndGet(scorePercent);
+            return true;
+        }
+    }
+
+    /**
+     * Rank of the user, 1 is the best.
+     *
+     * @return the rank, -1 if the user isn't on the leaderboard
+     */
+    public int getRank(long userId) {
+        LeaderboardEntry entry = getEntry(userId);
+        return entry != null ? entry.getRank() : -1;
+    }
+
+    /**
+     * Best result of the user with its rank, null if the user isn't on the leaderboard.
+     */
+    public LeaderboardEntry getEntry(long userId) {
+        if (userId < 0) {
+            return null;
+        }
+        UserTable users = mUsers[stripe(userId)];
+        while (true) {
+            long result;
+            synchronized (users) {
+                result = users.get(userId);
+            }
+            if (result < 0) {
+                return null;
+            }
+            int score = score(result);
+            int rankInScore;
+            RankTree tree = mTrees[score];
+            synchronized (tree) {
+                rankInScore = tree.rankOf(time(result), userId);
+            }
+            if (rankInScore >= 0) {
+                int better = 0;
+                for (int i = MAX_SCORE; i > score; i--) {
+                    better += mCounts.get(i);
+                }
+                return new LeaderboardEntry(userId, score, time(result), better + rankInScore + 1);
+            }
+            // the user has just improved the result, looking again
+        }
+    }
+
+    /**
+     * Best results, at most count of them, best first.
+     */
+    public List<LeaderboardEntry> getTop(int count) {
+        List<LeaderboardEntry> top = new ArrayList<>(Math.min(count, 1024));
+        for (int score = MAX_SCORE; score >= 0 && top.size() < count; score--) {
+            RankTree tree = mTrees[score];
+            synchronized (tree) {
+                tree.collect(score, top.size() + 1, count - top.size(), top);
+            }
+        }
+        return top;
+    }
+
+    private static boolean isBetter(long result, long than) {
+        int score = score(result);
+        int thanScore = score(than);
+        return score > thanScore || score == thanScore && time(result) < time(than);
+    }
+
+    private static long pack(int score, long time) {
+        return (long) score << TIME_BITS | time;
+    }
+
+    private static int score(long result) {
+        return (int) (result >>> TIME_BITS);
+    }
+
+    private static long time(long result) {
+        return result & TIME_MASK;
+    }
+
+    private static int stripe(long userId) {
+        return (int) (userId ^ userId >>> 32) & (STRIPES - 1);
+    }
+
+    /**
+     * Open addressing hash table of user id -> packed best result, not thread-safe.
+     * Keys are stored inverted, so 0 marks an empty slot.
+     */
+    private static class UserTable {
+
+        private long[] mKeys = new long[16];
+        private long[] mValues = new long[16];
+        private int mSize;
+
+        long get(long userId) {
+            long key = ~userId;
+            int mask = mKeys.length - 1;
+            for (int i = hash(userId) & mask; ; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    return mValues[i];
+                }
+                if (mKeys[i] == 0) {
+                    return -1;
+                }
+            }
+        }
+
+        void put(long userId, long value) {
+            long key = ~userId;
+            int mask = mKeys.length - 1;
+            for (int i = hash(userId) & mask; ; i = (i + 1) & mask) {
+                if (mKeys[i] == key) {
+                    mValues[i] = value;
+                    return;
+                }
+                if (mKeys[i] == 0) {
+                    mKeys[i] = key;
+                    mValues[i] = value;
+                    if (++mSize * 2 > mKeys.length) {
+                        grow();
+                    }
+                    return;
+                }
+            }
+        }
+
+        private void grow() {
+            long[] keys = mKeys;
+            long[] values = mValues;
+            mKeys = new long[keys.length * 2];
+            mValues = new long[keys.length * 2];
+            int mask = mKeys.length - 1;
+            for (int j = 0; j < keys.length; j++) {
+                if (keys[j] != 0) {
+                    int i = hash(~keys[j]) & mask;
+                    while (mKeys[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    mKeys[i] = keys[j];
+                    mValues[i] = values[j];
+                }
+            }
+        }
+
+        private static int hash(long userId) {
+            long h = userId * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32);
+        }
+    }
+}
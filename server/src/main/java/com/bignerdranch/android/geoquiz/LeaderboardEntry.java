@@ -0,0 +1,43 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Immutable result of a user on the {@link Leaderboard}.
+ */
+public class LeaderboardEntry {
+
+    private final long mUserId;
+    private final int mScorePercent;
+    private final long mCompletionTime;
+    private final int mRank;
+
+    public LeaderboardEntry(long userId, int scorePercent, long completionTime, int rank) {
+        mUserId = userId;
+        mScorePercent = scorePercent;
+        mCompletionTime = completionTime;
+        mRank = rank;
+    }
+
+    public long getUserId() {
+        return mUserId;
+    }
+
+    public int getScorePercent() {
+        return mScorePercent;
+    }
+
+    public long getCompletionTime() {
+        return mCompletionTime;
+    }
+
+    /**
+     * Rank on the leaderboard, 1 is the best.
+     */
+    public int getRank() {
+        return mRank;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + mRank + " user " + mUserId + ": " + mScorePercent + "% at " + mCompletionTime;
+    }
+}
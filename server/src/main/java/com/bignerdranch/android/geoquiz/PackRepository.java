@@ -0,0 +1,168 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Local stand-in for the update server of the question packs: serves {@link PackDelta}s between the versions
+ * of the pack kept in a directory as {@code <version>.gqpk} files (e.g. written by {@link QuestionPackWriter}).
+ * <p>
+ * Deltas to the latest version are built on the first request from each installed version and cached,
+ * manifests are computed once per version. A device whose version isn't in the directory anymore
+ * gets the whole latest pack.
+ */
+public class PackRepository implements PackUpdater.Source {
+
+    private static final String PACK_SUFFIX = ".gqpk";
+
+    private final File mDirectory;
+    private final Map<Long, PackManifest> mManifests = new HashMap<>();
+    private final Map<String, byte[]> mDeltas = new HashMap<>();
+    private long mDeltasServed;
+    private long mBytesServed;
+
+    public PackRepository(File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Versions in the directory with their pack files, oldest first.
+     *
+     * @throws IOException if the directory can't be listed, or a pack in it isn't named by a positive version
+     */
+    public synchronized TreeMap<Long, File> getVersions() throws IOException {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list " + mDirectory);
+        }
+        TreeMap<Long, File> versions = new TreeMap<>();
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(PACK_SUFFIX)) {
+                continue;
+            }
+            long version;
+            try {
+                version = Long.parseLong(name.substring(0, name.length() - PACK_SUFFIX.length()));
+            } catch (NumberFormatException e) {
+                throw new IOException("Not a versioned pack: " + file, e);
+            }
+            // version 0 stands for no installed pack
+            if (version <= 0) {
+                throw new IOException("Not a versioned pack: " + file);
+            }
+            versions.put(version, file);
+        }
+        return versions;
+    }
+
+    @Override
+    public synchronized byte[] fetchDelta(long installedVersion) throws IOException {
+        TreeMap<Long, File> versions = getVersions();
+        if (versions.isEmpty() || installedVersion >= versions.lastKey()) {
+            return null;
+        }
+        long latest = versions.lastKey();
+        File base = versions.get(installedVersion);
+        String key = (base != null ? installedVersion : 0) + "-" + latest;
+        byte[] delta = mDeltas.get(key);
+        if (delta == null) {
+            byte[] targetContent = readFile(versions.get(latest));
+            PackManifest target = manifest(latest, targetContent);
+            if (base != null) {
+                byte[] baseContent = readFile(base);
+                delta = PackDelta.create(manifest(installedVersion, baseContent), baseContent, target, targetContent);
+            } else {
+                delta = PackDelta.create(null, null, target, targetContent);
+            }
+            mDeltas.put(key, delta);
+        }
+        mDeltasServed++;
+        mBytesServed += delta.length;
+        return delta;
+    }
+
+    public synchronized long getDeltasServed() {
+        return mDeltasServed;
+    }
+
+    public synchronized long getBytesServed() {
+        return mBytesServed;
+    }
+
+    private PackManifest manifest(long version, byte[] content) {
+        PackManifest manifest = mManifests.get(version);
+        if (manifest == null || manifest.getLength() != content.length) {
+            manifest = PackManifest.of(version, content);
+            mManifests.put(version, manifest);
+        }
+        return manifest;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() > Integer.MAX_VALUE) {
+                throw new IOException("Question pack is larger than 2 GB: " + file);
+            }
+            byte[] content = new byte[(int) raf.length()];
+            raf.readFully(content);
+            return content;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Printing the size of the delta from every version to the latest one, and the result of applying it.
+     * Usage: PackRepository &lt;directory of the versions&gt;
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: PackRepository <directory of the versions>");
+            System.exit(2);
+        }
+        PackRepository repository = new PackRepository(new File(args[0]));
+        TreeMap<Long, File> versions = repository.getVersions();
+        if (versions.isEmpty()) {
+            System.err.println("No versioned packs in " + args[0]);
+            System.exit(1);
+        }
+        File device = File.createTempFile("packs", "");
+        if (!device.delete() || !device.mkdirs()) {
+            throw new IOException("Failed to create " + device);
+        }
+        for (long version : versions.keySet()) {
+            if (version == versions.lastKey()) {
+                break;
+            }
+            // installing the version as the device would have it, then updating it to the latest one
+            PackUpdater updater = new PackUpdater(new File(device, Long.toString(version)));
+            byte[] content = readFile(versions.get(version));
+            updater.apply(PackDelta.create(null, null, PackManifest.of(version, content), content));
+            PackUpdater.Report report = updater.update(repository);
+            System.out.println(String.format(Locale.ENGLISH, "%s (pack %,d B)", report,
+                    versions.lastEntry().getValue().length()));
+        }
+        System.out.println(String.format(Locale.ENGLISH, "full: v%d, delta %,d B", versions.lastKey(),
+                repository.fetchDelta(0).length));
+        deleteTree(device);
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        if (!file.delete()) {
+            System.err.println("Failed to delete " + file);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.List;
+
+/**
+ * JSON API of the quiz over {@link QuizSessionManager}, served by {@link QuizHttpServer}:
+ * <pre>
+ * GET    /questions                              {"count":6}
+ * GET    /questions/{index}                      {"index":0,"textResId":0,"text":"..."}
+ * POST   /sessions                               {"session":1}             (body: {"user":42}, optional)
+ * DELETE /sessions/{id}                          {}
+ * GET    /sessions/{id}                          {"questions":6,"answered":2,"correct":1,"cheats":0,"finished":false,"score":16}
+ * POST   /sessions/{id}/questions/{index}/answer {"verdict":"CORRECT"}     (body: {"answer":true})
+ * POST   /sessions/{id}/questions/{index}/cheat  {"answer":true}
+ * POST   /sessions/{id}/restart                  {}
+ * GET    /sessions/{id}/rank                     {"rank":3,"score":83}          (404 until the quiz is finished)
+ * GET    /leaderboard[/{count}]                  {"top":[{"rank":1,"session":7,"score":100,"time":1600000000000},...]}
+ * </pre>
+ * Errors are 400 (malformed request), 404 (unknown session, question or path), 405 (wrong method)
+ * and 409 (question already answered, cheating not available). The server answers 500 if handling fails.
+ * The answer to a question is never exposed except through cheating.
+ * The sessions of one user share the limit of the cheats over time (see {@link CheatMonitor}); the user id
+ * isn't authenticated here, a session without it is limited on its own.
+ */
+public class QuizApi {
+
+    public static final int OK = 200;
+    public static final int BAD_REQUEST = 400;
+    public static final int NOT_FOUND = 404;
+    public static final int METHOD_NOT_ALLOWED = 405;
+    public static final int CONFLICT = 409;
+    public static final int INTERNAL_SERVER_ERROR = 500;
+
+    private static final String EMPTY = "{}";
+    private static final int DEFAULT_TOP_COUNT = 10;
+    private static final int MAX_TOP_COUNT = 1000;
+
+    private final QuizSessionManager mManager;
+
+    public QuizApi(QuizSessionManager manager) {
+        mManager = manager;
+    }
+
+    public QuizSessionManager getManager() {
+        return mManager;
+    }
+
+    /**
+     * Handling one request.
+     *
+     * @param out receives the JSON body of the response
+     * @return HTTP status of the response
+     */
+    public int handle(HttpRequest request, StringBuilder out) {
+        String[] segments = split(request.getPath());
+        String method = request.getMethod();
+        try {
+            if (segments.length >= 1 && segments[0].equals("questions")) {
+                return handleQuestions(method, segments, out);
+            }
+            if (segments.length >= 1 && segments[0].equals("sessions")) {
+                return handleSessions(method, segments, request.getBody(), out);
+            }
+            if (segments.length >= 1 && segments[0].equals("leaderboard")) {
+                return handleLeaderboard(method, segments, out);
+            }
+            return error(NOT_FOUND, "Unknown path", out);
+        } catch (NumberFormatException e) {
+            return error(BAD_REQUEST, "Malformed number", out);
+        } catch (IndexOutOfBoundsException e) {
+            return error(NOT_FOUND, e.getMessage(), out);
+        } catch (IllegalArgumentException e) {
+            return error(NOT_FOUND, e.getMessage(), out);
+        } catch (IllegalStateException e) {
+            return error(CONFLICT, e.getMessage(), out);
+        }
+    }
+
+    private int handleQuestions(String method, String[] segments, StringBuilder out) {
+        if (!method.equals("GET")) {
+            return error(METHOD_NOT_ALLOWED, "Method not allowed", out);
+        }
+        QuestionStore questions = mManager.getQuestions();
+        if (segments.length == 1) {
+            out.append("{\"count\":").append(questions.size()).append('}');
+            return OK;
+        }
+        if (segments.length == 2) {
+            int index = Integer.parseInt(segments[1]);
+            if (index < 0 || index >= questions.size()) {
+                throw new IndexOutOfBoundsException("Question index " + index + " is out of range");
+            }
+            out.append("{\"index\":").append(index)
+                    .append(",\"textResId\":").append(questions.getTextResId(index))
+                    .append(",\"text\":");
+            appendString(questions.getText(index), out);
+            out.append('}');
+            return OK;
+        }
+        return error(NOT_FOUND, "Unknown path", out);
+    }
+
+    private int handleSessions(String method, String[] segments, String body, StringBuilder out) {
+        if (segments.length == 1) {
+            if (!method.equals("POST")) {
+                return error(METHOD_NOT_ALLOWED, "Method not allowed", out);
+            }
+            long userId = parseUser(body);
+            long id = userId >= 0 ? mManager.createSession(userId) : mManager.createSession();
+            out.append("{\"session\":").append(id).append('}');
+            return OK;
+        }
+
+        long sessionId = Long.parseLong(segments[1]);
+        if (segments.length == 2) {
+            if (method.equals("GET")) {
+                SessionScore score = mManager.getScore(sessionId);
+                out.append("{\"questions\":").append(score.getQuestionCount())
+                        .append(",\"answered\":").append(score.getAnsweredCount())
+                        .append(",\"correct\":").append(score.getCorrectAnswers())
+                        .append(",\"cheats\":").append(score.getCheatCount())
+                        .append(",\"finished\":").append(score.isFinished())
+                        .append(",\"score\":").append(score.getScorePercent())
+                        .append('}');
+                return OK;
+            }
+            if (method.equals("DELETE")) {
+                mManager.getScore(sessionId);
+                mManager.closeSession(sessionId);
+                out.append(EMPTY);
+                return OK;
+            }
+            return error(METHOD_NOT_ALLOWED, "Method not allowed", out);
+        }
+
+        if (segments.length == 3 && segments[2].equals("rank")) {
+            if (!method.equals("GET")) {
+                return error(METHOD_NOT_ALLOWED, "Method not allowed", out);
+            }
+            mManager.getScore(sessionId);
+            LeaderboardEntry entry = mManager.getLeaderboard().getEntry(sessionId);
+            if (entry == null) {
+                return error(NOT_FOUND, "Session " + sessionId + " has no result yet", out);
+            }
+            out.append("{\"rank\":").append(entry.getRank())
+                    .append(",\"score\":").append(entry.getScorePercent()).append('}');
+            return OK;
+        }
+        if (!method.equals("POST")) {
+            return error(METHOD_NOT_ALLOWED, "Method not allowed", out);
+        }
+        if (segments.length == 3 && segments[2].equals("restart")) {
+            mManager.restart(sessionId);
+            out.append(EMPTY);
+            return OK;
+        }
+        if (segments.length == 5 && segments[2].equals("questions")) {
+            int index = Integer.parseInt(segments[3]);
+            if (segments[4].equals("answer")) {
+                Boolean answer = parseAnswer(body);
+                if (answer == null) {
+                    return error(BAD_REQUEST, "Expected {\"answer\":true|false}", out);
+                }
+                QuizSession.Verdict verdict = mManager.answer(sessionId, index, answer);
+                out.append("{\"verdict\":\"").append(verdict.name()).append("\"}");
+                return OK;
+            }
+            if (segments[4].equals("cheat")) {
+                out.append("{\"answer\":").append(mManager.cheat(sessionId, index)).append('}');
+                return OK;
+            }
+        }
+        return error(NOT_FOUND, "Unknown path", out);
+    }
+
+    private int handleLeaderboard(String method, String[] segments, StringBuilder out) {
+        if (!method.equals("GET")) {
+            return error(METHOD_NOT_ALLOWED, "Method not allowed", out);
+        }
+        if (segments.length > 2) {
+            return error(NOT_FOUND, "Unknown path", out);
+        }
+        int count = segments.length == 2 ? Integer.parseInt(segments[1]) : DEFAULT_TOP_COUNT;
+        if (count < 0 || count > MAX_TOP_COUNT) {
+            return error(BAD_REQUEST, "Count must be between 0 and " + MAX_TOP_COUNT, out);
+        }
+        out.append("{\"top\":[");
+        List<LeaderboardEntry> top = mManager.getLeaderboard().getTop(count);
+        for (int i = 0; i < top.size(); i++) {
+            LeaderboardEntry entry = top.get(i);
+            out.append(i == 0 ? "{" : ",{")
+                    .append("\"rank\":").append(entry.getRank())
+                    .append(",\"session\":").append(entry.getUserId())
+                    .append(",\"score\":").append(entry.getScorePercent())
+                    .append(",\"time\":").append(entry.getCompletionTime())
+                    .append('}');
+        }
+        out.append("]}");
+        return OK;
+    }
+
+    /**
+     * Reading the value of "answer" from the body, the body is as small as {"answer":true}
+     * so there's no need for a full JSON parser.
+     */
+    static Boolean parseAnswer(String body) {
+        int key = body.indexOf("\"answer\"");
+        if (key < 0) {
+            return null;
+        }
+        int colon = body.indexOf(':', key + 8);
+        if (colon < 0) {
+            return null;
+        }
+        String value = body.substring(colon + 1).trim();
+        if (value.startsWith("true")) {
+            return Boolean.TRUE;
+        }
+        if (value.startsWith("false")) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * Reading the value of "user" from the body, as small as {"user":42}.
+     *
+     * @return the user id, -1 if there's none
+     * @throws NumberFormatException if the user id isn't a number
+     */
+    static long parseUser(String body) {
+        int key = body.indexOf("\"user\"");
+        if (key < 0) {
+            return -1;
+        }
+        int colon = body.indexOf(':', key + 6);
+        if (colon < 0) {
+            throw new NumberFormatException("Expected {\"user\":id}");
+        }
+        int start = colon + 1;
+        while (start < body.length() && body.charAt(start) == ' ') {
+            start++;
+        }
+        int end = start;
+        while (end < body.length() && Character.isDigit(body.charAt(end))) {
+            end++;
+        }
+        return Long.parseLong(body.substring(start, end));
+    }
+
+    private static int error(int status, String message, StringBuilder out) {
+        out.setLength(0);
+        out.append("{\"error\":");
+        appendString(message, out);
+        out.append('}');
+        return status;
+    }
+
+    private static String[] split(String path) {
+        int start = path.startsWith("/") ? 1 : 0;
+        int end = path.endsWith("/") && path.length() > start ? path.length() - 1 : path.length();
+        if (end <= start) {
+            return new String[0];
+        }
+        return path.substring(start, end).split("/");
+    }
+
+    /**
+     * Appending the value as a JSON string literal, null as JSON null.
+     */
+    static void appendString(CharSequence value, StringBuilder out) {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,277 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for {@link QuizHttpServer}: keep-alive connections, each playing its own session
+ * with pipelined answer requests. Reports requests/sec and latency percentiles of the requests.
+ * <p>
+ * Usage: QuizHttpLoadGenerator [connections] [pipeline depth] [seconds] [host:port]
+ * (without host:port an embedded server is started on localhost)
+ */
+public class QuizHttpLoadGenerator {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final InetSocketAddress mAddress;
+    private final int mConnections;
+    private final int mPipelineDepth;
+
+    public QuizHttpLoadGenerator(InetSocketAddress address, int connections, int pipelineDepth) {
+        mAddress = address;
+        mConnections = connections;
+        mPipelineDepth = pipelineDepth;
+    }
+
+    /**
+     * Results of a run of the load generator.
+     */
+    public static class Result {
+
+        final long mRequests;
+        final long mErrors;
+        final long mElapsedNanos;
+        final LatencyHistogram mLatency;
+
+        Result(long requests, long errors, long elapsedNanos, LatencyHistogram latency) {
+            mRequests = requests;
+            mErrors = errors;
+            mElapsedNanos = elapsedNanos;
+            mLatency = latency;
+        }
+
+        public long getRequests() {
+            return mRequests;
+        }
+
+        /**
+         * Number of responses with other status than 200.
+         */
+        public long getErrors() {
+            return mErrors;
+        }
+
+        public double getRequestsPerSecond() {
+            return mRequests * 1e9 / mElapsedNanos;
+        }
+
+        public LatencyHistogram getLatency() {
+            return mLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%,d requests (%d errors): %,.0f requests/s, "
+                            + "p50 %,d us, p99 %,d us, p99.9 %,d us, max %,d us",
+                    mRequests, mErrors, getRequestsPerSecond(), mLatency.getPercentile(50) / 1000,
+                    mLatency.getPercentile(99) / 1000, mLatency.getPercentile(99.9) / 1000, mLatency.getMax() / 1000);
+        }
+    }
+
+    /**
+     * Running all the connections for the given time.
+     */
+    public Result run(long duration, TimeUnit unit) throws Exception {
+        final long deadline = System.nanoTime() + unit.toNanos(duration);
+        final LatencyHistogram latency = new LatencyHistogram();
+        ExecutorService executor = ServerExecutors.newTaskExecutor();
+        List<Future<long[]>> futures = new ArrayList<>(mConnections);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < mConnections; i++) {
+            futures.add(executor.submit(new Callable<long[]>() {
+                @Override
+                public long[] call() throws IOException {
+                    return runConnection(deadline, latency);
+                }
+            }));
+        }
+        long requests = 0;
+        long errors = 0;
+        for (Future<long[]> future : futures) {
+            long[] counts = future.get();
+            requests += counts[0];
+            errors += counts[1];
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return new Result(requests, errors, elapsed, latency);
+    }
+
+    /**
+     * One client: creates a session, then sends batches of pipelined answers (restarting the quiz
+     * when all the questions are answered) until the deadline.
+     *
+     * @return number of requests and number of errors
+     */
+    private long[] runConnection(long deadline, LatencyHistogram latency) throws IOException {
+        SocketChannel channel = SocketChannel.open(mAddress);
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            ResponseReader reader = new ResponseReader(channel);
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+
+            send(channel, "POST /sessions HTTP/1.1\r\nHost: quiz\r\nContent-Length: 0\r\n\r\n");
+            String session = reader.read();
+            long sessionId = Long.parseLong(session.substring(session.indexOf(':') + 1, session.indexOf('}')));
+            send(channel, "GET /questions HTTP/1.1\r\nHost: quiz\r\n\r\n");
+            String count = reader.read();
+            int questionCount = Integer.parseInt(count.substring(count.indexOf(':') + 1, count.indexOf('}')));
+
+            long requests = 0;
+            long errors = 0;
+            int next = 0;
+            StringBuilder batch = new StringBuilder();
+            while (System.nanoTime() < deadline) {
+                batch.setLength(0);
+                for (int i = 0; i < mPipelineDepth; i++) {
+                    if (next == questionCount) {
+                        batch.append("POST /sessions/").append(sessionId)
+                                .append("/restart HTTP/1.1\r\nHost: quiz\r\nContent-Length: 0\r\n\r\n");
+                        next = 0;
+                    } else {
+                        String body = random.nextBoolean() ? "{\"answer\":true}" : "{\"answer\":false}";
+                        batch.append("POST /sessions/").append(sessionId).append("/questions/").append(next++)
+                                .append("/answer HTTP/1.1\r\nHost: quiz\r\nContent-Type: application/json\r\n")
+                                .append("Content-Length: ").append(body.length()).append("\r\n\r\n").append(body);
+                    }
+                }
+                long start = System.nanoTime();
+                send(channel, batch);
+                for (int i = 0; i < mPipelineDepth; i++) {
+                    reader.read();
+                    latency.record(System.nanoTime() - start);
+                    if (reader.mStatus != QuizApi.OK) {
+                        errors++;
+                    }
+                }
+                requests += mPipelineDepth;
+            }
+            return new long[]{requests, errors};
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void send(SocketChannel channel, CharSequence requests) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(requests.toString().getBytes(ASCII));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Blocking reader of the responses on a client connection.
+     */
+    static class ResponseReader {
+
+        private final SocketChannel mChannel;
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(64 * 1024);
+        int mStatus;
+
+        ResponseReader(SocketChannel channel) {
+            mChannel = channel;
+            mBuffer.flip();
+        }
+
+        /**
+         * Reading the next response.
+         *
+         * @return body of the response, its status goes to mStatus
+         */
+        String read() throws IOException {
+            int headerEnd;
+            while ((headerEnd = indexOfHeaderEnd()) < 0) {
+                fill();
+            }
+            String head = new String(mBuffer.array(), mBuffer.position(), headerEnd - mBuffer.position(), ASCII);
+            mStatus = Integer.parseInt(head.substring(9, 12));
+            int lengthStart = head.indexOf("Content-Length: ") + 16;
+            int lengthEnd = head.indexOf('\r', lengthStart);
+            int length = Integer.parseInt(head.substring(lengthStart, lengthEnd < 0 ? head.length() : lengthEnd));
+            mBuffer.position(headerEnd + 4);
+            while (mBuffer.remaining() < length) {
+                fill();
+            }
+            String body = new String(mBuffer.array(), mBuffer.position(), length, ASCII);
+            mBuffer.position(mBuffer.position() + length);
+            return body;
+        }
+
+        private int indexOfHeaderEnd() {
+            byte[] bytes = mBuffer.array();
+            for (int i = mBuffer.position(); i + 3 < mBuffer.limit(); i++) {
+                if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void fill() throws IOException {
+            mBuffer.compact();
+            int read = mChannel.read(mBuffer);
+            mBuffer.flip();
+            if (read < 0) {
+                throw new EOFException("Server closed the connection");
+            }
+        }
+    }
+
+    /**
+     * Question bank for the load test, with plain text questions.
+     */
+    public static QuestionStore demoQuestions(int size) {
+        Question[] questions = new Question[size];
+        for (int i = 0; i < size; i++) {
+            questions[i] = new Question("Question #" + i, i % 3 == 0);
+        }
+        return new ArrayQuestionStore(questions);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        QuizHttpServer server = null;
+        InetSocketAddress address;
+        if (args.length > 3) {
+            String[] hostPort = args[3].split(":");
+            address = new InetSocketAddress(hostPort[0], Integer.parseInt(hostPort[1]));
+        } else {
+            server = new QuizHttpServer(new QuizApi(new QuizSessionManager(demoQuestions(100))),
+                    new InetSocketAddress("127.0.0.1", 0), Runtime.getRuntime().availableProcessors());
+            server.start();
+            address = new InetSocketAddress("127.0.0.1", server.getPort());
+        }
+
+        try {
+            System.out.println(String.format(Locale.ENGLISH, "%d connections, pipeline depth %d, %d s on %s",
+                    connections, depth, seconds, address));
+            QuizHttpLoadGenerator generator = new QuizHttpLoadGenerator(address, connections, depth);
+            // warming up the JIT of both sides
+            generator.run(Math.max(1, seconds / 5), TimeUnit.SECONDS);
+            System.out.println(generator.run(seconds, TimeUnit.SECONDS));
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Embedded non-blocking HTTP/1.1 server of {@link QuizApi}, for serving the quiz to many clients
+ * from one device or one local box.
+ * <p>
+ * One acceptor thread hands new connections round-robin to a few IO loops, every loop is a thread
+ * with its own selector and {@link BufferPool}. Connections are keep-alive and may pipeline requests:
+ * all complete requests in the input are answered in order, with the responses batched into one write.
+ * While a response can't be written the connection stops reading, so a slow client can't make
+ * the server buffer unbounded output. A failure while serving a connection closes that connection only,
+ * the loop goes on with the others.
+ */
+public class QuizHttpServer implements Closeable {
+
+    public static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final QuizApi mApi;
+    private final InetSocketAddress mAddress;
+    private final IoLoop[] mLoops;
+    private ServerSocketChannel mServerChannel;
+    private Thread mAcceptor;
+    private volatile boolean mRunning;
+
+    public QuizHttpServer(QuizApi api, InetSocketAddress address, int ioThreads) {
+        mApi = api;
+        mAddress = address;
+        mLoops = new IoLoop[ioThreads];
+    }
+
+    /**
+     * Binding the address and starting the threads of the server.
+     */
+    public void start() throws IOException {
+        mServerChannel = ServerSocketChannel.open();
+        mServerChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        mServerChannel.bind(mAddress, 1024);
+        mRunning = true;
+        for (int i = 0; i < mLoops.length; i++) {
+            mLoops[i] = new IoLoop(Selector.open());
+            Thread thread = new Thread(mLoops[i], "quiz-http-io-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        mAcceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "quiz-http-accept");
+        mAcceptor.setDaemon(true);
+        mAcceptor.start();
+    }
+
+    /**
+     * Port the server listens on, useful when it was started on port 0.
+     */
+    public int getPort() {
+        return mServerChannel.socket().getLocalPort();
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRunning = false;
+        if (mServerChannel != null) {
+            mServerChannel.close();
+        }
+        for (IoLoop loop : mLoops) {
+            if (loop != null) {
+                loop.mSelector.wakeup();
+            }
+        }
+    }
+
+    private void accept() {
+        int next = 0;
+        while (mRunning) {
+            try {
+                SocketChannel channel = mServerChannel.accept();
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                mLoops[next].register(channel);
+                next = (next + 1) % mLoops.length;
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (!mRunning) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread with a selector serving its share of connections.
+     */
+    private class IoLoop implements Runnable {
+
+        final Selector mSelector;
+        final BufferPool mPool = new BufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+        final ConcurrentLinkedQueue<SocketChannel> mNewChannels = new ConcurrentLinkedQueue<>();
+        // reused by all responses of the loop
+        final StringBuilder mBody = new StringBuilder();
+
+        IoLoop(Selector selector) {
+            mSelector = selector;
+        }
+
+        void register(SocketChannel channel) {
+            mNewChannels.add(channel);
+            mSelector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (mRunning) {
+                    mSelector.select();
+                    SocketChannel channel;
+                    while ((channel = mNewChannels.poll()) != null) {
+                        SelectionKey key = channel.register(mSelector, SelectionKey.OP_READ);
+                        key.attach(new Connection(this, channel, key));
+                    }
+                    Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isReadable()) {
+                                connection.onReadable();
+                            } else if (key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            connection.close();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // the selector is broken, nothing to serve with anymore
+            } finally {
+                for (SelectionKey key : mSelector.keys()) {
+                    ((Connection) key.attachment()).close();
+                }
+                try {
+                    mSelector.close();
+                } catch (IOException e) {
+                    // closing anyway
+                }
+            }
+        }
+    }
+
+    /**
+     * State of one client connection: unparsed input and unsent output, both in pooled buffers.
+     */
+    private class Connection {
+
+        private final IoLoop mLoop;
+        private final SocketChannel mChannel;
+        private final SelectionKey mKey;
+        private ByteBuffer mIn;
+        // in write mode while responses are added, flipped only for writing
+        private ByteBuffer mOut;
+        private boolean mCloseAfterWrite;
+
+        Connection(IoLoop loop, SocketChannel channel, SelectionKey key) {
+            mLoop = loop;
+            mChannel = channel;
+            mKey = key;
+        }
+
+        void onReadable() throws IOException {
+            if (mIn == null) {
+                mIn = mLoop.mPool.acquire();
+            }
+            int read = mChannel.read(mIn);
+            if (read < 0) {
+                close();
+                return;
+            }
+            mIn.flip();
+            processRequests();
+        }
+
+        void onWritable() throws IOException {
+            if (flush()) {
+                mKey.interestOps(SelectionKey.OP_READ);
+                if (mCloseAfterWrite) {
+                    close();
+                    return;
+                }
+                if (mIn != null) {
+                    // requests which were waiting for the output to drain
+                    processRequests();
+                }
+            }
+        }
+
+        /**
+         * Answering all the complete requests in the input (in read mode), then writing the responses.
+         */
+        private void processRequests() throws IOException {
+            while (!mCloseAfterWrite && mIn.hasRemaining()) {
+                HttpRequest request;
+                try {
+                    request = HttpRequest.parse(mIn);
+                } catch (IllegalArgumentException e) {
+                    respondError(QuizApi.BAD_REQUEST, e.getMessage());
+                    break;
+                }
+                if (request == null) {
+                    if (mIn.position() == 0 && mIn.limit() == mIn.capacity()) {
+                        respondError(QuizApi.BAD_REQUEST, "Request is too large");
+                    }
+                    break;
+                }
+                StringBuilder body = mLoop.mBody;
+                body.setLength(0);
+                int status;
+                try {
+                    status = mApi.handle(request, body);
+                } catch (RuntimeException e) {
+                    // the client gets the failure, the other connections of the loop go on
+                    respondError(QuizApi.INTERNAL_SERVER_ERROR, "Internal server error");
+                    break;
+                }
+                if (!request.isKeepAlive()) {
+                    mCloseAfterWrite = true;
+                }
+                if (!addResponse(status, body)) {
+                    // the output is full and the client isn't reading, stop until it drains
+                    break;
+                }
+            }
+
+            if (mIn.hasRemaining()) {
+                mIn.compact();
+                mIn.flip();
+            } else {
+                mLoop.mPool.release(mIn);
+                mIn = null;
+            }
+
+            if (mOut != null && !flush()) {
+                mKey.interestOps(SelectionKey.OP_WRITE);
+            } else if (mCloseAfterWrite) {
+                close();
+            } else if (mIn != null) {
+                // reading appends after the leftover of a partial request
+                mIn.position(mIn.limit());
+                mIn.limit(mIn.capacity());
+            }
+        }
+
+        /**
+         * Answering with the error and closing the connection after the response, the rest of the input is dropped.
+         */
+        private void respondError(int status, String message) throws IOException {
+            StringBuilder body = mLoop.mBody;
+            body.setLength(0);
+            body.append("{\"error\":");
+            QuizApi.appendString(message, body);
+            body.append('}');
+            mCloseAfterWrite = true;
+            addResponse(status, body);
+            mIn.position(mIn.limit());
+        }
+
+        /**
+         * Adding the response to the output.
+         *
+         * @return false, if the output still holds responses which the client hasn't read,
+         * so no more requests should be answered for now
+         */
+        private boolean addResponse(int status, StringBuilder body) throws IOException {
+            byte[] content = body.toString().getBytes(UTF_8);
+            byte[] head = ("HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+                    + "Content-Type: application/json; charset=utf-8\r\n"
+                    + "Content-Length: " + content.length + "\r\n"
+                    + (mCloseAfterWrite ? "Connection: close\r\n" : "")
+                    + "\r\n").getBytes(ASCII);
+            int size = head.length + content.length;
+
+            if (mOut != null && mOut.remaining() < size && !flush()) {
+                // the client isn't keeping up, keep the response in an overflow buffer only once
+                ByteBuffer bigger = ByteBuffer.allocate(mOut.position() + size);
+                mOut.flip();
+                bigger.put(mOut);
+                mLoop.mPool.release(mOut);
+                mOut = bigger;
+                mOut.put(head).put(content);
+                return false;
+            }
+            if (mOut == null) {
+                mOut = size <= mLoop.mPool.getBufferSize() ? mLoop.mPool.acquire() : ByteBuffer.allocate(size);
+            } else if (mOut.remaining() < size) {
+                // flushed, but still too small for this response
+                mLoop.mPool.release(mOut);
+                mOut = ByteBuffer.allocate(size);
+            }
+            mOut.put(head).put(content);
+            return true;
+        }
+
+        /**
+         * Writing the output to the channel.
+         *
+         * @return true, if everything was written and the output buffer was returned to the pool
+         */
+        private boolean flush() throws IOException {
+            if (mOut == null) {
+                return true;
+            }
+            mOut.flip();
+            mChannel.write(mOut);
+            if (mOut.hasRemaining()) {
+                mOut.compact();
+                return false;
+            }
+            mLoop.mPool.release(mOut);
+            mOut = null;
+            return true;
+        }
+
+        void close() {
+            mKey.cancel();
+            try {
+                mChannel.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+            if (mIn != null) {
+                mLoop.mPool.release(mIn);
+                mIn = null;
+            }
+            if (mOut != null) {
+                mLoop.mPool.release(mOut);
+                mOut = null;
+            }
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case QuizApi.OK:
+                return "OK";
+            case QuizApi.BAD_REQUEST:
+                return "Bad Request";
+            case QuizApi.NOT_FOUND:
+                return "Not Found";
+            case QuizApi.METHOD_NOT_ALLOWED:
+                return "Method Not Allowed";
+            case QuizApi.CONFLICT:
+                return "Conflict";
+            case QuizApi.INTERNAL_SERVER_ERROR:
+                return "Internal Server Error";
+            default:
+                return "Unknown";
+        }
+    }
+
+    /**
+     * Usage: QuizHttpServer [port] [question pack]
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        QuestionStore questions = args.length > 1
+                ? QuestionPack.open(new File(args[1]))
+                : QuizHttpLoadGenerator.demoQuestions(100);
+        QuizHttpServer server = new QuizHttpServer(new QuizApi(new QuizSessionManager(questions)),
+                new InetSocketAddress(port), Runtime.getRuntime().availableProcessors());
+        server.start();
+        System.out.println("Serving " + questions.size() + " questions on port " + server.getPort());
+        server.mAcceptor.join();
+    }
+}
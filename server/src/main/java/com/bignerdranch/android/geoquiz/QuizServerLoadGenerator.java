@@ -0,0 +1,145 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for {@link QuizSessionManager}: many concurrent clients answering questions
+ * in many sessions, reports answers/sec and latency percentiles for every number of sessions.
+ * <p>
+ * Usage: QuizServerLoadGenerator [sessions,sessions,...] [clients] [answers per step] [questions in the bank]
+ */
+public class QuizServerLoadGenerator {
+
+    private final int mClients;
+    private final int mAnswers;
+    private final QuestionStore mQuestions;
+
+    public QuizServerLoadGenerator(int clients, int answers, int bankSize) {
+        mClients = clients;
+        mAnswers = answers;
+        PackedQuestionStore questions = new PackedQuestionStore(bankSize);
+        for (int i = 0; i < bankSize; i++) {
+            questions.set(i, i, (i & 1) == 0);
+        }
+        mQuestions = questions;
+    }
+
+    /**
+     * Results of one step of the load test.
+     */
+    public static class Result {
+
+        final int mSessions;
+        final long mAnswers;
+        final long mElapsedNanos;
+        final LatencyHistogram mLatency;
+
+        Result(int sessions, long answers, long elapsedNanos, LatencyHistogram latency) {
+            mSessions = sessions;
+            mAnswers = answers;
+            mElapsedNanos = elapsedNanos;
+            mLatency = latency;
+        }
+
+        public double getAnswersPerSecond() {
+            return mAnswers * 1e9 / mElapsedNanos;
+        }
+
+        public LatencyHistogram getLatency() {
+            return mLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%,10d sessions: %,12.0f answers/s, p50 %,7d ns, p99 %,8d ns, p99.9 %,9d ns",
+                    mSessions, getAnswersPerSecond(), mLatency.getPercentile(50), mLatency.getPercentile(99),
+                    mLatency.getPercentile(99.9));
+        }
+    }
+
+    /**
+     * Running one step of the load test: creating the sessions, then letting the clients answer in them.
+     * Every client owns a slice of the sessions and answers their questions in order, restarting finished ones.
+     */
+    public Result run(final int sessions) throws Exception {
+        final QuizSessionManager manager = new QuizSessionManager(mQuestions);
+        final long firstId = manager.createSession();
+        for (int i = 1; i < sessions; i++) {
+            manager.createSession();
+        }
+
+        final int clients = Math.min(mClients, sessions);
+        final int answersPerClient = mAnswers / clients;
+        final LatencyHistogram[] histograms = new LatencyHistogram[clients];
+        ExecutorService executor = ServerExecutors.newTaskExecutor();
+        List<Future<?>> futures = new ArrayList<>(clients);
+
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            histograms[c] = new LatencyHistogram();
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runClient(manager, firstId, sessions, clients, client, answersPerClient, histograms[client]);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            latency.add(histogram);
+        }
+        return new Result(sessions, (long) answersPerClient * clients, elapsed, latency);
+    }
+
+    private void runClient(QuizSessionManager manager, long firstId, int sessions, int clients, int client,
+                           int answers, LatencyHistogram latency) {
+        // sessions client, client + clients, client + 2 * clients... belong to this client
+        int owned = (sessions - client + clients - 1) / clients;
+        int[] nextQuestion = new int[owned];
+        int questionCount = mQuestions.size();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        for (int i = 0; i < answers; i++) {
+            int slot = random.nextInt(owned);
+            long sessionId = firstId + client + (long) slot * clients;
+            if (nextQuestion[slot] == questionCount) {
+                manager.restart(sessionId);
+                nextQuestion[slot] = 0;
+            }
+            long start = System.nanoTime();
+            manager.answer(sessionId, nextQuestion[slot]++, random.nextBoolean());
+            latency.record(System.nanoTime() - start);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] steps = (args.length > 0 ? args[0] : "1000,10000,100000,1000000").split(",");
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int answers = args.length > 2 ? Integer.parseInt(args[2]) : 5_000_000;
+        int bankSize = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+
+        System.out.println(String.format(Locale.ENGLISH, "%d clients on %s, %,d answers per step, %d questions",
+                clients, ServerExecutors.hasVirtualThreads() ? "virtual threads" : "platform threads",
+                answers, bankSize));
+        QuizServerLoadGenerator generator = new QuizServerLoadGenerator(clients, answers, bankSize);
+        // warming up the JIT on the smallest step
+        generator.run(Integer.parseInt(steps[0].trim()));
+        for (String step : steps) {
+            System.out.println(generator.run(Integer.parseInt(step.trim())));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Server-side host of many concurrent quiz sessions over one shared question bank,
+ * with the same rules as QuizActivity: an answered question is locked, cheating is limited
+ * by {@link QuizSession#MAX_CHEAT_COUNT}, an answer after cheating isn't counted.
+ * Cheats are also counted by the {@link CheatMonitor} per user, across the restarts of the session and across
+ * the sessions of the user (see {@link #createSession(long)}), and a user who has used up the limit of the monitor
+ * can't cheat until the window has moved on. The user id is taken as the client gives it, nothing here
+ * authenticates it; an anonymous session is a user of its own, so only its restarts are covered.
+ * <p>
+ * There's no global lock: sessions are found in a concurrent map and every operation locks
+ * only one of the {@link #STRIPES} stripes, chosen by the session id. Sequential ids spread sessions
+ * evenly over the stripes, so unrelated users practically never contend.
+ */
+public class QuizSessionManager {
+
+    public static final int STRIPES = 1024;
+
+    private final QuestionStore mQuestions;
+    private final ConcurrentHashMap<Long, QuizSession> mSessions = new ConcurrentHashMap<>();
+    // user of the session, absent for an anonymous one
+    private final ConcurrentHashMap<Long, Long> mSessionUsers = new ConcurrentHashMap<>();
+    private final Object[] mStripes = new Object[STRIPES];
+    private final AtomicLong mNextSessionId = new AtomicLong();
+    private final Leaderboard mLeaderboard;
+    private final DifficultyCalibrator mCalibrator;
+    private final CheatMonitor mCheatMonitor;
+
+    public QuizSessionManager(QuestionStore questions) {
+        this(questions, new Leaderboard(), new DifficultyCalibrator(questions.size()));
+    }
+
+    public QuizSessionManager(QuestionStore questions, Leaderboard leaderboard, DifficultyCalibrator calibrator) {
+        this(questions, leaderboard, calibrator, new CheatMonitor(questions.size()));
+    }
+
+    /**
+     * @param leaderboard  receives the result of every finished session, with the session id as the user id
+     * @param calibrator   receives an event of every answer
+     * @param cheatMonitor receives every cheat, with the id of the user of the session
+     */
+    public QuizSessionManager(QuestionStore questions, Leaderboard leaderboard, DifficultyCalibrator calibrator,
+                              CheatMonitor cheatMonitor) {
+        if (calibrator.getQuestionCount() != questions.size()) {
+            throw new IllegalArgumentException("Calibrator doesn't match the question bank");
+        }
+        mQuestions = questions;
+        mLeaderboard = leaderboard;
+        mCalibrator = calibrator;
+        mCheatMonitor = cheatMonitor;
+        for (int i = 0; i < STRIPES; i++) {
+            mStripes[i] = new Object();
+        }
+    }
+
+    public QuestionStore getQuestions() {
+        return mQuestions;
+    }
+
+    public Leaderboard getLeaderboard() {
+        return mLeaderboard;
+    }
+
+    public DifficultyCalibrator getCalibrator() {
+        return mCalibrator;
+    }
+
+    public CheatMonitor getCheatMonitor() {
+        return mCheatMonitor;
+    }
+
+    public int getSessionCount() {
+        return mSessions.size();
+    }
+
+    /**
+     * Starting a new anonymous session, its cheats are limited by the {@link CheatMonitor} across its restarts only.
+     *
+     * @return id of the session
+     */
+    public long createSession() {
+        long id = mNextSessionId.incrementAndGet();
+        mSessions.put(id, new QuizSession(mQuestions));
+        return id;
+    }
+
+    /**
+     * Starting a new session of the user: the sessions of one user share the window of the {@link CheatMonitor},
+     * so a new session doesn't give the cheats back.
+     *
+     * @param userId id of the user, not negative
+     * @return id of the session
+     */
+    public long createSession(long userId) {
+        if (userId < 0) {
+            throw new IllegalArgumentException("User id " + userId + " is negative");
+        }
+        long id = mNextSessionId.incrementAndGet();
+        mSessionUsers.put(id, userId);
+        mSessions.put(id, new QuizSession(mQuestions));
+        return id;
+    }
+
+    /**
+     * Ending the session and releasing its state.
+     */
+    public void closeSession(long sessionId) {
+        mSessions.remove(sessionId);
+        mSessionUsers.remove(sessionId);
+    }
+
+    /**
+     * Answering the question. The answer goes to the calibration of the questions,
+     * the answer which finishes the quiz submits the result to the leaderboard.
+     *
+     * @param sessionId       id of the session
+     * @param questionIndex   index of the question
+     * @param userPressedTrue answer of the user
+     * @return verdict on the answer
+     * @throws IllegalArgumentException if there's no such session
+     * @throws IllegalStateException    if the question is already answered
+     */
+    public QuizSession.Verdict answer(long sessionId, int questionIndex, boolean userPressedTrue) {
+        QuizSession session = session(sessionId);
+        QuizSession.Verdict verdict;
+        long event;
+        synchronized (stripe(sessionId)) {
+            // a rejected answer leaves the session where it was
+            checkIndex(session, questionIndex);
+            if (session.isAnswered(questionIndex)) {
+                throw new IllegalStateException("Question " + questionIndex + " is already answered");
+            }
+            session.moveTo(questionIndex);
+            int correctAnswers = session.getCorrectAnswers();
+            int answeredCount = session.getAnsweredCount();
+            verdict = session.checkAnswer(userPressedTrue);
+            event = AnswerEvents.of(questionIndex, verdict, correctAnswers, answeredCount);
+            if (session.isFinished()) {
+                mLeaderboard.submit(sessionId, session.getScorePercent(), System.currentTimeMillis());
+            }
+        }
+        mCalibrator.accept(event);
+        return verdict;
+    }
+
+    /**
+     * Showing the answer to the question (cheating), the next answer of the session won't be counted.
+     *
+     * @param sessionId     id of the session
+     * @param questionIndex index of the question
+     * @return true, if the answer to the question is true
+     * @throws IllegalArgumentException if there's no such session
+     * @throws IllegalStateException    if the number of cheats is maxed out (in the quiz or in the window
+     *                                  of the {@link CheatMonitor}) or the question is already answered
+     */
+    public boolean cheat(long sessionId, int questionIndex) {
+        QuizSession session = session(sessionId);
+        long userId = cheatUserId(sessionId);
+        long now = System.currentTimeMillis();
+        synchronized (stripe(sessionId)) {
+            checkIndex(session, questionIndex);
+            if (!session.isCheatAvailable() || session.isAnswered(questionIndex)
+                    || !mCheatMonitor.isAllowed(userId, now)) {
+                throw new IllegalStateException("Cheating is not available");
+            }
+            session.moveTo(questionIndex);
+            session.registerCheat(true);
+            mCheatMonitor.record(userId, questionIndex, now);
+            return session.isCurrentAnswerTrue();
+        }
+    }
+
+    /**
+     * Starting the quiz of the session again.
+     */
+    public void restart(long sessionId) {
+        QuizSession session = session(sessionId);
+        synchronized (stripe(sessionId)) {
+            session.restart();
+        }
+    }
+
+    /**
+     * Consistent view of the session's results.
+     */
+    public SessionScore getScore(long sessionId) {
+        QuizSession session = session(sessionId);
+        synchronized (stripe(sessionId)) {
+            return new SessionScore(session.getQuestionCount(), session.getAnsweredCount(),
+                    session.getCorrectAnswers(), session.getCheatCount(), session.isFinished());
+        }
+    }
+
+    QuizSession session(long sessionId) {
+        QuizSession session = mSessions.get(sessionId);
+        if (session == null) {
+            throw new IllegalArgumentException("Unknown session " + sessionId);
+        }
+        return session;
+    }
+
+    private static void checkIndex(QuizSession session, int questionIndex) {
+        if (questionIndex < 0 || questionIndex >= session.getQuestionCount()) {
+            throw new IndexOutOfBoundsException("Question index " + questionIndex + " is out of range");
+        }
+    }
+
+    /**
+     * User the cheats of the session are counted for: the user of the session, or the session itself
+     * as a negative id, which no user id is.
+     */
+    private long cheatUserId(long sessionId) {
+        Long userId = mSessionUsers.get(sessionId);
+        return userId != null ? userId : -sessionId;
+    }
+
+    private Object stripe(long sessionId) {
+        return mStripes[(int) (sessionId & (STRIPES - 1))];
+    }
+}
@@ -0,0 +1,227 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Order statistics tree of (completion time, user id) keys: a treap with subtree sizes,
+ * so insert, remove and "how many keys are before this one" cost O(log n).
+ * <p>
+ * Nodes live in primitive arrays (about 32 bytes per entry) rather than in objects,
+ * so tens of millions of entries don't cost an object each. Not thread-safe, {@link Leaderboard}
+ * guards every tree with its own lock.
+ */
+class RankTree {
+
+    // node 0 is the empty tree, its size is always 0
+    private static final int NIL = 0;
+
+    private long[] mTime;
+    private long[] mUser;
+    private int[] mLeft;
+    private int[] mRight;
+    private int[] mSize;
+    private int[] mPriority;
+
+    private int mRoot = NIL;
+    // first never used node
+    private int mNextNode = 1;
+    // freed nodes are chained through mLeft
+    private int mFreeNode = NIL;
+    private int mRandom = 0x2545F491;
+    private boolean mRemoved;
+
+    RankTree() {
+        this(16);
+    }
+
+    RankTree(int capacity) {
+        capacity = Math.max(capacity, 2);
+        mTime = new long[capacity];
+        mUser = new long[capacity];
+        mLeft = new int[capacity];
+        mRight = new int[capacity];
+        mSize = new int[capacity];
+        mPriority = new int[capacity];
+    }
+
+    int size() {
+        return mSize[mRoot];
+    }
+
+    void insert(long time, long user) {
+        int node = allocate();
+        mTime[node] = time;
+        mUser[node] = user;
+        mLeft[node] = NIL;
+        mRight[node] = NIL;
+        mSize[node] = 1;
+        mPriority[node] = nextPriority();
+        mRoot = insert(mRoot, node);
+    }
+
+    /**
+     * @return true, if the key was in the tree
+     */
+    boolean remove(long time, long user) {
+        mRemoved = false;
+        mRoot = remove(mRoot, time, user);
+        return mRemoved;
+    }
+
+    /**
+     * Number of keys before the given one, -1 if the key isn't in the tree.
+     */
+    int rankOf(long time, long user) {
+        int rank = 0;
+        int node = mRoot;
+        while (node != NIL) {
+            int c = compare(time, user, node);
+            if (c < 0) {
+                node = mLeft[node];
+            } else if (c > 0) {
+                rank += mSize[mLeft[node]] + 1;
+                node = mRight[node];
+            } else {
+                return rank + mSize[mLeft[node]];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Adding the first keys in order to the list, at most limit of them.
+     */
+    void collect(int score, int firstRank, int limit, List<LeaderboardEntry> out) {
+        int[] stack = new int[64];
+        int depth = 0;
+        int node = mRoot;
+        int rank = firstRank;
+        while ((node != NIL || depth > 0) && limit > 0) {
+            while (node != NIL) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = node;
+                node = mLeft[node];
+            }
+            node = stack[--depth];
+            out.add(new LeaderboardEntry(mUser[node], score, mTime[node], rank++));
+            limit--;
+            node = mRight[node];
+        }
+    }
+
+    private int insert(int tree, int node) {
+        if (tree == NIL) {
+            return node;
+        }
+        if (compare(mTime[node], mUser[node], tree) < 0) {
+            mLeft[tree] = insert(mLeft[tree], node);
+            if (mPriority[mLeft[tree]] > mPriority[tree]) {
+                tree = rotateRight(tree);
+            }
+        } else {
+            mRight[tree] = insert(mRight[tree], node);
+            if (mPriority[mRight[tree]] > mPriority[tree]) {
+                tree = rotateLeft(tree);
+            }
+        }
+        update(tree);
+        return tree;
+    }
+
+    private int remove(int tree, long time, long user) {
+        if (tree == NIL) {
+            return NIL;
+        }
+        int c = compare(time, user, tree);
+        if (c < 0) {
+            mLeft[tree] = remove(mLeft[tree], time, user);
+        } else if (c > 0) {
+            mRight[tree] = remove(mRight[tree], time, user);
+        } else {
+            int merged = merge(mLeft[tree], mRight[tree]);
+            free(tree);
+            mRemoved = true;
+            return merged;
+        }
+        update(tree);
+        return tree;
+    }
+
+    private int merge(int left, int right) {
+        if (left == NIL) {
+            return right;
+        }
+        if (right == NIL) {
+            return left;
+        }
+        if (mPriority[left] > mPriority[right]) {
+            mRight[left] = merge(mRight[left], right);
+            update(left);
+            return left;
+        }
+        mLeft[right] = merge(left, mLeft[right]);
+        update(right);
+        return right;
+    }
+
+    private int rotateRight(int tree) {
+        int left = mLeft[tree];
+        mLeft[tree] = mRight[left];
+        mRight[left] = tree;
+        update(tree);
+        return left;
+    }
+
+    private int rotateLeft(int tree) {
+        int right = mRight[tree];
+        mRight[tree] = mLeft[right];
+        mLeft[right] = tree;
+        update(tree);
+        return right;
+    }
+
+    private void update(int node) {
+        mSize[node] = mSize[mLeft[node]] + mSize[mRight[node]] + 1;
+    }
+
+    private int compare(long time, long user, int node) {
+        int c = Long.compare(time, mTime[node]);
+        return c != 0 ? c : Long.compare(user, mUser[node]);
+    }
+
+    private int allocate() {
+        if (mFreeNode != NIL) {
+            int node = mFreeNode;
+            mFreeNode = mLeft[node];
+            return node;
+        }
+        if (mNextNode == mTime.length) {
+            int capacity = mTime.length * 2;
+            mTime = Arrays.copyOf(mTime, capacity);
+            mUser = Arrays.copyOf(mUser, capacity);
+            mLeft = Arrays.copyOf(mLeft, capacity);
+            mRight = Arrays.copyOf(mRight, capacity);
+            mSize = Arrays.copyOf(mSize, capacity);
+            mPriority = Arrays.copyOf(mPriority, capacity);
+        }
+        return mNextNode++;
+    }
+
+    private void free(int node) {
+        mLeft[node] = mFreeNode;
+        mFreeNode = node;
+    }
+
+    // xorshift, good enough for the treap priorities
+    private int nextPriority() {
+        int x = mRandom;
+        x ^= x << 13;
+        x ^= x >>> 17;
+        x ^= x << 5;
+        mRandom = x;
+        return x;
+    }
+}
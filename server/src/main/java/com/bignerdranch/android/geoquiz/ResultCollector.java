@@ -0,0 +1,184 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Local stand-in for the collector of the quiz results: ingests the result batches from the devices
+ * ({@link ResultBatchCodec}) and keeps the aggregates of the results.
+ * <p>
+ * Batches come in either straight from {@link ResultExporter#deliver(ResultExporter.Sender)}
+ * (the collector is a sender), or as the outbox files copied from a device ({@link #ingestDirectory(File)}).
+ * The exporter delivers at least once, so the ids of the ingested batches are kept and a batch sent again
+ * is dropped.
+ */
+public class ResultCollector implements ResultExporter.Sender {
+
+    private final Set<String> mBatchIds = new HashSet<>();
+    private long mBatches;
+    private long mDuplicateBatches;
+    private long mBatchBytes;
+    private long mResults;
+    private long mQuestions;
+    private long mAnswers;
+    private long mCorrectAnswers;
+    private long mCheatedAnswers;
+    private long mAnswerMillis;
+    private final long[] mScores = new long[Leaderboard.MAX_SCORE + 1];
+
+    /**
+     * Ingesting the batch of results.
+     *
+     * @param batchId id of the batch given by {@link ResultExporter}
+     * @return number of the results in the batch, 0 if the batch was ingested before
+     * @throws IllegalArgumentException if the batch is malformed, nothing is ingested then
+     */
+    public synchronized int ingest(String batchId, byte[] batch) {
+        if (mBatchIds.contains(batchId)) {
+            mDuplicateBatches++;
+            return 0;
+        }
+        List<QuizResult> results = ResultBatchCodec.decode(batch);
+        mBatchIds.add(batchId);
+        mBatches++;
+        mBatchBytes += batch.length;
+        for (QuizResult result : results) {
+            mResults++;
+            mQuestions += result.getQuestionCount();
+            mAnswers += result.getAnswerCount();
+            for (int n = 0; n < result.getAnswerCount(); n++) {
+                int index = result.getAnsweredQuestion(n);
+                if (result.isCorrect(index)) {
+                    mCorrectAnswers++;
+                } else if (result.isCheated(index)) {
+                    mCheatedAnswers++;
+                }
+            }
+            if (result.getAnswerCount() > 0) {
+                mAnswerMillis += result.getAnswerTime(result.getAnswerCount() - 1) - result.getStartedAtMillis();
+            }
+            mScores[Math.min(Leaderboard.MAX_SCORE, Math.max(0, result.getScorePercent()))]++;
+        }
+        return results.size();
+    }
+
+    /**
+     * Delivery from {@link ResultExporter}: malformed batches are refused, so they stay in the outbox.
+     */
+    @Override
+    public void send(String batchId, byte[] batch) throws IOException {
+        try {
+            ingest(batchId, batch);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Malformed result batch", e);
+        }
+    }
+
+    /**
+     * Ingesting the batch files of the directory and deleting them, malformed batches are left in place.
+     *
+     * @return number of the ingested batches
+     */
+    public int ingestDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list " + directory);
+        }
+        Arrays.sort(files);
+        int ingested = 0;
+        for (File file : files) {
+            if (!file.getName().endsWith(".gqrb")) {
+                continue;
+            }
+            byte[] batch = new byte[(int) file.length()];
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                raf.readFully(batch);
+            } finally {
+                raf.close();
+            }
+            try {
+                ingest(ResultExporter.getBatchId(file), batch);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Skipping " + file + ": " + e.getMessage());
+                continue;
+            }
+            if (!file.delete()) {
+                throw new IOException("Failed to delete the ingested batch " + file);
+            }
+            ingested++;
+        }
+        return ingested;
+    }
+
+    public synchronized long getBatches() {
+        return mBatches;
+    }
+
+    /**
+     * Number of the batches dropped because they were ingested before.
+     */
+    public synchronized long getDuplicateBatches() {
+        return mDuplicateBatches;
+    }
+
+    public synchronized long getResults() {
+        return mResults;
+    }
+
+    public synchronized long getAnswers() {
+        return mAnswers;
+    }
+
+    public synchronized long getCorrectAnswers() {
+        return mCorrectAnswers;
+    }
+
+    public synchronized long getCheatedAnswers() {
+        return mCheatedAnswers;
+    }
+
+    /**
+     * Number of the results with the given score.
+     */
+    public synchronized long getScoreCount(int scorePercent) {
+        return mScores[scorePercent];
+    }
+
+    /**
+     * Average size of one result in the batches.
+     */
+    public synchronized double getBytesPerResult() {
+        return mResults == 0 ? 0 : (double) mBatchBytes / mResults;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long scoreSum = 0;
+        for (int score = 0; score <= Leaderboard.MAX_SCORE; score++) {
+            scoreSum += score * mScores[score];
+        }
+        return String.format(Locale.ENGLISH,
+                "%,d results in %,d batches (%.1f bytes/result): %,d of %,d questions answered, "
+                        + "%,d correct, %,d cheated, average score %.1f%%, average %.1f s per answer",
+                mResults, mBatches, getBytesPerResult(), mAnswers, mQuestions, mCorrectAnswers, mCheatedAnswers,
+                mResults == 0 ? 0 : (double) scoreSum / mResults, mAnswers == 0 ? 0 : mAnswerMillis / 1e3 / mAnswers);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: ResultCollector <directory of .gqrb batches>");
+            System.exit(2);
+        }
+        ResultCollector collector = new ResultCollector();
+        int ingested = collector.ingestDirectory(new File(args[0]));
+        System.out.println("ingested " + ingested + " batches");
+        System.out.println(collector);
+    }
+}
@@ -0,0 +1,39 @@
+package com.bignerdranch.android.geoquiz;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executors for the server mode.
+ */
+public final class ServerExecutors {
+
+    private ServerExecutors() {
+    }
+
+    /**
+     * Executor starting a virtual thread per task when the JVM has them (Java 21+),
+     * otherwise a fixed pool of platform threads, two per core.
+     */
+    public static ExecutorService newTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(2 * Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    /**
+     * @return true, if {@link #newTaskExecutor()} runs tasks on virtual threads
+     */
+    public static boolean hasVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.bignerdranch.android.geoquiz;
+
+/**
+ * Immutable snapshot of the results of a quiz session.
+ */
+public class SessionScore {
+
+    private final int mQuestionCount;
+    private final int mAnsweredCount;
+    private final int mCorrectAnswers;
+    private final int mCheatCount;
+    private final boolean mFinished;
+
+    public SessionScore(int questionCount, int answeredCount, int correctAnswers, int cheatCount, boolean finished) {
+        mQuestionCount = questionCount;
+        mAnsweredCount = answeredCount;
+        mCorrectAnswers = correctAnswers;
+        mCheatCount = cheatCount;
+        mFinished = finished;
+    }
+
+    public int getQuestionCount() {
+        return mQuestionCount;
+    }
+
+    public int getAnsweredCount() {
+        return mAnsweredCount;
+    }
+
+    public int getCorrectAnswers() {
+        return mCorrectAnswers;
+    }
+
+    public int getCheatCount() {
+        return mCheatCount;
+    }
+
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * Result of the quiz in % of correct answers, the same as shown by QuizActivity.
+     */
+    public int getScorePercent() {
+        return (int) ((double) mCorrectAnswers / mQuestionCount * 100);
+    }
+}
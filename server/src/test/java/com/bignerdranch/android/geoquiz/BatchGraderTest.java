@@ -0,0 +1,97 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the bit-parallel grader against grading question by question in QuizSession.
+ */
+public class BatchGraderTest {
+
+    private static PackedQuestionStore questions(int size, Random random) {
+        PackedQuestionStore questions = new PackedQuestionStore(size);
+        for (int i = 0; i < size; i++) {
+            questions.set(i, i, random.nextBoolean());
+        }
+        return questions;
+    }
+
+    private static AnswerSheet randomSheet(int size, Random random) {
+        AnswerSheet sheet = new AnswerSheet(size);
+        for (int i = 0; i < size; i++) {
+            int kind = random.nextInt(10);
+            if (kind == 0) {
+                continue; // unanswered
+            }
+            if (kind == 1) {
+                sheet.setCheated(i);
+            }
+            sheet.setAnswer(i, random.nextBoolean());
+        }
+        return sheet;
+    }
+
+    // the same sheet played through the quiz engine
+    private static int gradeInSession(QuestionStore questions, AnswerSheet sheet) {
+        QuizSession session = new QuizSession(questions);
+        for (int i = 0; i < questions.size(); i++) {
+            if (!bit(sheet.answeredWords(), i)) {
+                continue;
+            }
+            session.moveTo(i);
+            session.registerCheat(bit(sheet.cheatedWords(), i));
+            session.checkAnswer(bit(sheet.answerWords(), i));
+        }
+        return session.getCorrectAnswers();
+    }
+
+    private static boolean bit(long[] words, int index) {
+        return (words[index >>> 6] & (1L << index)) != 0;
+    }
+
+    @Test
+    public void grade_matchesQuizSession() {
+        Random random = new Random(10);
+        for (int size : new int[]{1, 6, 63, 64, 65, 1000}) {
+            PackedQuestionStore questions = questions(size, random);
+            BatchGrader grader = new BatchGrader(questions);
+            for (int i = 0; i < 20; i++) {
+                AnswerSheet sheet = randomSheet(size, random);
+                assertEquals(gradeInSession(questions, sheet), grader.grade(sheet));
+            }
+        }
+    }
+
+    @Test
+    public void cheatedAnswer_isNotCounted() {
+        PackedQuestionStore questions = new PackedQuestionStore(new Question(1, true), new Question(2, false));
+        AnswerSheet sheet = new AnswerSheet(2);
+        sheet.setAnswer(0, true);
+        sheet.setAnswer(1, false);
+        sheet.setCheated(1);
+
+        assertEquals(1, new BatchGrader(questions).grade(sheet));
+    }
+
+    @Test
+    public void gradeAll_matchesSequentialGrading() {
+        Random random = new Random(11);
+        PackedQuestionStore questions = questions(200, random);
+        AnswerSheet[] sheets = new AnswerSheet[20_000];
+        for (int i = 0; i < sheets.length; i++) {
+            sheets[i] = randomSheet(200, random);
+        }
+        BatchGrader grader = new BatchGrader(questions);
+
+        assertArrayEquals(grader.gradeAllSequential(sheets), grader.gradeAll(sheets));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void grade_rejectsSheetOfOtherQuiz() {
+        new BatchGrader(new PackedQuestionStore(10)).grade(new AnswerSheet(11));
+    }
+}
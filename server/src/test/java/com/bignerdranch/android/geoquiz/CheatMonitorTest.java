@@ -0,0 +1,180 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the cheat monitor: the sliding window, the restart loophole of the server sessions, the new sessions
+ * of one user and the accuracy of the sketch with many users.
+ */
+public class CheatMonitorTest {
+
+    private static final long MINUTE = 60 * 1000;
+
+    @Test
+    public void record_flagsCheatsOverTheLimitInTheWindow() {
+        CheatMonitor monitor = new CheatMonitor(10, 8 * MINUTE, 8, 6, 1 << 10);
+        long start = 1_000_000 * MINUTE;
+        for (int i = 0; i < 6; i++) {
+            assertTrue(monitor.isAllowed(7, start + i * MINUTE));
+            assertFalse(monitor.record(7, i, start + i * MINUTE));
+        }
+        assertFalse(monitor.isAllowed(7, start + 6 * MINUTE));
+        assertTrue(monitor.record(7, 6, start + 6 * MINUTE));
+        assertEquals(7, monitor.getUserCheats(7, start + 6 * MINUTE));
+        assertEquals(1, monitor.getFlaggedCheats());
+        assertEquals(7, monitor.getCheats());
+
+        // the window moves on by one minute: the first cheat drops out of it
+        assertEquals(6, monitor.getUserCheats(7, start + 8 * MINUTE));
+        assertEquals(0, monitor.getQuestionCheats(0, start + 8 * MINUTE));
+        assertEquals(1, monitor.getQuestionCheats(1, start + 8 * MINUTE));
+        // a quiet window later the user is clean
+        assertEquals(0, monitor.getUserCheats(7, start + 20 * MINUTE));
+        assertTrue(monitor.isAllowed(7, start + 20 * MINUTE));
+        assertFalse(monitor.record(7, 0, start + 20 * MINUTE));
+        assertEquals(1, monitor.getUserCheats(7, start + 20 * MINUTE));
+        // a cheat older than the window isn't counted
+        assertFalse(monitor.record(7, 0, start));
+        assertEquals(1, monitor.getUserCheats(7, start + 20 * MINUTE));
+    }
+
+    @Test
+    public void questionCheats_areExact() {
+        CheatMonitor monitor = new CheatMonitor(3, 8 * MINUTE, 8, 6, 1 << 4);
+        long now = 5000 * MINUTE;
+        for (long user = 0; user < 1000; user++) {
+            monitor.record(user, user % 3 == 0 ? 0 : 2, now + user);
+        }
+        assertEquals(334, monitor.getQuestionCheats(0, now + 1000));
+        assertEquals(0, monitor.getQuestionCheats(1, now + 1000));
+        assertEquals(666, monitor.getQuestionCheats(2, now + 1000));
+        try {
+            monitor.record(1, 3, now);
+            fail("Question index must be checked");
+        } catch (IndexOutOfBoundsException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void manager_closesTheRestartLoophole() {
+        PackedQuestionStore questions = new PackedQuestionStore(16);
+        for (int i = 0; i < 16; i++) {
+            questions.set(i, i, i % 2 == 0);
+        }
+        QuizSessionManager manager = new QuizSessionManager(questions);
+        long abuser = manager.createSession();
+        long other = manager.createSession();
+
+        // cheating up to the limit of the quiz, then restarting to get the cheats back
+        int limit = manager.getCheatMonitor().getLimit();
+        int cheats = 0;
+        while (cheats < limit) {
+            for (int i = 0; i < QuizSession.MAX_CHEAT_COUNT; i++) {
+                manager.cheat(abuser, i);
+                cheats++;
+            }
+            manager.restart(abuser);
+        }
+        try {
+            manager.cheat(abuser, 0);
+            fail("Cheating must be limited across the restarts");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(0, manager.getScore(abuser).getCheatCount());
+        assertTrue(manager.cheat(other, 0));
+        assertEquals(limit + 1, manager.getCheatMonitor().getCheats());
+        assertEquals(0, manager.getCheatMonitor().getFlaggedCheats());
+    }
+
+    @Test
+    public void manager_limitsTheUserAcrossNewSessions() {
+        PackedQuestionStore questions = new PackedQuestionStore(16);
+        for (int i = 0; i < 16; i++) {
+            questions.set(i, i, i % 2 == 0);
+        }
+        QuizApi api = new QuizApi(new QuizSessionManager(questions));
+        QuizSessionManager manager = api.getManager();
+        int limit = manager.getCheatMonitor().getLimit();
+
+        // a new session for every quiz instead of a restart
+        int cheats = 0;
+        while (cheats < limit) {
+            StringBuilder out = new StringBuilder();
+            assertEquals(QuizApi.OK, api.handle(new HttpRequest("POST", "/sessions", true, "{\"user\": 42}"), out));
+            long session = Long.parseLong(out.substring(out.indexOf(":") + 1, out.length() - 1));
+            for (int i = 0; i < QuizSession.MAX_CHEAT_COUNT; i++) {
+                manager.cheat(session, i);
+                cheats++;
+            }
+        }
+        long next = manager.createSession(42);
+        try {
+            manager.cheat(next, 0);
+            fail("Cheating must be limited across the sessions of the user");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        // other users and anonymous sessions have their own limits
+        assertTrue(manager.cheat(manager.createSession(43), 0));
+        assertTrue(manager.cheat(manager.createSession(), 0));
+        assertEquals(limit, manager.getCheatMonitor().getUserCheats(42, System.currentTimeMillis()));
+        assertEquals(QuizApi.BAD_REQUEST, api.handle(new HttpRequest("POST", "/sessions", true, "{\"user\":x}"),
+                new StringBuilder()));
+    }
+
+    /**
+     * Many users in one window: honest ones cheat a few times, 1% of them abuse the restarts.
+     * The estimate is never short of the real count, so every abuser is caught; collisions
+     * may only overcount, and the honest users flagged by them are rare.
+     */
+    @Test
+    public void sketch_catchesAbusersAmongManyUsers() {
+        int users = 100_000;
+        CheatMonitor monitor = new CheatMonitor(100, 8 * MINUTE, 8, 6, 1 << 18);
+        Random random = new Random(11);
+        int[] counts = new int[users];
+        long now = 7000 * MINUTE;
+        int total = 0;
+        for (int user = 0; user < users; user++) {
+            counts[user] = user % 100 == 0 ? 10 + random.nextInt(20) : 1 + random.nextInt(3);
+            total += counts[user];
+        }
+        // interleaved over 7 minutes, as they'd come
+        int[] left = counts.clone();
+        for (int cheat = 0; cheat < total; ) {
+            int user = random.nextInt(users);
+            if (left[user] > 0) {
+                monitor.record(user * 7919L, random.nextInt(100), now + (long) cheat * 7 * MINUTE / total);
+                left[user]--;
+                cheat++;
+            }
+        }
+
+        long end = now + 7 * MINUTE;
+        int falsePositives = 0;
+        long overcount = 0;
+        for (int user = 0; user < users; user++) {
+            int estimate = monitor.getUserCheats(user * 7919L, end);
+            assertTrue("Estimate " + estimate + " < " + counts[user], estimate >= counts[user]);
+            overcount += estimate - counts[user];
+            boolean abuser = counts[user] > monitor.getLimit();
+            if (abuser) {
+                assertFalse(monitor.isAllowed(user * 7919L, end));
+            } else if (estimate > monitor.getLimit()) {
+                falsePositives++;
+            }
+        }
+        assertEquals(total, monitor.getCheats());
+        assertTrue("False positives: " + falsePositives, falsePositives <= users / 1000);
+        assertTrue("Mean overcount: " + (double) overcount / users, overcount < users);
+    }
+}
@@ -0,0 +1,121 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the streaming calibration on simulated users with known abilities.
+ */
+public class DifficultyCalibratorTest {
+
+    @Test
+    public void difficulty_isShareOfWrongAnswers() {
+        DifficultyCalibrator calibrator = new DifficultyCalibrator(2);
+        calibrator.accept(AnswerEvents.pack(0, true, false, Double.NaN));
+        calibrator.accept(AnswerEvents.pack(0, false, false, Double.NaN));
+        calibrator.accept(AnswerEvents.pack(0, false, false, Double.NaN));
+        calibrator.accept(AnswerEvents.pack(0, false, false, Double.NaN));
+        // cheated answers aren't counted
+        calibrator.accept(AnswerEvents.pack(0, true, true, Double.NaN));
+
+        CalibrationSnapshot snapshot = calibrator.snapshot();
+
+        assertEquals(0.75, snapshot.getDifficulty(0), 1e-9);
+        assertEquals(4, snapshot.getAnswers(0));
+        assertEquals(1, snapshot.getCheats(0));
+        assertEquals(0.2, snapshot.getCheatRate(0), 1e-9);
+        assertTrue(Double.isNaN(snapshot.getDifficulty(1)));
+    }
+
+    @Test
+    public void discrimination_separatesGoodAndBadQuestions() {
+        DifficultyCalibrator calibrator = new DifficultyCalibrator(3);
+        Random random = new Random(12);
+        for (int user = 0; user < 20_000; user++) {
+            double ability = random.nextDouble();
+            // 0: strong users answer correctly, 1: a coin flip, 2: the key is wrong, weak users "guess right"
+            calibrator.accept(AnswerEvents.pack(0, random.nextDouble() < ability, false, ability));
+            calibrator.accept(AnswerEvents.pack(1, random.nextBoolean(), false, ability));
+            calibrator.accept(AnswerEvents.pack(2, random.nextDouble() > ability, false, ability));
+        }
+
+        CalibrationSnapshot snapshot = calibrator.snapshot();
+
+        assertTrue(snapshot.getDiscrimination(0) > 0.4);
+        assertEquals(0, snapshot.getDiscrimination(1), 0.05);
+        assertTrue(snapshot.getDiscrimination(2) < -0.4);
+        assertEquals(0.5, snapshot.getDifficulty(1), 0.02);
+    }
+
+    @Test
+    public void eventPacking_roundTrips() {
+        long event = AnswerEvents.pack(123_456_789, true, false, 0.25);
+
+        assertEquals(123_456_789, AnswerEvents.questionIndex(event));
+        assertTrue(AnswerEvents.isCorrect(event));
+        assertTrue(!AnswerEvents.isCheated(event));
+        assertTrue(AnswerEvents.hasAbility(event));
+        assertEquals(0.25, AnswerEvents.ability(event), 1e-4);
+        assertTrue(!AnswerEvents.hasAbility(AnswerEvents.of(0, QuizSession.Verdict.CORRECT, 0, 0)));
+    }
+
+    @Test
+    public void snapshot_isConsistentDuringIngestion() throws Exception {
+        final int questions = 3 * DifficultyCalibrator.BLOCK_SIZE + 5;
+        final DifficultyCalibrator calibrator = new DifficultyCalibrator(questions);
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Random random = new Random(13);
+                long[] batch = new long[1024];
+                while (!stop.get()) {
+                    for (int i = 0; i < batch.length; i++) {
+                        batch[i] = AnswerEvents.pack(random.nextInt(questions), true, false, 1.0);
+                    }
+                    calibrator.acceptAll(batch, 0, batch.length);
+                }
+            }
+        });
+        writer.start();
+
+        long previousTotal = 0;
+        for (int i = 0; i < 200; i++) {
+            CalibrationSnapshot snapshot = calibrator.snapshot();
+            long total = 0;
+            for (int q = 0; q < questions; q++) {
+                // every event makes all the sums of its question grow together
+                assertEquals(snapshot.mAnswers[q], snapshot.mCorrect[q]);
+                assertEquals(snapshot.mAnswers[q], snapshot.mRated[q]);
+                assertEquals(snapshot.mAnswers[q], snapshot.mAbilitySum[q], 1e-6);
+                total += snapshot.mAnswers[q];
+            }
+            assertTrue(total >= previousTotal);
+            previousTotal = total;
+        }
+        stop.set(true);
+        writer.join();
+    }
+
+    @Test
+    public void manager_feedsAnswerEvents() {
+        QuizSessionManager manager = new QuizSessionManager(
+                new PackedQuestionStore(new Question(1, true), new Question(2, false)));
+        long id = manager.createSession();
+        manager.answer(id, 0, true);
+        manager.cheat(id, 1);
+        manager.answer(id, 1, false);
+
+        CalibrationSnapshot snapshot = manager.getCalibrator().snapshot();
+
+        assertEquals(1, snapshot.getAnswers(0));
+        assertEquals(0, snapshot.getDifficulty(0), 1e-9);
+        assertEquals(0, snapshot.getAnswers(1));
+        assertEquals(1, snapshot.getCheats(1));
+    }
+}
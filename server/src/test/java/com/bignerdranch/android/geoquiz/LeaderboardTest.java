@@ -0,0 +1,162 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the leaderboard: ordering, best result per user, top-K and concurrent submits.
+ */
+public class LeaderboardTest {
+
+    @Test
+    public void rank_ordersByScoreThenTime() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.submit(1, 50, 1000);
+        leaderboard.submit(2, 100, 3000);
+        leaderboard.submit(3, 50, 500);
+        leaderboard.submit(4, 100, 2000);
+
+        assertEquals(1, leaderboard.getRank(4));
+        assertEquals(2, leaderboard.getRank(2));
+        assertEquals(3, leaderboard.getRank(3));
+        assertEquals(4, leaderboard.getRank(1));
+        assertEquals(-1, leaderboard.getRank(5));
+        assertNull(leaderboard.getEntry(5));
+    }
+
+    @Test
+    public void submit_keepsOnlyBestResult() {
+        Leaderboard leaderboard = new Leaderboard();
+        leaderboard.submit(1, 80, 1000);
+        leaderboard.submit(2, 90, 1000);
+
+        assertFalse(leaderboard.submit(1, 70, 500));
+        assertFalse(leaderboard.submit(1, 80, 2000));
+        assertEquals(2, leaderboard.getRank(1));
+
+        assertTrue(leaderboard.submit(1, 95, 3000));
+        assertEquals(1, leaderboard.getRank(1));
+        assertEquals(95, leaderboard.getEntry(1).getScorePercent());
+        assertEquals(2, leaderboard.size());
+    }
+
+    @Test
+    public void getTop_returnsBestFirst() {
+        Leaderboard leaderboard = new Leaderboard();
+        for (int user = 0; user < 1000; user++) {
+            leaderboard.submit(user, user % 101, 10_000 - user);
+        }
+
+        List<LeaderboardEntry> top = leaderboard.getTop(5);
+
+        assertEquals(5, top.size());
+        long[] users = new long[5];
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i + 1, top.get(i).getRank());
+            users[i] = top.get(i).getUserId();
+        }
+        // score 100 has users 100, 201... 908, the later user finished earlier
+        assertTrue(Arrays.equals(new long[]{908, 807, 706, 605, 504}, users));
+        assertEquals(1000, leaderboard.getTop(2000).size());
+    }
+
+    @Test
+    public void concurrentSubmits_matchSortedResults() throws Exception {
+        final Leaderboard leaderboard = new Leaderboard();
+        final int users = 50_000;
+        final long[][] submitted = new long[4][];
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int thread = t;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    // every thread submits results of all the users, only the best ones stay
+                    Random random = new Random(thread);
+                    long[] results = new long[users];
+                    for (int user = 0; user < users; user++) {
+                        int score = random.nextInt(101);
+                        long time = random.nextInt(1_000_000);
+                        results[user] = (long) score << 32 | time;
+                        leaderboard.submit(user, score, time);
+                    }
+                    submitted[thread] = results;
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        // expected order: best result of every user, by score descending, time and user ascending
+        long[][] best = new long[users][];
+        for (int user = 0; user < users; user++) {
+            long bestResult = -1;
+            for (long[] results : submitted) {
+                long result = results[user];
+                int score = (int) (result >>> 32);
+                long time = result & 0xffffffffL;
+                if (bestResult < 0 || score > (int) (bestResult >>> 32)
+                        || score == (int) (bestResult >>> 32) && time < (bestResult & 0xffffffffL)) {
+                    bestResult = result;
+                }
+            }
+            best[user] = new long[]{user, bestResult >>> 32, bestResult & 0xffffffffL};
+        }
+        Arrays.sort(best, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                return a[1] != b[1] ? Long.compare(b[1], a[1])
+                        : a[2] != b[2] ? Long.compare(a[2], b[2]) : Long.compare(a[0], b[0]);
+            }
+        });
+
+        assertEquals(users, leaderboard.size());
+        for (int rank = 1; rank <= users; rank += 97) {
+            long[] expected = best[rank - 1];
+            LeaderboardEntry entry = leaderboard.getEntry(expected[0]);
+            assertEquals(rank, entry.getRank());
+            assertEquals(expected[1], entry.getScorePercent());
+            assertEquals(expected[2], entry.getCompletionTime());
+        }
+        List<LeaderboardEntry> top = leaderboard.getTop(100);
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(best[i][0], top.get(i).getUserId());
+        }
+    }
+
+    @Test
+    public void finishedSession_isSubmitted() {
+        QuizSessionManager manager = new QuizSessionManager(
+                new PackedQuestionStore(new Question(1, true), new Question(2, false)));
+        long first = manager.createSession();
+        long second = manager.createSession();
+
+        manager.answer(first, 0, true);
+        assertEquals(-1, manager.getLeaderboard().getRank(first));
+        manager.answer(first, 1, true);
+        manager.answer(second, 0, true);
+        manager.answer(second, 1, false);
+
+        assertEquals(1, manager.getLeaderboard().getRank(second));
+        assertEquals(2, manager.getLeaderboard().getRank(first));
+        assertEquals(50, manager.getLeaderboard().getEntry(first).getScorePercent());
+    }
+}
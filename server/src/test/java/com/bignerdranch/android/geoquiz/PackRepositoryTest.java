@@ -0,0 +1,101 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for the local update server of the question packs, with the devices updating from it.
+ */
+public class PackRepositoryTest {
+
+    private static final int QUESTION_COUNT = 2000;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * Writing the version of the pack where the questions from the given one have the edited texts.
+     */
+    private static void writeVersion(File directory, long version, int editedFrom) throws IOException {
+        QuestionPackWriter writer = new QuestionPackWriter(new File(directory, version + ".gqpk"));
+        for (int i = 0; i < QUESTION_COUNT; i++) {
+            String edit = i >= editedFrom && i < editedFrom + 3 ? " (edited in version " + version + ")" : "";
+            writer.add("Question " + i + ": is " + (i * 7919 % 1000) + " the number of the river?" + edit, i % 2 == 0);
+        }
+        writer.close();
+    }
+
+    @Test
+    public void devices_updateToTheLatestVersion() throws IOException {
+        File server = mFolder.newFolder("server");
+        writeVersion(server, 1, QUESTION_COUNT);
+        writeVersion(server, 2, 100);
+        writeVersion(server, 3, 1500);
+        byte[] latest = Files.readAllBytes(new File(server, "3.gqpk").toPath());
+        PackRepository repository = new PackRepository(server);
+
+        PackUpdater fresh = new PackUpdater(mFolder.newFolder("fresh"));
+        PackUpdater.Report full = fresh.update(repository);
+        assertEquals(3, full.getToVersion());
+        assertArrayEquals(latest, Files.readAllBytes(fresh.getInstalledPack().toPath()));
+        assertNull(fresh.update(repository));
+
+        // devices with the first version share one delta
+        for (int device = 0; device < 3; device++) {
+            PackUpdater updater = new PackUpdater(mFolder.newFolder("device" + device));
+            byte[] first = Files.readAllBytes(new File(server, "1.gqpk").toPath());
+            updater.apply(PackDelta.create(null, null, PackManifest.of(1, first), first));
+
+            PackUpdater.Report report = updater.update(repository);
+            assertEquals(1, report.getFromVersion());
+            assertEquals(3, report.getToVersion());
+            assertTrue(report.toString(), report.getDeltaBytes() * 10 < full.getDeltaBytes());
+            assertArrayEquals(latest, Files.readAllBytes(updater.getInstalledPack().toPath()));
+        }
+        assertEquals(4, repository.getDeltasServed());
+    }
+
+    @Test
+    public void unknownInstalledVersion_getsTheWholePack() throws IOException {
+        File server = mFolder.newFolder("server");
+        writeVersion(server, 1, QUESTION_COUNT);
+        writeVersion(server, 2, 100);
+        PackRepository repository = new PackRepository(server);
+        PackUpdater updater = new PackUpdater(mFolder.newFolder("device"));
+        updater.update(repository);
+        assertEquals(2, updater.getInstalledVersion());
+
+        writeVersion(server, 4, 10);
+        assertTrue(new File(server, "2.gqpk").delete());
+        PackUpdater.Report report = updater.update(repository);
+        assertEquals(2, report.getFromVersion());
+        assertEquals(4, report.getToVersion());
+        assertEquals(0, report.getBytesCopied());
+        assertEquals(4, updater.getInstalledVersion());
+    }
+
+    @Test
+    public void unversionedPack_isReportedToTheCaller() throws IOException {
+        File server = mFolder.newFolder("server");
+        writeVersion(server, 1, QUESTION_COUNT);
+        assertTrue(new File(server, "latest.gqpk").createNewFile());
+        PackRepository repository = new PackRepository(server);
+        try {
+            repository.fetchDelta(0);
+            fail("Pack without a version must not be skipped silently");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("latest.gqpk"));
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the embedded HTTP server on localhost: API, keep-alive, pipelining and malformed requests.
+ */
+public class QuizHttpServerTest {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private QuizHttpServer mServer;
+    private SocketChannel mChannel;
+    private QuizHttpLoadGenerator.ResponseReader mReader;
+
+    @Before
+    public void setUp() throws Exception {
+        Question[] questions = {
+                new Question("Canberra is the capital of \"Australia\"", true),
+                new Question("The Pacific Ocean is the smallest one", false),
+                new Question("The Nile is in Asia", false),
+                new Question("The Amazon is in South America", true),
+        };
+        mServer = new QuizHttpServer(new QuizApi(new QuizSessionManager(new ArrayQuestionStore(questions))),
+                new InetSocketAddress("127.0.0.1", 0), 2);
+        mServer.start();
+        mChannel = SocketChannel.open(new InetSocketAddress("127.0.0.1", mServer.getPort()));
+        mReader = new QuizHttpLoadGenerator.ResponseReader(mChannel);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mChannel.close();
+        mServer.close();
+    }
+
+    private void send(String requests) throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(requests.getBytes(ASCII));
+        while (buffer.hasRemaining()) {
+            mChannel.write(buffer);
+        }
+    }
+
+    private static String post(String path, String body) {
+        return "POST " + path + " HTTP/1.1\r\nHost: quiz\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+    }
+
+    private static String get(String path) {
+        return "GET " + path + " HTTP/1.1\r\nHost: quiz\r\n\r\n";
+    }
+
+    @Test
+    public void questions_areServedWithoutAnswers() throws Exception {
+        send(get("/questions"));
+        assertEquals("{\"count\":4}", mReader.read());
+
+        send(get("/questions/0"));
+        assertEquals("{\"index\":0,\"textResId\":0,\"text\":\"Canberra is the capital of \\\"Australia\\\"\"}",
+                mReader.read());
+
+        send(get("/questions/4"));
+        mReader.read();
+        assertEquals(QuizApi.NOT_FOUND, mReader.mStatus);
+    }
+
+    @Test
+    public void pipelinedRequests_areAnsweredInOrderOnOneConnection() throws Exception {
+        send(post("/sessions", ""));
+        assertEquals("{\"session\":1}", mReader.read());
+
+        send(post("/sessions/1/questions/0/answer", "{\"answer\":true}")
+                + post("/sessions/1/questions/1/answer", "{\"answer\":true}")
+                + post("/sessions/1/questions/0/answer", "{\"answer\":true}")
+                + post("/sessions/1/questions/2/cheat", "")
+                + post("/sessions/1/questions/2/answer", "{\"answer\": false}")
+                + get("/sessions/1"));
+
+        assertEquals("{\"verdict\":\"CORRECT\"}", mReader.read());
+        assertEquals("{\"verdict\":\"INCORRECT\"}", mReader.read());
+        mReader.read();
+        assertEquals(QuizApi.CONFLICT, mReader.mStatus);
+        assertEquals("{\"answer\":false}", mReader.read());
+        assertEquals("{\"verdict\":\"CHEATED\"}", mReader.read());
+        assertEquals("{\"questions\":4,\"answered\":3,\"correct\":1,\"cheats\":1,\"finished\":false,\"score\":25}",
+                mReader.read());
+    }
+
+    @Test
+    public void requestSplitOverManyWrites_isParsed() throws Exception {
+        String request = post("/sessions", "");
+        for (int i = 0; i < request.length(); i++) {
+            send(request.substring(i, i + 1));
+            Thread.sleep(1);
+        }
+        assertEquals("{\"session\":1}", mReader.read());
+    }
+
+    @Test
+    public void errors_haveStatusCodes() throws Exception {
+        send(get("/sessions/42"));
+        mReader.read();
+        assertEquals(QuizApi.NOT_FOUND, mReader.mStatus);
+
+        send(get("/sessions"));
+        mReader.read();
+        assertEquals(QuizApi.METHOD_NOT_ALLOWED, mReader.mStatus);
+
+        send(post("/sessions", "") + post("/sessions/1/questions/0/answer", "{}"));
+        mReader.read();
+        mReader.read();
+        assertEquals(QuizApi.BAD_REQUEST, mReader.mStatus);
+    }
+
+    @Test
+    public void malformedRequest_closesConnection() throws Exception {
+        send("NONSENSE\r\n\r\n");
+        mReader.read();
+        assertEquals(QuizApi.BAD_REQUEST, mReader.mStatus);
+        try {
+            mReader.read();
+            fail("Connection must be closed");
+        } catch (EOFException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void failingHandler_closesOnlyItsConnection() throws Exception {
+        QuizApi api = new QuizApi(new QuizSessionManager(new ArrayQuestionStore(new Question[]{
+                new Question("The Nile is in Asia", false)}))) {
+            @Override
+            public int handle(HttpRequest request, StringBuilder out) {
+                if (request.getPath().equals("/fail")) {
+                    throw new NullPointerException("Bug in the handler");
+                }
+                return super.handle(request, out);
+            }
+        };
+        // one loop serves both connections
+        QuizHttpServer server = new QuizHttpServer(api, new InetSocketAddress("127.0.0.1", 0), 1);
+        server.start();
+        SocketChannel failing = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+        SocketChannel other = SocketChannel.open(new InetSocketAddress("127.0.0.1", server.getPort()));
+        try {
+            QuizHttpLoadGenerator.ResponseReader failingReader = new QuizHttpLoadGenerator.ResponseReader(failing);
+            failing.write(ByteBuffer.wrap((get("/fail") + get("/questions")).getBytes(ASCII)));
+            failingReader.read();
+            assertEquals(QuizApi.INTERNAL_SERVER_ERROR, failingReader.mStatus);
+            try {
+                failingReader.read();
+                fail("Connection must be closed");
+            } catch (EOFException expected) {
+                // expected
+            }
+
+            QuizHttpLoadGenerator.ResponseReader otherReader = new QuizHttpLoadGenerator.ResponseReader(other);
+            other.write(ByteBuffer.wrap(get("/questions").getBytes(ASCII)));
+            assertEquals("{\"count\":1}", otherReader.read());
+        } finally {
+            failing.close();
+            other.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void connectionClose_isHonored() throws Exception {
+        send("GET /questions HTTP/1.1\r\nConnection: close\r\n\r\n");
+        assertEquals("{\"count\":4}", mReader.read());
+        try {
+            mReader.read();
+            fail("Connection must be closed");
+        } catch (EOFException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void parse_leavesIncompleteRequestInBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(post("/sessions", "{}").getBytes(ASCII));
+        buffer.limit(buffer.limit() - 1);
+        assertNull(HttpRequest.parse(buffer));
+        assertEquals(0, buffer.position());
+
+        buffer.limit(buffer.capacity());
+        HttpRequest request = HttpRequest.parse(buffer);
+        assertEquals("POST", request.getMethod());
+        assertEquals("/sessions", request.getPath());
+        assertEquals("{}", request.getBody());
+        assertTrue(request.isKeepAlive());
+        assertEquals(buffer.limit(), buffer.position());
+    }
+
+    @Test
+    public void loadGenerator_getsNoErrors() throws Exception {
+        QuizHttpLoadGenerator generator = new QuizHttpLoadGenerator(
+                new InetSocketAddress("127.0.0.1", mServer.getPort()), 8, 8);
+
+        QuizHttpLoadGenerator.Result result = generator.run(300, TimeUnit.MILLISECONDS);
+
+        assertTrue(result.getRequests() > 0);
+        assertEquals(0, result.getErrors());
+        assertEquals(result.getRequests(), result.getLatency().getCount());
+    }
+}
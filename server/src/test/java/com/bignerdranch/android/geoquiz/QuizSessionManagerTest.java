@@ -0,0 +1,169 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests of the server mode: rules of the quiz and consistency under concurrent clients.
+ */
+public class QuizSessionManagerTest {
+
+    private static final int QUESTIONS = 16;
+
+    private static QuizSessionManager manager() {
+        PackedQuestionStore questions = new PackedQuestionStore(QUESTIONS);
+        for (int i = 0; i < QUESTIONS; i++) {
+            questions.set(i, i, i % 2 == 0);
+        }
+        return new QuizSessionManager(questions);
+    }
+
+    @Test
+    public void answer_judgesAndLocksQuestion() {
+        QuizSessionManager manager = manager();
+        long id = manager.createSession();
+
+        assertEquals(QuizSession.Verdict.CORRECT, manager.answer(id, 0, true));
+        assertEquals(QuizSession.Verdict.INCORRECT, manager.answer(id, 1, true));
+        try {
+            manager.answer(id, 0, true);
+            fail("Answered question must be locked");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        SessionScore score = manager.getScore(id);
+        assertEquals(2, score.getAnsweredCount());
+        assertEquals(1, score.getCorrectAnswers());
+        assertFalse(score.isFinished());
+    }
+
+    @Test
+    public void cheat_isLimitedAndNotCounted() {
+        QuizSessionManager manager = manager();
+        long id = manager.createSession();
+
+        for (int i = 0; i < QuizSession.MAX_CHEAT_COUNT; i++) {
+            boolean answer = manager.cheat(id, i);
+            assertEquals(QuizSession.Verdict.CHEATED, manager.answer(id, i, answer));
+        }
+        try {
+            manager.cheat(id, QuizSession.MAX_CHEAT_COUNT);
+            fail("Cheating must be limited");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+
+        SessionScore score = manager.getScore(id);
+        assertEquals(QuizSession.MAX_CHEAT_COUNT, score.getCheatCount());
+        assertEquals(0, score.getCorrectAnswers());
+    }
+
+    @Test
+    public void rejectedRequests_doNotMoveTheSession() {
+        QuizSessionManager manager = manager();
+        long id = manager.createSession();
+        manager.answer(id, 0, true);
+        for (int i = 1; i < QuizSession.MAX_CHEAT_COUNT; i++) {
+            manager.cheat(id, i);
+        }
+        manager.cheat(id, 5);
+        assertEquals(5, manager.session(id).getCurrentIndex());
+
+        try {
+            manager.answer(id, 0, true);
+            fail("Answered question must be locked");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        try {
+            manager.cheat(id, 6);
+            fail("Cheating must be limited");
+        } catch (IllegalStateException expected) {
+            // expected
+        }
+        assertEquals(5, manager.session(id).getCurrentIndex());
+        // the cheat is still on the question it was made on
+        assertEquals(QuizSession.Verdict.CHEATED, manager.answer(id, 5, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void closedSession_isUnknown() {
+        QuizSessionManager manager = manager();
+        long id = manager.createSession();
+        manager.closeSession(id);
+        manager.getScore(id);
+    }
+
+    @Test
+    public void concurrentClients_answerEveryQuestionExactlyOnce() throws Exception {
+        final QuizSessionManager manager = manager();
+        final long[] ids = new long[64];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = manager.createSession();
+        }
+
+        // every client tries to answer every question of every session, only one of them may succeed
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger correct = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < 8; c++) {
+            final boolean pressedTrue = c % 2 == 0;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int q = 0; q < QUESTIONS; q++) {
+                        for (long id : ids) {
+                            try {
+                                if (manager.answer(id, q, pressedTrue) == QuizSession.Verdict.CORRECT) {
+                                    correct.incrementAndGet();
+                                }
+                                accepted.incrementAndGet();
+                            } catch (IllegalStateException alreadyAnswered) {
+                                // another client was first
+                            }
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(ids.length * QUESTIONS, accepted.get());
+        int totalCorrect = 0;
+        for (long id : ids) {
+            SessionScore score = manager.getScore(id);
+            assertTrue(score.isFinished());
+            assertEquals(QUESTIONS, score.getAnsweredCount());
+            totalCorrect += score.getCorrectAnswers();
+        }
+        assertEquals(correct.get(), totalCorrect);
+    }
+
+    @Test
+    public void loadGenerator_reportsEveryAnswer() throws Exception {
+        QuizServerLoadGenerator generator = new QuizServerLoadGenerator(16, 100_000, 20);
+
+        QuizServerLoadGenerator.Result result = generator.run(1_000);
+
+        assertEquals(100_000, result.getLatency().getCount());
+        assertTrue(result.getAnswersPerSecond() > 0);
+    }
+}
@@ -0,0 +1,90 @@
+package com.bignerdranch.android.geoquiz;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the local collector of the result batches exported by the devices.
+ */
+public class ResultCollectorTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static QuizResult result(int scorePercent, QuizSession.Verdict... verdicts) {
+        QuizResult.Recorder recorder = new QuizResult.Recorder(verdicts.length, 1000);
+        for (int i = 0; i < verdicts.length; i++) {
+            recorder.recordAnswer(i, verdicts[i], 1000 + (i + 1) * 4000);
+        }
+        return recorder.snapshot(1000 + verdicts.length * 4000, scorePercent);
+    }
+
+    @Test
+    public void deliveredBatches_areAggregated() throws IOException {
+        ResultExporter exporter = new ResultExporter(mFolder.newFolder("device"), 2);
+        exporter.add(result(50, QuizSession.Verdict.CORRECT, QuizSession.Verdict.INCORRECT));
+        exporter.add(result(33, QuizSession.Verdict.CHEATED, QuizSession.Verdict.CORRECT, QuizSession.Verdict.INCORRECT));
+        exporter.add(result(100, QuizSession.Verdict.CORRECT));
+        exporter.flush();
+
+        ResultCollector collector = new ResultCollector();
+        assertEquals(2, exporter.deliver(collector));
+
+        assertEquals(2, collector.getBatches());
+        assertEquals(3, collector.getResults());
+        assertEquals(6, collector.getAnswers());
+        assertEquals(3, collector.getCorrectAnswers());
+        assertEquals(1, collector.getCheatedAnswers());
+        assertEquals(1, collector.getScoreCount(100));
+        assertTrue(collector.toString().contains("average 4.0 s per answer"));
+    }
+
+    @Test
+    public void batchSentAgain_isIngestedOnce() throws IOException {
+        File device = mFolder.newFolder("device");
+        ResultExporter exporter = new ResultExporter(device, 1);
+        exporter.add(result(100, QuizSession.Verdict.CORRECT));
+        File batch = exporter.getOutbox().get(0);
+        byte[] content = Files.readAllBytes(batch.toPath());
+
+        ResultCollector collector = new ResultCollector();
+        assertEquals(1, exporter.deliver(collector));
+        // the process died before the delivered batch was deleted
+        Files.write(batch.toPath(), content);
+        assertEquals(1, exporter.deliver(collector));
+
+        assertEquals(1, collector.getBatches());
+        assertEquals(1, collector.getResults());
+        assertEquals(1, collector.getDuplicateBatches());
+        assertTrue(exporter.getOutbox().isEmpty());
+    }
+
+    @Test
+    public void outboxCopy_isIngestedExceptMalformedBatches() throws IOException {
+        File device = mFolder.newFolder("device");
+        ResultExporter exporter = new ResultExporter(device, 1);
+        exporter.add(result(100, QuizSession.Verdict.CORRECT));
+        exporter.add(result(0, QuizSession.Verdict.INCORRECT));
+        File broken = new File(device, "9999999999999-0000.gqrb");
+        FileOutputStream out = new FileOutputStream(broken);
+        out.write(Arrays.copyOf(ResultBatchCodec.encode(Arrays.asList(result(0))), 15));
+        out.close();
+
+        ResultCollector collector = new ResultCollector();
+        assertEquals(2, collector.ingestDirectory(device));
+
+        assertEquals(2, collector.getResults());
+        assertTrue(broken.exists());
+        assertEquals(1, exporter.getOutbox().size());
+    }
+}